@@ -17,7 +17,10 @@
 
 package org.xipki.ca.api.profile;
 
+import java.io.IOException;
+
 import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Encoding;
 import org.xipki.common.util.ParamUtil;
 
 /**
@@ -32,6 +35,8 @@ public class ExtensionValue {
 
   private final ASN1Encodable value;
 
+  private volatile byte[] encodedValue;
+
   public ExtensionValue(boolean critical, ASN1Encodable value) {
     this.critical = critical;
     this.value = ParamUtil.requireNonNull("value", value);
@@ -45,4 +50,21 @@ public class ExtensionValue {
     return value;
   }
 
+  /**
+   * Returns the DER encoding of the value. The encoding is computed only once, so that
+   * extension values shared by all certificates of a profile are not encoded again for every
+   * certificate.
+   * @return the DER encoded value.
+   * @throws IOException
+   *           if the value could not be encoded.
+   */
+  public byte[] getEncodedValue() throws IOException {
+    byte[] encoded = encodedValue;
+    if (encoded == null) {
+      encoded = value.toASN1Primitive().getEncoded(ASN1Encoding.DER);
+      encodedValue = encoded;
+    }
+    return encoded;
+  }
+
 }
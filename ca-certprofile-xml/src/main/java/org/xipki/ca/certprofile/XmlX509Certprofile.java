@@ -576,8 +576,31 @@ public class XmlX509Certprofile extends BaseX509Certprofile {
     if (!extnIds.isEmpty()) {
       throw new CertprofileException("Cannot process the extensions: " + extnIds);
     }
+
+    // the constant extensions are encoded once here instead of for each certificate
+    preEncode(additionalInformation, authorizationTemplate, certificatePolicies,
+        inhibitAnyPolicy, nameConstraints, policyConstraints, policyMappings, qcStatments,
+        restriction, smimeCapabilities, tlsFeature, validityModel);
+    if (constantExtensions != null) {
+      preEncode(constantExtensions.values().toArray(new ExtensionValue[0]));
+    }
   } // method initialize0
 
+  private static void preEncode(ExtensionValue... values) throws CertprofileException {
+    for (ExtensionValue value : values) {
+      if (value == null) {
+        continue;
+      }
+
+      try {
+        value.getEncodedValue();
+      } catch (IOException ex) {
+        throw new CertprofileException("could not encode extension value: " + ex.getMessage(),
+            ex);
+      }
+    }
+  }
+
   /**
    * Process the extension.
    *
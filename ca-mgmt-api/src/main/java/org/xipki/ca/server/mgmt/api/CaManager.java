@@ -28,6 +28,7 @@ import java.util.Set;
 
 import org.bouncycastle.asn1.x500.X500Name;
 import org.xipki.ca.server.mgmt.api.conf.CaConf;
+import org.xipki.ca.server.mgmt.api.x509.CertSignatureVerificationStatistics;
 import org.xipki.ca.server.mgmt.api.x509.CertWithStatusInfo;
 import org.xipki.ca.server.mgmt.api.x509.ChangeScepEntry;
 import org.xipki.ca.server.mgmt.api.x509.ScepEntry;
@@ -155,6 +156,16 @@ public interface CaManager {
 
   Set<String> getInactiveCaNames();
 
+  /**
+   * Gets the counters of the verification of the signature of the certificates issued by
+   * the CA {@code caName}.
+   *
+   * @param caName
+   *          CA name. Must not be {@code null}.
+   * @return the counters, or {@code null} if the CA is not started.
+   */
+  CertSignatureVerificationStatistics getCertSignatureVerificationStatistics(String caName);
+
   /**
    * Adds a CA.
    * @param caEntry
@@ -0,0 +1,110 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.mgmt.api.x509;
+
+import org.xipki.common.ConfPairs;
+import org.xipki.common.util.ParamUtil;
+
+/**
+ * Control of the verification of the signature of the issued certificates.
+ * Example configuration
+ *<pre>
+ * verifyCertSignature.mode=&lt;always|sample|never&gt;, \
+ *   [verifyCertSignature.interval=&lt;n&gt;]
+ *</pre>
+ * where in mode sample the signature of every n-th certificate is verified. The mode never is
+ * only permitted for CAs with software keys.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class CertSignatureVerificationControl {
+
+  public enum Mode {
+
+    ALWAYS,
+    SAMPLE,
+    NEVER;
+
+    public static Mode forName(String name) {
+      ParamUtil.requireNonNull("name", name);
+      for (Mode mode : values()) {
+        if (mode.name().equalsIgnoreCase(name)) {
+          return mode;
+        }
+      }
+
+      throw new IllegalArgumentException("invalid Mode " + name);
+    }
+
+  } // class Mode
+
+  public static final String KEY_MODE = "verifyCertSignature.mode";
+
+  public static final String KEY_INTERVAL = "verifyCertSignature.interval";
+
+  public static final int DFLT_INTERVAL = 100;
+
+  private final Mode mode;
+
+  private final int interval;
+
+  public CertSignatureVerificationControl(Mode mode, int interval) {
+    this.mode = ParamUtil.requireNonNull("mode", mode);
+    this.interval = (mode == Mode.SAMPLE) ? ParamUtil.requireMin("interval", interval, 1) : 1;
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  public int getInterval() {
+    return interval;
+  }
+
+  /**
+   * Returns whether the signature of a certificate shall be verified.
+   *
+   * @param index
+   *          Index of the certificate among all certificates issued by the CA, starting
+   *          with 0.
+   * @return whether the signature shall be verified.
+   */
+  public boolean isVerificationRequired(long index) {
+    switch (mode) {
+      case NEVER:
+        return false;
+      case SAMPLE:
+        return index % interval == 0;
+      default:
+        return true;
+    }
+  }
+
+  @Override
+  public String toString() {
+    ConfPairs pairs = new ConfPairs();
+    pairs.putPair(KEY_MODE, mode.name().toLowerCase());
+    if (mode == Mode.SAMPLE) {
+      pairs.putPair(KEY_INTERVAL, Integer.toString(interval));
+    }
+    return pairs.getEncoded();
+  }
+
+}
@@ -0,0 +1,60 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.mgmt.api.x509;
+
+/**
+ * Counters of the verification of the signature of the issued certificates since the start
+ * of the CA.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class CertSignatureVerificationStatistics {
+
+  private final long numVerified;
+
+  private final long numSkipped;
+
+  private final long numFailed;
+
+  public CertSignatureVerificationStatistics(long numVerified, long numSkipped,
+      long numFailed) {
+    this.numVerified = numVerified;
+    this.numSkipped = numSkipped;
+    this.numFailed = numFailed;
+  }
+
+  public long getNumVerified() {
+    return numVerified;
+  }
+
+  public long getNumSkipped() {
+    return numSkipped;
+  }
+
+  public long getNumFailed() {
+    return numFailed;
+  }
+
+  @Override
+  public String toString() {
+    return "verified=" + numVerified + ", skipped=" + numSkipped + ", failed=" + numFailed;
+  }
+
+}
@@ -0,0 +1,108 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.mgmt.api.x509.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.ca.server.mgmt.api.x509.CertSignatureVerificationControl;
+import org.xipki.ca.server.mgmt.api.x509.CertSignatureVerificationControl.Mode;
+
+/**
+ * Tests of the sampling of {@link CertSignatureVerificationControl}.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class CertSignatureVerificationControlTest {
+
+  @Test
+  public void testAlways() {
+    CertSignatureVerificationControl control = new CertSignatureVerificationControl(
+        Mode.ALWAYS, 100);
+    Assert.assertEquals("interval", 1, control.getInterval());
+    Assert.assertEquals("verified", 1000, countVerified(control, 1000));
+  }
+
+  @Test
+  public void testNever() {
+    CertSignatureVerificationControl control = new CertSignatureVerificationControl(
+        Mode.NEVER, 100);
+    Assert.assertEquals("verified", 0, countVerified(control, 1000));
+  }
+
+  @Test
+  public void testSample() {
+    CertSignatureVerificationControl control = new CertSignatureVerificationControl(
+        Mode.SAMPLE, 100);
+    Assert.assertEquals("interval", 100, control.getInterval());
+    // the first certificate is always verified
+    Assert.assertTrue("index 0", control.isVerificationRequired(0));
+    Assert.assertFalse("index 1", control.isVerificationRequired(1));
+    Assert.assertFalse("index 99", control.isVerificationRequired(99));
+    Assert.assertTrue("index 100", control.isVerificationRequired(100));
+    Assert.assertEquals("verified", 10, countVerified(control, 1000));
+    Assert.assertEquals("verified", 11, countVerified(control, 1001));
+  }
+
+  @Test
+  public void testSampleWithIntervalOne() {
+    CertSignatureVerificationControl control = new CertSignatureVerificationControl(
+        Mode.SAMPLE, 1);
+    Assert.assertEquals("verified", 1000, countVerified(control, 1000));
+  }
+
+  @Test
+  public void testSampleLargeIndex() {
+    CertSignatureVerificationControl control = new CertSignatureVerificationControl(
+        Mode.SAMPLE, 7);
+    long index = 7L * Integer.MAX_VALUE;
+    Assert.assertTrue("index " + index, control.isVerificationRequired(index));
+    Assert.assertFalse("index " + (index + 1), control.isVerificationRequired(index + 1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSampleInvalidInterval() {
+    new CertSignatureVerificationControl(Mode.SAMPLE, 0);
+  }
+
+  @Test
+  public void testModeForName() {
+    Assert.assertEquals(Mode.SAMPLE, Mode.forName("sample"));
+    Assert.assertEquals(Mode.NEVER, Mode.forName("NEVER"));
+  }
+
+  @Test
+  public void testToString() {
+    Assert.assertEquals("verifyCertSignature.interval=10,verifyCertSignature.mode=sample",
+        new CertSignatureVerificationControl(Mode.SAMPLE, 10).toString());
+    Assert.assertEquals("verifyCertSignature.mode=always",
+        new CertSignatureVerificationControl(Mode.ALWAYS, 10).toString());
+  }
+
+  private static int countVerified(CertSignatureVerificationControl control, int num) {
+    int verified = 0;
+    for (long i = 0; i < num; i++) {
+      if (control.isVerificationRequired(i)) {
+        verified++;
+      }
+    }
+    return verified;
+  }
+
+}
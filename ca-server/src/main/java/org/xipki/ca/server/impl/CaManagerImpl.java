@@ -137,6 +137,9 @@ import org.xipki.ca.server.mgmt.api.conf.jaxb.ScepType;
 import org.xipki.ca.server.mgmt.api.conf.jaxb.StringsType;
 import org.xipki.ca.server.mgmt.api.conf.jaxb.UserType;
 import org.xipki.ca.server.mgmt.api.conf.jaxb.X509CaInfoType;
+import org.xipki.ca.server.mgmt.api.x509.CertSignatureVerificationControl;
+import org.xipki.ca.server.mgmt.api.x509.CertSignatureVerificationControl.Mode;
+import org.xipki.ca.server.mgmt.api.x509.CertSignatureVerificationStatistics;
 import org.xipki.ca.server.mgmt.api.x509.CertWithStatusInfo;
 import org.xipki.ca.server.mgmt.api.x509.ChangeScepEntry;
 import org.xipki.ca.server.mgmt.api.x509.RevokeSuspendedCertsControl;
@@ -285,6 +288,8 @@ public class CaManagerImpl implements CaManager, ResponderManager {
 
   private boolean masterMode;
 
+  private int issuanceParallelism = 1;
+
   private Map<String, DataSourceWrapper> datasources;
 
   private final Map<String, X509CaInfo> caInfos = new ConcurrentHashMap<>();
@@ -429,6 +434,14 @@ public class CaManagerImpl implements CaManager, ResponderManager {
     return masterMode;
   }
 
+  /**
+   * Returns the maximal number of certificates of one request issued in parallel.
+   * @return the parallelism, 1 for sequential issuance.
+   */
+  int getIssuanceParallelism() {
+    return issuanceParallelism;
+  }
+
   private void init() throws CaMgmtException {
     if (securityFactory == null) {
       throw new IllegalStateException("securityFactory is not set");
@@ -476,6 +489,25 @@ public class CaManagerImpl implements CaManager, ResponderManager {
       throw new CaMgmtException("ca.shardId is not in [0, 127]");
     }
 
+    issuanceParallelism = getIntProperty("ca.issuance.parallelism",
+        Math.min(8, Runtime.getRuntime().availableProcessors()), 1);
+    LOG.info("ca.issuance.parallelism: {}", issuanceParallelism);
+
+    boolean stripedSerial = Boolean.parseBoolean(
+        caConfProperties.getProperty("ca.serial.striped", "false").trim());
+    if (stripedSerial) {
+      boolean predictionResistant = Boolean.parseBoolean(
+          caConfProperties.getProperty("ca.serial.predictionResistance", "false").trim());
+      int reseedInterval = getIntProperty("ca.serial.reseedInterval",
+          RandomSerialNumberGenerator.DFLT_RESEED_INTERVAL, 0);
+      RandomSerialNumberGenerator.init(true, predictionResistant, reseedInterval);
+      LOG.info("ca.serial.striped: true, ca.serial.predictionResistance: {}, "
+          + "ca.serial.reseedInterval: {}", predictionResistant, reseedInterval);
+    } else {
+      RandomSerialNumberGenerator.init(false, false, 0);
+      LOG.info("ca.serial.striped: false");
+    }
+
     if (this.datasources == null) {
       this.datasources = new ConcurrentHashMap<>();
       for (Object objKey : caConfProperties.keySet()) {
@@ -535,12 +567,24 @@ public class CaManagerImpl implements CaManager, ResponderManager {
 
     UniqueIdGenerator idGen = new UniqueIdGenerator(epoch, shardId);
 
+    if (this.certstore != null) {
+      this.certstore.close();
+    }
+
     try {
       this.certstore = new CertificateStore(datasource, idGen);
     } catch (DataAccessException ex) {
       throw new CaMgmtException(ex.getMessage(), ex);
     }
 
+    if (masterMode) {
+      int batchSize = getIntProperty("ca.certstore.batchSize", 100, 1);
+      int batchDelay = getIntProperty("ca.certstore.batchDelay", 1, 0);
+      LOG.info("ca.certstore.batchSize: {}, ca.certstore.batchDelay: {} ms",
+          batchSize, batchDelay);
+      this.certstore.setBatchWriter(batchSize, batchDelay);
+    }
+
     initCaAliases();
     initCertprofiles();
     initPublishers();
@@ -552,6 +596,31 @@ public class CaManagerImpl implements CaManager, ResponderManager {
     initSceps();
   } // method init
 
+  private static boolean isSoftwareSignerType(String signerType) {
+    return "PKCS12".equalsIgnoreCase(signerType) || "JKS".equalsIgnoreCase(signerType)
+        || "JCEKS".equalsIgnoreCase(signerType);
+  }
+
+  private int getIntProperty(String key, int defaultValue, int minValue)
+      throws CaMgmtException {
+    String str = caConfProperties.getProperty(key);
+    if (StringUtil.isBlank(str)) {
+      return defaultValue;
+    }
+
+    int value;
+    try {
+      value = Integer.parseInt(str.trim());
+    } catch (NumberFormatException ex) {
+      throw new CaMgmtException(concat("invalid ", key, " '", str, "'"));
+    }
+
+    if (value < minValue) {
+      throw new CaMgmtException(concat(key, " is less than ", Integer.toString(minValue)));
+    }
+    return value;
+  }
+
   @Override
   public CaSystemStatus getCaSystemStatus() {
     if (caSystemSetuped) {
@@ -799,6 +868,29 @@ public class CaManagerImpl implements CaManager, ResponderManager {
       }
     }
 
+    CertSignatureVerificationControl verificationControl = null;
+    String verificationMode = (extraControl == null) ? null
+        : extraControl.value(CertSignatureVerificationControl.KEY_MODE);
+    if (verificationMode != null) {
+      try {
+        Mode mode = Mode.forName(verificationMode);
+        if (mode == Mode.NEVER && !isSoftwareSignerType(caEntry.getSignerType())) {
+          LOG.warn("CA {}: {}=never is only permitted for software keys, use always", caName,
+              CertSignatureVerificationControl.KEY_MODE);
+          mode = Mode.ALWAYS;
+        }
+
+        String str = extraControl.value(CertSignatureVerificationControl.KEY_INTERVAL);
+        int interval = (str == null) ? CertSignatureVerificationControl.DFLT_INTERVAL
+            : Integer.parseInt(str.trim());
+        verificationControl = new CertSignatureVerificationControl(mode, interval);
+      } catch (IllegalArgumentException ex) {
+        LogUtil.error(LOG, ex, concat("invalid verification control of CA ", caName,
+            ", verify all certificate signatures"));
+      }
+    }
+    caEntry.setCertSignatureVerificationControl(verificationControl);
+
     boolean signerRequired = caEntry.isSignerRequired();
 
     X509CrlSignerEntryWrapper crlSignerEntry = null;
@@ -858,6 +950,10 @@ public class CaManagerImpl implements CaManager, ResponderManager {
       }
     }
 
+    if (certstore != null) {
+      certstore.close();
+    }
+
     if (caLockedByMe) {
       try {
         unlockCa();
@@ -961,6 +1057,13 @@ public class CaManagerImpl implements CaManager, ResponderManager {
     return ret;
   }
 
+  @Override
+  public CertSignatureVerificationStatistics getCertSignatureVerificationStatistics(
+      String caName) {
+    X509Ca ca = x509cas.get(ParamUtil.requireNonBlank("caName", caName).toLowerCase());
+    return (ca == null) ? null : ca.getCertSignatureVerificationStatistics();
+  }
+
   private void initRequestors() throws CaMgmtException {
     if (requestorsInitialized) {
       return;
@@ -17,6 +17,7 @@
 
 package org.xipki.ca.server.impl;
 
+import java.io.IOException;
 import java.security.cert.X509Certificate;
 import java.util.Collections;
 import java.util.Date;
@@ -27,6 +28,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1EncodableVector;
@@ -38,10 +41,8 @@ import org.bouncycastle.asn1.x500.RDN;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x500.style.IETFUtils;
 import org.bouncycastle.asn1.x509.AccessDescription;
-import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
 import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
 import org.bouncycastle.asn1.x509.BasicConstraints;
-import org.bouncycastle.asn1.x509.CRLDistPoint;
 import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
 import org.bouncycastle.asn1.x509.Extension;
 import org.bouncycastle.asn1.x509.Extensions;
@@ -89,6 +90,24 @@ import org.xipki.security.util.X509Util;
 
 class IdentifiedX509Certprofile {
 
+  /**
+   * Extension values which depend only on the CA and the CRL signer.
+   */
+  private static final class CaExtensionValues {
+
+    private final PublicCaInfo publicCaInfo;
+
+    private final X509Certificate crlSignerCert;
+
+    private final Map<ASN1ObjectIdentifier, ExtensionValue> values = new HashMap<>();
+
+    CaExtensionValues(PublicCaInfo publicCaInfo, X509Certificate crlSignerCert) {
+      this.publicCaInfo = publicCaInfo;
+      this.crlSignerCert = crlSignerCert;
+    }
+
+  } // class CaExtensionValues
+
   private static final Set<ASN1ObjectIdentifier> CRITICAL_ONLY_EXTENSION_TYPES;
 
   private static final Set<ASN1ObjectIdentifier> CA_CRITICAL_ONLY_EXTENSION_TYPES;
@@ -152,6 +171,21 @@ class IdentifiedX509Certprofile {
   private final CertprofileEntry dbEntry;
   private final X509Certprofile certprofile;
 
+  /*
+   * The extension values below do not vary per request, they are created and encoded only once.
+   * The ones not depending on the CA are created in the constructor, and are null if the
+   * extension is not configured or not required.
+   */
+
+  private final ConcurrentMap<X500Name, CaExtensionValues> caExtensionValuesMap =
+      new ConcurrentHashMap<>();
+
+  private final ExtensionValue basicConstraints;
+
+  private final ExtensionValue requiredKeyUsage;
+
+  private final ExtensionValue requiredExtKeyUsage;
+
   IdentifiedX509Certprofile(CertprofileEntry dbEntry, X509Certprofile certProfile)
       throws CertprofileException {
     this.dbEntry = ParamUtil.requireNonNull("entry", dbEntry);
@@ -179,8 +213,49 @@ class IdentifiedX509Certprofile {
       }
     }
 
+    Map<ASN1ObjectIdentifier, ExtensionControl> controls = certprofile.getExtensionControls();
+    ExtensionControl extControl = controls.get(Extension.basicConstraints);
+    if (extControl == null) {
+      this.basicConstraints = null;
+    } else {
+      BasicConstraints value = CaUtil.createBasicConstraints(certprofile.getCertLevel(),
+          certprofile.getPathLenBasicConstraint());
+      this.basicConstraints = preEncode(new ExtensionValue(extControl.isCritical(), value));
+    }
+
+    extControl = controls.get(Extension.keyUsage);
+    this.requiredKeyUsage = (extControl == null || !hasRequiredKeyUsage()) ? null
+        : preEncode(createKeyUsage(null, extControl));
+
+    extControl = controls.get(Extension.extendedKeyUsage);
+    this.requiredExtKeyUsage = (extControl == null || !hasRequiredExtKeyUsage()) ? null
+        : preEncode(createExtKeyUsage(null, extControl));
   } // constructor
 
+  private boolean hasRequiredKeyUsage() {
+    Set<KeyUsageControl> usageOccs = certprofile.getKeyUsage();
+    if (usageOccs != null) {
+      for (KeyUsageControl k : usageOccs) {
+        if (k.isRequired()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private boolean hasRequiredExtKeyUsage() {
+    Set<ExtKeyUsageControl> usageOccs = certprofile.getExtendedKeyUsages();
+    if (usageOccs != null) {
+      for (ExtKeyUsageControl k : usageOccs) {
+        if (k.isRequired()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   public NameId getIdent() {
     return dbEntry.getIdent();
   }
@@ -302,23 +377,11 @@ class IdentifiedX509Certprofile {
       addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
     }
 
-    // Authority key identifier
+    // AuthorityKeyIdentifier
     extType = Extension.authorityKeyIdentifier;
     extControl = controls.remove(extType);
     if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-      byte[] ikiValue = publicCaInfo.getSubjectKeyIdentifer();
-      AuthorityKeyIdentifier value = null;
-      if (ikiValue != null) {
-        if (certprofile.includesIssuerAndSerialInAki()) {
-          GeneralNames x509CaSubject = new GeneralNames(
-              new GeneralName(publicCaInfo.getX500Subject()));
-          value = new AuthorityKeyIdentifier(ikiValue, x509CaSubject,
-              publicCaInfo.getSerialNumber());
-        } else {
-          value = new AuthorityKeyIdentifier(ikiValue);
-        }
-      }
-
+      ExtensionValue value = getCaExtensionValues(publicCaInfo, crlSignerCert).get(extType);
       addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
     }
 
@@ -326,58 +389,19 @@ class IdentifiedX509Certprofile {
     extType = Extension.issuerAlternativeName;
     extControl = controls.remove(extType);
     if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-      GeneralNames value = publicCaInfo.getSubjectAltName();
+      ExtensionValue value = getCaExtensionValues(publicCaInfo, crlSignerCert).get(extType);
       addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
     }
 
-    // AuthorityInfoAccess
-    extType = Extension.authorityInfoAccess;
-    extControl = controls.remove(extType);
-    if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-      AuthorityInfoAccessControl aiaControl = certprofile.getAiaControl();
-
-      List<String> caIssuers = null;
-      if (aiaControl == null || aiaControl.isIncludesCaIssuers()) {
-        caIssuers = publicCaInfo.getCaCertUris();
-      }
-
-      List<String> ocspUris = null;
-      if (aiaControl == null || aiaControl.isIncludesOcsp()) {
-        ocspUris = publicCaInfo.getOcspUris();
-      }
-
-      if (CollectionUtil.isNonEmpty(caIssuers) || CollectionUtil.isNonEmpty(ocspUris)) {
-        AuthorityInformationAccess value = CaUtil.createAuthorityInformationAccess(
-            caIssuers, ocspUris);
-        addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
-      }
-    }
-
-    if (controls.containsKey(Extension.cRLDistributionPoints)
-        || controls.containsKey(Extension.freshestCRL)) {
-      X500Name crlSignerSubject = (crlSignerCert == null) ? null
-          : X500Name.getInstance(crlSignerCert.getSubjectX500Principal().getEncoded());
-      X500Name x500CaPrincipal = publicCaInfo.getX500Subject();
-
-      // CRLDistributionPoints
-      extType = Extension.cRLDistributionPoints;
-      extControl = controls.remove(extType);
-      if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-        if (CollectionUtil.isNonEmpty(publicCaInfo.getCrlUris())) {
-          CRLDistPoint value = CaUtil.createCrlDistributionPoints(
-              publicCaInfo.getCrlUris(), x500CaPrincipal, crlSignerSubject);
-          addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
-        }
-      }
-
-      // FreshestCRL
-      extType = Extension.freshestCRL;
-      extControl = controls.remove(extType);
-      if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-        if (CollectionUtil.isNonEmpty(publicCaInfo.getDeltaCrlUris())) {
-          CRLDistPoint value = CaUtil.createCrlDistributionPoints(
-              publicCaInfo.getDeltaCrlUris(), x500CaPrincipal, crlSignerSubject);
-          addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
+    // AuthorityInfoAccess, CRLDistributionPoints, FreshestCRL: omitted if no URIs configured
+    ASN1ObjectIdentifier[] uriExtTypes = {Extension.authorityInfoAccess,
+        Extension.cRLDistributionPoints, Extension.freshestCRL};
+    for (ASN1ObjectIdentifier uriExtType : uriExtTypes) {
+      extControl = controls.remove(uriExtType);
+      if (extControl != null && addMe(uriExtType, extControl, neededExtTypes, wantedExtTypes)) {
+        ExtensionValue value = getCaExtensionValues(publicCaInfo, crlSignerCert).get(uriExtType);
+        if (value != null) {
+          addExtension(values, uriExtType, value, extControl, neededExtTypes, wantedExtTypes);
         }
       }
     }
@@ -386,57 +410,38 @@ class IdentifiedX509Certprofile {
     extType = Extension.basicConstraints;
     extControl = controls.remove(extType);
     if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-      BasicConstraints value = CaUtil.createBasicConstraints(certprofile.getCertLevel(),
-          certprofile.getPathLenBasicConstraint());
-      addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
+      addExtension(values, extType, basicConstraints, extControl, neededExtTypes,
+          wantedExtTypes);
     }
 
     // KeyUsage
     extType = Extension.keyUsage;
     extControl = controls.remove(extType);
     if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-      Set<KeyUsage> usages = new HashSet<>();
-      Set<KeyUsageControl> usageOccs = certprofile.getKeyUsage();
-      for (KeyUsageControl k : usageOccs) {
-        if (k.isRequired()) {
-          usages.add(k.getKeyUsage());
-        }
-      }
-
       // the optional KeyUsage will only be set if requested explicitly
       if (requestedExtensions != null && extControl.isRequest()) {
-        addRequestedKeyusage(usages, requestedExtensions, usageOccs);
+        ExtensionValue value = createKeyUsage(requestedExtensions, extControl);
+        addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
+      } else {
+        ExtensionValue value = (requiredKeyUsage != null) ? requiredKeyUsage
+            : createKeyUsage(null, extControl);
+        addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
       }
-
-      org.bouncycastle.asn1.x509.KeyUsage value = X509Util.createKeyUsage(usages);
-      addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
     }
 
     // ExtendedKeyUsage
     extType = Extension.extendedKeyUsage;
     extControl = controls.remove(extType);
     if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-      List<ASN1ObjectIdentifier> usages = new LinkedList<>();
-      Set<ExtKeyUsageControl> usageOccs = certprofile.getExtendedKeyUsages();
-      for (ExtKeyUsageControl k : usageOccs) {
-        if (k.isRequired()) {
-          usages.add(k.getExtKeyUsage());
-        }
-      }
-
       // the optional ExtKeyUsage will only be set if requested explicitly
       if (requestedExtensions != null && extControl.isRequest()) {
-        addRequestedExtKeyusage(usages, requestedExtensions, usageOccs);
-      }
-
-      if (extControl.isCritical()
-          && usages.contains(ObjectIdentifiers.id_anyExtendedKeyUsage)) {
-        extControl = new ExtensionControl(false, extControl.isRequired(),
-            extControl.isRequest());
+        ExtensionValue value = createExtKeyUsage(requestedExtensions, extControl);
+        addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
+      } else {
+        ExtensionValue value = (requiredExtKeyUsage != null) ? requiredExtKeyUsage
+            : createExtKeyUsage(null, extControl);
+        addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
       }
-
-      ExtendedKeyUsage value = X509Util.createExtendedUsage(usages);
-      addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
     }
 
     // ocsp-nocheck
@@ -529,6 +534,138 @@ class IdentifiedX509Certprofile {
     return values;
   } // method getExtensions
 
+  private ExtensionValue createKeyUsage(Extensions requestedExtensions,
+      ExtensionControl extControl) {
+    Set<KeyUsage> usages = new HashSet<>();
+    Set<KeyUsageControl> usageOccs = certprofile.getKeyUsage();
+    for (KeyUsageControl k : usageOccs) {
+      if (k.isRequired()) {
+        usages.add(k.getKeyUsage());
+      }
+    }
+
+    if (requestedExtensions != null) {
+      addRequestedKeyusage(usages, requestedExtensions, usageOccs);
+    }
+
+    return new ExtensionValue(extControl.isCritical(), X509Util.createKeyUsage(usages));
+  } // method createKeyUsage
+
+  private ExtensionValue createExtKeyUsage(Extensions requestedExtensions,
+      ExtensionControl extControl) {
+    List<ASN1ObjectIdentifier> usages = new LinkedList<>();
+    Set<ExtKeyUsageControl> usageOccs = certprofile.getExtendedKeyUsages();
+    for (ExtKeyUsageControl k : usageOccs) {
+      if (k.isRequired()) {
+        usages.add(k.getExtKeyUsage());
+      }
+    }
+
+    if (requestedExtensions != null) {
+      addRequestedExtKeyusage(usages, requestedExtensions, usageOccs);
+    }
+
+    boolean critical = extControl.isCritical()
+        && !usages.contains(ObjectIdentifiers.id_anyExtendedKeyUsage);
+    ExtendedKeyUsage value = X509Util.createExtendedUsage(usages);
+    return new ExtensionValue(critical, value);
+  } // method createExtKeyUsage
+
+  private Map<ASN1ObjectIdentifier, ExtensionValue> getCaExtensionValues(
+      PublicCaInfo publicCaInfo, X509Certificate crlSignerCert) throws CertprofileException {
+    X500Name caSubject = publicCaInfo.getX500Subject();
+    CaExtensionValues caValues = caExtensionValuesMap.get(caSubject);
+    if (caValues != null && caValues.publicCaInfo == publicCaInfo
+        && caValues.crlSignerCert == crlSignerCert) {
+      return caValues.values;
+    }
+
+    caValues = new CaExtensionValues(publicCaInfo, crlSignerCert);
+    Map<ASN1ObjectIdentifier, ExtensionControl> controls = certprofile.getExtensionControls();
+
+    // AuthorityKeyIdentifier
+    ASN1ObjectIdentifier extType = Extension.authorityKeyIdentifier;
+    ExtensionControl extControl = controls.get(extType);
+    byte[] ikiValue = publicCaInfo.getSubjectKeyIdentifer();
+    if (extControl != null && ikiValue != null) {
+      AuthorityKeyIdentifier value;
+      if (certprofile.includesIssuerAndSerialInAki()) {
+        GeneralNames x509CaSubject = new GeneralNames(new GeneralName(caSubject));
+        value = new AuthorityKeyIdentifier(ikiValue, x509CaSubject,
+            publicCaInfo.getSerialNumber());
+      } else {
+        value = new AuthorityKeyIdentifier(ikiValue);
+      }
+      putCaExtensionValue(caValues, extType, extControl, value);
+    }
+
+    // IssuerAltName
+    extType = Extension.issuerAlternativeName;
+    extControl = controls.get(extType);
+    if (extControl != null && publicCaInfo.getSubjectAltName() != null) {
+      putCaExtensionValue(caValues, extType, extControl, publicCaInfo.getSubjectAltName());
+    }
+
+    // AuthorityInfoAccess
+    extType = Extension.authorityInfoAccess;
+    extControl = controls.get(extType);
+    if (extControl != null) {
+      AuthorityInfoAccessControl aiaControl = certprofile.getAiaControl();
+
+      List<String> caIssuers = null;
+      if (aiaControl == null || aiaControl.isIncludesCaIssuers()) {
+        caIssuers = publicCaInfo.getCaCertUris();
+      }
+
+      List<String> ocspUris = null;
+      if (aiaControl == null || aiaControl.isIncludesOcsp()) {
+        ocspUris = publicCaInfo.getOcspUris();
+      }
+
+      if (CollectionUtil.isNonEmpty(caIssuers) || CollectionUtil.isNonEmpty(ocspUris)) {
+        putCaExtensionValue(caValues, extType, extControl,
+            CaUtil.createAuthorityInformationAccess(caIssuers, ocspUris));
+      }
+    }
+
+    X500Name crlSignerSubject = (crlSignerCert == null) ? null
+        : X500Name.getInstance(crlSignerCert.getSubjectX500Principal().getEncoded());
+
+    // CRLDistributionPoints
+    extType = Extension.cRLDistributionPoints;
+    extControl = controls.get(extType);
+    if (extControl != null && CollectionUtil.isNonEmpty(publicCaInfo.getCrlUris())) {
+      putCaExtensionValue(caValues, extType, extControl, CaUtil.createCrlDistributionPoints(
+          publicCaInfo.getCrlUris(), caSubject, crlSignerSubject));
+    }
+
+    // FreshestCRL
+    extType = Extension.freshestCRL;
+    extControl = controls.get(extType);
+    if (extControl != null && CollectionUtil.isNonEmpty(publicCaInfo.getDeltaCrlUris())) {
+      putCaExtensionValue(caValues, extType, extControl, CaUtil.createCrlDistributionPoints(
+          publicCaInfo.getDeltaCrlUris(), caSubject, crlSignerSubject));
+    }
+
+    caExtensionValuesMap.put(caSubject, caValues);
+    return caValues.values;
+  } // method getCaExtensionValues
+
+  private static void putCaExtensionValue(CaExtensionValues caValues,
+      ASN1ObjectIdentifier extType, ExtensionControl extControl, ASN1Encodable value)
+      throws CertprofileException {
+    caValues.values.put(extType, preEncode(new ExtensionValue(extControl.isCritical(), value)));
+  }
+
+  private static ExtensionValue preEncode(ExtensionValue value) throws CertprofileException {
+    try {
+      value.getEncodedValue();
+    } catch (IOException ex) {
+      throw new CertprofileException("could not encode extension value: " + ex.getMessage(), ex);
+    }
+    return value;
+  }
+
   public X509CertLevel getCertLevel() {
     return certprofile.getCertLevel();
   }
@@ -18,16 +18,54 @@
 package org.xipki.ca.server.impl;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.prng.EntropySource;
+import org.bouncycastle.crypto.prng.SP800SecureRandom;
+import org.bouncycastle.crypto.prng.SP800SecureRandomBuilder;
+import org.xipki.common.util.ParamUtil;
+
 /**
- * TODO.
+ * Generator of random serial numbers. By default one {@link SecureRandom} is shared by all
+ * threads.
+ *
+ * <p>Optionally the threads are distributed over several independent stripes, each with its own
+ * SHA-256 Hash_DRBG (NIST SP 800-90A), to avoid the contention on the shared
+ * {@link SecureRandom}. Each DRBG takes its entropy from its own SHA1PRNG, which is seeded with
+ * the non-blocking {@link SecureRandom#nextBytes(byte[])} of the JVM. Fresh entropy of the JVM is
+ * mixed in and the DRBG is reseeded after {@code reseedInterval} serial numbers. With prediction
+ * resistance, the DRBG is reseeded before each serial number with fresh entropy of the JVM
+ * ({@link SecureRandom#generateSeed(int)} of the shared {@link SecureRandom}), which brings back
+ * the contention on the shared {@link SecureRandom}.
+ *
  * @author Lijun Liao
  * @since 2.0.0
  */
 
 class RandomSerialNumberGenerator {
 
+  private static final class Stripe {
+
+    private final SecureRandom entropy;
+
+    private final SP800SecureRandom random;
+
+    private int numSinceReseed;
+
+    Stripe(SecureRandom entropy, SP800SecureRandom random) {
+      this.entropy = entropy;
+      this.random = random;
+    }
+
+  } // class Stripe
+
+  static final int DFLT_RESEED_INTERVAL = 100000;
+
+  private static final int SEED_LEN = 32;
+
   private static int MASK_1 = 1;
   private static int MASK_2 = 3;
   private static int MASK_3 = 7;
@@ -40,13 +78,110 @@ class RandomSerialNumberGenerator {
 
   private final SecureRandom random;
 
-  private RandomSerialNumberGenerator() {
+  private final Stripe[] stripes;
+
+  private final int stripeMask;
+
+  private final int reseedInterval;
+
+  /**
+   * Creates the generator with one shared {@link SecureRandom}.
+   */
+  RandomSerialNumberGenerator() {
     this.random = new SecureRandom();
+    this.stripes = null;
+    this.stripeMask = 0;
+    this.reseedInterval = 0;
+  }
+
+  /**
+   * Creates the generator with striped DRBGs.
+   * @param predictionResistant whether the DRBGs are reseeded before each serial number.
+   * @param reseedInterval number of serial numbers after which fresh entropy is mixed in and a
+   *          DRBG is reseeded, 0 to reseed only as required by SP 800-90A.
+   */
+  RandomSerialNumberGenerator(boolean predictionResistant, int reseedInterval) {
+    this.random = new SecureRandom();
+    this.reseedInterval = ParamUtil.requireMin("reseedInterval", reseedInterval, 0);
+
+    // power of 2, at least twice the number of processors
+    int numStripes = Integer.highestOneBit(2 * Runtime.getRuntime().availableProcessors() - 1) << 1;
+    this.stripes = new Stripe[numStripes];
+    this.stripeMask = numStripes - 1;
+
+    for (int i = 0; i < numStripes; i++) {
+      final SecureRandom entropy = newEntropy(random);
+      byte[] nonce = new byte[16];
+      random.nextBytes(nonce);
+      byte[] personalization = ByteBuffer.allocate(12).putInt(i).putLong(System.nanoTime())
+          .array();
+
+      SP800SecureRandom drbg = new SP800SecureRandomBuilder(bitsRequired ->
+          new EntropySource() {
+            @Override
+            public boolean isPredictionResistant() {
+              return predictionResistant;
+            }
+
+            @Override
+            public byte[] getEntropy() {
+              int len = (bitsRequired + 7) / 8;
+              if (predictionResistant) {
+                // the SHA1PRNG is deterministic between the reseeds
+                return random.generateSeed(len);
+              }
+
+              byte[] bytes = new byte[len];
+              entropy.nextBytes(bytes);
+              return bytes;
+            }
+
+            @Override
+            public int entropySize() {
+              return bitsRequired;
+            }
+          })
+        .setPersonalizationString(personalization)
+        .buildHash(new SHA256Digest(), nonce, predictionResistant);
+      stripes[i] = new Stripe(entropy, drbg);
+    }
+  } // constructor
+
+  private static SecureRandom newEntropy(SecureRandom seedSource) {
+    SecureRandom entropy;
+    try {
+      entropy = SecureRandom.getInstance("SHA1PRNG");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("SHA1PRNG is not supported", ex);
+    }
+
+    // seeded before the first use, hence does not seed itself from the blocking SeedGenerator
+    byte[] seed = new byte[SEED_LEN];
+    seedSource.nextBytes(seed);
+    entropy.setSeed(seed);
+    return entropy;
   }
 
   public BigInteger nextSerialNumber(int bitLen) {
     byte[] rdnBytes = new byte[(bitLen + 7) / 8];
-    random.nextBytes(rdnBytes);
+
+    if (stripes == null) {
+      random.nextBytes(rdnBytes);
+    } else {
+      // thread IDs are assigned sequentially, hence the threads are evenly distributed
+      Stripe stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+      synchronized (stripe) {
+        if (reseedInterval > 0 && ++stripe.numSinceReseed > reseedInterval) {
+          byte[] seed = new byte[SEED_LEN];
+          random.nextBytes(seed);
+          stripe.entropy.setSeed(seed);
+          stripe.random.reseed(null);
+          stripe.numSinceReseed = 1;
+        }
+        stripe.random.nextBytes(rdnBytes);
+      }
+    }
+
     int ci = bitLen % 8;
 
     switch (ci) {
@@ -85,4 +220,18 @@ class RandomSerialNumberGenerator {
     return instance;
   }
 
+  /**
+   * Replaces the instance returned by {@link #getInstance()}.
+   * @param striped whether the striped DRBGs are used instead of one shared
+   *          {@link SecureRandom}.
+   * @param predictionResistant whether the DRBGs are reseeded before each serial number.
+   * @param reseedInterval number of serial numbers after which fresh entropy is mixed in and a
+   *          DRBG is reseeded, 0 to reseed only as required by SP 800-90A.
+   */
+  static synchronized void init(boolean striped, boolean predictionResistant,
+      int reseedInterval) {
+    instance = striped ? new RandomSerialNumberGenerator(predictionResistant, reseedInterval)
+        : new RandomSerialNumberGenerator();
+  }
+
 }
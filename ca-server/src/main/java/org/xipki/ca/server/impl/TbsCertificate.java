@@ -0,0 +1,245 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.impl;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.xipki.common.ASN1Type;
+import org.xipki.common.util.ParamUtil;
+
+/**
+ * DER encoder of the X.509v3 TBSCertificate. The issuer, subject, subjectPublicKeyInfo,
+ * signature algorithm and the extensions are given in encoded form and copied as they are,
+ * so that no ASN.1 objects are created to issue a certificate.
+ *
+ * <p>As in BouncyCastle, the validity is encoded as UTCTime for the years 1950 to 2049 and as
+ * GeneralizedTime otherwise, both without fractional seconds.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+class TbsCertificate extends ASN1Type {
+
+  /**
+   * [0] EXPLICIT INTEGER 2 (v3).
+   */
+  private static final byte[] VERSION_V3 = {(byte) 0xA0, 0x03, 0x02, 0x01, 0x02};
+
+  private static final byte[] BOOLEAN_TRUE = {0x01, 0x01, (byte) 0xFF};
+
+  private static final int UTC_TIME_LEN = 15;
+
+  private static final int GENERALIZED_TIME_LEN = 17;
+
+  private final byte[] serialNumber;
+
+  private final byte[] signatureAlgorithm;
+
+  private final byte[] issuer;
+
+  private final OffsetDateTime notBefore;
+
+  private final OffsetDateTime notAfter;
+
+  private final byte[] subject;
+
+  private final byte[] subjectPublicKeyInfo;
+
+  private final List<byte[]> extensions;
+
+  private final int extensionsBodyLen;
+
+  private final int bodyLen;
+
+  /**
+   * Constructor.
+   * @param serialNumber the serial number.
+   * @param signatureAlgorithm the encoded AlgorithmIdentifier of the signature algorithm.
+   * @param issuer the encoded Name of the issuer.
+   * @param notBefore the notBefore.
+   * @param notAfter the notAfter.
+   * @param subject the encoded Name of the subject.
+   * @param subjectPublicKeyInfo the encoded SubjectPublicKeyInfo.
+   * @param extensions the encoded Extension elements, see
+   *          {@link #encodeExtension(ASN1ObjectIdentifier, boolean, byte[])}. Could be
+   *          {@code null} or empty.
+   */
+  TbsCertificate(BigInteger serialNumber, byte[] signatureAlgorithm, byte[] issuer,
+      Date notBefore, Date notAfter, byte[] subject, byte[] subjectPublicKeyInfo,
+      List<byte[]> extensions) {
+    byte[] serialBytes = ParamUtil.requireNonNull("serialNumber", serialNumber).toByteArray();
+    this.serialNumber = new byte[getLen(serialBytes.length)];
+    int idx = writeHeader((byte) 0x02, serialBytes.length, this.serialNumber, 0);
+    System.arraycopy(serialBytes, 0, this.serialNumber, idx, serialBytes.length);
+
+    this.signatureAlgorithm = ParamUtil.requireNonNull("signatureAlgorithm", signatureAlgorithm);
+    this.issuer = ParamUtil.requireNonNull("issuer", issuer);
+    this.notBefore = ParamUtil.requireNonNull("notBefore", notBefore).toInstant()
+        .atOffset(ZoneOffset.UTC);
+    this.notAfter = ParamUtil.requireNonNull("notAfter", notAfter).toInstant()
+        .atOffset(ZoneOffset.UTC);
+    this.subject = ParamUtil.requireNonNull("subject", subject);
+    this.subjectPublicKeyInfo = ParamUtil.requireNonNull("subjectPublicKeyInfo",
+        subjectPublicKeyInfo);
+    this.extensions = extensions;
+
+    int len = 0;
+    if (extensions != null) {
+      for (byte[] extension : extensions) {
+        len += extension.length;
+      }
+    }
+    this.extensionsBodyLen = len;
+
+    len = VERSION_V3.length + this.serialNumber.length + signatureAlgorithm.length
+        + issuer.length + getLen(getTimeLen(this.notBefore) + getTimeLen(this.notAfter))
+        + subject.length + subjectPublicKeyInfo.length;
+    if (extensionsBodyLen > 0) {
+      // [3] EXPLICIT SEQUENCE OF Extension
+      len += getLen(getLen(extensionsBodyLen));
+    }
+    this.bodyLen = len;
+  } // constructor
+
+  @Override
+  public int getEncodedLength() {
+    return getLen(bodyLen);
+  }
+
+  @Override
+  public int write(byte[] out, int offset) {
+    int idx = offset;
+    idx += writeHeader((byte) 0x30, bodyLen, out, idx);
+    idx += arraycopy(VERSION_V3, out, idx);
+    idx += arraycopy(serialNumber, out, idx);
+    idx += arraycopy(signatureAlgorithm, out, idx);
+    idx += arraycopy(issuer, out, idx);
+
+    idx += writeHeader((byte) 0x30, getTimeLen(notBefore) + getTimeLen(notAfter), out, idx);
+    idx += writeTime(notBefore, out, idx);
+    idx += writeTime(notAfter, out, idx);
+
+    idx += arraycopy(subject, out, idx);
+    idx += arraycopy(subjectPublicKeyInfo, out, idx);
+
+    if (extensionsBodyLen > 0) {
+      idx += writeHeader((byte) 0xA3, getLen(extensionsBodyLen), out, idx);
+      idx += writeHeader((byte) 0x30, extensionsBodyLen, out, idx);
+      for (byte[] extension : extensions) {
+        idx += arraycopy(extension, out, idx);
+      }
+    }
+
+    return idx - offset;
+  } // method write
+
+  byte[] getEncoded() {
+    byte[] encoded = new byte[getEncodedLength()];
+    write(encoded, 0);
+    return encoded;
+  }
+
+  /**
+   * Encodes the Extension.
+   * @param type the extension type.
+   * @param critical whether the extension is critical.
+   * @param value the DER encoded extension value.
+   * @return the encoded Extension.
+   * @throws IOException if the extension type could not be encoded.
+   */
+  static byte[] encodeExtension(ASN1ObjectIdentifier type, boolean critical, byte[] value)
+      throws IOException {
+    byte[] encodedType = type.getEncoded();
+    int bodyLen = encodedType.length + (critical ? BOOLEAN_TRUE.length : 0) + getLen(value.length);
+
+    byte[] encoded = new byte[getLen(bodyLen)];
+    int idx = writeHeader((byte) 0x30, bodyLen, encoded, 0);
+    idx += arraycopy(encodedType, encoded, idx);
+    if (critical) {
+      idx += arraycopy(BOOLEAN_TRUE, encoded, idx);
+    }
+    idx += writeHeader((byte) 0x04, value.length, encoded, idx);
+    arraycopy(value, encoded, idx);
+    return encoded;
+  }
+
+  /**
+   * Encodes the Certificate.
+   * @param tbsCertificate the encoded TBSCertificate.
+   * @param signatureAlgorithm the encoded AlgorithmIdentifier of the signature algorithm.
+   * @param signature the signature.
+   * @return the encoded Certificate.
+   */
+  static byte[] encodeCertificate(byte[] tbsCertificate, byte[] signatureAlgorithm,
+      byte[] signature) {
+    // BIT STRING without unused bits
+    int signatureLen = getLen(1 + signature.length);
+    int bodyLen = tbsCertificate.length + signatureAlgorithm.length + signatureLen;
+
+    byte[] encoded = new byte[getLen(bodyLen)];
+    int idx = writeHeader((byte) 0x30, bodyLen, encoded, 0);
+    idx += arraycopy(tbsCertificate, encoded, idx);
+    idx += arraycopy(signatureAlgorithm, encoded, idx);
+    idx += writeHeader((byte) 0x03, 1 + signature.length, encoded, idx);
+    encoded[idx++] = 0;
+    arraycopy(signature, encoded, idx);
+    return encoded;
+  }
+
+  private static boolean isUtcTime(OffsetDateTime time) {
+    int year = time.getYear();
+    return year >= 1950 && year <= 2049;
+  }
+
+  private static int getTimeLen(OffsetDateTime time) {
+    return isUtcTime(time) ? UTC_TIME_LEN : GENERALIZED_TIME_LEN;
+  }
+
+  private static int writeTime(OffsetDateTime time, byte[] out, int offset) {
+    if (!isUtcTime(time)) {
+      return writeGeneralizedTime(Date.from(time.toInstant()), out, offset);
+    }
+
+    int idx = offset;
+    out[idx++] = 0x17;
+    out[idx++] = 13;
+    // yyMMddhhmmssZ
+    idx += write2Digits(time.getYear() % 100, out, idx);
+    idx += write2Digits(time.getMonthValue(), out, idx);
+    idx += write2Digits(time.getDayOfMonth(), out, idx);
+    idx += write2Digits(time.getHour(), out, idx);
+    idx += write2Digits(time.getMinute(), out, idx);
+    idx += write2Digits(time.getSecond(), out, idx);
+    out[idx++] = 'Z';
+    return idx - offset;
+  }
+
+  private static int write2Digits(int value, byte[] out, int offset) {
+    out[offset] = (byte) (0x30 + value / 10);
+    out[offset + 1] = (byte) (0x30 + value % 10);
+    return 2;
+  }
+
+}
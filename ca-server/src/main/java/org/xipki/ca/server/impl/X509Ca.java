@@ -18,6 +18,7 @@
 package org.xipki.ca.server.impl;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigInteger;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -42,12 +43,20 @@ import java.util.Set;
 import java.util.SimpleTimeZone;
 import java.util.TimeZone;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
 import org.bouncycastle.asn1.ASN1GeneralizedTime;
 import org.bouncycastle.asn1.ASN1Integer;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
@@ -77,9 +86,7 @@ import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.asn1.x509.Time;
 import org.bouncycastle.cert.CertIOException;
 import org.bouncycastle.cert.X509CRLHolder;
-import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.X509v2CRLBuilder;
-import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.audit.AuditEvent;
@@ -117,6 +124,8 @@ import org.xipki.ca.server.mgmt.api.CertListOrderBy;
 import org.xipki.ca.server.mgmt.api.CmpControl;
 import org.xipki.ca.server.mgmt.api.RequestorInfo;
 import org.xipki.ca.server.mgmt.api.ValidityMode;
+import org.xipki.ca.server.mgmt.api.x509.CertSignatureVerificationControl;
+import org.xipki.ca.server.mgmt.api.x509.CertSignatureVerificationStatistics;
 import org.xipki.ca.server.mgmt.api.x509.CrlControl;
 import org.xipki.ca.server.mgmt.api.x509.CrlControl.HourMinute;
 import org.xipki.ca.server.mgmt.api.x509.CrlControl.UpdateMode;
@@ -135,6 +144,7 @@ import org.xipki.security.FpIdCalculator;
 import org.xipki.security.KeyUsage;
 import org.xipki.security.ObjectIdentifiers;
 import org.xipki.security.X509Cert;
+import org.xipki.security.XiContentSigner;
 import org.xipki.security.exception.NoIdleSignerException;
 import org.xipki.security.exception.XiSecurityException;
 import org.xipki.security.util.RSABrokenKey;
@@ -413,6 +423,8 @@ public class X509Ca {
 
   private final X509Cert caCert;
 
+  private final byte[] encodedCaSubject;
+
   private final CertificateStore certstore;
 
   private final CaIdNameMap caIdNameMap;
@@ -435,6 +447,27 @@ public class X509Ca {
 
   private final ConcurrentSkipListSet<Long> subjectCertsInProcess = new ConcurrentSkipListSet<>();
 
+  private final int issuanceParallelism;
+
+  /**
+   * Executor to issue the certificates of one request in parallel, {@code null} if the
+   * certificates are issued sequentially.
+   */
+  private final ThreadPoolExecutor issuanceExecutor;
+
+  private final AtomicLong numSignatureVerificationCandidates = new AtomicLong();
+
+  private final LongAdder numVerifiedCertSignatures = new LongAdder();
+
+  private final LongAdder numSkippedCertSignatureVerifications = new LongAdder();
+
+  private final LongAdder numFailedCertSignatureVerifications = new LongAdder();
+
+  /**
+   * Set after a failed verification, since then all signatures are verified.
+   */
+  private volatile boolean certSignatureVerificationFailed;
+
   public X509Ca(CaManagerImpl caManager, X509CaInfo caInfo, CertificateStore certstore)
       throws OperationException {
     this.caManager = ParamUtil.requireNonNull("caManager", caManager);
@@ -444,6 +477,14 @@ public class X509Ca {
     this.caIdent = caInfo.getIdent();
     this.caCert = caInfo.getCert();
     this.certstore = ParamUtil.requireNonNull("certstore", certstore);
+    this.issuanceParallelism = caManager.getIssuanceParallelism();
+
+    try {
+      this.encodedCaSubject = caInfo.getPublicCaInfo().getX500Subject()
+          .getEncoded(ASN1Encoding.DER);
+    } catch (IOException ex) {
+      throw new OperationException(ErrorCode.SYSTEM_FAILURE, ex);
+    }
 
     if (caInfo.isSignerRequired()) {
       try {
@@ -466,9 +507,25 @@ public class X509Ca {
     }
 
     if (!masterMode) {
+      this.issuanceExecutor = null;
       return;
     }
 
+    if (issuanceParallelism > 1) {
+      final String threadNamePrefix = "ca-" + caIdent.getName() + "-issuer-";
+      final AtomicInteger threadIndex = new AtomicInteger(0);
+      this.issuanceExecutor = new ThreadPoolExecutor(issuanceParallelism, issuanceParallelism,
+          60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+            Thread thread = new Thread(runnable,
+                threadNamePrefix + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
+      this.issuanceExecutor.allowCoreThreadTimeOut(true);
+    } else {
+      this.issuanceExecutor = null;
+    }
+
     for (IdentifiedX509CertPublisher publisher : publishers()) {
       publisher.caAdded(caCert);
     }
@@ -1662,46 +1719,62 @@ public class X509Ca {
       }
     }
 
-    List<X509CertificateInfo> certInfos = new ArrayList<>(n);
-    OperationExceptionWithIndex exception = null;
+    final X509CertificateInfo[] results = new X509CertificateInfo[n];
+    final OperationExceptionWithIndex[] exceptions = new OperationExceptionWithIndex[n];
+    final AtomicInteger nextIndex = new AtomicInteger(0);
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    final CountDownLatch processed = new CountDownLatch(n);
 
-    for (int i = 0; i < n; i++) {
-      if (exception != null) {
-        break;
+    // Each worker takes the next unprocessed certificate template until all are taken. After
+    // the first failure, the remaining templates are skipped.
+    Runnable worker = () -> {
+      int idx;
+      while ((idx = nextIndex.getAndIncrement()) < n) {
+        try {
+          if (!failed.get()) {
+            try {
+              results[idx] = generateCertificate(idx, gcts.get(idx), requestor, reqType,
+                  transactionId, msgId);
+            } catch (OperationExceptionWithIndex ex) {
+              exceptions[idx] = ex;
+              failed.set(true);
+            }
+          }
+        } finally {
+          processed.countDown();
+        }
       }
-      GrantedCertTemplate gct = gcts.get(i);
-      final NameId certprofilIdent = gct.certprofile.getIdent();
-      final String subjectText = gct.grantedSubjectText;
-      LOG.info("     START generateCertificate: CA={}, profile={}, subject='{}'", caIdent,
-          certprofilIdent, subjectText);
-
-      boolean successful = false;
-      try {
-        X509CertificateInfo certInfo = generateCertificate(gct, requestor, false, reqType,
-            transactionId, msgId);
-        successful = true;
-        certInfos.add(certInfo);
+    };
 
-        if (LOG.isInfoEnabled()) {
-          String prefix = certInfo.isAlreadyIssued() ? "RETURN_OLD_CERT" : "SUCCESSFUL";
-          X509CertWithDbId cert = certInfo.getCert();
-          LOG.info("{} generateCertificate: CA={}, profile={}, subject='{}', serialNumber={}",
-              prefix, caIdent, certprofilIdent, cert.getSubject(),
-              LogUtil.formatCsn(cert.getCert().getSerialNumber()));
-        }
-      } catch (OperationException ex) {
-        exception = new OperationExceptionWithIndex(i, ex);
-      } catch (Throwable th) {
-        exception = new OperationExceptionWithIndex(i,
-            new OperationException(ErrorCode.SYSTEM_FAILURE, th));
-      } finally {
-        if (!successful) {
-          LOG.warn("    FAILED generateCertificate: CA={}, profile={}, subject='{}'",
-              caIdent, certprofilIdent, subjectText);
+    // The current thread works as well, so that the request is processed even if all threads
+    // of the executor are busy with other requests.
+    if (issuanceExecutor != null && n > 1) {
+      int numHelpers = Math.min(n, issuanceParallelism) - 1;
+      for (int i = 0; i < numHelpers; i++) {
+        try {
+          issuanceExecutor.execute(worker);
+        } catch (RejectedExecutionException ex) {
+          LOG.debug("could not submit certificate generation to the executor");
+          break;
         }
       }
     }
 
+    worker.run();
+    awaitUninterruptibly(processed);
+
+    OperationExceptionWithIndex exception = null;
+    List<X509CertificateInfo> certInfos = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      if (exception == null && exceptions[i] != null) {
+        exception = exceptions[i];
+      }
+
+      if (results[i] != null) {
+        certInfos.add(results[i]);
+      }
+    }
+
     if (exception != null) {
       LOG.error("could not generate certificate for request[{}], reverted all generated"
           + " certificates", exception.getIndex());
@@ -1730,6 +1803,57 @@ public class X509Ca {
         reqType, transactionId, msgId).get(0);
   }
 
+  private X509CertificateInfo generateCertificate(int index, GrantedCertTemplate gct,
+      RequestorInfo requestor, RequestType reqType, byte[] transactionId, String msgId)
+      throws OperationExceptionWithIndex {
+    final NameId certprofilIdent = gct.certprofile.getIdent();
+    final String subjectText = gct.grantedSubjectText;
+    LOG.info("     START generateCertificate: CA={}, profile={}, subject='{}'", caIdent,
+        certprofilIdent, subjectText);
+
+    boolean successful = false;
+    try {
+      X509CertificateInfo certInfo = generateCertificate(gct, requestor, false, reqType,
+          transactionId, msgId);
+      successful = true;
+
+      if (LOG.isInfoEnabled()) {
+        String prefix = certInfo.isAlreadyIssued() ? "RETURN_OLD_CERT" : "SUCCESSFUL";
+        X509CertWithDbId cert = certInfo.getCert();
+        LOG.info("{} generateCertificate: CA={}, profile={}, subject='{}', serialNumber={}",
+            prefix, caIdent, certprofilIdent, cert.getSubject(),
+            LogUtil.formatCsn(cert.getCert().getSerialNumber()));
+      }
+      return certInfo;
+    } catch (OperationException ex) {
+      throw new OperationExceptionWithIndex(index, ex);
+    } catch (Throwable th) {
+      throw new OperationExceptionWithIndex(index,
+          new OperationException(ErrorCode.SYSTEM_FAILURE, th));
+    } finally {
+      if (!successful) {
+        LOG.warn("    FAILED generateCertificate: CA={}, profile={}, subject='{}'",
+            caIdent, certprofilIdent, subjectText);
+      }
+    }
+  } // method generateCertificate
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        latch.await();
+        break;
+      } catch (InterruptedException ex) {
+        interrupted = true;
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
   private X509CertificateInfo generateCertificate(GrantedCertTemplate gct,
       RequestorInfo requestor, boolean keyUpdate, RequestType reqType, byte[] transactionId,
       String msgId) throws OperationException {
@@ -1783,10 +1907,7 @@ public class X509Ca {
     }
 
     try {
-      X509v3CertificateBuilder certBuilder = new X509v3CertificateBuilder(
-          caInfo.getPublicCaInfo().getX500Subject(), caInfo.nextSerial(), gct.grantedNotBefore,
-          gct.grantedNotAfter, gct.grantedSubject, gct.grantedPublicKey);
-
+      BigInteger serialNumber = caInfo.nextSerial();
       X509CertificateInfo ret;
 
       try {
@@ -1796,13 +1917,20 @@ public class X509Ca {
         ExtensionValues extensionTuples = certprofile.getExtensions(gct.requestedSubject,
             gct.grantedSubject, gct.extensions, gct.grantedPublicKey, caInfo.getPublicCaInfo(),
             crlSignerCert, gct.grantedNotBefore, gct.grantedNotAfter);
+        List<byte[]> encodedExtensions = null;
         if (extensionTuples != null) {
-          for (ASN1ObjectIdentifier extensionType : extensionTuples.getExtensionTypes()) {
+          Set<ASN1ObjectIdentifier> extensionTypes = extensionTuples.getExtensionTypes();
+          encodedExtensions = new ArrayList<>(extensionTypes.size());
+          for (ASN1ObjectIdentifier extensionType : extensionTypes) {
             ExtensionValue extValue = extensionTuples.getExtensionValue(extensionType);
-            certBuilder.addExtension(extensionType, extValue.isCritical(), extValue.getValue());
+            encodedExtensions.add(TbsCertificate.encodeExtension(extensionType,
+                extValue.isCritical(), extValue.getEncodedValue()));
           }
         }
 
+        byte[] encodedSubject = gct.grantedSubject.getEncoded(ASN1Encoding.DER);
+        byte[] encodedPublicKey = gct.grantedPublicKey.getEncoded(ASN1Encoding.DER);
+
         ConcurrentBagEntrySigner signer0;
         try {
           signer0 = gct.signer.borrowSigner();
@@ -1810,15 +1938,24 @@ public class X509Ca {
           throw new OperationException(ErrorCode.SYSTEM_FAILURE, ex);
         }
 
-        X509CertificateHolder certHolder;
+        byte[] encodedCert;
         try {
-          certHolder = certBuilder.build(signer0.value());
+          XiContentSigner signer = signer0.value();
+          byte[] encodedSigAlgId = signer.getEncodedAlgorithmIdentifier();
+          byte[] encodedTbsCert = new TbsCertificate(serialNumber, encodedSigAlgId,
+              encodedCaSubject, gct.grantedNotBefore, gct.grantedNotAfter, encodedSubject,
+              encodedPublicKey, encodedExtensions).getEncoded();
+
+          OutputStream signerOut = signer.getOutputStream();
+          signerOut.write(encodedTbsCert);
+          signerOut.close();
+
+          encodedCert = TbsCertificate.encodeCertificate(encodedTbsCert, encodedSigAlgId,
+              signer.getSignature());
         } finally {
           gct.signer.requiteSigner(signer0);
         }
 
-        Certificate bcCert = certHolder.toASN1Structure();
-        byte[] encodedCert = bcCert.getEncoded();
         int maxCertSize = gct.certprofile.getMaxCertSize();
         if (maxCertSize > 0) {
           int certSize = encodedCert.length;
@@ -1831,16 +1968,27 @@ public class X509Ca {
 
         X509Certificate cert;
         try {
-          cert = X509Util.toX509Cert(bcCert);
+          cert = X509Util.parseCert(encodedCert);
         } catch (CertificateException ex) {
           String message = "should not happen, could not parse generated certificate";
           LOG.error(message, ex);
           throw new OperationException(ErrorCode.SYSTEM_FAILURE, ex);
         }
 
-        if (!verifySignature(cert)) {
-          throw new OperationException(ErrorCode.SYSTEM_FAILURE,
-              "could not verify the signature of generated certificate");
+        if (isCertSignatureVerificationRequired()) {
+          numVerifiedCertSignatures.increment();
+          if (!verifySignature(cert)) {
+            numFailedCertSignatureVerifications.increment();
+            certSignatureVerificationFailed = true;
+            LOG.error("CA {}: could not verify the signature of generated certificate (serial"
+                + " number {}), {} failures in {} verifications, verify all signatures from now"
+                + " on", caIdent.getName(), LogUtil.formatCsn(cert.getSerialNumber()),
+                numFailedCertSignatureVerifications.sum(), numVerifiedCertSignatures.sum());
+            throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+                "could not verify the signature of generated certificate");
+          }
+        } else {
+          numSkippedCertSignatureVerifications.increment();
         }
 
         X509CertWithDbId certWithMeta = new X509CertWithDbId(cert, encodedCert);
@@ -2504,6 +2652,20 @@ public class X509Ca {
     return event;
   }
 
+  private boolean isCertSignatureVerificationRequired() {
+    CertSignatureVerificationControl control = caInfo.certSignatureVerificationControl();
+    if (control == null || certSignatureVerificationFailed) {
+      return true;
+    }
+
+    return control.isVerificationRequired(numSignatureVerificationCandidates.getAndIncrement());
+  } // method isCertSignatureVerificationRequired
+
+  public CertSignatureVerificationStatistics getCertSignatureVerificationStatistics() {
+    return new CertSignatureVerificationStatistics(numVerifiedCertSignatures.sum(),
+        numSkippedCertSignatureVerifications.sum(), numFailedCertSignatureVerifications.sum());
+  }
+
   private boolean verifySignature(X509Certificate cert) {
     ParamUtil.requireNonNull("cert", cert);
     PublicKey caPublicKey = caCert.getCert().getPublicKey();
@@ -2548,6 +2710,10 @@ public class X509Ca {
       suspendedCertsRevoker = null;
     }
 
+    if (issuanceExecutor != null) {
+      issuanceExecutor.shutdown();
+    }
+
     ScheduledThreadPoolExecutor executor = caManager.scheduledThreadPoolExecutor();
     if (executor != null) {
       executor.purge();
@@ -38,6 +38,7 @@ import org.xipki.ca.server.mgmt.api.CaEntry;
 import org.xipki.ca.server.mgmt.api.CaStatus;
 import org.xipki.ca.server.mgmt.api.PermissionConstants;
 import org.xipki.ca.server.mgmt.api.ValidityMode;
+import org.xipki.ca.server.mgmt.api.x509.CertSignatureVerificationControl;
 import org.xipki.ca.server.mgmt.api.x509.RevokeSuspendedCertsControl;
 import org.xipki.ca.server.mgmt.api.x509.X509CaEntry;
 import org.xipki.common.util.CollectionUtil;
@@ -85,6 +86,8 @@ public class X509CaInfo {
 
   private RevokeSuspendedCertsControl revokeSuspendedCertsControl;
 
+  private CertSignatureVerificationControl certSignatureVerificationControl;
+
   public X509CaInfo(X509CaEntry caEntry, CertificateStore certStore) throws OperationException {
     this.caEntry = ParamUtil.requireNonNull("caEntry", caEntry);
     this.certStore = ParamUtil.requireNonNull("certStore", certStore);
@@ -385,4 +388,13 @@ public class X509CaInfo {
     this.revokeSuspendedCertsControl = revokeSuspendedCertsControl;
   }
 
+  public CertSignatureVerificationControl certSignatureVerificationControl() {
+    return certSignatureVerificationControl;
+  }
+
+  public void setCertSignatureVerificationControl(
+      CertSignatureVerificationControl certSignatureVerificationControl) {
+    this.certSignatureVerificationControl = certSignatureVerificationControl;
+  }
+
 }
@@ -0,0 +1,251 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.impl.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.api.OperationException;
+import org.xipki.ca.api.OperationException.ErrorCode;
+import org.xipki.ca.server.impl.store.CertStoreQueryExecutor.CertRow;
+import org.xipki.common.util.ParamUtil;
+import org.xipki.datasource.DataAccessException;
+
+/**
+ * Group commit of the added certificates. The issuing threads put their certificates into a
+ * queue and wait, while a single writer thread adds all queued certificates in one transaction
+ * with JDBC batches. A caller returns only after the transaction containing its certificate has
+ * been committed.
+ *
+ * <p>If the transaction of a batch fails, the certificates of this batch are added one by one,
+ * so that only the callers with faulty certificates get an error.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+class CertBatchWriter {
+
+  /**
+   * Adds the certificates in one transaction.
+   */
+  interface CertAdder {
+
+    void addCerts(List<CertRow> rows) throws DataAccessException, OperationException;
+
+  } // interface CertAdder
+
+  private static final class Entry {
+
+    private final CertRow row;
+
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    Entry(CertRow row) {
+      this.row = row;
+    }
+
+  } // class Entry
+
+  private static final Logger LOG = LoggerFactory.getLogger(CertBatchWriter.class);
+
+  private static final long POLL_MS = 100;
+
+  private static final long CLOSE_TIMEOUT_MS = 10000;
+
+  private final CertAdder certAdder;
+
+  private final int maxBatchSize;
+
+  private final long maxDelayNanos;
+
+  private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+
+  private final Thread thread;
+
+  private volatile boolean closed;
+
+  CertBatchWriter(CertAdder certAdder, String name, int maxBatchSize, int maxDelayMs) {
+    this.certAdder = ParamUtil.requireNonNull("certAdder", certAdder);
+    this.maxBatchSize = ParamUtil.requireMin("maxBatchSize", maxBatchSize, 2);
+    this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(
+        ParamUtil.requireMin("maxDelayMs", maxDelayMs, 0));
+
+    this.thread = new Thread(this::run, "certstore-writer-" + name);
+    this.thread.setDaemon(true);
+    this.thread.start();
+    LOG.info("group commit of certificates in datasource {}: maxBatchSize={}, maxDelay={} ms",
+        name, maxBatchSize, maxDelayMs);
+  }
+
+  /**
+   * Adds the certificate and waits until the transaction has been committed.
+   * @param row the certificate.
+   * @return whether the certificate has been added, {@code false} if this writer is closed.
+   * @throws DataAccessException
+   *           if a database error occurs.
+   * @throws OperationException
+   *           if other error occurs.
+   */
+  boolean write(CertRow row) throws DataAccessException, OperationException {
+    if (closed) {
+      return false;
+    }
+
+    Entry entry = new Entry(row);
+    queue.add(entry);
+
+    // the writer thread may have terminated in the meantime
+    if (closed && queue.remove(entry)) {
+      return false;
+    }
+
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          entry.future.get();
+          return true;
+        } catch (InterruptedException ex) {
+          // the certificate will be added anyway, so wait for the result
+          interrupted = true;
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (cause instanceof DataAccessException) {
+            throw (DataAccessException) cause;
+          } else if (cause instanceof OperationException) {
+            throw (OperationException) cause;
+          } else {
+            throw new OperationException(ErrorCode.SYSTEM_FAILURE, cause);
+          }
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  } // method write
+
+  void close() {
+    closed = true;
+    try {
+      thread.join(CLOSE_TIMEOUT_MS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (thread.isAlive()) {
+      LOG.warn("writer thread {} has not terminated in {} ms", thread.getName(),
+          CLOSE_TIMEOUT_MS);
+    }
+
+    // certificates queued while the writer thread was terminating
+    List<Entry> batch = new ArrayList<>();
+    queue.drainTo(batch);
+    if (!batch.isEmpty()) {
+      flush(batch);
+    }
+  }
+
+  private void run() {
+    List<Entry> batch = new ArrayList<>(maxBatchSize);
+    while (!closed || !queue.isEmpty()) {
+      Entry first;
+      try {
+        first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        continue;
+      }
+
+      if (first == null) {
+        continue;
+      }
+
+      batch.add(first);
+      queue.drainTo(batch, maxBatchSize - 1);
+
+      if (maxDelayNanos > 0) {
+        final long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < maxBatchSize) {
+          long remaining = deadline - System.nanoTime();
+          Entry next = null;
+          if (remaining > 0) {
+            try {
+              next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+              // flush the batch
+            }
+          }
+
+          if (next == null) {
+            break;
+          }
+
+          batch.add(next);
+          queue.drainTo(batch, maxBatchSize - batch.size());
+        }
+      }
+
+      flush(batch);
+      batch.clear();
+    }
+  } // method run
+
+  private void flush(List<Entry> batch) {
+    List<CertRow> rows = new ArrayList<>(batch.size());
+    for (Entry entry : batch) {
+      rows.add(entry.row);
+    }
+
+    try {
+      certAdder.addCerts(rows);
+      for (Entry entry : batch) {
+        entry.future.complete(null);
+      }
+      LOG.debug("added {} certificates in one transaction", rows.size());
+      return;
+    } catch (Throwable th) {
+      if (batch.size() == 1) {
+        batch.get(0).future.completeExceptionally(th);
+        return;
+      }
+
+      LOG.warn("could not add {} certificates in one transaction, add them one by one: {}",
+          batch.size(), th.getMessage());
+    }
+
+    for (Entry entry : batch) {
+      try {
+        certAdder.addCerts(Collections.singletonList(entry.row));
+        entry.future.complete(null);
+      } catch (Throwable th) {
+        entry.future.completeExceptionally(th);
+      }
+    }
+  } // method flush
+
+}
@@ -103,6 +103,8 @@ class CertStoreQueryExecutor {
 
   private final SQLs sqls;
 
+  private CertBatchWriter batchWriter;
+
   CertStoreQueryExecutor(DataSourceWrapper datasource, UniqueIdGenerator idGenerator)
       throws DataAccessException {
     this.datasource = ParamUtil.requireNonNull("datasource", datasource);
@@ -116,6 +118,30 @@ class CertStoreQueryExecutor {
     this.sqls = new SQLs(datasource);
   } // constructor
 
+  /**
+   * Enables the group commit of the added certificates.
+   * @param maxBatchSize maximal number of certificates added in one transaction, values less
+   *          than 2 disable the group commit.
+   * @param maxDelayMs maximal time in milliseconds to wait for further certificates before
+   *          the transaction is committed.
+   */
+  void setBatchWriter(int maxBatchSize, int maxDelayMs) {
+    CertBatchWriter oldWriter = batchWriter;
+    batchWriter = (maxBatchSize < 2) ? null
+        : new CertBatchWriter(this::addCerts, datasource.getName(), maxBatchSize, maxDelayMs);
+
+    if (oldWriter != null) {
+      oldWriter.close();
+    }
+  }
+
+  void close() {
+    if (batchWriter != null) {
+      batchWriter.close();
+      batchWriter = null;
+    }
+  }
+
   void addCert(NameId ca, X509CertWithDbId certificate, byte[] encodedSubjectPublicKey,
       NameId certProfile, NameId requestor, Integer userId, RequestType reqType,
       byte[] transactionId, X500Name reqSubject)
@@ -126,96 +152,84 @@ class CertStoreQueryExecutor {
     ParamUtil.requireNonNull("requestor", requestor);
 
     long certId = idGenerator.nextId();
-    X509Certificate cert = certificate.getCert();
-
-    long fpPk = FpIdCalculator.hash(encodedSubjectPublicKey);
-    String subjectText = X509Util.cutText(certificate.getSubject(), maxX500nameLen);
-    long fpSubject = X509Util.fpCanonicalizedName(cert.getSubjectX500Principal());
-
-    String reqSubjectText = null;
-    Long fpReqSubject = null;
-    if (reqSubject != null) {
-      fpReqSubject = X509Util.fpCanonicalizedName(reqSubject);
-      if (fpSubject == fpReqSubject) {
-        fpReqSubject = null;
-      } else {
-        reqSubjectText = X509Util.cutX500Name(CaUtil.sortX509Name(reqSubject), maxX500nameLen);
-      }
-    }
+    CertRow row = new CertRow(certId, ca, certificate, encodedSubjectPublicKey, certProfile,
+        requestor, userId, reqType, transactionId, reqSubject, maxX500nameLen);
+    certificate.setCertId(certId);
 
-    String b64FpCert = base64Fp(certificate.getEncodedCert());
-    String b64Cert = Base64.encodeToString(certificate.getEncodedCert());
-    String tid = (transactionId == null) ? null : Base64.encodeToString(transactionId);
+    CertBatchWriter writer = batchWriter;
+    if (writer != null && writer.write(row)) {
+      return;
+    }
 
-    long currentTimeSeconds = System.currentTimeMillis() / 1000;
-    BigInteger serialNumber = cert.getSerialNumber();
-    long notBeforeSeconds = cert.getNotBefore().getTime() / 1000;
-    long notAfterSeconds = cert.getNotAfter().getTime() / 1000;
+    addCerts(Collections.singletonList(row));
+  } // method addCert
 
+  /**
+   * Adds the certificates in one transaction. If the transaction fails, none of the
+   * certificates is added.
+   * @param rows the certificates to be added.
+   * @throws DataAccessException
+   *           if a database error occurs.
+   * @throws OperationException
+   *           if other error occurs.
+   */
+  void addCerts(List<CertRow> rows) throws DataAccessException, OperationException {
     Connection conn = null;
     PreparedStatement[] pss = borrowPreparedStatements(SQLs.SQL_ADD_CERT, SQLs.SQL_ADD_CRAW);
 
     try {
       PreparedStatement psAddcert = pss[0];
+      PreparedStatement psAddRawcert = pss[1];
       // all statements have the same connection
       conn = psAddcert.getConnection();
 
-      // cert
-      int idx = 2;
-      psAddcert.setInt(idx++, CertArt.X509PKC.getCode());
-      psAddcert.setLong(idx++, currentTimeSeconds);
-      psAddcert.setString(idx++, serialNumber.toString(16));
-      psAddcert.setString(idx++, subjectText);
-      psAddcert.setLong(idx++, fpSubject);
-      setLong(psAddcert, idx++, fpReqSubject);
-      psAddcert.setLong(idx++, notBeforeSeconds);
-      psAddcert.setLong(idx++, notAfterSeconds);
-      setBoolean(psAddcert, idx++, false);
-      psAddcert.setInt(idx++, certProfile.getId());
-      psAddcert.setInt(idx++, ca.getId());
-      setInt(psAddcert, idx++, requestor.getId());
-      setInt(psAddcert, idx++, userId);
-      psAddcert.setLong(idx++, fpPk);
-      boolean isEeCert = cert.getBasicConstraints() == -1;
-      psAddcert.setInt(idx++, isEeCert ? 1 : 0);
-      psAddcert.setInt(idx++, reqType.getCode());
-      psAddcert.setString(idx++, tid);
-
-      // rawcert
-      PreparedStatement psAddRawcert = pss[1];
-
-      idx = 2;
-      psAddRawcert.setString(idx++, b64FpCert);
-      psAddRawcert.setString(idx++, reqSubjectText);
-      psAddRawcert.setString(idx++, b64Cert);
-
-      certificate.setCertId(certId);
-
-      psAddcert.setLong(1, certId);
-      psAddRawcert.setLong(1, certId);
+      final boolean batch = rows.size() > 1;
+      for (CertRow row : rows) {
+        row.bindCert(psAddcert);
+        row.bindRawCert(psAddRawcert);
+        if (batch) {
+          psAddcert.addBatch();
+          psAddRawcert.addBatch();
+        }
+      }
 
       final boolean origAutoCommit = conn.getAutoCommit();
       conn.setAutoCommit(false);
 
       String sql = null;
       try {
-        sql = SQLs.SQL_ADD_CERT;
-        psAddcert.executeUpdate();
+        if (batch) {
+          sql = SQLs.SQL_ADD_CERT;
+          psAddcert.executeBatch();
+
+          sql = SQLs.SQL_ADD_CRAW;
+          psAddRawcert.executeBatch();
+        } else {
+          sql = SQLs.SQL_ADD_CERT;
+          psAddcert.executeUpdate();
 
-        sql = SQLs.SQL_ADD_CRAW;
-        psAddRawcert.executeUpdate();
+          sql = SQLs.SQL_ADD_CRAW;
+          psAddRawcert.executeUpdate();
+        }
 
         sql = "(commit add cert to CA certstore)";
         conn.commit();
       } catch (Throwable th) {
         conn.rollback();
         // more secure
-        datasource.deleteFromTable(null, "CRAW", "CID", certId);
-        datasource.deleteFromTable(null, "CERT", "ID", certId);
+        for (CertRow row : rows) {
+          datasource.deleteFromTable(null, "CRAW", "CID", row.certId);
+          datasource.deleteFromTable(null, "CERT", "ID", row.certId);
+        }
 
         if (th instanceof SQLException) {
-          LOG.error("datasource {} could not add certificate with id {}: {}",
-              datasource.getName(), certId, th.getMessage());
+          if (batch) {
+            LOG.error("datasource {} could not add {} certificates: {}",
+                datasource.getName(), rows.size(), th.getMessage());
+          } else {
+            LOG.error("datasource {} could not add certificate with id {}: {}",
+                datasource.getName(), rows.get(0).certId, th.getMessage());
+          }
           throw datasource.translate(sql, (SQLException) th);
         } else {
           throw new OperationException(ErrorCode.SYSTEM_FAILURE, th);
@@ -236,7 +250,7 @@ class CertStoreQueryExecutor {
         }
       }
     }
-  } // method addCert
+  } // method addCerts
 
   void addToPublishQueue(NameId publisher, long certId, NameId ca) throws DataAccessException {
     ParamUtil.requireNonNull("ca", ca);
@@ -1742,10 +1756,6 @@ class CertStoreQueryExecutor {
     }
   }
 
-  private String base64Fp(byte[] data) {
-    return HashAlgo.SHA1.base64Hash(data);
-  }
-
   private PreparedStatement[] borrowPreparedStatements(String... sqlQueries)
       throws DataAccessException {
     Connection conn = datasource.getConnection();
@@ -1983,4 +1993,119 @@ class CertStoreQueryExecutor {
     }
   }
 
+  /**
+   * Values of the CERT and CRAW rows of one certificate.
+   */
+  static final class CertRow {
+
+    private final long certId;
+
+    private final long currentTimeSeconds;
+
+    private final String serialNumber;
+
+    private final String subjectText;
+
+    private final long fpSubject;
+
+    private final Long fpReqSubject;
+
+    private final String reqSubjectText;
+
+    private final long notBeforeSeconds;
+
+    private final long notAfterSeconds;
+
+    private final int certProfileId;
+
+    private final int caId;
+
+    private final int requestorId;
+
+    private final Integer userId;
+
+    private final long fpPk;
+
+    private final boolean eeCert;
+
+    private final int reqType;
+
+    private final String tid;
+
+    private final String b64FpCert;
+
+    private final String b64Cert;
+
+    CertRow(long certId, NameId ca, X509CertWithDbId certificate,
+        byte[] encodedSubjectPublicKey, NameId certProfile, NameId requestor, Integer userId,
+        RequestType reqType, byte[] transactionId, X500Name reqSubject, int maxX500nameLen) {
+      X509Certificate cert = certificate.getCert();
+
+      this.certId = certId;
+      this.fpPk = FpIdCalculator.hash(encodedSubjectPublicKey);
+      this.subjectText = X509Util.cutText(certificate.getSubject(), maxX500nameLen);
+      this.fpSubject = X509Util.fpCanonicalizedName(cert.getSubjectX500Principal());
+
+      Long tmpFpReqSubject = null;
+      String tmpReqSubjectText = null;
+      if (reqSubject != null) {
+        tmpFpReqSubject = X509Util.fpCanonicalizedName(reqSubject);
+        if (fpSubject == tmpFpReqSubject) {
+          tmpFpReqSubject = null;
+        } else {
+          tmpReqSubjectText = X509Util.cutX500Name(CaUtil.sortX509Name(reqSubject),
+              maxX500nameLen);
+        }
+      }
+      this.fpReqSubject = tmpFpReqSubject;
+      this.reqSubjectText = tmpReqSubjectText;
+
+      this.b64FpCert = HashAlgo.SHA1.base64Hash(certificate.getEncodedCert());
+      this.b64Cert = Base64.encodeToString(certificate.getEncodedCert());
+      this.tid = (transactionId == null) ? null : Base64.encodeToString(transactionId);
+
+      this.currentTimeSeconds = System.currentTimeMillis() / 1000;
+      this.serialNumber = cert.getSerialNumber().toString(16);
+      this.notBeforeSeconds = cert.getNotBefore().getTime() / 1000;
+      this.notAfterSeconds = cert.getNotAfter().getTime() / 1000;
+      this.certProfileId = certProfile.getId();
+      this.caId = ca.getId();
+      this.requestorId = requestor.getId();
+      this.userId = userId;
+      this.eeCert = cert.getBasicConstraints() == -1;
+      this.reqType = reqType.getCode();
+    }
+
+    private void bindCert(PreparedStatement ps) throws SQLException {
+      int idx = 1;
+      ps.setLong(idx++, certId);
+      ps.setInt(idx++, CertArt.X509PKC.getCode());
+      ps.setLong(idx++, currentTimeSeconds);
+      ps.setString(idx++, serialNumber);
+      ps.setString(idx++, subjectText);
+      ps.setLong(idx++, fpSubject);
+      setLong(ps, idx++, fpReqSubject);
+      ps.setLong(idx++, notBeforeSeconds);
+      ps.setLong(idx++, notAfterSeconds);
+      setBoolean(ps, idx++, false);
+      ps.setInt(idx++, certProfileId);
+      ps.setInt(idx++, caId);
+      ps.setInt(idx++, requestorId);
+      setInt(ps, idx++, userId);
+      ps.setLong(idx++, fpPk);
+      ps.setInt(idx++, eeCert ? 1 : 0);
+      ps.setInt(idx++, reqType);
+      ps.setString(idx++, tid);
+    }
+
+    private void bindRawCert(PreparedStatement ps) throws SQLException {
+      int idx = 1;
+      ps.setLong(idx++, certId);
+      ps.setString(idx++, b64FpCert);
+      ps.setString(idx++, reqSubjectText);
+      ps.setString(idx++, b64Cert);
+    }
+
+  } // class CertRow
+
 }
@@ -70,6 +70,22 @@ public class CertificateStore {
     this.queryExecutor = new CertStoreQueryExecutor(datasource, idGenerator);
   }
 
+  /**
+   * Enables the group commit of the added certificates: certificates added concurrently are
+   * committed in one transaction.
+   * @param maxBatchSize maximal number of certificates added in one transaction, values less
+   *          than 2 disable the group commit.
+   * @param maxDelayMs maximal time in milliseconds to wait for further certificates before
+   *          the transaction is committed.
+   */
+  public void setBatchWriter(int maxBatchSize, int maxDelayMs) {
+    queryExecutor.setBatchWriter(maxBatchSize, maxDelayMs);
+  }
+
+  public void close() {
+    queryExecutor.close();
+  }
+
   public boolean addCertificate(X509CertificateInfo certInfo) {
     ParamUtil.requireNonNull("certInfo", certInfo);
     try {
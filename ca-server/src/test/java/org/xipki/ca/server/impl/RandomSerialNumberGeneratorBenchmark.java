@@ -0,0 +1,120 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.impl;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Microbenchmark of {@link RandomSerialNumberGenerator}, compares the throughput of the striped
+ * DRBGs with the default generator using one shared {@link SecureRandom} at 1, 8 and 32
+ * threads. Each measurement is preceded by a warm-up phase of the same length. The striped
+ * DRBGs should only be enabled if they outperform the default generator on the target
+ * machine.
+ *
+ * <p>Not a unit test, run it manually with the test classpath of this module:
+ * <pre>
+ * java org.xipki.ca.server.impl.RandomSerialNumberGeneratorBenchmark [seconds [bitLen]]
+ * </pre>
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class RandomSerialNumberGeneratorBenchmark {
+
+  private interface Generator {
+
+    BigInteger nextSerialNumber(int bitLen);
+
+  } // interface Generator
+
+  private static final int[] THREADS = {1, 8, 32};
+
+  public static void main(String[] args) throws Exception {
+    int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : 5;
+    int bitLen = (args.length > 1) ? Integer.parseInt(args[1]) : 159;
+
+    RandomSerialNumberGenerator shared = new RandomSerialNumberGenerator();
+    RandomSerialNumberGenerator striped = new RandomSerialNumberGenerator(false,
+        RandomSerialNumberGenerator.DFLT_RESEED_INTERVAL);
+    RandomSerialNumberGenerator stripedPr = new RandomSerialNumberGenerator(true,
+        RandomSerialNumberGenerator.DFLT_RESEED_INTERVAL);
+
+    System.out.println("bitLen: " + bitLen + ", duration: " + seconds + " s, processors: "
+        + Runtime.getRuntime().availableProcessors());
+    System.out.println(String.format("%-30s %8s %15s", "generator", "threads", "ops/s"));
+    for (int threads : THREADS) {
+      run("shared SecureRandom", shared::nextSerialNumber, threads, seconds, bitLen);
+      run("striped DRBG", striped::nextSerialNumber, threads, seconds, bitLen);
+      run("striped DRBG (prediction res.)", stripedPr::nextSerialNumber, threads, seconds,
+          bitLen);
+    }
+  } // method main
+
+  private static void run(String name, Generator generator, int threads, int seconds,
+      int bitLen) throws InterruptedException {
+    // warm-up
+    measure(generator, threads, seconds, bitLen);
+    long ops = measure(generator, threads, seconds, bitLen);
+    System.out.println(String.format("%-30s %8d %15d", name, threads, ops / seconds));
+  }
+
+  private static long measure(final Generator generator, int threads, int seconds,
+      final int bitLen) throws InterruptedException {
+    final LongAdder ops = new LongAdder();
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    final long durationNanos = TimeUnit.SECONDS.toNanos(seconds);
+
+    for (int i = 0; i < threads; i++) {
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException ex) {
+          done.countDown();
+          return;
+        }
+
+        long count = 0;
+        long sink = 0;
+        final long deadline = System.nanoTime() + durationNanos;
+        while (System.nanoTime() < deadline) {
+          sink += generator.nextSerialNumber(bitLen).bitLength();
+          count++;
+        }
+        ops.add(count);
+        if (sink == 42) {
+          // prevent the JIT from eliminating the calls
+          System.out.print("");
+        }
+        done.countDown();
+      });
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    start.countDown();
+    done.await();
+    return ops.sum();
+  } // method measure
+
+}
@@ -0,0 +1,292 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.sec.SECObjectIdentifiers;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares the encoding of {@link TbsCertificate} with the one of BouncyCastle's
+ * {@link X509v3CertificateBuilder}.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class TbsCertificateTest {
+
+  private static final class ConstantSigner implements ContentSigner {
+
+    private final AlgorithmIdentifier algId = new AlgorithmIdentifier(
+        PKCSObjectIdentifiers.sha256WithRSAEncryption, DERNull.INSTANCE);
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    private final byte[] signature;
+
+    ConstantSigner(int signatureLen) {
+      signature = new byte[signatureLen];
+      Arrays.fill(signature, (byte) 0x5A);
+    }
+
+    @Override
+    public AlgorithmIdentifier getAlgorithmIdentifier() {
+      return algId;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return out;
+    }
+
+    @Override
+    public byte[] getSignature() {
+      return signature.clone();
+    }
+
+  } // class ConstantSigner
+
+  private static final X500Name ISSUER = new X500Name("CN=Issuer CA,O=Example,C=DE");
+
+  private static final X500Name SUBJECT = new X500Name("CN=Subject,O=Example,C=DE");
+
+  private static final SubjectPublicKeyInfo PUBLIC_KEY = newPublicKey();
+
+  private static final BigInteger SERIAL = BigInteger.valueOf(0x1234567);
+
+  private static final Date NOT_BEFORE = date(2018, 1, 1, 0, 0, 0);
+
+  private static final Date NOT_AFTER = date(2020, 1, 1, 0, 0, 0);
+
+  @Test
+  public void testUtcTimeBoundaries() throws Exception {
+    assertEncoding(SERIAL, date(1950, 1, 1, 0, 0, 0), date(2049, 12, 31, 23, 59, 59),
+        SUBJECT, null);
+  }
+
+  @Test
+  public void testGeneralizedTimeBoundaries() throws Exception {
+    assertEncoding(SERIAL, date(1949, 12, 31, 23, 59, 59), date(2050, 1, 1, 0, 0, 0),
+        SUBJECT, null);
+  }
+
+  @Test
+  public void testMixedTimes() throws Exception {
+    assertEncoding(SERIAL, date(1949, 12, 31, 23, 59, 59), date(2049, 12, 31, 23, 59, 59),
+        SUBJECT, null);
+    assertEncoding(SERIAL, date(1950, 1, 1, 0, 0, 0), date(2050, 1, 1, 0, 0, 0),
+        SUBJECT, null);
+    assertEncoding(SERIAL, date(2049, 12, 31, 23, 59, 59), date(9999, 12, 31, 23, 59, 59),
+        SUBJECT, null);
+  }
+
+  @Test
+  public void testMillisecondsTruncated() throws Exception {
+    Date notBefore = new Date(date(2018, 6, 30, 12, 34, 56).getTime() + 999);
+    Date notAfter = new Date(date(2050, 6, 30, 12, 34, 56).getTime() + 1);
+    assertEncoding(SERIAL, notBefore, notAfter, SUBJECT, null);
+  }
+
+  @Test
+  public void testSerialNumbers() throws Exception {
+    BigInteger[] serials = {BigInteger.ZERO, BigInteger.ONE, BigInteger.valueOf(0x7F),
+      BigInteger.valueOf(0x80), BigInteger.valueOf(0xFF), BigInteger.valueOf(0x8000),
+      BigInteger.ONE.shiftLeft(63), BigInteger.ONE.shiftLeft(159),
+      BigInteger.ONE.shiftLeft(159).subtract(BigInteger.ONE),
+      new BigInteger("80" + repeat("00", 19), 16), new BigInteger(repeat("FF", 20), 16)};
+    for (BigInteger serial : serials) {
+      assertEncoding(serial, NOT_BEFORE, NOT_AFTER, SUBJECT, null);
+    }
+  }
+
+  @Test
+  public void testNoExtensions() throws Exception {
+    assertEncoding(SERIAL, NOT_BEFORE, NOT_AFTER, SUBJECT, null);
+    assertEncoding(SERIAL, NOT_BEFORE, NOT_AFTER, SUBJECT, Collections.emptyList());
+  }
+
+  @Test
+  public void testExtensions() throws Exception {
+    List<Object[]> extensions = new ArrayList<>();
+    extensions.add(extension("1.2.3.1", true, 1));
+    extensions.add(extension("1.2.3.2", false, 10));
+    assertEncoding(SERIAL, NOT_BEFORE, NOT_AFTER, SUBJECT, extensions);
+  }
+
+  @Test
+  public void testLongLengths() throws Exception {
+    // lengths around the boundaries of the 1, 2 and 3 bytes encoding of the length
+    int[] valueLens = {125, 126, 127, 128, 200, 255, 256, 65533, 65535, 65536, 70000};
+    for (int valueLen : valueLens) {
+      List<Object[]> extensions = new ArrayList<>();
+      extensions.add(extension("1.2.3.4", false, valueLen));
+      assertEncoding(SERIAL, NOT_BEFORE, NOT_AFTER, SUBJECT, extensions);
+    }
+  }
+
+  @Test
+  public void testLongSubject() throws Exception {
+    X500Name subject = new X500Name("CN=" + repeat("a", 200) + ",O=Example,C=DE");
+    assertEncoding(SERIAL, NOT_BEFORE, NOT_AFTER, subject, null);
+  }
+
+  @Test
+  public void testRandom() throws Exception {
+    Random rnd = new Random(1);
+    for (int i = 0; i < 100; i++) {
+      BigInteger serial = new BigInteger(1 + rnd.nextInt(160), rnd);
+      long notBefore = date(1930, 1, 1, 0, 0, 0).getTime()
+          + (long) (rnd.nextDouble() * 150 * 365 * 86400000L);
+      long notAfter = notBefore + (long) (rnd.nextDouble() * 50 * 365 * 86400000L);
+
+      List<Object[]> extensions = new ArrayList<>();
+      int numExtensions = rnd.nextInt(5);
+      for (int j = 0; j < numExtensions; j++) {
+        extensions.add(extension("1.2.3." + j, rnd.nextBoolean(), rnd.nextInt(400)));
+      }
+
+      assertEncoding(serial, new Date(notBefore), new Date(notAfter), SUBJECT, extensions);
+    }
+  }
+
+  @Test
+  public void testWriteAtOffset() throws Exception {
+    TbsCertificate tbs = newTbsCertificate(SERIAL, NOT_BEFORE, NOT_AFTER, SUBJECT, null,
+        new ConstantSigner(256));
+    byte[] expected = tbs.getEncoded();
+
+    byte[] out = new byte[expected.length + 20];
+    int len = tbs.write(out, 10);
+    Assert.assertEquals("written length", expected.length, len);
+    Assert.assertArrayEquals("encoded", expected,
+        Arrays.copyOfRange(out, 10, 10 + expected.length));
+  }
+
+  private static void assertEncoding(BigInteger serial, Date notBefore, Date notAfter,
+      X500Name subject, List<Object[]> extensions) throws Exception {
+    // the signature length determines the length of the BIT STRING in the Certificate
+    for (int signatureLen : new int[]{64, 256, 70000}) {
+      ConstantSigner signer = new ConstantSigner(signatureLen);
+
+      X509v3CertificateBuilder builder = new X509v3CertificateBuilder(ISSUER, serial,
+          notBefore, notAfter, subject, PUBLIC_KEY);
+      if (extensions != null) {
+        for (Object[] extension : extensions) {
+          builder.addExtension((ASN1ObjectIdentifier) extension[0], (Boolean) extension[1],
+              new DEROctetString((byte[]) extension[2]));
+        }
+      }
+      X509CertificateHolder expectedCert = builder.build(signer);
+      byte[] expectedTbs = expectedCert.toASN1Structure().getTBSCertificate()
+          .getEncoded(ASN1Encoding.DER);
+
+      TbsCertificate tbs = newTbsCertificate(serial, notBefore, notAfter, subject,
+          extensions, signer);
+      byte[] encodedTbs = tbs.getEncoded();
+      String desc = "serial=" + serial.toString(16) + ", notBefore=" + notBefore.getTime()
+          + ", notAfter=" + notAfter.getTime() + ", signatureLen=" + signatureLen;
+      Assert.assertEquals("encoded length, " + desc, expectedTbs.length,
+          tbs.getEncodedLength());
+      Assert.assertArrayEquals("TBSCertificate, " + desc, expectedTbs, encodedTbs);
+
+      byte[] encodedCert = TbsCertificate.encodeCertificate(encodedTbs,
+          signer.getAlgorithmIdentifier().getEncoded(ASN1Encoding.DER), signer.getSignature());
+      Assert.assertArrayEquals("Certificate, " + desc, expectedCert.getEncoded(), encodedCert);
+    }
+  } // method assertEncoding
+
+  private static TbsCertificate newTbsCertificate(BigInteger serial, Date notBefore,
+      Date notAfter, X500Name subject, List<Object[]> extensions, ContentSigner signer)
+      throws IOException {
+    List<byte[]> encodedExtensions = null;
+    if (extensions != null) {
+      encodedExtensions = new ArrayList<>(extensions.size());
+      for (Object[] extension : extensions) {
+        byte[] value = new DEROctetString((byte[]) extension[2]).getEncoded(ASN1Encoding.DER);
+        encodedExtensions.add(TbsCertificate.encodeExtension((ASN1ObjectIdentifier) extension[0],
+            (Boolean) extension[1], value));
+      }
+    }
+
+    return new TbsCertificate(serial,
+        signer.getAlgorithmIdentifier().getEncoded(ASN1Encoding.DER),
+        ISSUER.getEncoded(ASN1Encoding.DER), notBefore, notAfter,
+        subject.getEncoded(ASN1Encoding.DER), PUBLIC_KEY.getEncoded(ASN1Encoding.DER),
+        encodedExtensions);
+  }
+
+  /**
+   * Returns the type, criticality and value of an extension whose extension value is an OCTET
+   * STRING wrapping {@code valueLen} bytes.
+   */
+  private static Object[] extension(String oid, boolean critical, int valueLen) {
+    byte[] value = new byte[valueLen];
+    for (int i = 0; i < valueLen; i++) {
+      value[i] = (byte) i;
+    }
+    return new Object[]{new ASN1ObjectIdentifier(oid), critical, value};
+  }
+
+  private static SubjectPublicKeyInfo newPublicKey() {
+    byte[] point = new byte[65];
+    point[0] = 0x04;
+    Arrays.fill(point, 1, point.length, (byte) 0x11);
+    return new SubjectPublicKeyInfo(new AlgorithmIdentifier(X9ObjectIdentifiers.id_ecPublicKey,
+        SECObjectIdentifiers.secp256r1), point);
+  }
+
+  private static Date date(int year, int month, int day, int hour, int minute, int second) {
+    return Date.from(OffsetDateTime.of(year, month, day, hour, minute, second, 0,
+        ZoneOffset.UTC).toInstant());
+  }
+
+  private static String repeat(String text, int num) {
+    StringBuilder sb = new StringBuilder(text.length() * num);
+    for (int i = 0; i < num; i++) {
+      sb.append(text);
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,344 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server.impl.store;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xipki.ca.api.NameId;
+import org.xipki.ca.api.OperationException;
+import org.xipki.ca.api.OperationException.ErrorCode;
+import org.xipki.ca.api.RequestType;
+import org.xipki.ca.api.X509CertWithDbId;
+import org.xipki.ca.server.impl.store.CertStoreQueryExecutor.CertRow;
+import org.xipki.datasource.DataAccessException;
+
+/**
+ * Tests the group commit of {@link CertBatchWriter} with a stub instead of the database.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class CertBatchWriterTest {
+
+  /**
+   * Records the batches, and fails each batch which contains one of the faulty rows.
+   */
+  private static class RecordingAdder implements CertBatchWriter.CertAdder {
+
+    private final List<List<CertRow>> batches = new CopyOnWriteArrayList<>();
+
+    private final Set<CertRow> faultyRows = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private volatile long delayMs;
+
+    private volatile RuntimeException runtimeException;
+
+    @Override
+    public void addCerts(List<CertRow> rows) throws DataAccessException, OperationException {
+      if (delayMs > 0) {
+        try {
+          Thread.sleep(delayMs);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      if (runtimeException != null) {
+        throw runtimeException;
+      }
+
+      for (CertRow row : rows) {
+        if (faultyRows.contains(row)) {
+          throw new DataAccessException("faulty certificate");
+        }
+      }
+      batches.add(new ArrayList<>(rows));
+    }
+
+    /**
+     * Returns the number of times each row has been added.
+     */
+    Map<CertRow, Integer> addedRows() {
+      Map<CertRow, Integer> added = new IdentityHashMap<>();
+      for (List<CertRow> batch : batches) {
+        for (CertRow row : batch) {
+          added.merge(row, 1, Integer::sum);
+        }
+      }
+      return added;
+    }
+
+  } // class RecordingAdder
+
+  private static X509CertWithDbId cert;
+
+  private static byte[] encodedSpki;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("EC");
+    kpGen.initialize(256);
+    KeyPair kp = kpGen.generateKeyPair();
+    encodedSpki = kp.getPublic().getEncoded();
+
+    X500Name name = new X500Name("CN=test,O=example,C=DE");
+    Date notBefore = new Date();
+    Date notAfter = new Date(notBefore.getTime() + 86400000L);
+    X509v3CertificateBuilder builder = new X509v3CertificateBuilder(name, BigInteger.TEN,
+        notBefore, notAfter, name, SubjectPublicKeyInfo.getInstance(encodedSpki));
+    byte[] encoded = builder.build(
+        new JcaContentSignerBuilder("SHA256withECDSA").build(kp.getPrivate())).getEncoded();
+    X509Certificate x509Cert = (X509Certificate) CertificateFactory.getInstance("X.509")
+        .generateCertificate(new ByteArrayInputStream(encoded));
+    cert = new X509CertWithDbId(x509Cert, encoded);
+  }
+
+  @Test
+  public void testSingleWrite() throws Exception {
+    RecordingAdder adder = new RecordingAdder();
+    CertBatchWriter writer = new CertBatchWriter(adder, "test", 10, 0);
+    try {
+      CertRow row = newRow(1);
+      Assert.assertTrue(writer.write(row));
+      Assert.assertEquals(1, adder.batches.size());
+      Assert.assertSame(row, adder.batches.get(0).get(0));
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void testConcurrentWrites() throws Exception {
+    final int maxBatchSize = 8;
+    RecordingAdder adder = new RecordingAdder();
+    // slow transactions, so that the certificates are queued meanwhile
+    adder.delayMs = 5;
+    CertBatchWriter writer = new CertBatchWriter(adder, "test", maxBatchSize, 0);
+
+    List<CertRow> rows = new ArrayList<>();
+    for (int i = 0; i < 400; i++) {
+      rows.add(newRow(i));
+    }
+
+    try {
+      List<Throwable> errors = writeConcurrently(writer, rows, 16);
+      for (Throwable error : errors) {
+        Assert.assertNull(String.valueOf(error), error);
+      }
+    } finally {
+      writer.close();
+    }
+
+    Map<CertRow, Integer> added = adder.addedRows();
+    Assert.assertEquals(rows.size(), added.size());
+    for (CertRow row : rows) {
+      Assert.assertEquals(Integer.valueOf(1), added.get(row));
+    }
+
+    int maxSize = 0;
+    for (List<CertRow> batch : adder.batches) {
+      maxSize = Math.max(maxSize, batch.size());
+    }
+    Assert.assertTrue("no certificates grouped", maxSize > 1);
+    Assert.assertTrue("batch too large: " + maxSize, maxSize <= maxBatchSize);
+    Assert.assertTrue(adder.batches.size() < rows.size());
+  }
+
+  @Test
+  public void testMaxDelayGroupsCertificates() throws Exception {
+    final int maxBatchSize = 3;
+    RecordingAdder adder = new RecordingAdder();
+    CertBatchWriter writer = new CertBatchWriter(adder, "test", maxBatchSize, 5000);
+
+    List<CertRow> rows = new ArrayList<>();
+    for (int i = 0; i < maxBatchSize; i++) {
+      rows.add(newRow(i));
+    }
+
+    long start = System.currentTimeMillis();
+    try {
+      List<Throwable> errors = writeConcurrently(writer, rows, maxBatchSize);
+      for (Throwable error : errors) {
+        Assert.assertNull(String.valueOf(error), error);
+      }
+    } finally {
+      writer.close();
+    }
+
+    // a full batch is committed without waiting for the maximal delay
+    Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+    Assert.assertEquals(1, adder.batches.size());
+    Assert.assertEquals(maxBatchSize, adder.batches.get(0).size());
+  }
+
+  @Test
+  public void testFaultyCertificateInBatch() throws Exception {
+    RecordingAdder adder = new RecordingAdder();
+    adder.delayMs = 5;
+    CertBatchWriter writer = new CertBatchWriter(adder, "test", 16, 50);
+
+    List<CertRow> rows = new ArrayList<>();
+    for (int i = 0; i < 64; i++) {
+      CertRow row = newRow(i);
+      rows.add(row);
+      if (i % 10 == 3) {
+        adder.faultyRows.add(row);
+      }
+    }
+
+    List<Throwable> errors;
+    try {
+      errors = writeConcurrently(writer, rows, 16);
+    } finally {
+      writer.close();
+    }
+
+    Map<CertRow, Integer> added = adder.addedRows();
+    for (int i = 0; i < rows.size(); i++) {
+      CertRow row = rows.get(i);
+      if (adder.faultyRows.contains(row)) {
+        Assert.assertTrue("row " + i, errors.get(i) instanceof DataAccessException);
+        Assert.assertNull("row " + i, added.get(row));
+      } else {
+        Assert.assertNull("row " + i, errors.get(i));
+        Assert.assertEquals("row " + i, Integer.valueOf(1), added.get(row));
+      }
+    }
+  }
+
+  @Test
+  public void testRuntimeException() throws Exception {
+    RecordingAdder adder = new RecordingAdder();
+    adder.runtimeException = new IllegalStateException("test");
+    CertBatchWriter writer = new CertBatchWriter(adder, "test", 10, 0);
+    try {
+      writer.write(newRow(1));
+      Assert.fail("OperationException expected");
+    } catch (OperationException ex) {
+      Assert.assertEquals(ErrorCode.SYSTEM_FAILURE, ex.getErrorCode());
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void testClosed() throws Exception {
+    RecordingAdder adder = new RecordingAdder();
+    CertBatchWriter writer = new CertBatchWriter(adder, "test", 10, 0);
+    writer.close();
+    Assert.assertFalse(writer.write(newRow(1)));
+    Assert.assertTrue(adder.batches.isEmpty());
+  }
+
+  @Test
+  public void testCloseFlushesQueuedCertificates() throws Exception {
+    RecordingAdder adder = new RecordingAdder();
+    // the first transaction is still running when the writer is closed
+    adder.delayMs = 200;
+    CertBatchWriter writer = new CertBatchWriter(adder, "test", 2, 0);
+
+    List<CertRow> rows = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      rows.add(newRow(i));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(rows.size());
+    try {
+      List<Future<Boolean>> results = new ArrayList<>();
+      for (CertRow row : rows) {
+        results.add(executor.submit(() -> writer.write(row)));
+      }
+      Thread.sleep(50);
+      writer.close();
+
+      for (int i = 0; i < rows.size(); i++) {
+        Assert.assertTrue("row " + i, results.get(i).get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    Map<CertRow, Integer> added = adder.addedRows();
+    Assert.assertEquals(rows.size(), added.size());
+  }
+
+  /**
+   * Writes the rows with the given number of threads.
+   * @return the error of each row, {@code null} if the row has been written.
+   */
+  private static List<Throwable> writeConcurrently(final CertBatchWriter writer,
+      List<CertRow> rows, int threads) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final CountDownLatch start = new CountDownLatch(1);
+    try {
+      List<Future<Throwable>> results = new ArrayList<>(rows.size());
+      for (final CertRow row : rows) {
+        results.add(executor.submit(() -> {
+          start.await();
+          try {
+            return writer.write(row) ? null : new IllegalStateException("writer closed");
+          } catch (DataAccessException | OperationException ex) {
+            return ex;
+          }
+        }));
+      }
+      start.countDown();
+
+      List<Throwable> errors = new ArrayList<>(rows.size());
+      for (Future<Throwable> result : results) {
+        errors.add(result.get(30, TimeUnit.SECONDS));
+      }
+      return errors;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static CertRow newRow(long certId) {
+    return new CertRow(certId, new NameId(1, "ca"), cert, encodedSpki, new NameId(2, "profile"),
+        new NameId(3, "requestor"), null, RequestType.CA, null, null, 350);
+  }
+
+}
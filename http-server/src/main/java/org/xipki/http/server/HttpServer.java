@@ -19,6 +19,14 @@ package org.xipki.http.server;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.net.ssl.SSLSession;
 
@@ -85,6 +93,16 @@ public final class HttpServer {
 
   private class NettyHttpServerHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
 
+    /**
+     * Requests received while an earlier request of this channel is processed by the
+     * executor. The requests of a channel are processed one after another, so that the
+     * responses to pipelined HTTP/1.1 requests are written in the order of the requests.
+     * Only accessed in the event loop of the channel.
+     */
+    private final Deque<FullHttpRequest> pendingRequests = new ArrayDeque<>();
+
+    private boolean processing;
+
     private NettyHttpServerHandler() {
       super(true);
     }
@@ -92,6 +110,26 @@ public final class HttpServer {
     @Override
     public void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request)
             throws Exception {
+      if (processing) {
+        // the request will be released by SimpleChannelInboundHandler after this method
+        pendingRequests.add(request.retain());
+        return;
+      }
+
+      handleRequest(ctx, request);
+    } // method channelRead0
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+      FullHttpRequest request;
+      while ((request = pendingRequests.poll()) != null) {
+        request.release();
+      }
+      super.channelInactive(ctx);
+    }
+
+    private void handleRequest(ChannelHandlerContext ctx, FullHttpRequest request)
+        throws Exception {
       if (!request.decoderResult().isSuccess()) {
         sendError(ctx, HttpResponseStatus.BAD_REQUEST);
         return;
@@ -115,6 +153,62 @@ public final class HttpServer {
         }
       }
 
+      ThreadPoolExecutor exec = executor;
+      if (exec == null) {
+        processRequest(ctx, request, servletUri, servlet, sslSession);
+        if (processing) {
+          processNextRequest(ctx);
+        }
+        return;
+      }
+
+      // do not read further requests until the response to this one is written
+      processing = true;
+      ctx.channel().config().setAutoRead(false);
+
+      // the request will be released by the caller after this method
+      request.retain();
+      try {
+        final SSLSession tlsSession = sslSession;
+        exec.execute(() -> {
+          try {
+            processRequest(ctx, request, servletUri, servlet, tlsSession);
+          } finally {
+            request.release();
+            // runs in the event loop after the response has been passed to the channel
+            ctx.executor().execute(() -> processNextRequest(ctx));
+          }
+        });
+      } catch (RejectedExecutionException ex) {
+        try {
+          LOG.debug("too many pending requests, reject request {}", request.uri());
+          writeResponse(ctx, servlet.createOverloadResponse(request, servletUri));
+        } finally {
+          request.release();
+        }
+        processNextRequest(ctx);
+      }
+    } // method handleRequest
+
+    private void processNextRequest(ChannelHandlerContext ctx) {
+      FullHttpRequest request = ctx.channel().isActive() ? pendingRequests.poll() : null;
+      if (request == null) {
+        processing = false;
+        ctx.channel().config().setAutoRead(true);
+        return;
+      }
+
+      try {
+        handleRequest(ctx, request);
+      } catch (Exception ex) {
+        exceptionCaught(ctx, ex);
+      } finally {
+        request.release();
+      }
+    } // method processNextRequest
+
+    private void processRequest(ChannelHandlerContext ctx, FullHttpRequest request,
+        ServletURI servletUri, HttpServlet servlet, SSLSession sslSession) {
       FullHttpResponse response;
       try {
         response = servlet.service(request, servletUri, sslSession, sslReverseProxyMode);
@@ -124,9 +218,13 @@ public final class HttpServer {
         return;
       }
 
+      writeResponse(ctx, response);
+    }
+
+    private void writeResponse(ChannelHandlerContext ctx, FullHttpResponse response) {
       boolean keepAlive = true;
       int status = response.status().code();
-      if (status < 200 | status > 299) {
+      if ((status < 200 | status > 299) && status != 304) {
         keepAlive = false;
       }
 
@@ -181,6 +279,12 @@ public final class HttpServer {
 
   private SslReverseProxyMode sslReverseProxyMode = SslReverseProxyMode.NONE;
 
+  private int executorThreads;
+
+  private int executorQueueSize;
+
+  private ThreadPoolExecutor executor;
+
   public void setSslReverseProxyMode(SslReverseProxyMode mode) {
     this.sslReverseProxyMode = (mode == null) ? SslReverseProxyMode.NONE : mode;
   }
@@ -195,6 +299,23 @@ public final class HttpServer {
     this.servletListener = servletListener;
   }
 
+  /**
+   * Processes the requests in a separate bounded thread pool instead of the I/O threads.
+   * Must be called before {@link #start()}.
+   * @param threads
+   *          Number of threads. Non-positive value to use the default value 4 times the
+   *          number of processors.
+   * @param queueSize
+   *          Maximal number of requests waiting to be processed. Requests beyond this
+   *          limit are answered with {@link HttpServlet#createOverloadResponse}. Non-positive
+   *          value to use the default value 1000.
+   */
+  public void setExecutor(int threads, int queueSize) {
+    this.executorThreads = (threads > 0) ? threads
+        : 4 * Runtime.getRuntime().availableProcessors();
+    this.executorQueueSize = (queueSize > 0) ? queueSize : 1000;
+  }
+
   static {
     String os = System.getProperty("os.name").toLowerCase();
     ClassLoader loader = HttpServer.class.getClassLoader();
@@ -288,6 +409,21 @@ public final class HttpServer {
       .handler(new LoggingHandler())
       .childHandler(new NettyHttpServerInitializer());
 
+    if (executorThreads > 0) {
+      final AtomicInteger threadIndex = new AtomicInteger(0);
+      ThreadFactory threadFactory = runnable -> {
+        Thread thread = new Thread(runnable, "httpserver-" + port + "-"
+            + threadIndex.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      };
+      this.executor = new ThreadPoolExecutor(executorThreads, executorThreads,
+          60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(executorQueueSize),
+          threadFactory, new ThreadPoolExecutor.AbortPolicy());
+      LOG.info("HTTP server on port {} uses {} threads with queue size {} to process requests",
+          port, executorThreads, executorQueueSize);
+    }
+
     bootstrap.bind(port).syncUninterruptibly();
     LOG.info("HTTP server is listening on port {}", port);
   }
@@ -297,6 +433,10 @@ public final class HttpServer {
     bossGroup = null;
     workerGroup.shutdownGracefully();
     workerGroup = null;
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
   }
 
   private static Class<?> clazz(String clazzName, boolean initialize, ClassLoader clazzLoader)
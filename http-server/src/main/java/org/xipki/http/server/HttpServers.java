@@ -42,6 +42,7 @@ import javax.net.ssl.SSLParameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.http.servlet.SslReverseProxyMode;
+import org.xipki.httpserver.v1.jaxb.ExecutorType;
 import org.xipki.httpserver.v1.jaxb.FileOrValueType;
 import org.xipki.httpserver.v1.jaxb.HttpserverType;
 import org.xipki.httpserver.v1.jaxb.KeystoreType;
@@ -124,6 +125,12 @@ public final class HttpServers {
       HttpServer server = new HttpServer(buildSslContext(conf), port, numThreads);
       server.setServletListener(servletListener);
       server.setSslReverseProxyMode(mode);
+      ExecutorType executorConf = conf.getExecutor();
+      if (executorConf != null) {
+        server.setExecutor(
+            (executorConf.getThreads() == null) ? 0 : executorConf.getThreads().intValue(),
+            (executorConf.getQueueSize() == null) ? 0 : executorConf.getQueueSize().intValue());
+      }
       servers.add(server);
     }
 
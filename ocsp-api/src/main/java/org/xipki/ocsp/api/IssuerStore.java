@@ -19,46 +19,138 @@ package org.xipki.ocsp.api;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.xipki.common.util.CompareUtil;
+import org.xipki.security.HashAlgo;
+
 /**
- * TODO.
+ * Store of the issuers. The issuers are indexed by their ids and, for each hash algorithm,
+ * by the hash of issuer's name and key, so that the lookup does not depend on the number
+ * of issuers. Since adding an issuer is rare, the indexes are immutable and will be
+ * replaced by new copies in {@link #addIssuer(IssuerEntry)}.
+ *
  * @author Lijun Liao
  * @since 2.0.0
  */
 
 public class IssuerStore {
 
-  private final List<IssuerEntry> entries;
+  /**
+   * Key of the issuer name-and-key hash, as it is encoded in the CertID of OCSP request.
+   */
+  private static final class HashKey {
+
+    private final byte[] data;
+
+    private final int offset;
+
+    private final int length;
+
+    private final int hashCode;
+
+    HashKey(byte[] data, int offset, int length) {
+      this.data = data;
+      this.offset = offset;
+      this.length = length;
+
+      int hash = 1;
+      for (int i = 0; i < length; i++) {
+        hash = 31 * hash + data[offset + i];
+      }
+      this.hashCode = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof HashKey)) {
+        return false;
+      }
+
+      HashKey other = (HashKey) obj;
+      return hashCode == other.hashCode && length == other.length
+          && CompareUtil.areEqual(data, offset, other.data, other.offset, length);
+    }
+
+  } // class HashKey
+
+  private static final class Snapshot {
+
+    private final List<IssuerEntry> entries;
+
+    private final Set<Integer> ids;
+
+    private final Map<Integer, IssuerEntry> idMap;
 
-  private Set<Integer> ids;
+    private final Map<HashAlgo, Map<HashKey, IssuerEntry>> hashMaps;
+
+    Snapshot(List<IssuerEntry> entries) {
+      this.entries = Collections.unmodifiableList(entries);
+
+      Map<Integer, IssuerEntry> tmpIdMap = new HashMap<>(entries.size() * 4 / 3 + 1);
+      Map<HashAlgo, Map<HashKey, IssuerEntry>> tmpHashMaps = new EnumMap<>(HashAlgo.class);
+      for (HashAlgo ha : HashAlgo.values()) {
+        tmpHashMaps.put(ha, new HashMap<HashKey, IssuerEntry>(entries.size() * 4 / 3 + 1));
+      }
+
+      for (IssuerEntry entry : entries) {
+        // the first entry wins, as the former linear lookup
+        if (!tmpIdMap.containsKey(entry.getId())) {
+          tmpIdMap.put(entry.getId(), entry);
+        }
+
+        for (HashAlgo ha : HashAlgo.values()) {
+          byte[] hash = entry.getEncodedHash(ha);
+          HashKey key = new HashKey(hash, 0, hash.length);
+          Map<HashKey, IssuerEntry> map = tmpHashMaps.get(ha);
+          if (!map.containsKey(key)) {
+            map.put(key, entry);
+          }
+        }
+      }
+
+      this.idMap = tmpIdMap;
+      this.ids = Collections.unmodifiableSet(tmpIdMap.keySet());
+      this.hashMaps = tmpHashMaps;
+    }
+
+  } // class Snapshot
+
+  private volatile Snapshot snapshot;
 
   public IssuerStore(List<IssuerEntry> entries) {
-    this.entries = new ArrayList<>(entries.size());
+    List<IssuerEntry> list = new ArrayList<>(entries.size());
     Set<Integer> idSet = new HashSet<>(entries.size());
 
     for (IssuerEntry entry : entries) {
-      for (IssuerEntry existingEntry : this.entries) {
-        if (existingEntry.getId() == entry.getId()) {
-          throw new IllegalArgumentException(
-              "issuer with the same id " + entry.getId() + " already available");
-        }
+      if (!idSet.add(entry.getId())) {
+        throw new IllegalArgumentException(
+            "issuer with the same id " + entry.getId() + " already available");
       }
-      this.entries.add(entry);
-      idSet.add(entry.getId());
+      list.add(entry);
     }
 
-    this.ids = Collections.unmodifiableSet(idSet);
+    this.snapshot = new Snapshot(list);
   }
 
   public int size() {
-    return ids.size();
+    return snapshot.ids.size();
   }
 
   public Set<Integer> getIds() {
-    return ids;
+    return snapshot.ids;
   }
 
   public Integer getIssuerIdForFp(RequestIssuer reqIssuer) {
@@ -67,30 +159,31 @@ public class IssuerStore {
   }
 
   public IssuerEntry getIssuerForId(int id) {
-    for (IssuerEntry entry : entries) {
-      if (entry.getId() == id) {
-        return entry;
-      }
-    }
-
-    return null;
+    return snapshot.idMap.get(id);
   }
 
   public IssuerEntry getIssuerForFp(RequestIssuer reqIssuer) {
-    for (IssuerEntry entry : entries) {
-      if (entry.matchHash(reqIssuer)) {
-        return entry;
-      }
+    HashAlgo hashAlgo = reqIssuer.hashAlgorithm();
+    if (hashAlgo == null) {
+      return null;
+    }
+
+    // nameHash and keyHash, each encoded as OCTET STRING
+    int len = (2 + hashAlgo.getLength()) << 1;
+    byte[] data = reqIssuer.getData();
+    int offset = reqIssuer.getNameHashFrom();
+    if (offset + len > data.length) {
+      return null;
     }
 
-    return null;
+    return snapshot.hashMaps.get(hashAlgo).get(new HashKey(data, offset, len));
   }
 
-  public void addIssuer(IssuerEntry issuer) {
-    this.entries.add(issuer);
-    Set<Integer> newIds = new HashSet<>(this.ids);
-    newIds.add(issuer.getId());
-    this.ids = Collections.unmodifiableSet(newIds);
+  public synchronized void addIssuer(IssuerEntry issuer) {
+    List<IssuerEntry> newEntries = new ArrayList<>(snapshot.entries.size() + 1);
+    newEntries.addAll(snapshot.entries);
+    newEntries.add(issuer);
+    this.snapshot = new Snapshot(newEntries);
   }
 
 }
@@ -34,4 +34,12 @@ public interface OcspServer {
   OcspRespWithCacheInfo answer(Responder responder, byte[] request, boolean viaGet);
 
   HealthCheckResult healthCheck(Responder responder);
+
+  /**
+   * Returns the latencies of the processing stages and the counters of the given responder.
+   * @param responder the responder.
+   * @return the metrics in JSON format.
+   */
+  String getMetrics(Responder responder);
+
 }
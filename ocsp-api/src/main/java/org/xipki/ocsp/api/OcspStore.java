@@ -19,7 +19,9 @@ package org.xipki.ocsp.api;
 
 import java.math.BigInteger;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import org.xipki.common.util.ParamUtil;
 import org.xipki.datasource.DataSourceWrapper;
@@ -87,6 +89,37 @@ public abstract class OcspStore {
       BigInteger serialNumber, boolean includeCertHash, boolean includeRit,
       boolean inheritCaRevocation) throws OcspStoreException;
 
+  /**
+   * Returns the status of several certificates of the same issuer. The default
+   * implementation calls {@link #getCertStatus(Date, RequestIssuer, BigInteger, boolean,
+   * boolean, boolean)} for each serial number, stores which can look up several certificates
+   * at once shall overwrite this method.
+   * @param time
+   *          Time of the certificate status. Must not be {@code null}.
+   * @param reqIssuer
+   *          Requested issuer
+   * @param serialNumbers
+   *          Serial numbers of the target certificates. Must not be {@code null}.
+   * @param includeCertHash
+   *          Whether to include the hash of target certificate in the response.
+   * @param includeRit
+   *          Whether to include the revocation invalidity time in the response.
+   * @param inheritCaRevocation
+   *          Whether to inherit CA revocation
+   * @return the certificate status, in the same order as the serialNumbers. An element is
+   *          {@code null} if the issuer is unknown.
+   */
+  public List<CertStatusInfo> getCertStatuses(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    List<CertStatusInfo> ret = new ArrayList<>(serialNumbers.size());
+    for (BigInteger serialNumber : serialNumbers) {
+      ret.add(getCertStatus(time, reqIssuer, serialNumber, includeCertHash, includeRit,
+          inheritCaRevocation));
+    }
+    return ret;
+  }
+
   /**
    * TODO.
    * @param conf
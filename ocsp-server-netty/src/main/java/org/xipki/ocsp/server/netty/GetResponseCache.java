@@ -0,0 +1,177 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.netty;
+
+import java.util.Date;
+
+import org.xipki.common.LruCache;
+import org.xipki.common.util.ParamUtil;
+
+import io.netty.handler.codec.DateFormatter;
+
+/**
+ * Cache of the complete HTTP responses to the OCSP requests via HTTP GET, keyed by the
+ * request path. The cache is bounded by the total size of the cached responses.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+class GetResponseCache {
+
+  static final class Entry {
+
+    private final byte[] response;
+
+    private final String etag;
+
+    private final String lastModified;
+
+    private final String expires;
+
+    private final long expireAt;
+
+    Entry(byte[] response, String etag, long thisUpdate, Long nextUpdate, long maxAge) {
+      this.response = ParamUtil.requireNonNull("response", response);
+      this.etag = ParamUtil.requireNonNull("etag", etag);
+      this.lastModified = DateFormatter.format(new Date(thisUpdate));
+      this.expires = (nextUpdate == null) ? null : DateFormatter.format(new Date(nextUpdate));
+      long expireAt0 = System.currentTimeMillis() + maxAge * 1000;
+      if (nextUpdate != null) {
+        expireAt0 = Math.min(expireAt0, nextUpdate);
+      }
+      this.expireAt = expireAt0;
+    }
+
+    byte[] getResponse() {
+      return response;
+    }
+
+    String getEtag() {
+      return etag;
+    }
+
+    String getLastModified() {
+      return lastModified;
+    }
+
+    String getExpires() {
+      return expires;
+    }
+
+    /**
+     * Returns the header Cache-Control. The max-age is the remaining lifetime of this entry, so
+     * that the downstream caches do not keep the response longer than this cache.
+     * @return the header Cache-Control.
+     */
+    String getCacheControl() {
+      long remainingAge = Math.max(0, (expireAt - System.currentTimeMillis()) / 1000);
+      return "max-age=" + remainingAge + ",public,no-transform,must-revalidate";
+    }
+
+    boolean isExpired() {
+      return expireAt <= System.currentTimeMillis();
+    }
+
+    /**
+     * Whether the client has already the response with this ETag.
+     * @param ifNoneMatch value of the header If-None-Match, may be {@code null}.
+     * @return whether the header If-None-Match matches the ETag of this response.
+     */
+    boolean matches(String ifNoneMatch) {
+      if (ifNoneMatch == null) {
+        return false;
+      }
+
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        if (tag.startsWith("W/")) {
+          tag = tag.substring(2);
+        }
+
+        if ("*".equals(tag) || etag.equals(tag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private int size() {
+      return response.length + ENTRY_OVERHEAD;
+    }
+
+  } // class Entry
+
+  private static class EntryCache extends LruCache<String, Entry> {
+
+    EntryCache(int maxSize) {
+      super(maxSize);
+    }
+
+    @Override
+    protected int sizeOf(String key, Entry value) {
+      return 2 * key.length() + value.size();
+    }
+
+  } // class EntryCache
+
+  /**
+   * Approximated size of the objects of an entry, excluding the response and the key.
+   */
+  private static final int ENTRY_OVERHEAD = 400;
+
+  private final EntryCache cache;
+
+  /**
+   * Constructor.
+   * @param maxSize maximal size in bytes of the cached responses.
+   */
+  GetResponseCache(int maxSize) {
+    this.cache = new EntryCache(ParamUtil.requireMin("maxSize", maxSize, 1));
+  }
+
+  Entry get(String path) {
+    Entry entry = cache.get(path);
+    if (entry == null) {
+      return null;
+    }
+
+    if (entry.isExpired()) {
+      cache.remove(path);
+      return null;
+    }
+    return entry;
+  }
+
+  void put(String path, Entry entry) {
+    if (entry.isExpired() || 2 * path.length() + entry.size() > cache.maxSize()) {
+      return;
+    }
+    cache.put(path, entry);
+  }
+
+  void clear() {
+    cache.evictAll();
+  }
+
+  @Override
+  public String toString() {
+    return cache.toString();
+  }
+
+}
@@ -25,6 +25,7 @@ import javax.net.ssl.SSLSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.common.util.Base64;
+import org.xipki.common.util.Hex;
 import org.xipki.common.util.LogUtil;
 import org.xipki.common.util.ParamUtil;
 import org.xipki.common.util.StringUtil;
@@ -37,8 +38,10 @@ import org.xipki.ocsp.api.Responder;
 import org.xipki.ocsp.api.ResponderAndPath;
 import org.xipki.security.HashAlgo;
 
+import io.netty.handler.codec.DateFormatter;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpResponseStatus;
@@ -52,6 +55,19 @@ import io.netty.handler.codec.http.HttpVersion;
 
 public class HttpOcspServlet extends AbstractHttpServlet {
 
+  private static final class FormattedDate {
+
+    private final long second;
+
+    private final String value;
+
+    FormattedDate(long second, String value) {
+      this.second = second;
+      this.value = value;
+    }
+
+  } // class FormattedDate
+
   private static final Logger LOG = LoggerFactory.getLogger(HttpOcspServlet.class);
 
   private static final long DFLT_CACHE_MAX_AGE = 60; // 1 minute
@@ -60,8 +76,17 @@ public class HttpOcspServlet extends AbstractHttpServlet {
 
   private static final String CT_RESPONSE = "application/ocsp-response";
 
+  /**
+   * Encoded OCSPResponse with status tryLater.
+   */
+  private static final byte[] TRY_LATER_RESPONSE = Hex.decode("30030a0103");
+
+  private static volatile FormattedDate formattedDate;
+
   private OcspServer server;
 
+  private GetResponseCache getResponseCache;
+
   public HttpOcspServlet() {
   }
 
@@ -69,6 +94,14 @@ public class HttpOcspServlet extends AbstractHttpServlet {
     this.server = ParamUtil.requireNonNull("server", server);
   }
 
+  /**
+   * Sets the maximal size in bytes of the cache of the responses to requests via HTTP GET.
+   * @param size maximal size in bytes, non-positive value to disable the cache.
+   */
+  public void setGetResponseCacheSize(int size) {
+    this.getResponseCache = (size > 0) ? new GetResponseCache(size) : null;
+  }
+
   @Override
   public FullHttpResponse service(FullHttpRequest request, ServletURI servletUri,
       SSLSession sslSession, SslReverseProxyMode sslReverseProxyMode) throws Exception {
@@ -91,6 +124,12 @@ public class HttpOcspServlet extends AbstractHttpServlet {
 
   }
 
+  @Override
+  public FullHttpResponse createOverloadResponse(FullHttpRequest request,
+      ServletURI servletUri) {
+    return createOKResponse(request.protocolVersion(), CT_RESPONSE, TRY_LATER_RESPONSE);
+  }
+
   private FullHttpResponse servicePost(FullHttpRequest request, ServletURI servletUri,
       SSLSession sslSession, SslReverseProxyMode sslReverseProxyMode) throws Exception {
     HttpVersion version = request.protocolVersion();
@@ -138,13 +177,20 @@ public class HttpOcspServlet extends AbstractHttpServlet {
   private FullHttpResponse serviceGet(FullHttpRequest request, ServletURI servletUri,
       SSLSession sslSession, SslReverseProxyMode sslReverseProxyMode) throws Exception {
     HttpVersion version = request.protocolVersion();
+    String path = servletUri.getPath();
+
+    if (getResponseCache != null) {
+      GetResponseCache.Entry entry = getResponseCache.get(path);
+      if (entry != null) {
+        return createCacheableResponse(request, entry);
+      }
+    }
 
     ResponderAndPath responderAndPath = server.getResponderForPath(servletUri.getPath());
     if (responderAndPath == null) {
       return createErrorResponse(version, HttpResponseStatus.NOT_FOUND);
     }
 
-    String path = servletUri.getPath();
     String servletPath = responderAndPath.getServletPath();
     Responder responder = responderAndPath.getResponder();
 
@@ -180,48 +226,32 @@ public class HttpOcspServlet extends AbstractHttpServlet {
 
       byte[] encodedOcspResp = ocspRespWithCacheInfo.getResponse();
 
-      FullHttpResponse response = createOKResponse(version, CT_RESPONSE, encodedOcspResp);
-
       OcspRespWithCacheInfo.ResponseCacheInfo cacheInfo = ocspRespWithCacheInfo.getCacheInfo();
-      if (cacheInfo != null) {
-        encodedOcspResp = ocspRespWithCacheInfo.getResponse();
-        HttpHeaders headers = response.headers();
-        // RFC 5019 6.2: Date: The date and time at which the OCSP server generated
-        // the HTTP response.
-        headers.add("Date", new Date());
-        // RFC 5019 6.2: Last-Modified: date and time at which the OCSP responder
-        // last modified the response.
-        headers.add("Last-Modified", new Date(cacheInfo.getThisUpdate()));
-        // RFC 5019 6.2: Expires: This date and time will be the same as the
-        // nextUpdate time-stamp in the OCSP
-        // response itself.
-        // This is overridden by max-age on HTTP/1.1 compatible components
-        if (cacheInfo.getNextUpdate() != null) {
-          headers.add("Expires", new Date(cacheInfo.getNextUpdate()));
-        }
-        // RFC 5019 6.2: This profile RECOMMENDS that the ETag value be the ASCII
-        // HEX representation of the SHA1 hash of the OCSPResponse structure.
-        headers.add("ETag", StringUtil.concat("\\", HashAlgo.SHA1.hexHash(encodedOcspResp), "\\"));
-
-        // Max age must be in seconds in the cache-control header
-
-        long maxAge;
-        if (responder.getCacheMaxAge() != null) {
-          maxAge = responder.getCacheMaxAge().longValue();
-        } else {
-          maxAge = DFLT_CACHE_MAX_AGE;
-        }
-
-        if (cacheInfo.getNextUpdate() != null) {
-          maxAge = Math.min(maxAge, (cacheInfo.getNextUpdate() - cacheInfo.getThisUpdate()) / 1000);
-        }
-
-        headers.add("Cache-Control",
-            StringUtil.concat("max-age=", Long.toString(maxAge),
-                ",public,no-transform,must-revalidate"));
-      } // end if (ocspRespWithCacheInfo)
-
-      return response;
+      if (cacheInfo == null) {
+        return createOKResponse(version, CT_RESPONSE, encodedOcspResp);
+      }
+
+      // Max age must be in seconds in the cache-control header
+      long maxAge;
+      if (responder.getCacheMaxAge() != null) {
+        maxAge = responder.getCacheMaxAge().longValue();
+      } else {
+        maxAge = DFLT_CACHE_MAX_AGE;
+      }
+
+      if (cacheInfo.getNextUpdate() != null) {
+        maxAge = Math.min(maxAge, (cacheInfo.getNextUpdate() - cacheInfo.getThisUpdate()) / 1000);
+      }
+
+      // RFC 5019 6.2: This profile RECOMMENDS that the ETag value be the ASCII
+      // HEX representation of the SHA1 hash of the OCSPResponse structure.
+      String etag = StringUtil.concat("\"", HashAlgo.SHA1.hexHash(encodedOcspResp), "\"");
+      GetResponseCache.Entry entry = new GetResponseCache.Entry(encodedOcspResp, etag,
+          cacheInfo.getThisUpdate(), cacheInfo.getNextUpdate(), maxAge);
+      if (getResponseCache != null) {
+        getResponseCache.put(path, entry);
+      }
+      return createCacheableResponse(request, entry);
     } catch (Throwable th) {
       if (th instanceof EOFException) {
         LogUtil.warn(LOG, th, "Connection reset by peer");
@@ -232,4 +262,49 @@ public class HttpOcspServlet extends AbstractHttpServlet {
     } // end external try
   } // method serviceGet
 
+  private static FullHttpResponse createCacheableResponse(FullHttpRequest request,
+      GetResponseCache.Entry entry) {
+    HttpVersion version = request.protocolVersion();
+    FullHttpResponse response;
+    if (entry.matches(request.headers().get(HttpHeaderNames.IF_NONE_MATCH))) {
+      response = createErrorResponse(version, HttpResponseStatus.NOT_MODIFIED);
+    } else {
+      response = createOKResponse(version, CT_RESPONSE, entry.getResponse());
+    }
+
+    HttpHeaders headers = response.headers();
+    // RFC 5019 6.2: Date: The date and time at which the OCSP server generated
+    // the HTTP response.
+    headers.add(HttpHeaderNames.DATE, currentDate());
+    // RFC 5019 6.2: Last-Modified: date and time at which the OCSP responder
+    // last modified the response.
+    headers.add(HttpHeaderNames.LAST_MODIFIED, entry.getLastModified());
+    // RFC 5019 6.2: Expires: This date and time will be the same as the
+    // nextUpdate time-stamp in the OCSP
+    // response itself.
+    // This is overridden by max-age on HTTP/1.1 compatible components
+    if (entry.getExpires() != null) {
+      headers.add(HttpHeaderNames.EXPIRES, entry.getExpires());
+    }
+    headers.add(HttpHeaderNames.ETAG, entry.getEtag());
+    headers.add(HttpHeaderNames.CACHE_CONTROL, entry.getCacheControl());
+    return response;
+  } // method createCacheableResponse
+
+  /**
+   * Returns the current time formatted for the HTTP header Date. The formatted value is
+   * reused within the same second.
+   */
+  private static String currentDate() {
+    long nowSec = System.currentTimeMillis() / 1000;
+    FormattedDate cached = formattedDate;
+    if (cached != null && cached.second == nowSec) {
+      return cached.value;
+    }
+
+    cached = new FormattedDate(nowSec, DateFormatter.format(new Date(nowSec * 1000)));
+    formattedDate = cached;
+    return cached.value;
+  }
+
 }
@@ -0,0 +1,133 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in microseconds, with log-linear buckets in the manner of the
+ * HdrHistogram: each power of 2 is divided into 16 sub-buckets, so that the relative error
+ * of the reported values is at most 1/16. The recording is lock-free.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * Values up to 2^40 microseconds (about 12 days) are distinguished.
+   */
+  private static final int MAX_SHIFT = 40 - SUB_BUCKET_BITS;
+
+  private static final int NUM_BUCKETS = SUB_BUCKETS * (MAX_SHIFT + 2);
+
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+  private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+  private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+  private final LongAdder totalCount = new LongAdder();
+
+  private final LongAdder totalMicros = new LongAdder();
+
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  /**
+   * Records a latency.
+   * @param nanos the latency in nanoseconds.
+   */
+  void record(long nanos) {
+    long micros = Math.max(0, nanos / 1000);
+    counts.incrementAndGet(bucketIndex(micros));
+    totalCount.increment();
+    totalMicros.add(micros);
+
+    long max = maxMicros.get();
+    while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+      max = maxMicros.get();
+    }
+  }
+
+  long getCount() {
+    return totalCount.sum();
+  }
+
+  /**
+   * Appends the count, mean, max and percentiles in microseconds as JSON object.
+   * @param sb the string builder.
+   */
+  void appendJson(StringBuilder sb) {
+    long[] snapshot = new long[NUM_BUCKETS];
+    long count = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      count += snapshot[i];
+    }
+
+    sb.append("{\"count\":").append(count);
+    if (count > 0) {
+      sb.append(",\"meanUs\":").append(totalMicros.sum() / Math.max(1, totalCount.sum()));
+
+      int bucket = 0;
+      long cumulated = snapshot[0];
+      for (int i = 0; i < PERCENTILES.length; i++) {
+        long rank = (long) Math.ceil(PERCENTILES[i] / 100 * count);
+        while (cumulated < rank && bucket < NUM_BUCKETS - 1) {
+          cumulated += snapshot[++bucket];
+        }
+        sb.append(",\"").append(PERCENTILE_NAMES[i]).append("Us\":")
+          .append(highestValueInBucket(bucket));
+      }
+      sb.append(",\"maxUs\":").append(maxMicros.get());
+    }
+    sb.append("}");
+  }
+
+  private static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    if (shift > MAX_SHIFT) {
+      return NUM_BUCKETS - 1;
+    }
+
+    // (value >>> shift) is within [SUB_BUCKETS, 2 * SUB_BUCKETS)
+    return SUB_BUCKETS * (shift + 1) + (int) (value >>> shift) - SUB_BUCKETS;
+  }
+
+  private static long highestValueInBucket(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+
+    int shift = index / SUB_BUCKETS - 1;
+    long top = SUB_BUCKETS + index % SUB_BUCKETS;
+    return ((top + 1) << shift) - 1;
+  }
+
+}
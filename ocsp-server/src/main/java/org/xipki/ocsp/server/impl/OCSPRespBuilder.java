@@ -49,9 +49,28 @@ public class OCSPRespBuilder {
   private static final byte[] successfulStatus = Hex.decode("0a0100");
   private static final byte[] responseTypeBasic = Hex.decode("06092b0601050507300101");
 
-  private List<SingleResponse> list = new LinkedList<>();
+  /**
+   * Maximal size of the per-thread buffer to encode the tbsResponseData. Larger
+   * tbsResponseData will be encoded in a new byte array.
+   */
+  private static final int MAX_TBS_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Per-thread buffer to encode the tbsResponseData, which is then copied directly into the
+   * encoded OCSPResponse. This avoids a temporary byte array for each response.
+   */
+  private static final ThreadLocal<byte[]> TBS_BUFFER = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[4096];
+    }
+  };
+
+  private List<ASN1Type> list = new LinkedList<>();
   private Extensions responseExtensions = null;
   private ResponderID responderId;
+  private long signerWaitNanos;
+  private long signNanos;
 
   /**
    * basic constructor.
@@ -77,6 +96,15 @@ public class OCSPRespBuilder {
     list.add(new SingleResponse(certId, certStatus, thisUpdate, nextUpdate, singleExtensions));
   }
 
+  /**
+   * Add an already built response, e.g. from a {@code SingleResponseTemplate}.
+   *
+   * @param singleResponse the SingleResponse
+   */
+  public void addResponse(ASN1Type singleResponse) {
+    list.add(singleResponse);
+  }
+
   /**
    * Set the extensions for the response.
    *
@@ -86,6 +114,26 @@ public class OCSPRespBuilder {
     this.responseExtensions = responseExtensions;
   }
 
+  /**
+   * Returns the time waited for an idle signer in the last
+   * {@link #buildOCSPResponse(ConcurrentContentSigner, TaggedCertSequence, Date)}.
+   *
+   * @return the time in nanoseconds.
+   */
+  public long getSignerWaitNanos() {
+    return signerWaitNanos;
+  }
+
+  /**
+   * Returns the time used to sign in the last
+   * {@link #buildOCSPResponse(ConcurrentContentSigner, TaggedCertSequence, Date)}.
+   *
+   * @return the time in nanoseconds.
+   */
+  public long getSignNanos() {
+    return signNanos;
+  }
+
   // CHECKSTYLE:SKIP
   public byte[] buildOCSPResponse(ConcurrentContentSigner signer,
       TaggedCertSequence taggedCertSequence, Date producedAt)
@@ -93,10 +141,27 @@ public class OCSPRespBuilder {
     ResponseData responseData = new ResponseData(0,
         responderId, producedAt, list, responseExtensions);
 
-    byte[] tbs = new byte[responseData.getEncodedLength()];
+    final int tbsLen = responseData.getEncodedLength();
+    byte[] tbs;
+    if (tbsLen > MAX_TBS_BUFFER_SIZE) {
+      tbs = new byte[tbsLen];
+    } else {
+      tbs = TBS_BUFFER.get();
+      if (tbs.length < tbsLen) {
+        tbs = new byte[Math.max(tbsLen, Math.min(2 * tbs.length, MAX_TBS_BUFFER_SIZE))];
+        TBS_BUFFER.set(tbs);
+      }
+    }
     responseData.write(tbs, 0);
 
-    ConcurrentBagEntrySigner signer0 = signer.borrowSigner();
+    long start = System.nanoTime();
+    ConcurrentBagEntrySigner signer0;
+    try {
+      signer0 = signer.borrowSigner();
+    } finally {
+      signerWaitNanos = System.nanoTime() - start;
+    }
+    long borrowed = start + signerWaitNanos;
 
     byte[] signature;
     byte[] sigAlgId;
@@ -105,7 +170,7 @@ public class OCSPRespBuilder {
       XiContentSigner csigner0 = signer0.value();
       OutputStream sigOut = csigner0.getOutputStream();
       try {
-        sigOut.write(tbs);
+        sigOut.write(tbs, 0, tbsLen);
         sigOut.close();
       } catch (IOException ex) {
         throw new OCSPException("exception signing TBSRequest: " + ex.getMessage(), ex);
@@ -115,6 +180,7 @@ public class OCSPRespBuilder {
       sigAlgId = csigner0.getEncodedAlgorithmIdentifier();
     } finally {
       signer.requiteSigner(signer0);
+      signNanos = System.nanoTime() - borrowed;
     }
 
     // ----- Get the length -----
@@ -123,7 +189,7 @@ public class OCSPRespBuilder {
     int signatureLen = getLen(signatureBodyLen);
 
     // BasicOCSPResponse
-    int basicResponseBodyLen = tbs.length + sigAlgId.length + signatureLen;
+    int basicResponseBodyLen = tbsLen + sigAlgId.length + signatureLen;
     if (taggedCertSequence != null) {
       basicResponseBodyLen += taggedCertSequence.getEncodedLength();
     }
@@ -163,7 +229,8 @@ public class OCSPRespBuilder {
     // BasicOCSPResponse
     offset += ASN1Type.writeHeader((byte) 0x30, basicResponseBodyLen, out, offset);
     // BasicOCSPResponse.tbsResponseData
-    offset += arraycopy(tbs, out, offset);
+    System.arraycopy(tbs, 0, out, offset, tbsLen);
+    offset += tbsLen;
 
     // BasicOCSPResponse.signatureAlgorithm
     offset += arraycopy(sigAlgId, out, offset);
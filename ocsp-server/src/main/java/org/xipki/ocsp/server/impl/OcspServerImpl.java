@@ -36,11 +36,17 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -81,8 +87,10 @@ import org.xipki.ocsp.api.OcspServer;
 import org.xipki.ocsp.api.OcspStore;
 import org.xipki.ocsp.api.OcspStoreException;
 import org.xipki.ocsp.api.OcspStoreFactoryRegister;
+import org.xipki.ocsp.api.RequestIssuer;
 import org.xipki.ocsp.api.Responder;
 import org.xipki.ocsp.api.ResponderAndPath;
+import org.xipki.ocsp.server.impl.ResponderMetrics.Stage;
 import org.xipki.ocsp.server.impl.jaxb.DatasourceType;
 import org.xipki.ocsp.server.impl.jaxb.EmbedCertsMode;
 import org.xipki.ocsp.server.impl.jaxb.FileOrPlainValueType;
@@ -105,6 +113,8 @@ import org.xipki.ocsp.server.impl.type.Extensions;
 import org.xipki.ocsp.server.impl.type.OID;
 import org.xipki.ocsp.server.impl.type.OcspRequest;
 import org.xipki.ocsp.server.impl.type.ResponderID;
+import org.xipki.ocsp.server.impl.type.SingleResponse;
+import org.xipki.ocsp.server.impl.type.SingleResponseTemplate;
 import org.xipki.ocsp.server.impl.type.TaggedCertSequence;
 import org.xipki.ocsp.server.impl.type.WritableOnlyExtension;
 import org.xipki.password.PasswordResolverException;
@@ -159,8 +169,62 @@ public class OcspServerImpl implements OcspServer {
     }
   }
 
+  /**
+   * Key of a request in process, which can be shared by identical requests.
+   */
+  private static class InflightRequest {
+
+    private final ResponderImpl responder;
+
+    private final RequestIssuer issuer;
+
+    private final BigInteger serialNumber;
+
+    private final byte sigAlgCode;
+
+    private final int hashCode;
+
+    InflightRequest(ResponderImpl responder, CertID certId, AlgorithmCode sigAlg) {
+      this.responder = responder;
+      this.issuer = certId.getIssuer();
+      this.serialNumber = certId.getSerialNumber();
+      this.sigAlgCode = sigAlg.getCode();
+
+      byte[] data = issuer.getData();
+      int hash = System.identityHashCode(responder);
+      for (int i = issuer.getFrom(); i < issuer.getFrom() + issuer.getLength(); i++) {
+        hash = 31 * hash + data[i];
+      }
+      this.hashCode = (31 * hash + serialNumber.hashCode()) * 31 + sigAlgCode;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof InflightRequest)) {
+        return false;
+      }
+
+      InflightRequest other = (InflightRequest) obj;
+      return responder == other.responder && sigAlgCode == other.sigAlgCode
+          && serialNumber.equals(other.serialNumber) && issuer.equals(other.issuer);
+    }
+
+  } // class InflightRequest
+
   public static final long DFLT_CACHE_MAX_AGE = 60; // 1 minute
 
+  /**
+   * Maximal time in milliseconds to wait for the response of an identical request in process.
+   */
+  private static final long MAX_COALESCED_WAIT_MS = 10000;
+
   private static final byte[] DERNullBytes = new byte[]{0x05, 0x00};
 
   private static final byte[] bytes_certstatus_good = new byte[]{(byte) 0x80, 0x00};
@@ -186,6 +250,8 @@ public class OcspServerImpl implements OcspServer {
 
   private ResponseCacher responseCacher;
 
+  private ResponseRefresher responseRefresher;
+
   private OcspStoreFactoryRegister ocspStoreFactoryRegister;
 
   private Map<String, ResponderImpl> responders = new HashMap<>();
@@ -204,6 +270,11 @@ public class OcspServerImpl implements OcspServer {
 
   private AtomicBoolean initialized = new AtomicBoolean(false);
 
+  private final ConcurrentHashMap<InflightRequest, CompletableFuture<OcspRespWithCacheInfo>>
+      inflightRequests = new ConcurrentHashMap<>();
+
+  private final AtomicLong numCoalescedRequests = new AtomicLong(0);
+
   static {
     unsuccesfulOCSPRespMap = new HashMap<>(10);
     for (OcspResponseStatus status : OcspResponseStatus.values()) {
@@ -256,6 +327,15 @@ public class OcspServerImpl implements OcspServer {
     return responders.get(name);
   }
 
+  /**
+   * Returns the number of requests which have been answered with the response of an
+   * identical request processed concurrently.
+   * @return the number of coalesced requests.
+   */
+  public long getNumCoalescedRequests() {
+    return numCoalescedRequests.get();
+  }
+
   public boolean isInitialized() {
     return initialized.get();
   }
@@ -395,8 +475,19 @@ public class OcspServerImpl implements OcspServer {
       } finally {
         close(dsStream);
       }
-      responseCacher = new ResponseCacher(datasource, master, cacheType.getValidity());
+      Integer memoryCacheSize = cacheType.getMemoryCacheSize();
+      Integer writeQueueSize = cacheType.getWriteQueueSize();
+      responseCacher = new ResponseCacher(datasource, master, cacheType.getValidity(),
+          (memoryCacheSize == null) ? 0 : memoryCacheSize.intValue(),
+          (writeQueueSize == null) ? 10000 : writeQueueSize.intValue());
       responseCacher.init();
+
+      Integer refreshBudget = cacheType.getRefreshBudget();
+      if (refreshBudget != null && refreshBudget.intValue() > 0) {
+        responseRefresher = new ResponseRefresher(this::resignResponse,
+            refreshBudget.intValue(), cacheType.getValidity());
+        responseRefresher.start();
+      }
     }
 
     //-- initializes the responders
@@ -527,7 +618,12 @@ public class OcspServerImpl implements OcspServer {
   } // method init0
 
   public void shutdown() {
-    LOG.info("stopped OCSP Responder");
+    LOG.info("stopped OCSP Responder, coalesced {} requests", numCoalescedRequests.get());
+    if (responseRefresher != null) {
+      responseRefresher.shutdown();
+      responseRefresher = null;
+    }
+
     if (responseCacher != null) {
       responseCacher.shutdown();
     }
@@ -544,6 +640,17 @@ public class OcspServerImpl implements OcspServer {
   @Override
   public OcspRespWithCacheInfo answer(Responder responder2, byte[] request, boolean viaGet) {
     ResponderImpl responder = (ResponderImpl) responder2;
+    long start = System.nanoTime();
+    try {
+      return answer0(responder, request, viaGet);
+    } finally {
+      responder.getMetrics().record(Stage.TOTAL, System.nanoTime() - start);
+    }
+  }
+
+  private OcspRespWithCacheInfo answer0(ResponderImpl responder, byte[] request,
+      boolean viaGet) {
+    ResponderMetrics metrics = responder.getMetrics();
     RequestOption reqOpt = responder.getRequestOption();
 
     int version;
@@ -562,10 +669,19 @@ public class OcspServerImpl implements OcspServer {
     }
 
     ResponderSigner signer = responder.getSigner();
-    ResponseOption repOpt = responder.getResponseOption();
 
     try {
-      Object reqOrRrrorResp = checkSignature(request, reqOpt);
+      long start = System.nanoTime();
+      boolean signedRequest;
+      try {
+        signedRequest = reqOpt.isValidateSignature() && OcspRequest.containsSignature(request);
+      } catch (EncodingException ex) {
+        return unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
+      }
+
+      Object reqOrRrrorResp = checkSignature(request, signedRequest, reqOpt);
+      metrics.record(signedRequest ? Stage.CHECK_SIGNATURE : Stage.PARSE,
+          System.nanoTime() - start);
       if (reqOrRrrorResp instanceof OcspRespWithCacheInfo) {
         return (OcspRespWithCacheInfo) reqOrRrrorResp;
       }
@@ -683,15 +799,18 @@ public class OcspServerImpl implements OcspServer {
         cacheDbSerialNumber = certId.getSerialNumber();
 
         if (cacheDbIssuerId != null) {
+          long lookupStart = System.nanoTime();
           OcspRespWithCacheInfo cachedResp = responseCacher.getOcspResponse(
               cacheDbIssuerId.intValue(), cacheDbSerialNumber, cacheDbSigAlgCode);
+          metrics.recordCacheLookup(cachedResp != null, System.nanoTime() - lookupStart);
           if (cachedResp != null) {
+            recordHit(responder, certId, concurrentSigner, cacheDbIssuerId, cachedResp);
             return cachedResp;
           }
         } else if (master) {
           // store the issuer certificate in cache database.
           X509Certificate issuerCert = null;
-          for (OcspStore store : responder.getStores()) {
+          for (OcspStore store : responder.getStores(certId.getIssuer())) {
             issuerCert = store.getIssuerCert(certId.getIssuer());
             if (issuerCert != null) {
               break;
@@ -708,98 +827,276 @@ public class OcspServerImpl implements OcspServer {
         }
       }
 
-      ResponderID responderId = signer.getResponderId(repOpt.isResponderIdByName());
-      OCSPRespBuilder builder = new OCSPRespBuilder(responderId);
-
-      for (int i = 0; i < requestsSize; i++) {
-        OcspRespWithCacheInfo failureOcspResp = processCertReq(requestList.get(i),
-            builder, responder, reqOpt, repOpt, repControl);
+      if (requestsSize != 1 || nonceExtn != null) {
+        return adaptCacheInfo(processRequest(responder, concurrentSigner, requestList,
+            respExtensions, repControl, canCacheDb ? cacheDbIssuerId : null,
+            cacheDbSigAlgCode), viaGet);
+      }
 
-        if (failureOcspResp != null) {
-          return failureOcspResp;
+      // identical concurrent requests are processed only once
+      InflightRequest inflightKey = new InflightRequest(responder, requestList.get(0),
+          concurrentSigner.getAlgorithmCode());
+      CompletableFuture<OcspRespWithCacheInfo> future = new CompletableFuture<>();
+      CompletableFuture<OcspRespWithCacheInfo> leaderFuture =
+          inflightRequests.putIfAbsent(inflightKey, future);
+      OcspRespWithCacheInfo resp;
+      if (leaderFuture != null) {
+        numCoalescedRequests.incrementAndGet();
+        metrics.recordCoalescedRequest();
+        try {
+          resp = leaderFuture.get(MAX_COALESCED_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+          LOG.warn("timeout while waiting for the response of identical request");
+          return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
+        }
+      } else {
+        resp = unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
+        try {
+          resp = processRequest(responder, concurrentSigner, requestList,
+              respExtensions, repControl, canCacheDb ? cacheDbIssuerId : null,
+              cacheDbSigAlgCode);
+        } finally {
+          inflightRequests.remove(inflightKey, future);
+          future.complete(resp);
         }
       }
 
-      if (repControl.includeExtendedRevokeExtension) {
-        respExtensions.add(extension_pkix_ocsp_extendedRevoke);
+      if (canCacheDb) {
+        recordHit(responder, requestList.get(0), concurrentSigner, cacheDbIssuerId, resp);
       }
+      return adaptCacheInfo(resp, viaGet);
+    } catch (Throwable th) {
+      LogUtil.error(LOG, th);
+      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
+    }
+  } // method ask
+
+  /**
+   * Builds and signs the response.
+   * @return the response, with {@link ResponseCacheInfo} if the response can be cached.
+   */
+  private OcspRespWithCacheInfo processRequest(ResponderImpl responder,
+      ConcurrentContentSigner concurrentSigner, List<CertID> requestList,
+      List<Extension> respExtensions, OcspRespControl repControl, Integer cacheDbIssuerId,
+      AlgorithmCode cacheDbSigAlgCode) throws IOException {
+    ResponderSigner signer = responder.getSigner();
+    RequestOption reqOpt = responder.getRequestOption();
+    ResponseOption repOpt = responder.getResponseOption();
+    ResponderMetrics metrics = responder.getMetrics();
+    final int requestsSize = requestList.size();
+
+    ResponderID responderId = signer.getResponderId(repOpt.isResponderIdByName());
+    OCSPRespBuilder builder = new OCSPRespBuilder(responderId);
 
-      if (!respExtensions.isEmpty()) {
-        Extensions extns = new Extensions(respExtensions);
-        builder.setResponseExtensions(extns);
+    CertStatusInfo[] certStatusInfos = (requestsSize > 1)
+        ? getCertStatuses(requestList, responder, reqOpt, repOpt) : null;
+
+    for (int i = 0; i < requestsSize; i++) {
+      OcspRespWithCacheInfo failureOcspResp = processCertReq(requestList.get(i),
+          (certStatusInfos == null) ? null : certStatusInfos[i],
+          builder, responder, reqOpt, repOpt, repControl);
+
+      if (failureOcspResp != null) {
+        return failureOcspResp;
       }
+    }
 
-      TaggedCertSequence certsInResp;
-      EmbedCertsMode certsMode = repOpt.getEmbedCertsMode();
-      if (certsMode == EmbedCertsMode.SIGNER) {
-        certsInResp = signer.getSequenceOfCert();
-      } else if (certsMode == EmbedCertsMode.NONE) {
-        certsInResp = null;
-      } else {
-        // certsMode == EmbedCertsMode.SIGNER_AND_CA
-        certsInResp = signer.getSequenceOfCertChain();
+    if (repControl.includeExtendedRevokeExtension) {
+      respExtensions.add(extension_pkix_ocsp_extendedRevoke);
+    }
+
+    if (!respExtensions.isEmpty()) {
+      Extensions extns = new Extensions(respExtensions);
+      builder.setResponseExtensions(extns);
+    }
+
+    TaggedCertSequence certsInResp;
+    EmbedCertsMode certsMode = repOpt.getEmbedCertsMode();
+    if (certsMode == EmbedCertsMode.SIGNER) {
+      certsInResp = signer.getSequenceOfCert();
+    } else if (certsMode == EmbedCertsMode.NONE) {
+      certsInResp = null;
+    } else {
+      // certsMode == EmbedCertsMode.SIGNER_AND_CA
+      certsInResp = signer.getSequenceOfCertChain();
+    }
+
+    byte[] encodeOcspResponse;
+    try {
+      encodeOcspResponse = builder.buildOCSPResponse(concurrentSigner, certsInResp, new Date());
+      metrics.record(Stage.SIGNER_WAIT, builder.getSignerWaitNanos());
+      metrics.record(Stage.SIGN, builder.getSignNanos());
+    } catch (NoIdleSignerException ex) {
+      metrics.record(Stage.SIGNER_WAIT, builder.getSignerWaitNanos());
+      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
+    } catch (OCSPException ex) {
+      LogUtil.error(LOG, ex, "answer() basicOcspBuilder.build");
+      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
+    }
+
+    // cache response in database
+    if (cacheDbIssuerId != null && repControl.canCacheInfo) {
+      // Don't cache the response with status UNKNOWN, since this may result in DDoS
+      // of storage
+      long start = System.nanoTime();
+      responseCacher.storeOcspResponse(cacheDbIssuerId.intValue(),
+          requestList.get(0).getSerialNumber(),
+          repControl.cacheThisUpdate, repControl.cacheNextUpdate, cacheDbSigAlgCode,
+          encodeOcspResponse);
+      metrics.record(Stage.CACHE_WRITE, System.nanoTime() - start);
+    }
+
+    if (repControl.canCacheInfo) {
+      ResponseCacheInfo cacheInfo = new ResponseCacheInfo(repControl.cacheThisUpdate);
+      if (repControl.cacheNextUpdate != Long.MAX_VALUE) {
+        cacheInfo.setNextUpdate(repControl.cacheNextUpdate);
       }
+      return new OcspRespWithCacheInfo(encodeOcspResponse, cacheInfo);
+    } else {
+      return new OcspRespWithCacheInfo(encodeOcspResponse, null);
+    }
+  } // method processRequest
+
+  private void recordHit(ResponderImpl responder, CertID certId,
+      ConcurrentContentSigner concurrentSigner, int issuerId, OcspRespWithCacheInfo resp) {
+    if (responseRefresher != null) {
+      AlgorithmCode sigAlg = concurrentSigner.getAlgorithmCode();
+      responseRefresher.recordHit(
+          new ResponseMemoryCache.Key(issuerId, certId.getSerialNumber(), sigAlg),
+          responder, certId, concurrentSigner, issuerId, resp.getCacheInfo());
+    }
+  }
 
-      byte[] encodeOcspResponse;
-      try {
-        encodeOcspResponse = builder.buildOCSPResponse(concurrentSigner, certsInResp, new Date());
-      } catch (NoIdleSignerException ex) {
-        return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
-      } catch (OCSPException ex) {
-        LogUtil.error(LOG, ex, "answer() basicOcspBuilder.build");
-        return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
+  /**
+   * Re-signs the cached response of the request with given CertID and without nonce.
+   */
+  private OcspRespWithCacheInfo resignResponse(ResponseRefresher.Candidate candidate)
+      throws IOException {
+    if (!responseCacher.isOnService()) {
+      return null;
+    }
+
+    OcspRespControl repControl = new OcspRespControl();
+    repControl.canCacheInfo = true;
+    ConcurrentContentSigner concurrentSigner = candidate.getSigner();
+    return processRequest(candidate.getResponder(), concurrentSigner,
+        Collections.singletonList(candidate.getCertId()), new LinkedList<Extension>(),
+        repControl, candidate.getIssuerId(), concurrentSigner.getAlgorithmCode());
+  }
+
+  private static OcspRespWithCacheInfo adaptCacheInfo(OcspRespWithCacheInfo resp,
+      boolean viaGet) {
+    if (viaGet || resp.getCacheInfo() == null) {
+      return resp;
+    } else {
+      return new OcspRespWithCacheInfo(resp.getResponse(), null);
+    }
+  }
+
+  /**
+   * Retrieves the status of all certificates in the request, with one store call per issuer
+   * and store.
+   * @return the certificate status, in the same order as the requestList. An element is
+   *         {@code null} if the status could not be retrieved.
+   */
+  private CertStatusInfo[] getCertStatuses(List<CertID> requestList, ResponderImpl responder,
+      RequestOption reqOpt, ResponseOption repOpt) {
+    final int size = requestList.size();
+    CertStatusInfo[] certStatusInfos = new CertStatusInfo[size];
+
+    // group the requests by issuer
+    Map<RequestIssuer, List<Integer>> issuerIndexes = new LinkedHashMap<>();
+    for (int i = 0; i < size; i++) {
+      RequestIssuer issuer = requestList.get(i).getIssuer();
+      if (!reqOpt.allows(issuer.hashAlgorithm())) {
+        continue;
       }
 
-      // cache response in database
-      if (canCacheDb && repControl.canCacheInfo) {
-        // Don't cache the response with status UNKNOWN, since this may result in DDoS
-        // of storage
-        responseCacher.storeOcspResponse(cacheDbIssuerId.intValue(), cacheDbSerialNumber,
-            repControl.cacheThisUpdate, repControl.cacheNextUpdate, cacheDbSigAlgCode,
-            encodeOcspResponse);
+      List<Integer> indexes = issuerIndexes.get(issuer);
+      if (indexes == null) {
+        indexes = new ArrayList<>(size);
+        issuerIndexes.put(issuer, indexes);
       }
+      indexes.add(i);
+    }
 
-      if (viaGet && repControl.canCacheInfo) {
-        ResponseCacheInfo cacheInfo = new ResponseCacheInfo(repControl.cacheThisUpdate);
-        if (repControl.cacheNextUpdate != Long.MAX_VALUE) {
-          cacheInfo.setNextUpdate(repControl.cacheNextUpdate);
+    Date now = new Date();
+    for (Map.Entry<RequestIssuer, List<Integer>> entry : issuerIndexes.entrySet()) {
+      List<Integer> indexes = entry.getValue();
+      for (OcspStore store : responder.getStores(entry.getKey())) {
+        if (indexes.isEmpty()) {
+          break;
         }
-        return new OcspRespWithCacheInfo(encodeOcspResponse, cacheInfo);
-      } else {
-        return new OcspRespWithCacheInfo(encodeOcspResponse, null);
+
+        List<BigInteger> serials = new ArrayList<>(indexes.size());
+        for (Integer index : indexes) {
+          serials.add(requestList.get(index).getSerialNumber());
+        }
+
+        List<CertStatusInfo> storeInfos;
+        long start = System.nanoTime();
+        try {
+          storeInfos = store.getCertStatuses(now, entry.getKey(), serials,
+              repOpt.isIncludeCerthash(), repOpt.isIncludeInvalidityDate(),
+              responder.getResponderOption().isInheritCaRevocation());
+          responder.getMetrics().recordStore(store, System.nanoTime() - start, storeInfos);
+        } catch (OcspStoreException ex) {
+          // the status will be retrieved in processCertReq() individually.
+          LogUtil.error(LOG, ex, "getCertStatuses() of CertStatusStore " + store.getName());
+          break;
+        }
+
+        List<Integer> remainingIndexes = new ArrayList<>(indexes.size());
+        for (int i = 0; i < indexes.size(); i++) {
+          CertStatusInfo info = storeInfos.get(i);
+          if (info == null) {
+            remainingIndexes.add(indexes.get(i));
+          } else {
+            certStatusInfos[indexes.get(i)] = info;
+          }
+        }
+        indexes = remainingIndexes;
       }
-    } catch (Throwable th) {
-      LogUtil.error(LOG, th);
-      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
     }
-  } // method ask
 
-  private OcspRespWithCacheInfo processCertReq(CertID certId, OCSPRespBuilder builder,
-      ResponderImpl responder, RequestOption reqOpt, ResponseOption repOpt,
-      OcspRespControl repControl) throws IOException {
+    return certStatusInfos;
+  } // method getCertStatuses
+
+  /**
+   * Adds the single response of the given CertID.
+   * @param certStatusInfo
+   *          status of the certificate if already retrieved, {@code null} otherwise.
+   */
+  private OcspRespWithCacheInfo processCertReq(CertID certId, CertStatusInfo certStatusInfo,
+      OCSPRespBuilder builder, ResponderImpl responder, RequestOption reqOpt,
+      ResponseOption repOpt, OcspRespControl repControl) throws IOException {
     HashAlgo reqHashAlgo = certId.getIssuer().hashAlgorithm();
     if (!reqOpt.allows(reqHashAlgo)) {
       LOG.warn("CertID.hashAlgorithm {} not allowed", reqHashAlgo);
       return unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
     }
 
-    CertStatusInfo certStatusInfo = null;
     boolean exceptionOccurs = false;
 
     BigInteger serial = certId.getSerialNumber();
 
-    Date now = new Date();
-    for (OcspStore store : responder.getStores()) {
-      try {
-        certStatusInfo = store.getCertStatus(now, certId.getIssuer(), serial,
-            repOpt.isIncludeCerthash(), repOpt.isIncludeInvalidityDate(),
-            responder.getResponderOption().isInheritCaRevocation());
-        if (certStatusInfo != null) {
-          break;
+    if (certStatusInfo == null) {
+      Date now = new Date();
+      for (OcspStore store : responder.getStores(certId.getIssuer())) {
+        long start = System.nanoTime();
+        try {
+          certStatusInfo = store.getCertStatus(now, certId.getIssuer(), serial,
+              repOpt.isIncludeCerthash(), repOpt.isIncludeInvalidityDate(),
+              responder.getResponderOption().isInheritCaRevocation());
+          responder.getMetrics().recordStore(store, System.nanoTime() - start,
+              certStatusInfo);
+          if (certStatusInfo != null) {
+            break;
+          }
+        } catch (OcspStoreException ex) {
+          exceptionOccurs = true;
+          LogUtil.error(LOG, ex, "getCertStatus() of CertStatusStore " + store.getName());
         }
-      } catch (OcspStoreException ex) {
-        exceptionOccurs = true;
-        LogUtil.error(LOG, ex, "getCertStatus() of CertStatusStore " + store.getName());
       }
     }
 
@@ -812,17 +1109,21 @@ public class OcspServerImpl implements OcspServer {
     } // end if
 
     // certStatusInfo must not be null in any case, since at least one store is configured
+    responder.getMetrics().recordStatus(certStatusInfo.getCertStatus());
     Date thisUpdate = certStatusInfo.getThisUpdate();
     if (thisUpdate == null) {
       thisUpdate = new Date();
     }
     Date nextUpdate = certStatusInfo.getNextUpdate();
 
-    List<Extension> extensions = new LinkedList<>();
     boolean unknownAsRevoked = false;
+    // only the responses of known certificates will be cached as templates
+    boolean cacheableTemplate = false;
+    Date invalidityDate = null;
     byte[] certStatus;
     switch (certStatusInfo.getCertStatus()) {
       case GOOD:
+        cacheableTemplate = true;
         certStatus = bytes_certstatus_good;
         break;
       case ISSUER_UNKNOWN:
@@ -840,14 +1141,15 @@ public class OcspServerImpl implements OcspServer {
         }
         break;
       case REVOKED:
+        cacheableTemplate = true;
         CertRevocationInfo revInfo = certStatusInfo.getRevocationInfo();
         certStatus = Template.getEncodeRevokedInfo(
             repOpt.isIncludeRevReason() ? revInfo.getReason() : null, revInfo.getRevocationTime());
 
-        Date invalidityDate = revInfo.getInvalidityTime();
-        if (repOpt.isIncludeInvalidityDate() && invalidityDate != null
-            && !invalidityDate.equals(revInfo.getRevocationTime())) {
-          extensions.add(Template.getInvalidityDateExtension(invalidityDate));
+        Date invalTime = revInfo.getInvalidityTime();
+        if (repOpt.isIncludeInvalidityDate() && invalTime != null
+            && !invalTime.equals(revInfo.getRevocationTime())) {
+          invalidityDate = invalTime;
         }
         break;
       default:
@@ -859,13 +1161,7 @@ public class OcspServerImpl implements OcspServer {
     }
 
     byte[] certHash = certStatusInfo.getCertHash();
-    if (certHash != null) {
-      extensions.add(Template.getCertHashExtension(certStatusInfo.getCertHashAlgo(), certHash));
-    }
-
-    if (certStatusInfo.getArchiveCutOff() != null) {
-      extensions.add(Template.getArchiveOffExtension(certStatusInfo.getArchiveCutOff()));
-    }
+    Date archiveCutoff = certStatusInfo.getArchiveCutOff();
 
     if (LOG.isDebugEnabled()) {
       String certStatusText = null;
@@ -892,10 +1188,39 @@ public class OcspServerImpl implements OcspServer {
       LOG.debug(sb.toString());
     }
 
-    if (CollectionUtil.isEmpty(extensions)) {
-      builder.addResponse(certId, certStatus, thisUpdate, nextUpdate, null);
+    SingleResponseCache templateCache = cacheableTemplate
+        ? responder.getSingleResponseCache() : null;
+    SingleResponseTemplate template = null;
+    if (templateCache != null) {
+      template = templateCache.get(certId, certStatus, invalidityDate,
+          certStatusInfo.getCertHashAlgo(), certHash, nextUpdate != null, archiveCutoff != null);
+    }
+
+    if (template != null) {
+      builder.addResponse(template.newResponse(thisUpdate, nextUpdate, archiveCutoff));
     } else {
-      builder.addResponse(certId, certStatus, thisUpdate, nextUpdate, new Extensions(extensions));
+      List<Extension> extensions = new LinkedList<>();
+      if (invalidityDate != null) {
+        extensions.add(Template.getInvalidityDateExtension(invalidityDate));
+      }
+
+      if (certHash != null) {
+        extensions.add(Template.getCertHashExtension(certStatusInfo.getCertHashAlgo(), certHash));
+      }
+
+      // the extension ArchiveCutoff must be the last one, see SingleResponseTemplate
+      if (archiveCutoff != null) {
+        extensions.add(Template.getArchiveOffExtension(archiveCutoff));
+      }
+
+      SingleResponse singleResponse = new SingleResponse(certId, certStatus, thisUpdate,
+          nextUpdate, extensions.isEmpty() ? null : new Extensions(extensions));
+      builder.addResponse(singleResponse);
+
+      if (templateCache != null) {
+        templateCache.put(certId, certStatus, invalidityDate, certStatusInfo.getCertHashAlgo(),
+            certHash, new SingleResponseTemplate(singleResponse, archiveCutoff != null));
+      }
     }
 
     repControl.cacheThisUpdate = Math.max(repControl.cacheThisUpdate, thisUpdate.getTime());
@@ -906,6 +1231,12 @@ public class OcspServerImpl implements OcspServer {
     return null;
   }
 
+  @Override
+  public String getMetrics(Responder responder) {
+    ResponderImpl impl = (ResponderImpl) responder;
+    return impl.getMetrics().toJson(impl.getSigner().getSigners());
+  }
+
   @Override
   public HealthCheckResult healthCheck(Responder responder2) {
     ResponderImpl responder = (ResponderImpl) responder2;
@@ -1026,7 +1357,12 @@ public class OcspServerImpl implements OcspServer {
     return store;
   } // method initStore
 
-  private Object checkSignature(byte[] request, RequestOption requestOption)
+  /**
+   * Parses the request and verifies its signature.
+   * @param signed
+   *          whether the request is signed and its signature is to be verified.
+   */
+  private Object checkSignature(byte[] request, boolean signed, RequestOption requestOption)
       throws OCSPException, CertificateParsingException, InvalidAlgorithmParameterException {
     OCSPRequest req;
     try {
@@ -1034,7 +1370,7 @@ public class OcspServerImpl implements OcspServer {
         return OcspRequest.getInstance(request);
       }
 
-      if (!OcspRequest.containsSignature(request)) {
+      if (!signed) {
         if (requestOption.isSignatureRequired()) {
           LOG.warn("signature in request required");
           return unsuccesfulOCSPRespMap.get(OcspResponseStatus.sigRequired);
@@ -17,10 +17,13 @@
 
 package org.xipki.ocsp.server.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.xipki.common.util.ParamUtil;
 import org.xipki.ocsp.api.OcspStore;
+import org.xipki.ocsp.api.RequestIssuer;
 import org.xipki.ocsp.api.Responder;
 
 /**
@@ -41,6 +44,10 @@ public class ResponderImpl implements Responder {
 
   private final List<OcspStore> stores;
 
+  private final SingleResponseCache singleResponseCache;
+
+  private final ResponderMetrics metrics;
+
   ResponderImpl(ResponderOption responderOption, RequestOption requestOption,
       ResponseOption responseOption, ResponderSigner signer, List<OcspStore> stores) {
     this.responderOption = ParamUtil.requireNonNull("responderOption", responderOption);
@@ -48,6 +55,10 @@ public class ResponderImpl implements Responder {
     this.responseOption = ParamUtil.requireNonNull("responseOption", responseOption);
     this.signer = ParamUtil.requireNonNull("signer", signer);
     this.stores = ParamUtil.requireNonEmpty("stores", stores);
+
+    int cacheSize = responseOption.getSingleResponseCacheSize();
+    this.singleResponseCache = (cacheSize > 0) ? new SingleResponseCache(cacheSize) : null;
+    this.metrics = new ResponderMetrics(stores);
   }
 
   public ResponderOption getResponderOption() {
@@ -66,10 +77,69 @@ public class ResponderImpl implements Responder {
     return signer;
   }
 
+  /**
+   * Returns the cache of the SingleResponse templates.
+   * @return the cache, {@code null} if disabled.
+   */
+  SingleResponseCache getSingleResponseCache() {
+    return singleResponseCache;
+  }
+
+  ResponderMetrics getMetrics() {
+    return metrics;
+  }
+
   public List<OcspStore> getStores() {
     return stores;
   }
 
+  /**
+   * Returns the stores which know the given issuer, in the configured order. The other
+   * stores would answer {@code null} anyway, so that they need not to be queried.
+   *
+   * <p>The issuers of a store may change at runtime, hence {@link OcspStore#knowsIssuer}
+   * is asked per request instead of building a routing table once. It is an in-memory lookup.
+   * @param issuer the requested issuer.
+   * @return the stores to be queried for the given issuer.
+   */
+  List<OcspStore> getStores(RequestIssuer issuer) {
+    if (stores.size() == 1) {
+      return stores;
+    }
+
+    OcspStore first = null;
+    List<OcspStore> ret = null;
+    for (OcspStore store : stores) {
+      boolean knows;
+      try {
+        knows = store.knowsIssuer(issuer);
+      } catch (RuntimeException ex) {
+        // e.g. store is not initialized, let the store report the error.
+        knows = true;
+      }
+
+      if (!knows) {
+        continue;
+      }
+
+      if (first == null) {
+        first = store;
+      } else {
+        if (ret == null) {
+          ret = new ArrayList<>(stores.size());
+          ret.add(first);
+        }
+        ret.add(store);
+      }
+    }
+
+    if (ret != null) {
+      return ret;
+    }
+    return (first == null) ? Collections.<OcspStore>emptyList()
+        : Collections.singletonList(first);
+  } // method getStores
+
   @Override
   public int getMaxRequestSize() {
     return requestOption.getMaxRequestSize();
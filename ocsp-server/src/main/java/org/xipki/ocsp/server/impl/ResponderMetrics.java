@@ -0,0 +1,289 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.xipki.ocsp.api.CertStatus;
+import org.xipki.ocsp.api.CertStatusInfo;
+import org.xipki.ocsp.api.OcspStore;
+import org.xipki.security.ConcurrentContentSigner;
+import org.xipki.security.DfltConcurrentContentSigner;
+
+/**
+ * Latencies of the processing stages and counters of one responder. The latencies and the
+ * status of the answered certificates are also recorded per store.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+class ResponderMetrics {
+
+  enum Stage {
+
+    /**
+     * Complete processing of a request.
+     */
+    TOTAL("total"),
+
+    /**
+     * Parsing of the unsigned request.
+     */
+    PARSE("parse"),
+
+    /**
+     * Parsing of the signed request and verification of its signature and signer.
+     */
+    CHECK_SIGNATURE("checkSignature"),
+
+    /**
+     * Lookup in the response cache.
+     */
+    CACHE_LOOKUP("cacheLookup"),
+
+    /**
+     * Retrieval of the certificate status from the stores.
+     */
+    STORE_LOOKUP("storeLookup"),
+
+    /**
+     * Waiting for an idle signer.
+     */
+    SIGNER_WAIT("signerWait"),
+
+    /**
+     * Signing of the tbsResponseData.
+     */
+    SIGN("sign"),
+
+    /**
+     * Storing of the response in the response cache.
+     */
+    CACHE_WRITE("cacheWrite");
+
+    private final String text;
+
+    Stage(String text) {
+      this.text = text;
+    }
+
+  } // class Stage
+
+  private static final class StoreMetrics {
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final Map<CertStatus, LongAdder> statuses = newStatusCounters();
+
+  } // class StoreMetrics
+
+  private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+
+  private final Map<String, StoreMetrics> stores = new LinkedHashMap<>();
+
+  private final Map<CertStatus, LongAdder> statuses = newStatusCounters();
+
+  private final LongAdder cacheHits = new LongAdder();
+
+  private final LongAdder cacheMisses = new LongAdder();
+
+  private final LongAdder coalescedRequests = new LongAdder();
+
+  ResponderMetrics(List<OcspStore> stores) {
+    for (Stage stage : Stage.values()) {
+      this.stages.put(stage, new LatencyHistogram());
+    }
+
+    for (OcspStore store : stores) {
+      this.stores.put(store.getName(), new StoreMetrics());
+    }
+  }
+
+  private static Map<CertStatus, LongAdder> newStatusCounters() {
+    Map<CertStatus, LongAdder> counters = new EnumMap<>(CertStatus.class);
+    for (CertStatus status : CertStatus.values()) {
+      counters.put(status, new LongAdder());
+    }
+    return counters;
+  }
+
+  void record(Stage stage, long nanos) {
+    stages.get(stage).record(nanos);
+  }
+
+  /**
+   * Records a lookup of the status of one certificate in the store.
+   * @param store the store.
+   * @param nanos duration of the lookup.
+   * @param info status returned by the store, {@code null} if the store does not know the
+   *          certificate.
+   */
+  void recordStore(OcspStore store, long nanos, CertStatusInfo info) {
+    StoreMetrics storeMetrics = recordStoreLatency(store, nanos);
+    if (storeMetrics != null && info != null) {
+      storeMetrics.statuses.get(info.getCertStatus()).increment();
+    }
+  }
+
+  /**
+   * Records a lookup of the status of several certificates in the store.
+   * @param store the store.
+   * @param nanos duration of the lookup.
+   * @param infos statuses returned by the store, an element is {@code null} if the store
+   *          does not know the certificate.
+   */
+  void recordStore(OcspStore store, long nanos, List<CertStatusInfo> infos) {
+    StoreMetrics storeMetrics = recordStoreLatency(store, nanos);
+    if (storeMetrics != null) {
+      for (CertStatusInfo info : infos) {
+        if (info != null) {
+          storeMetrics.statuses.get(info.getCertStatus()).increment();
+        }
+      }
+    }
+  }
+
+  private StoreMetrics recordStoreLatency(OcspStore store, long nanos) {
+    stages.get(Stage.STORE_LOOKUP).record(nanos);
+    StoreMetrics storeMetrics = stores.get(store.getName());
+    if (storeMetrics != null) {
+      storeMetrics.latency.record(nanos);
+    }
+    return storeMetrics;
+  }
+
+  void recordStatus(CertStatus status) {
+    statuses.get(status).increment();
+  }
+
+  void recordCacheLookup(boolean hit, long nanos) {
+    stages.get(Stage.CACHE_LOOKUP).record(nanos);
+    if (hit) {
+      cacheHits.increment();
+    } else {
+      cacheMisses.increment();
+    }
+  }
+
+  void recordCoalescedRequest() {
+    coalescedRequests.increment();
+  }
+
+  /**
+   * Returns the metrics as JSON.
+   * @param signers signers of the responder, the pool statistics of each
+   *          {@link DfltConcurrentContentSigner} are included. May be {@code null}.
+   * @return the metrics as JSON.
+   */
+  String toJson(List<ConcurrentContentSigner> signers) {
+    StringBuilder sb = new StringBuilder(2000);
+    sb.append("{\"requests\":").append(stages.get(Stage.TOTAL).getCount());
+    sb.append(",\"coalescedRequests\":").append(coalescedRequests.sum());
+
+    sb.append(",\"cache\":{\"hit\":").append(cacheHits.sum())
+      .append(",\"miss\":").append(cacheMisses.sum()).append("}");
+
+    sb.append(",\"status\":");
+    appendJson(sb, statuses);
+
+    sb.append(",\"latency\":{");
+    boolean first = true;
+    for (Stage stage : stages.keySet()) {
+      if (!first) {
+        sb.append(",");
+      }
+      first = false;
+      sb.append("\"").append(stage.text).append("\":");
+      stages.get(stage).appendJson(sb);
+    }
+    sb.append("}");
+
+    sb.append(",\"stores\":{");
+    first = true;
+    for (String name : stores.keySet()) {
+      if (!first) {
+        sb.append(",");
+      }
+      first = false;
+      StoreMetrics storeMetrics = stores.get(name);
+      sb.append("\"").append(escape(name)).append("\":{\"latency\":");
+      storeMetrics.latency.appendJson(sb);
+      sb.append(",\"status\":");
+      appendJson(sb, storeMetrics.statuses);
+      sb.append("}");
+    }
+    sb.append("}");
+
+    sb.append(",\"signers\":{");
+    if (signers != null) {
+      first = true;
+      for (ConcurrentContentSigner signer : signers) {
+        if (!(signer instanceof DfltConcurrentContentSigner)) {
+          continue;
+        }
+
+        if (!first) {
+          sb.append(",");
+        }
+        first = false;
+        sb.append("\"").append(escape(signer.getAlgorithmName())).append("\":");
+        appendJson(sb, ((DfltConcurrentContentSigner) signer).getStatistics());
+      }
+    }
+    sb.append("}}");
+    return sb.toString();
+  }
+
+  private static void appendJson(StringBuilder sb, Map<CertStatus, LongAdder> statuses) {
+    sb.append("{");
+    boolean first = true;
+    for (CertStatus status : statuses.keySet()) {
+      if (!first) {
+        sb.append(",");
+      }
+      first = false;
+      sb.append("\"").append(status.name().toLowerCase()).append("\":")
+        .append(statuses.get(status).sum());
+    }
+    sb.append("}");
+  }
+
+  private static void appendJson(StringBuilder sb, DfltConcurrentContentSigner.Statistics stats) {
+    sb.append("{\"borrows\":").append(stats.getNumBorrows())
+      .append(",\"timeouts\":").append(stats.getNumTimeouts())
+      .append(",\"avgWaitUs\":").append(stats.getAverageWaitNanos() / 1000)
+      .append(",\"maxWaitUs\":").append(stats.getMaxWaitNanos() / 1000)
+      .append(",\"active\":").append(stats.getNumActive())
+      .append(",\"inUse\":").append(stats.getNumInUse())
+      .append(",\"maxParallelism\":").append(stats.getMaxParallelism())
+      .append(",\"utilization\":").append(Math.round(stats.getUtilization() * 100) / 100.0)
+      .append(",\"grows\":").append(stats.getNumGrows())
+      .append(",\"shrinks\":").append(stats.getNumShrinks())
+      .append("}");
+  }
+
+  private static String escape(String text) {
+    return text.replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+
+}
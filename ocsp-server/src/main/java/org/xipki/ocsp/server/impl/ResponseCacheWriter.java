@@ -0,0 +1,457 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.common.util.Base64;
+import org.xipki.common.util.LogUtil;
+import org.xipki.common.util.ParamUtil;
+import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataAccessException.Reason;
+import org.xipki.datasource.DataSourceWrapper;
+
+/**
+ * Writes the responses to be cached asynchronously into the database. Writes of the same
+ * response ID are coalesced, and the pending responses are written with JDBC batches by a
+ * dedicated thread. If the queue is full, new responses are dropped.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+class ResponseCacheWriter {
+
+  static final class PendingResponse {
+
+    private final long id;
+
+    private final int issuerId;
+
+    private final String ident;
+
+    private final long thisUpdate;
+
+    private final Long nextUpdate;
+
+    private final byte[] response;
+
+    PendingResponse(long id, int issuerId, String ident, long thisUpdate, Long nextUpdate,
+        byte[] response) {
+      this.id = id;
+      this.issuerId = issuerId;
+      this.ident = ident;
+      this.thisUpdate = thisUpdate;
+      this.nextUpdate = (nextUpdate != null && nextUpdate > 0) ? nextUpdate : null;
+      this.response = response;
+    }
+
+    int getIssuerId() {
+      return issuerId;
+    }
+
+    String getIdent() {
+      return ident;
+    }
+
+    long getThisUpdate() {
+      return thisUpdate;
+    }
+
+    Long getNextUpdate() {
+      return nextUpdate;
+    }
+
+    byte[] getResponse() {
+      return response;
+    }
+
+  } // class PendingResponse
+
+  private class Writer implements Runnable {
+
+    @Override
+    public void run() {
+      while (true) {
+        Map<Long, PendingResponse> batch;
+        synchronized (lock) {
+          while (running && pending.isEmpty()) {
+            try {
+              lock.wait(1000);
+            } catch (InterruptedException ex) {
+              // do nothing
+            }
+          }
+
+          if (pending.isEmpty()) {
+            // not running any more, and all pending responses are written.
+            return;
+          }
+
+          batch = pending;
+          pending = new LinkedHashMap<>();
+          writing = batch;
+        }
+
+        try {
+          write(new ArrayList<>(batch.values()));
+        } catch (Throwable th) {
+          LogUtil.error(LOG, th, "could not cache " + batch.size() + " OCSP responses");
+        } finally {
+          synchronized (lock) {
+            writing = null;
+          }
+        }
+      }
+    } // method run
+
+  } // class Writer
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResponseCacheWriter.class);
+
+  private static final String SQL_ADD_RESP = "INSERT INTO OCSP (ID,IID,IDENT,"
+      + "THIS_UPDATE,NEXT_UPDATE,RESP) VALUES (?,?,?,?,?,?)";
+
+  private static final String SQL_UPDATE_RESP = "UPDATE OCSP SET THIS_UPDATE=?,"
+      + "NEXT_UPDATE=?,RESP=? WHERE ID=?";
+
+  /**
+   * Maximal number of responses written in one JDBC batch.
+   */
+  private static final int MAX_BATCH_SIZE = 100;
+
+  private final DataSourceWrapper datasource;
+
+  private final int maxQueueSize;
+
+  private final Object lock = new Object();
+
+  private final AtomicLong numDropped = new AtomicLong(0);
+
+  private Map<Long, PendingResponse> pending = new LinkedHashMap<>();
+
+  private Map<Long, PendingResponse> writing;
+
+  private boolean running;
+
+  private Thread writerThread;
+
+  ResponseCacheWriter(DataSourceWrapper datasource, int maxQueueSize) {
+    this.datasource = ParamUtil.requireNonNull("datasource", datasource);
+    this.maxQueueSize = ParamUtil.requireMin("maxQueueSize", maxQueueSize, 1);
+  }
+
+  void start() {
+    synchronized (lock) {
+      if (running) {
+        return;
+      }
+      running = true;
+    }
+
+    writerThread = new Thread(new Writer(), "ocsp-response-cache-writer");
+    writerThread.setDaemon(true);
+    writerThread.start();
+  }
+
+  /**
+   * Stops the writer after all pending responses are written.
+   */
+  void shutdown() {
+    synchronized (lock) {
+      running = false;
+      lock.notifyAll();
+    }
+
+    if (writerThread != null) {
+      try {
+        writerThread.join();
+      } catch (InterruptedException ex) {
+        LOG.error("interrupted: {}", ex.getMessage());
+      }
+      writerThread = null;
+    }
+
+    if (numDropped.get() > 0) {
+      LOG.info("dropped {} OCSP responses to be cached since the queue was full",
+          numDropped.get());
+    }
+  }
+
+  /**
+   * Queues the response to be written into the database.
+   * @param response the response to be cached.
+   * @return whether the response has been queued.
+   */
+  boolean add(PendingResponse response) {
+    synchronized (lock) {
+      if (!running) {
+        return false;
+      }
+
+      Long id = response.id;
+      if (pending.size() >= maxQueueSize && !pending.containsKey(id)) {
+        long num = numDropped.incrementAndGet();
+        LOG.debug("queue of OCSP responses to be cached is full, dropped {} responses", num);
+        return false;
+      }
+
+      pending.put(id, response);
+      if (pending.size() >= MAX_BATCH_SIZE) {
+        lock.notifyAll();
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Returns the response which has been queued but not written yet.
+   * @param id ID of the response.
+   * @return the response to be written, or {@code null} if not present.
+   */
+  PendingResponse get(long id) {
+    synchronized (lock) {
+      PendingResponse resp = pending.get(id);
+      if (resp == null && writing != null) {
+        resp = writing.get(id);
+      }
+      return resp;
+    }
+  }
+
+  long getNumDropped() {
+    return numDropped.get();
+  }
+
+  private void write(List<PendingResponse> responses) throws DataAccessException {
+    Connection conn = datasource.getConnection();
+    try {
+      final int size = responses.size();
+      for (int offset = 0; offset < size; offset += MAX_BATCH_SIZE) {
+        List<PendingResponse> batch =
+            responses.subList(offset, Math.min(size, offset + MAX_BATCH_SIZE));
+        List<PendingResponse> toInsert = updateBatch(conn, batch);
+        if (toInsert == null) {
+          // unknown result of the batch update
+          for (PendingResponse resp : batch) {
+            updateOrInsertSingle(conn, resp);
+          }
+        } else if (!toInsert.isEmpty()) {
+          insertBatch(conn, toInsert);
+        }
+      }
+    } finally {
+      datasource.returnConnection(conn);
+    }
+  }
+
+  /**
+   * Updates the existing responses.
+   * @return the responses which are not in the database, or {@code null} if the driver does not
+   *         report which responses have been updated.
+   */
+  private List<PendingResponse> updateBatch(Connection conn, List<PendingResponse> responses)
+      throws DataAccessException {
+    final String sql = SQL_UPDATE_RESP;
+    PreparedStatement ps = datasource.prepareStatement(conn, sql);
+    int[] counts;
+    try {
+      for (PendingResponse resp : responses) {
+        setUpdateParams(ps, resp);
+        ps.addBatch();
+      }
+      counts = ps.executeBatch();
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      datasource.releaseResources(ps, null, false);
+    }
+
+    List<Integer> indexes = getNotUpdatedIndexes(counts, responses.size());
+    if (indexes == null) {
+      return null;
+    }
+
+    List<PendingResponse> notUpdated = new ArrayList<>(indexes.size());
+    for (Integer index : indexes) {
+      notUpdated.add(responses.get(index));
+    }
+    return notUpdated;
+  }
+
+  /**
+   * Evaluates the update counts returned by {@link PreparedStatement#executeBatch()}.
+   * @param counts the update counts.
+   * @param size number of statements in the batch.
+   * @return the indexes of the statements which have not updated any row, or {@code null} if
+   *         this is unknown, e.g. if the driver returns {@link Statement#SUCCESS_NO_INFO}.
+   */
+  static List<Integer> getNotUpdatedIndexes(int[] counts, int size) {
+    if (counts == null || counts.length != size) {
+      return null;
+    }
+
+    List<Integer> indexes = new ArrayList<>(size);
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] == Statement.SUCCESS_NO_INFO) {
+        return null;
+      } else if (counts[i] == 0 || counts[i] == Statement.EXECUTE_FAILED) {
+        indexes.add(i);
+      }
+    }
+    return indexes;
+  }
+
+  private void updateOrInsertSingle(Connection conn, PendingResponse resp) {
+    final String sql = SQL_UPDATE_RESP;
+    try {
+      PreparedStatement ps = datasource.prepareStatement(conn, sql);
+      int count;
+      try {
+        setUpdateParams(ps, resp);
+        count = ps.executeUpdate();
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        datasource.releaseResources(ps, null, false);
+      }
+
+      if (count == 0) {
+        writeSingle(conn, resp);
+      }
+    } catch (DataAccessException ex) {
+      LOG.info("could not cache OCSP response iid={}, ident={}", resp.issuerId, resp.ident);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("could not cache OCSP response iid=" + resp.issuerId
+            + ", ident=" + resp.ident, ex);
+      }
+    }
+  }
+
+  private void insertBatch(Connection conn, List<PendingResponse> responses)
+      throws DataAccessException {
+    final String sql = SQL_ADD_RESP;
+    PreparedStatement ps = datasource.prepareStatement(conn, sql);
+    boolean batchFailed = false;
+    try {
+      for (PendingResponse resp : responses) {
+        setInsertParams(ps, resp);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+      LOG.debug("added {} cached OCSP responses", responses.size());
+    } catch (SQLException ex) {
+      // e.g. one response has been inserted by another responder in the meantime
+      batchFailed = true;
+      LOG.debug("could not add {} cached OCSP responses in batch: {}",
+          responses.size(), ex.getMessage());
+    } finally {
+      datasource.releaseResources(ps, null, false);
+    }
+
+    if (batchFailed) {
+      for (PendingResponse resp : responses) {
+        try {
+          writeSingle(conn, resp);
+        } catch (DataAccessException ex) {
+          LOG.info("could not cache OCSP response iid={}, ident={}", resp.issuerId, resp.ident);
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("could not cache OCSP response iid=" + resp.issuerId
+                + ", ident=" + resp.ident, ex);
+          }
+        }
+      }
+    }
+  }
+
+  private void writeSingle(Connection conn, PendingResponse resp) throws DataAccessException {
+    String sql = SQL_ADD_RESP;
+    PreparedStatement ps = datasource.prepareStatement(conn, sql);
+
+    boolean dataIntegrityViolation = false;
+    try {
+      setInsertParams(ps, resp);
+      ps.execute();
+    } catch (SQLException ex) {
+      DataAccessException dex = datasource.translate(sql, ex);
+      if (dex.getReason().isDescendantOrSelfOf(Reason.DataIntegrityViolation)) {
+        dataIntegrityViolation = true;
+      } else {
+        throw dex;
+      }
+    } finally {
+      datasource.releaseResources(ps, null, false);
+    }
+
+    if (!dataIntegrityViolation) {
+      LOG.debug("added cached OCSP response iid={}, ident={}", resp.issuerId, resp.ident);
+      return;
+    }
+
+    sql = SQL_UPDATE_RESP;
+    ps = datasource.prepareStatement(conn, sql);
+    try {
+      setUpdateParams(ps, resp);
+      ps.executeUpdate();
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      datasource.releaseResources(ps, null, false);
+    }
+  }
+
+  private static void setInsertParams(PreparedStatement ps, PendingResponse resp)
+      throws SQLException {
+    int idx = 1;
+    ps.setLong(idx++, resp.id);
+    ps.setInt(idx++, resp.issuerId);
+    ps.setString(idx++, resp.ident);
+    ps.setLong(idx++, resp.thisUpdate);
+    setNextUpdate(ps, idx++, resp);
+    ps.setString(idx++, Base64.encodeToString(resp.response));
+  }
+
+  private static void setUpdateParams(PreparedStatement ps, PendingResponse resp)
+      throws SQLException {
+    int idx = 1;
+    ps.setLong(idx++, resp.thisUpdate);
+    setNextUpdate(ps, idx++, resp);
+    ps.setString(idx++, Base64.encodeToString(resp.response));
+    ps.setLong(idx++, resp.id);
+  }
+
+  private static void setNextUpdate(PreparedStatement ps, int index, PendingResponse resp)
+      throws SQLException {
+    if (resp.nextUpdate != null) {
+      ps.setLong(index, resp.nextUpdate);
+    } else {
+      ps.setNull(index, java.sql.Types.BIGINT);
+    }
+  }
+
+}
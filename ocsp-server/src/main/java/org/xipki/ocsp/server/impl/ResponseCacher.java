@@ -73,11 +73,10 @@ class ResponseCacher {
 
   private static final String SQL_DELETE_EXPIRED_RESP = "DELETE FROM OCSP WHERE THIS_UPDATE<?";
 
-  private static final String SQL_ADD_RESP = "INSERT INTO OCSP (ID,IID,IDENT,"
-      + "THIS_UPDATE,NEXT_UPDATE,RESP) VALUES (?,?,?,?,?,?)";
-
-  private static final String SQL_UPDATE_RESP = "UPDATE OCSP SET THIS_UPDATE=?,"
-      + "NEXT_UPDATE=?,RESP=? WHERE ID=?";
+  /**
+   * The cached response will be used only if its nextUpdate is at least 600 seconds later.
+   */
+  static final long MIN_NEXT_UPDATE_MS = 600L * 1000;
 
   private final ConcurrentBag<ConcurrentBagEntry<Digest>> idDigesters;
 
@@ -128,6 +127,10 @@ class ResponseCacher {
 
   private final AtomicBoolean onService;
 
+  private final ResponseMemoryCache memoryCache;
+
+  private final ResponseCacheWriter writer;
+
   private DataSourceWrapper datasource;
 
   private IssuerStore issuerStore;
@@ -138,10 +141,14 @@ class ResponseCacher {
 
   private ScheduledFuture<?> issuerUpdater;
 
-  ResponseCacher(DataSourceWrapper datasource, boolean master, int validity) {
+  ResponseCacher(DataSourceWrapper datasource, boolean master, int validity,
+      int memoryCacheSize, int writeQueueSize) {
     this.datasource = ParamUtil.requireNonNull("datasource", datasource);
     this.master = master;
     this.validity = ParamUtil.requireMin("validity", validity, 1);
+    this.memoryCache = (memoryCacheSize > 0)
+        ? new ResponseMemoryCache(memoryCacheSize, validity) : null;
+    this.writer = new ResponseCacheWriter(datasource, writeQueueSize);
     this.sqlSelectIssuerCert = datasource.buildSelectFirstSql(1, "CERT FROM ISSUER WHERE ID=?");
     this.sqlSelectOcsp = datasource.buildSelectFirstSql(1,
         "IID,IDENT,THIS_UPDATE,NEXT_UPDATE,RESP FROM OCSP WHERE ID=?");
@@ -160,6 +167,7 @@ class ResponseCacher {
 
   void init() {
     updateCacheStore();
+    writer.start();
 
     scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1);
     scheduledThreadPoolExecutor.setRemoveOnCancelPolicy(true);
@@ -174,6 +182,14 @@ class ResponseCacher {
   }
 
   void shutdown() {
+    if (memoryCache != null) {
+      LOG.info("in-memory OCSP response cache: {}", memoryCache);
+      memoryCache.clear();
+    }
+
+    // write the pending responses before closing the datasource
+    writer.shutdown();
+
     if (datasource != null) {
       datasource.close();
       datasource = null;
@@ -254,9 +270,36 @@ class ResponseCacher {
 
   OcspRespWithCacheInfo getOcspResponse(int issuerId, BigInteger serialNumber,
       AlgorithmCode sigAlg) throws DataAccessException {
-    final String sql = sqlSelectOcsp;
+    ResponseMemoryCache.Key memoryCacheKey = null;
+    if (memoryCache != null) {
+      memoryCacheKey = new ResponseMemoryCache.Key(issuerId, serialNumber, sigAlg);
+      OcspRespWithCacheInfo resp = memoryCache.get(memoryCacheKey);
+      if (resp != null) {
+        return resp;
+      }
+    }
+
     byte[] identBytes = buildIdent(serialNumber, sigAlg);
     long id = deriveId(issuerId, identBytes);
+
+    // response which has not been written to the database yet
+    ResponseCacheWriter.PendingResponse pendingResp = writer.get(id);
+    if (pendingResp != null && pendingResp.getIssuerId() == issuerId
+        && pendingResp.getIdent().equals(Base64.encodeToString(identBytes))) {
+      Long nextUpdate = pendingResp.getNextUpdate();
+      if (nextUpdate != null
+          && nextUpdate < System.currentTimeMillis() + MIN_NEXT_UPDATE_MS) {
+        return null;
+      }
+
+      ResponseCacheInfo cacheInfo = new ResponseCacheInfo(pendingResp.getThisUpdate());
+      if (nextUpdate != null) {
+        cacheInfo.setNextUpdate(nextUpdate);
+      }
+      return new OcspRespWithCacheInfo(pendingResp.getResponse(), cacheInfo);
+    }
+
+    final String sql = sqlSelectOcsp;
     PreparedStatement ps = prepareStatement(sql);
     ResultSet rs = null;
 
@@ -281,7 +324,7 @@ class ResponseCacher {
       long nextUpdate = rs.getLong("NEXT_UPDATE");
       if (nextUpdate != 0) {
         // nextUpdate must be at least in 600 seconds
-        long minNextUpdate = System.currentTimeMillis() / 1000 + 600;
+        long minNextUpdate = System.currentTimeMillis() + MIN_NEXT_UPDATE_MS;
 
         if (nextUpdate < minNextUpdate) {
           return null;
@@ -291,6 +334,10 @@ class ResponseCacher {
       long thisUpdate = rs.getLong("THIS_UPDATE");
       String b64Resp = rs.getString("RESP");
       byte[] encoded = Base64.decodeFast(b64Resp);
+      if (memoryCache != null) {
+        memoryCache.put(memoryCacheKey, thisUpdate, nextUpdate, encoded);
+      }
+
       ResponseCacheInfo cacheInfo = new ResponseCacheInfo(thisUpdate);
       if (nextUpdate != 0) {
         cacheInfo.setNextUpdate(nextUpdate);
@@ -305,73 +352,19 @@ class ResponseCacher {
 
   void storeOcspResponse(int issuerId, BigInteger serialNumber, long thisUpdate, Long nextUpdate,
       AlgorithmCode sigAlgCode, byte[] response) {
+    if (memoryCache != null) {
+      long memNextUpdate = (nextUpdate == null || nextUpdate <= 0 || nextUpdate == Long.MAX_VALUE)
+          ? 0 : nextUpdate;
+      memoryCache.put(new ResponseMemoryCache.Key(issuerId, serialNumber, sigAlgCode),
+          thisUpdate, memNextUpdate, response);
+    }
+
     byte[] identBytes = buildIdent(serialNumber, sigAlgCode);
     String ident = Base64.encodeToString(identBytes);
-    try {
-      long id = deriveId(issuerId, identBytes);
-
-      Connection conn = datasource.getConnection();
-      try {
-        String sql = SQL_ADD_RESP;
-        PreparedStatement ps = datasource.prepareStatement(conn, sql);
-
-        String b64Response = Base64.encodeToString(response);
-        Boolean dataIntegrityViolationException = null;
-        try {
-          int idx = 1;
-          ps.setLong(idx++, id);
-          ps.setInt(idx++, issuerId);
-          ps.setString(idx++, ident);
-          ps.setLong(idx++, thisUpdate);
-          if (nextUpdate != null && nextUpdate > 0) {
-            ps.setLong(idx++, nextUpdate);
-          } else {
-            ps.setNull(idx++, java.sql.Types.BIGINT);
-          }
-          ps.setString(idx++, b64Response);
-          ps.execute();
-        } catch (SQLException ex) {
-          DataAccessException dex = datasource.translate(sql, ex);
-          if (dex.getReason().isDescendantOrSelfOf(Reason.DataIntegrityViolation)) {
-            dataIntegrityViolationException = Boolean.TRUE;
-          } else {
-            throw dex;
-          }
-        } finally {
-          datasource.releaseResources(ps, null, false);
-        }
-
-        if (dataIntegrityViolationException == null) {
-          LOG.debug("added cached OCSP response iid={}, ident={}", issuerId, ident);
-          return;
-        }
-
-        sql = SQL_UPDATE_RESP;
-        ps = datasource.prepareStatement(conn, sql);
-        try {
-          int idx = 1;
-          ps.setLong(idx++, thisUpdate);
-          if (nextUpdate != null && nextUpdate > 0) {
-            ps.setLong(idx++, nextUpdate);
-          } else {
-            ps.setNull(idx++, java.sql.Types.BIGINT);
-          }
-          ps.setString(idx++, b64Response);
-          ps.setLong(idx++, id);
-          ps.executeUpdate();
-        } catch (SQLException ex) {
-          throw datasource.translate(sql, ex);
-        } finally {
-          datasource.releaseResources(ps, null, false);
-        }
-      } finally {
-        datasource.returnConnection(conn);
-      }
-    } catch (DataAccessException ex) {
-      LOG.info("could not cache OCSP response iid={}, ident={}", issuerId, ident);
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("could not cache OCSP response iid=" + issuerId + ", ident=" + ident, ex);
-      }
+    long id = deriveId(issuerId, identBytes);
+    if (writer.add(new ResponseCacheWriter.PendingResponse(id, issuerId, ident,
+        thisUpdate, nextUpdate, response))) {
+      LOG.debug("queued OCSP response to be cached iid={}, ident={}", issuerId, ident);
     }
   }
 
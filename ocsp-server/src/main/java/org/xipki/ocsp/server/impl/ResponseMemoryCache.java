@@ -0,0 +1,191 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import org.xipki.common.LruCache;
+import org.xipki.common.util.ParamUtil;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo.ResponseCacheInfo;
+import org.xipki.security.AlgorithmCode;
+
+/**
+ * In-memory cache of the encoded OCSP responses, used as first level cache in front of
+ * the database of {@link ResponseCacher}. The cache is bounded by the total size of the
+ * cached responses, which are kept in direct (off-heap) buffers.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+class ResponseMemoryCache {
+
+  static final class Key {
+
+    private final int issuerId;
+
+    private final BigInteger serialNumber;
+
+    private final byte sigAlgCode;
+
+    Key(int issuerId, BigInteger serialNumber, AlgorithmCode sigAlg) {
+      this.issuerId = issuerId;
+      this.serialNumber = ParamUtil.requireNonNull("serialNumber", serialNumber);
+      this.sigAlgCode = ParamUtil.requireNonNull("sigAlg", sigAlg).getCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return (31 * issuerId + serialNumber.hashCode()) * 31 + sigAlgCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key) obj;
+      return issuerId == other.issuerId && sigAlgCode == other.sigAlgCode
+          && serialNumber.equals(other.serialNumber);
+    }
+
+  } // class Key
+
+  private static final class Entry {
+
+    private final ByteBuffer response;
+
+    private final long thisUpdate;
+
+    private final long nextUpdate;
+
+    private final long expireAt;
+
+    Entry(byte[] response, long thisUpdate, long nextUpdate, long expireAt) {
+      this.response = ByteBuffer.allocateDirect(response.length);
+      this.response.put(response);
+      this.response.flip();
+      this.thisUpdate = thisUpdate;
+      this.nextUpdate = nextUpdate;
+      this.expireAt = expireAt;
+    }
+
+    int size() {
+      return response.capacity() + ENTRY_OVERHEAD;
+    }
+
+    byte[] getResponse() {
+      byte[] bytes = new byte[response.remaining()];
+      // duplicate() to read the buffer concurrently without changing its position
+      response.duplicate().get(bytes);
+      return bytes;
+    }
+
+  } // class Entry
+
+  private static class EntryCache extends LruCache<Key, Entry> {
+
+    EntryCache(int maxSize) {
+      super(maxSize);
+    }
+
+    @Override
+    protected int sizeOf(Key key, Entry value) {
+      return value.size();
+    }
+
+  } // class EntryCache
+
+  /**
+   * Approximated size of the on-heap objects of an entry.
+   */
+  private static final int ENTRY_OVERHEAD = 200;
+
+  private final EntryCache cache;
+
+  private final long validityMs;
+
+  /**
+   * Constructor.
+   * @param maxSize maximal size in bytes of the cached responses.
+   * @param validity how long in seconds a response will be cached.
+   */
+  ResponseMemoryCache(int maxSize, int validity) {
+    this.cache = new EntryCache(ParamUtil.requireMin("maxSize", maxSize, 1));
+    this.validityMs = ParamUtil.requireMin("validity", validity, 1) * 1000L;
+  }
+
+  OcspRespWithCacheInfo get(Key key) {
+    Entry entry = cache.get(key);
+    if (entry == null) {
+      return null;
+    }
+
+    long now = System.currentTimeMillis();
+    if (entry.expireAt < now
+        || (entry.nextUpdate != 0 && entry.nextUpdate < now + ResponseCacher.MIN_NEXT_UPDATE_MS)) {
+      cache.remove(key);
+      return null;
+    }
+
+    ResponseCacheInfo cacheInfo = new ResponseCacheInfo(entry.thisUpdate);
+    if (entry.nextUpdate != 0) {
+      cacheInfo.setNextUpdate(entry.nextUpdate);
+    }
+    return new OcspRespWithCacheInfo(entry.getResponse(), cacheInfo);
+  }
+
+  /**
+   * Caches the response.
+   * @param key the key
+   * @param thisUpdate thisUpdate of the response in milliseconds.
+   * @param nextUpdate nextUpdate of the response in milliseconds, 0 if not present.
+   * @param response the encoded response.
+   */
+  void put(Key key, long thisUpdate, long nextUpdate, byte[] response) {
+    long expireAt = thisUpdate + validityMs;
+    if (nextUpdate != 0) {
+      expireAt = Math.min(expireAt, nextUpdate - ResponseCacher.MIN_NEXT_UPDATE_MS);
+    }
+
+    if (expireAt <= System.currentTimeMillis()) {
+      return;
+    }
+
+    Entry entry = new Entry(response, thisUpdate, nextUpdate, expireAt);
+    if (entry.size() > cache.maxSize()) {
+      return;
+    }
+    cache.put(key, entry);
+  }
+
+  void clear() {
+    cache.evictAll();
+  }
+
+  @Override
+  public String toString() {
+    return cache.toString();
+  }
+
+}
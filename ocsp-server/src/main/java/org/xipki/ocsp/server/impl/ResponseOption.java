@@ -43,6 +43,8 @@ public class ResponseOption {
 
   private final Long cacheMaxAge;
 
+  private final int singleResponseCacheSize;
+
   ResponseOption(ResponseOptionType conf) throws InvalidConfException {
     ParamUtil.requireNonNull("conf", conf);
     this.responderIdByName = getBoolean(conf.isResponderIdByName(), true);
@@ -57,6 +59,13 @@ public class ResponseOption {
     } else {
       this.cacheMaxAge = null;
     }
+
+    Integer size = conf.getSingleResponseCacheSize();
+    this.singleResponseCacheSize = (size == null) ? 0 : size.intValue();
+    if (singleResponseCacheSize < 0) {
+      throw new InvalidConfException(
+          "singleResponseCacheSize must not be negative: " + singleResponseCacheSize);
+    }
   }
 
   public boolean isResponderIdByName() {
@@ -79,6 +88,14 @@ public class ResponseOption {
     return cacheMaxAge;
   }
 
+  /**
+   * Returns the number of cached SingleResponse templates.
+   * @return the number of cached templates, 0 if the cache is disabled.
+   */
+  public int getSingleResponseCacheSize() {
+    return singleResponseCacheSize;
+  }
+
   public EmbedCertsMode getEmbedCertsMode() {
     return embedCertsMode;
   }
@@ -0,0 +1,278 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.common.util.LogUtil;
+import org.xipki.common.util.ParamUtil;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo;
+import org.xipki.ocsp.api.OcspRespWithCacheInfo.ResponseCacheInfo;
+import org.xipki.ocsp.server.impl.type.CertID;
+import org.xipki.security.ConcurrentContentSigner;
+
+/**
+ * Re-signs the most requested cached responses in background shortly before they
+ * cannot be used any more, so that the requests of popular certificates are always answered
+ * from the cache. The number of responses re-signed per minute is limited by a configured
+ * budget, and the responses are signed one after another, namely at most one signer of the
+ * signer pool is used for the re-signing.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+class ResponseRefresher {
+
+  /**
+   * Cached response and the context to re-sign it.
+   */
+  static final class Candidate {
+
+    private final ResponderImpl responder;
+
+    private final CertID certId;
+
+    private final ConcurrentContentSigner signer;
+
+    private final int issuerId;
+
+    private final AtomicLong hits = new AtomicLong(0);
+
+    private volatile long usableUntil;
+
+    /**
+     * Snapshot of the hits, used only to sort the candidates.
+     */
+    private long sortHits;
+
+    private Candidate(ResponderImpl responder, CertID certId, ConcurrentContentSigner signer,
+        int issuerId) {
+      this.responder = responder;
+      this.certId = certId;
+      this.signer = signer;
+      this.issuerId = issuerId;
+    }
+
+    ResponderImpl getResponder() {
+      return responder;
+    }
+
+    CertID getCertId() {
+      return certId;
+    }
+
+    ConcurrentContentSigner getSigner() {
+      return signer;
+    }
+
+    int getIssuerId() {
+      return issuerId;
+    }
+
+  } // class Candidate
+
+  interface Resigner {
+
+    OcspRespWithCacheInfo resign(Candidate candidate) throws Exception;
+
+  } // interface Resigner
+
+  private class RefreshService implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        refresh();
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "could not refresh the cached OCSP responses");
+      }
+    }
+
+  } // class RefreshService
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResponseRefresher.class);
+
+  /**
+   * Interval in seconds between two runs.
+   */
+  private static final int INTERVAL = 60;
+
+  /**
+   * Responses which cannot be used within this period will be re-signed.
+   */
+  private static final long LEAD_TIME_MS = 3L * INTERVAL * 1000;
+
+  /**
+   * Maximal number of tracked responses.
+   */
+  private static final int MAX_CANDIDATES = 100000;
+
+  private static final Comparator<Candidate> HITS_DESC = new Comparator<Candidate>() {
+    @Override
+    public int compare(Candidate c1, Candidate c2) {
+      return Long.compare(c2.sortHits, c1.sortHits);
+    }
+  };
+
+  private final ConcurrentHashMap<ResponseMemoryCache.Key, Candidate> candidates =
+      new ConcurrentHashMap<>();
+
+  private final Resigner resigner;
+
+  private final int budget;
+
+  private final long validityMs;
+
+  private final AtomicLong numRefreshed = new AtomicLong(0);
+
+  private ScheduledThreadPoolExecutor executor;
+
+  private ScheduledFuture<?> refreshService;
+
+  /**
+   * Constructor.
+   * @param resigner re-signs the responses.
+   * @param budget maximal number of responses to be re-signed per minute.
+   * @param validity how long in seconds a response will be cached.
+   */
+  ResponseRefresher(Resigner resigner, int budget, int validity) {
+    this.resigner = ParamUtil.requireNonNull("resigner", resigner);
+    this.budget = ParamUtil.requireMin("budget", budget, 1);
+    this.validityMs = ParamUtil.requireMin("validity", validity, 1) * 1000L;
+  }
+
+  void start() {
+    executor = new ScheduledThreadPoolExecutor(1);
+    executor.setRemoveOnCancelPolicy(true);
+    refreshService = executor.scheduleAtFixedRate(new RefreshService(),
+        INTERVAL, INTERVAL, TimeUnit.SECONDS);
+  }
+
+  void shutdown() {
+    if (refreshService != null) {
+      refreshService.cancel(false);
+      refreshService = null;
+    }
+
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+
+    LOG.info("re-signed {} cached OCSP responses in background", numRefreshed.get());
+    candidates.clear();
+  }
+
+  /**
+   * Records a request answered with a cached response, or whose response has been cached.
+   */
+  void recordHit(ResponseMemoryCache.Key key, ResponderImpl responder, CertID certId,
+      ConcurrentContentSigner concurrentSigner, int issuerId, ResponseCacheInfo cacheInfo) {
+    if (cacheInfo == null) {
+      return;
+    }
+
+    Candidate candidate = candidates.get(key);
+    if (candidate == null) {
+      if (candidates.size() >= MAX_CANDIDATES) {
+        return;
+      }
+
+      candidate = new Candidate(responder, certId, concurrentSigner, issuerId);
+      Candidate existing = candidates.putIfAbsent(key, candidate);
+      if (existing != null) {
+        candidate = existing;
+      }
+    }
+
+    candidate.usableUntil = usableUntil(cacheInfo);
+    candidate.hits.incrementAndGet();
+  }
+
+  long getNumRefreshed() {
+    return numRefreshed.get();
+  }
+
+  private void refresh() {
+    long now = System.currentTimeMillis();
+
+    List<Candidate> dueCandidates = new ArrayList<>();
+    for (Iterator<Candidate> it = candidates.values().iterator(); it.hasNext();) {
+      Candidate candidate = it.next();
+      if (candidate.hits.get() == 0) {
+        // not requested since the last run
+        it.remove();
+      } else if (candidate.usableUntil - now < LEAD_TIME_MS) {
+        candidate.sortHits = candidate.hits.get();
+        dueCandidates.add(candidate);
+      }
+    }
+
+    Collections.sort(dueCandidates, HITS_DESC);
+
+    int num = 0;
+    for (Candidate candidate : dueCandidates) {
+      if (num >= budget) {
+        break;
+      }
+
+      try {
+        OcspRespWithCacheInfo resp = resigner.resign(candidate);
+        if (resp != null && resp.getCacheInfo() != null) {
+          candidate.usableUntil = usableUntil(resp.getCacheInfo());
+          num++;
+        }
+      } catch (Exception ex) {
+        LogUtil.warn(LOG, ex, "could not re-sign OCSP response");
+      }
+    }
+
+    // halve the hits, so that the responses not requested any more will be removed.
+    for (Candidate candidate : candidates.values()) {
+      long hits = candidate.hits.get();
+      candidate.hits.compareAndSet(hits, hits / 2);
+    }
+
+    numRefreshed.addAndGet(num);
+    if (num > 0 || dueCandidates.size() > num) {
+      LOG.info("re-signed {} of {} expiring hot OCSP responses", num, dueCandidates.size());
+    }
+  } // method refresh
+
+  private long usableUntil(ResponseCacheInfo cacheInfo) {
+    long ret = cacheInfo.getThisUpdate() + validityMs;
+    Long nextUpdate = cacheInfo.getNextUpdate();
+    if (nextUpdate != null) {
+      ret = Math.min(ret, nextUpdate - ResponseCacher.MIN_NEXT_UPDATE_MS);
+    }
+    return ret;
+  }
+
+}
@@ -0,0 +1,163 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.xipki.common.util.CompareUtil;
+import org.xipki.common.util.ParamUtil;
+import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.ocsp.server.impl.type.CertID;
+import org.xipki.ocsp.server.impl.type.SingleResponseTemplate;
+import org.xipki.security.HashAlgo;
+
+/**
+ * Cache of the encoded SingleResponses per (issuer, serial number) of one responder, without
+ * the time fields. An entry is used only if the certificate status and the content of the
+ * extensions are the same as those of the cached SingleResponse, so that the status read
+ * from the store is always authoritative.
+ *
+ * <p>The cache is direct-mapped: each CertID has exactly one slot, and a new entry replaces
+ * the old one in the same slot. Hence the lookup is lock-free and the memory is bounded.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+class SingleResponseCache {
+
+  private static final class Entry {
+
+    private final byte[] issuer;
+
+    private final BigInteger serialNumber;
+
+    private final byte[] certStatus;
+
+    private final long invalidityTime;
+
+    private final HashAlgo certHashAlgo;
+
+    private final byte[] certHash;
+
+    private final SingleResponseTemplate template;
+
+    Entry(byte[] issuer, BigInteger serialNumber, byte[] certStatus, Date invalidityDate,
+        HashAlgo certHashAlgo, byte[] certHash, SingleResponseTemplate template) {
+      this.issuer = issuer;
+      this.serialNumber = serialNumber;
+      this.certStatus = certStatus;
+      this.invalidityTime = (invalidityDate == null) ? 0 : invalidityDate.getTime();
+      this.certHashAlgo = certHashAlgo;
+      this.certHash = certHash;
+      this.template = template;
+    }
+
+    boolean matches(RequestIssuer reqIssuer, BigInteger serialNumber, byte[] certStatus,
+        Date invalidityDate, HashAlgo certHashAlgo, byte[] certHash, boolean hasNextUpdate,
+        boolean hasArchiveCutoff) {
+      if (!this.serialNumber.equals(serialNumber)
+          || issuer.length != reqIssuer.getLength()
+          || !CompareUtil.areEqual(issuer, 0, reqIssuer.getData(), reqIssuer.getFrom(),
+              issuer.length)) {
+        return false;
+      }
+
+      return Arrays.equals(this.certStatus, certStatus)
+          && this.invalidityTime == ((invalidityDate == null) ? 0 : invalidityDate.getTime())
+          && this.certHashAlgo == certHashAlgo
+          && Arrays.equals(this.certHash, certHash)
+          && template.hasNextUpdate() == hasNextUpdate
+          && template.hasArchiveCutoff() == hasArchiveCutoff;
+    }
+
+  } // class Entry
+
+  private final AtomicReferenceArray<Entry> slots;
+
+  private final int mask;
+
+  /**
+   * Constructor.
+   * @param size the maximal number of entries, will be rounded up to a power of 2.
+   */
+  SingleResponseCache(int size) {
+    ParamUtil.requireMin("size", size, 1);
+    int capacity = 1;
+    while (capacity < size) {
+      capacity <<= 1;
+    }
+    this.slots = new AtomicReferenceArray<>(capacity);
+    this.mask = capacity - 1;
+  }
+
+  /**
+   * Returns the template of the SingleResponse.
+   * @param certId the CertID.
+   * @param certStatus the encoded CertStatus.
+   * @param invalidityDate the invalidity date in the extension InvalidityDate, {@code null} if
+   *          the extension is absent.
+   * @param certHashAlgo the hash algorithm of the extension CertHash.
+   * @param certHash the hash in the extension CertHash, {@code null} if the extension is absent.
+   * @param hasNextUpdate whether the field nextUpdate is present.
+   * @param hasArchiveCutoff whether the extension ArchiveCutoff is present.
+   * @return the template, or {@code null} if not cached.
+   */
+  SingleResponseTemplate get(CertID certId, byte[] certStatus, Date invalidityDate,
+      HashAlgo certHashAlgo, byte[] certHash, boolean hasNextUpdate, boolean hasArchiveCutoff) {
+    RequestIssuer issuer = certId.getIssuer();
+    BigInteger serialNumber = certId.getSerialNumber();
+    Entry entry = slots.get(slotIndex(issuer, serialNumber));
+    if (entry != null && entry.matches(issuer, serialNumber, certStatus, invalidityDate,
+        certHashAlgo, certHash, hasNextUpdate, hasArchiveCutoff)) {
+      return entry.template;
+    }
+    return null;
+  }
+
+  void put(CertID certId, byte[] certStatus, Date invalidityDate, HashAlgo certHashAlgo,
+      byte[] certHash, SingleResponseTemplate template) {
+    RequestIssuer issuer = certId.getIssuer();
+    byte[] issuerBytes = Arrays.copyOfRange(issuer.getData(), issuer.getFrom(),
+        issuer.getFrom() + issuer.getLength());
+    BigInteger serialNumber = certId.getSerialNumber();
+    slots.set(slotIndex(issuer, serialNumber), new Entry(issuerBytes, serialNumber, certStatus,
+        invalidityDate, certHashAlgo, certHash, template));
+  }
+
+  private int slotIndex(RequestIssuer issuer, BigInteger serialNumber) {
+    // the last bytes of the issuer are those of the issuer key hash
+    byte[] data = issuer.getData();
+    int end = issuer.getFrom() + issuer.getLength();
+    int hash = serialNumber.hashCode();
+    for (int i = Math.max(issuer.getFrom(), end - 4); i < end; i++) {
+      hash = 31 * hash + data[i];
+    }
+    hash ^= (hash >>> 16);
+    return hash & mask;
+  }
+
+  @Override
+  public String toString() {
+    return "SingleResponseCache[slots=" + slots.length() + "]";
+  }
+
+}
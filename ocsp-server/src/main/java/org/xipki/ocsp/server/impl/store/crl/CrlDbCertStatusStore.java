@@ -20,8 +20,8 @@ package org.xipki.ocsp.server.impl.store.crl;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.math.BigInteger;
 import java.security.cert.CertificateException;
-import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Date;
@@ -80,10 +80,14 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
 
   private String crlUrl;
 
+  private String deltaCrlFilename;
+
   private String certsDirName;
 
   private boolean useUpdateDatesFromCrl;
 
+  private int importCommitSize;
+
   private boolean crlUpdated;
 
   private boolean crlUpdateFailed;
@@ -96,6 +100,8 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
     StoreConf storeConf = new StoreConf(conf);
     this.crlFilename = IoUtil.expandFilepath(storeConf.getCrFile());
     this.crlUrl = storeConf.getCrlUrl();
+    this.deltaCrlFilename = (storeConf.getDeltaCrlFile() == null) ? null
+        : IoUtil.expandFilepath(storeConf.getDeltaCrlFile());
     this.certsDirName = (storeConf.getCertsDir() == null) ? null
         : IoUtil.expandFilepath(storeConf.getCertsDir());
     this.caCert = parseCert(storeConf.getCaCertFile());
@@ -105,6 +111,7 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
       this.issuerCert = null;
     }
     this.useUpdateDatesFromCrl = storeConf.isUseUpdateDatesFromCrl();
+    this.importCommitSize = storeConf.getImportCommitSize();
 
     initializeStore(datasource);
 
@@ -126,7 +133,7 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
     return crlUpdateFailed || super.isInitializationFailed();
   }
 
-  private static X509Certificate parseCert(String certFile) throws OcspStoreException {
+  static X509Certificate parseCert(String certFile) throws OcspStoreException {
     try {
       return X509Util.parseCert(certFile);
     } catch (CertificateException | IOException ex) {
@@ -135,6 +142,39 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
     }
   }
 
+  /**
+   * Reads the revocation information of the CA from the file {@code <crlFilename>.revocation}.
+   * @return the revocation information, or {@code null} if the CA is not revoked.
+   */
+  static CertRevocationInfo readCaRevocationInfo(String crlFilename) throws IOException {
+    File revFile = new File(crlFilename + ".revocation");
+    if (!revFile.exists()) {
+      return null;
+    }
+
+    Properties props = new Properties();
+    FileInputStream is = new FileInputStream(revFile);
+    try {
+      props.load(is);
+    } finally {
+      is.close();
+    }
+
+    String str = props.getProperty(KEY_CA_REVOCATION_TIME);
+    if (StringUtil.isBlank(str)) {
+      return null;
+    }
+
+    Date revocationTime = DateUtil.parseUtcTimeyyyyMMddhhmmss(str);
+    Date invalidityTime = null;
+
+    str = props.getProperty(KEY_CA_INVALIDITY_TIME);
+    if (StringUtil.isNotBlank(str)) {
+      invalidityTime = DateUtil.parseUtcTimeyyyyMMddhhmmss(str);
+    }
+    return new CertRevocationInfo(CrlReason.UNSPECIFIED, revocationTime, invalidityTime);
+  }
+
   private synchronized void initializeStore(DataSourceWrapper datasource) {
     if (crlUpdateInProcess.get()) {
       return;
@@ -149,6 +189,7 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
           updateMeFile.getAbsolutePath());
       crlUpdated = true;
       crlUpdateFailed = false;
+      crlUpdateInProcess.set(false);
       return;
     }
 
@@ -164,39 +205,47 @@ public class CrlDbCertStatusStore extends DbCertStatusStore {
       LOG.info("UPDATE_CERTSTORE: a newer CRL is available");
       updateCrlSuccessful = false;
 
-      X509CRL crl = X509Util.parseCrl(crlFilename);
-
-      File revFile = new File(crlFilename + ".revocation");
-      CertRevocationInfo caRevInfo = null;
-      if (revFile.exists()) {
-        Properties props = new Properties();
-        FileInputStream is = new FileInputStream(revFile);
-        try {
-          props.load(is);
-        } finally {
-          is.close();
-        }
-
-        String str = props.getProperty(KEY_CA_REVOCATION_TIME);
-        if (StringUtil.isNotBlank(str)) {
-          Date revocationTime = DateUtil.parseUtcTimeyyyyMMddhhmmss(str);
-          Date invalidityTime = null;
+      CertRevocationInfo caRevInfo = readCaRevocationInfo(crlFilename);
 
-          str = props.getProperty(KEY_CA_INVALIDITY_TIME);
-          if (StringUtil.isNotBlank(str)) {
-            invalidityTime = DateUtil.parseUtcTimeyyyyMMddhhmmss(str);
+      long numDeleted = 0;
+      BigInteger crlNumber;
+      ImportCrl importCrl;
+      try (CrlStreamParser crl = new CrlStreamParser(fullCrlFile)) {
+        crlNumber = crl.getCrlNumber();
+        importCrl = new ImportCrl(datasource, useUpdateDatesFromCrl, crl, crlUrl,
+            caCert, issuerCert, caRevInfo, certsDirName, importCommitSize);
+        updateCrlSuccessful = importCrl.importCrlToOcspDb();
+      }
+      numDeleted += importCrl.getNumDeleted();
+
+      if (updateCrlSuccessful && deltaCrlFilename != null) {
+        File deltaCrlFile = new File(deltaCrlFilename);
+        if (deltaCrlFile.exists()) {
+          try (CrlStreamParser crl = new CrlStreamParser(deltaCrlFile)) {
+            if (!crl.isDeltaCrl()) {
+              LOG.warn("store {}: {} is not a delta CRL, ignore it", name, deltaCrlFilename);
+            } else if (!crl.isDeltaCrlOf(crlNumber)) {
+              // e.g. the delta CRL of the previous full CRL has not been replaced yet
+              LOG.warn("store {}: delta CRL {} is not based on the CRL {}, ignore it",
+                  name, crl.getCrlNumber(), crlNumber);
+            } else {
+              LOG.info("UPDATE_CERTSTORE: apply the delta CRL");
+              importCrl = new ImportCrl(datasource, useUpdateDatesFromCrl, crl, crlUrl,
+                  caCert, issuerCert, caRevInfo, certsDirName, importCommitSize);
+              updateCrlSuccessful = importCrl.importCrlToOcspDb();
+              numDeleted += importCrl.getNumDeleted();
+            }
           }
-          caRevInfo = new CertRevocationInfo(CrlReason.UNSPECIFIED,
-              revocationTime, invalidityTime);
         }
       }
 
-      ImportCrl importCrl = new ImportCrl(datasource, useUpdateDatesFromCrl, crl, crlUrl,
-          caCert, issuerCert, caRevInfo, certsDirName);
-      updateCrlSuccessful = importCrl.importCrlToOcspDb();
       crlUpdated = true;
       if (updateCrlSuccessful) {
         crlUpdateFailed = false;
+        if (numDeleted > 0) {
+          // the changed entries are synchronized via the column LUPDATE.
+          markStatusIndexOutdated();
+        }
         LOG.info("updated CertStore {} successfully", name);
       } else {
         crlUpdateFailed = true;
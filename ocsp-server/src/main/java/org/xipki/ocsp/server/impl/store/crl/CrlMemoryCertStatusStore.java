@@ -0,0 +1,427 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.store.crl;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.common.util.IoUtil;
+import org.xipki.common.util.LogUtil;
+import org.xipki.common.util.ParamUtil;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.ocsp.api.CertStatus;
+import org.xipki.ocsp.api.CertStatusInfo;
+import org.xipki.ocsp.api.CrlInfo;
+import org.xipki.ocsp.api.IssuerEntry;
+import org.xipki.ocsp.api.OcspStore;
+import org.xipki.ocsp.api.OcspStoreException;
+import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.ocsp.server.impl.store.crl.CrlStreamParser.RevokedCert;
+import org.xipki.ocsp.server.impl.store.crl.CrlStreamParser.RevokedCertIterator;
+import org.xipki.security.CertRevocationInfo;
+import org.xipki.security.CrlReason;
+
+/**
+ * OCSP store which answers the status directly from the CRL file, without database. The
+ * revoked certificates of the CRL (and of the optional delta CRL) are kept in memory, and
+ * replaced atomically once the files have been changed.
+ *
+ * <p>Since the CRL contains only the revoked certificates, the status of the other
+ * certificates is good if unknownSerialAsGood is set, and unknown otherwise. The
+ * certificates in the CRL extension Xipki-CrlCertSet and in certs.dir are not used.
+ *
+ * <p>If the CRL cannot be loaded, the store still knows the CA and answers tryLater until the
+ * CRL has been loaded by the periodical reload.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class CrlMemoryCertStatusStore extends OcspStore {
+
+  /**
+   * Status of the CA read from the CRL files.
+   */
+  private static final class Snapshot {
+
+    private final IssuerEntry issuer;
+
+    private final RevokedCertTable revokedCerts;
+
+    private final String fileStamp;
+
+    private Snapshot(IssuerEntry issuer, RevokedCertTable revokedCerts, String fileStamp) {
+      this.issuer = issuer;
+      this.revokedCerts = revokedCerts;
+      this.fileStamp = fileStamp;
+    }
+
+  } // class Snapshot
+
+  private class CrlUpdateService implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        updateSnapshot();
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "could not reload the CRL of store " + name);
+      }
+    }
+
+  } // class CrlUpdateService
+
+  private static final Logger LOG = LoggerFactory.getLogger(CrlMemoryCertStatusStore.class);
+
+  private X509Certificate caCert;
+
+  /**
+   * The CA, to match the requested issuer also if the CRL has not been loaded.
+   */
+  private IssuerEntry caIssuer;
+
+  private X509Certificate issuerCert;
+
+  private String crlFilename;
+
+  private String deltaCrlFilename;
+
+  private String crlUrl;
+
+  private boolean useUpdateDatesFromCrl;
+
+  private volatile Snapshot snapshot;
+
+  private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
+
+  @Override
+  public void init(String conf, DataSourceWrapper datasource) throws OcspStoreException {
+    ParamUtil.requireNonBlank("conf", conf);
+
+    StoreConf storeConf = new StoreConf(conf);
+    this.crlFilename = IoUtil.expandFilepath(storeConf.getCrFile());
+    this.deltaCrlFilename = (storeConf.getDeltaCrlFile() == null) ? null
+        : IoUtil.expandFilepath(storeConf.getDeltaCrlFile());
+    this.crlUrl = storeConf.getCrlUrl();
+    this.caCert = CrlDbCertStatusStore.parseCert(storeConf.getCaCertFile());
+    if (storeConf.getIssuerCertFile() != null) {
+      this.issuerCert = CrlDbCertStatusStore.parseCert(storeConf.getIssuerCertFile());
+    } else {
+      this.issuerCert = null;
+    }
+    this.useUpdateDatesFromCrl = storeConf.isUseUpdateDatesFromCrl();
+
+    if (storeConf.getCertsDir() != null) {
+      LOG.warn("store {}: certs.dir is not supported and will be ignored", name);
+    }
+
+    if (datasource != null) {
+      LOG.warn("store {}: datasource is not required and will be ignored", name);
+    }
+
+    try {
+      this.caIssuer = new IssuerEntry(1, caCert);
+    } catch (CertificateEncodingException ex) {
+      throw new OcspStoreException("could not encode CA certificate", ex);
+    }
+
+    try {
+      updateSnapshot();
+    } catch (IOException | ImportCrlException | RuntimeException ex) {
+      // answer tryLater and retry with the periodical reload
+      LogUtil.error(LOG, ex, "store " + name + ": could not load CRL");
+    }
+
+    if (this.scheduledThreadPoolExecutor != null) {
+      this.scheduledThreadPoolExecutor.shutdownNow();
+    }
+    this.scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1);
+    this.scheduledThreadPoolExecutor.scheduleAtFixedRate(new CrlUpdateService(),
+        60 + new Random().nextInt(60), 60, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void shutdown() throws OcspStoreException {
+    if (scheduledThreadPoolExecutor != null) {
+      scheduledThreadPoolExecutor.shutdown();
+      scheduledThreadPoolExecutor = null;
+    }
+  }
+
+  @Override
+  public boolean isHealthy() {
+    return snapshot != null;
+  }
+
+  @Override
+  public boolean knowsIssuer(RequestIssuer reqIssuer) {
+    // also if the CRL has not been loaded, so that the status is tryLater instead of unknown
+    return caIssuer.matchHash(reqIssuer);
+  }
+
+  @Override
+  public X509Certificate getIssuerCert(RequestIssuer reqIssuer) {
+    return knowsIssuer(reqIssuer) ? caCert : null;
+  }
+
+  @Override
+  public CertStatusInfo getCertStatus(Date time, RequestIssuer reqIssuer, BigInteger serialNumber,
+      boolean includeCertHash, boolean includeRit, boolean inheritCaRevocation)
+      throws OcspStoreException {
+    if (serialNumber.signum() != 1) { // non-positive serial number
+      return CertStatusInfo.getUnknownCertStatusInfo(new Date(), null);
+    }
+
+    if (!caIssuer.matchHash(reqIssuer)) {
+      return null;
+    }
+
+    Snapshot ss = snapshot;
+    if (ss == null) {
+      throw new OcspStoreException("CRL of store " + name + " has not been loaded");
+    }
+
+    IssuerEntry issuer = ss.issuer;
+    CrlInfo crlInfo = issuer.getCrlInfo();
+
+    Date thisUpdate;
+    Date nextUpdate = null;
+
+    if (crlInfo.isUseCrlUpdates()) {
+      thisUpdate = crlInfo.getThisUpdate();
+
+      // this.nextUpdate is still in the future (10 seconds buffer)
+      if (crlInfo.getNextUpdate() != null
+          && crlInfo.getNextUpdate().getTime() - System.currentTimeMillis() > 10 * 1000) {
+        nextUpdate = crlInfo.getNextUpdate();
+      }
+    } else {
+      thisUpdate = new Date();
+    }
+
+    CertStatusInfo certStatusInfo;
+    int idx = ss.revokedCerts.indexOf(serialNumber);
+    if (idx != -1) {
+      long revTime = ss.revokedCerts.getRevTime(idx);
+      long invalTime = includeRit ? ss.revokedCerts.getInvalidityTime(idx) : 0;
+      Date invTime = (invalTime == 0 || invalTime == revTime)
+          ? null : new Date(invalTime * 1000);
+      CertRevocationInfo revInfo = new CertRevocationInfo(ss.revokedCerts.getReason(idx),
+          new Date(revTime * 1000), invTime);
+      certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo, thisUpdate, nextUpdate);
+    } else if (unknownSerialAsGood) {
+      certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(thisUpdate, nextUpdate);
+    } else {
+      certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
+    }
+
+    if (includeCrlId) {
+      certStatusInfo.setCrlId(crlInfo.getCrlId());
+    }
+
+    if (includeArchiveCutoff && retentionInterval != 0) {
+      Date date;
+      // expired certificate remains in status store for ever
+      if (retentionInterval < 0) {
+        date = issuer.getNotBefore();
+      } else {
+        long nowInMs = System.currentTimeMillis();
+        long dateInMs = Math.max(issuer.getNotBefore().getTime(),
+            nowInMs - DAY * retentionInterval);
+        date = new Date(dateInMs);
+      }
+
+      certStatusInfo.setArchiveCutOff(date);
+    }
+
+    if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
+      return certStatusInfo;
+    }
+
+    CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
+    CertStatus certStatus = certStatusInfo.getCertStatus();
+    boolean replaced = false;
+    if (certStatus == CertStatus.GOOD || certStatus == CertStatus.UNKNOWN) {
+      replaced = true;
+    } else if (certStatus == CertStatus.REVOKED) {
+      if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
+            caRevInfo.getRevocationTime())) {
+        replaced = true;
+      }
+    }
+
+    if (replaced) {
+      CertRevocationInfo newRevInfo;
+      if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
+        newRevInfo = caRevInfo;
+      } else {
+        newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
+            caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
+      }
+      CertStatusInfo newInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
+          certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate());
+      newInfo.setCrlId(certStatusInfo.getCrlId());
+      newInfo.setArchiveCutOff(certStatusInfo.getArchiveCutOff());
+      certStatusInfo = newInfo;
+    }
+    return certStatusInfo;
+  } // method getCertStatus
+
+  /**
+   * Reloads the CRL if the files have been changed since the last load.
+   */
+  private synchronized void updateSnapshot() throws IOException, ImportCrlException {
+    File crlFile = new File(crlFilename);
+    File deltaCrlFile = (deltaCrlFilename == null) ? null : new File(deltaCrlFilename);
+    if (deltaCrlFile != null && !deltaCrlFile.exists()) {
+      deltaCrlFile = null;
+    }
+
+    File revFile = new File(crlFilename + ".revocation");
+    String fileStamp = getFileStamp(crlFile) + ";" + getFileStamp(deltaCrlFile)
+        + ";" + getFileStamp(revFile);
+
+    Snapshot ss = snapshot;
+    if (ss != null && ss.fileStamp.equals(fileStamp)) {
+      return;
+    }
+
+    long start = System.currentTimeMillis();
+
+    RevokedCertTable revokedCerts;
+    CrlInfo crlInfo;
+    try (CrlStreamParser crl = new CrlStreamParser(crlFile)) {
+      if (crl.isDeltaCrl()) {
+        throw new ImportCrlException("CRL " + crlFilename + " is a delta CRL");
+      }
+
+      revokedCerts = readRevokedCerts(crl);
+      crlInfo = new CrlInfo(crl.getCrlNumber(), null, useUpdateDatesFromCrl,
+          crl.getThisUpdate(), crl.getNextUpdate(), crl.buildCrlId(crlUrl));
+    }
+
+    if (deltaCrlFile != null) {
+      try (CrlStreamParser deltaCrl = new CrlStreamParser(deltaCrlFile)) {
+        if (!deltaCrl.isDeltaCrl()) {
+          LOG.warn("store {}: {} is not a delta CRL, ignore it", name, deltaCrlFilename);
+        } else if (!deltaCrl.isDeltaCrlOf(crlInfo.getCrlNumber())) {
+          LOG.warn("store {}: delta CRL {} is not based on the CRL {}, ignore it",
+              name, deltaCrl.getCrlNumber(), crlInfo.getCrlNumber());
+        } else {
+          revokedCerts = RevokedCertTable.merge(revokedCerts, readRevokedCerts(deltaCrl));
+          crlInfo = new CrlInfo(deltaCrl.getCrlNumber(), deltaCrl.getBaseCrlNumber(),
+              useUpdateDatesFromCrl, deltaCrl.getThisUpdate(), deltaCrl.getNextUpdate(),
+              deltaCrl.buildCrlId(crlUrl));
+        }
+      }
+    }
+
+    IssuerEntry issuer;
+    try {
+      issuer = new IssuerEntry(1, caCert);
+    } catch (CertificateEncodingException ex) {
+      throw new ImportCrlException("could not encode CA certificate", ex);
+    }
+    issuer.setCrlInfo(crlInfo);
+
+    CertRevocationInfo caRevInfo = CrlDbCertStatusStore.readCaRevocationInfo(crlFilename);
+    if (caRevInfo != null) {
+      issuer.setRevocationInfo(caRevInfo.getRevocationTime());
+    }
+
+    snapshot = new Snapshot(issuer, revokedCerts, fileStamp);
+    LOG.info("store {}: loaded CRL {} with {} revoked certificates in {} ms", name,
+        crlInfo.getCrlNumber(), revokedCerts.size(), System.currentTimeMillis() - start);
+  } // method updateSnapshot
+
+  private RevokedCertTable readRevokedCerts(CrlStreamParser crl)
+      throws IOException, ImportCrlException {
+    X500Name caSubject = X500Name.getInstance(caCert.getSubjectX500Principal().getEncoded());
+    X509Certificate crlSignerCert = caCert;
+    if (!caSubject.equals(crl.getIssuer())) {
+      if (issuerCert == null) {
+        throw new ImportCrlException("issuerCert must not be null");
+      }
+
+      if (!X500Name.getInstance(issuerCert.getSubjectX500Principal().getEncoded())
+          .equals(crl.getIssuer())) {
+        throw new ImportCrlException("issuerCert and CRL do not match");
+      }
+      crlSignerCert = issuerCert;
+    }
+
+    if (!crl.verifySignature(crlSignerCert.getPublicKey())) {
+      throw new ImportCrlException("invalid signature of CRL");
+    }
+
+    if (crl.getCrlNumber() == null) {
+      throw new ImportCrlException("CRL without CRLNumber is not supported");
+    }
+
+    final boolean isDeltaCrl = crl.isDeltaCrl();
+    final int removeFromCrl = CrlReason.REMOVE_FROM_CRL.getCode();
+    RevokedCertTable.Builder builder = new RevokedCertTable.Builder(1024);
+
+    try (RevokedCertIterator it = crl.revokedCertificates()) {
+      while (it.hasNext()) {
+        RevokedCert revokedCert = it.next();
+        BigInteger serial = revokedCert.getSerialNumber();
+        X500Name issuer = revokedCert.getCertificateIssuer();
+        if (issuer != null && !caSubject.equals(issuer)) {
+          throw new ImportCrlException("invalid CRLEntry for certificate number " + serial);
+        }
+
+        int reason = revokedCert.getReason();
+        if (reason == removeFromCrl && !isDeltaCrl) {
+          LOG.warn("ignore CRL entry with reason removeFromCRL in non-Delta CRL");
+          continue;
+        }
+
+        long revTime = revokedCert.getRevocationDate().getTime() / 1000;
+        Date invalidityDate = revokedCert.getInvalidityDate();
+        long invalidityTime = (invalidityDate == null) ? 0 : invalidityDate.getTime() / 1000;
+
+        if (!builder.add(serial, reason, revTime, invalidityTime)) {
+          // the revocation must not get lost, e.g. answered good with unknownSerialAsGood
+          throw new ImportCrlException("CRL entry with unsupported serial number "
+              + LogUtil.formatCsn(serial));
+        }
+      }
+    }
+
+    return builder.build();
+  } // method readRevokedCerts
+
+  private static String getFileStamp(File file) {
+    if (file == null || !file.exists()) {
+      return "-";
+    }
+    return file.lastModified() + "/" + file.length();
+  }
+
+}
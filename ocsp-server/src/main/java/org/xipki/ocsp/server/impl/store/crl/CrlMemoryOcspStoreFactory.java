@@ -0,0 +1,49 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.store.crl;
+
+import org.xipki.common.ObjectCreationException;
+import org.xipki.ocsp.api.OcspStore;
+import org.xipki.ocsp.api.OcspStoreFactory;
+
+/**
+ * Factory of the OCSP store of type CRL-MEMORY, see {@link CrlMemoryCertStatusStore}.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class CrlMemoryOcspStoreFactory implements OcspStoreFactory {
+
+  public static final String TYPE = "CRL-MEMORY";
+
+  @Override
+  public boolean canCreateOcspStore(String type) {
+    return TYPE.equalsIgnoreCase(type);
+  }
+
+  @Override
+  public OcspStore newOcspStore(String type) throws ObjectCreationException {
+    if (TYPE.equalsIgnoreCase(type)) {
+      return new CrlMemoryCertStatusStore();
+    } else {
+      throw new ObjectCreationException("unknown OCSP store type '" + type + "'");
+    }
+  }
+
+}
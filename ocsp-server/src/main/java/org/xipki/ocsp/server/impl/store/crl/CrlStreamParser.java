@@ -0,0 +1,818 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.store.crl;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Enumerated;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERGeneralizedTime;
+import org.bouncycastle.asn1.DERIA5String;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.DERUTF8String;
+import org.bouncycastle.asn1.ocsp.CrlID;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.Certificate;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.TBSCertList.CRLEntry;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.operator.ContentVerifier;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.xipki.common.util.Base64;
+import org.xipki.common.util.IoUtil;
+import org.xipki.common.util.ParamUtil;
+import org.xipki.common.util.StringUtil;
+import org.xipki.security.ObjectIdentifiers;
+
+/**
+ * Parser of a DER-encoded CRL which reads the revoked certificates and the certificates in the
+ * extension Xipki-CrlCertSet one by one from the file, instead of holding all of them in memory.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+class CrlStreamParser implements Closeable {
+
+  static final class RevokedCert {
+
+    private final BigInteger serialNumber;
+
+    private final Date revocationDate;
+
+    private final Date invalidityDate;
+
+    private final int reason;
+
+    private final X500Name certificateIssuer;
+
+    private RevokedCert(BigInteger serialNumber, Date revocationDate, Date invalidityDate,
+        int reason, X500Name certificateIssuer) {
+      this.serialNumber = serialNumber;
+      this.revocationDate = revocationDate;
+      this.invalidityDate = invalidityDate;
+      this.reason = reason;
+      this.certificateIssuer = certificateIssuer;
+    }
+
+    BigInteger getSerialNumber() {
+      return serialNumber;
+    }
+
+    Date getRevocationDate() {
+      return revocationDate;
+    }
+
+    Date getInvalidityDate() {
+      return invalidityDate;
+    }
+
+    int getReason() {
+      return reason;
+    }
+
+    /**
+     * Returns the issuer of the revoked certificate.
+     * @return the issuer of the revoked certificate, or {@code null} if it is the CRL issuer.
+     */
+    X500Name getCertificateIssuer() {
+      return certificateIssuer;
+    }
+
+  } // class RevokedCert
+
+  static final class CrlCert {
+
+    private final BigInteger serialNumber;
+
+    private final Certificate cert;
+
+    private final String profileName;
+
+    private CrlCert(BigInteger serialNumber, Certificate cert, String profileName) {
+      this.serialNumber = serialNumber;
+      this.cert = cert;
+      this.profileName = profileName;
+    }
+
+    BigInteger getSerialNumber() {
+      return serialNumber;
+    }
+
+    /**
+     * Returns the certificate.
+     * @return the certificate, may be {@code null}.
+     */
+    Certificate getCert() {
+      return cert;
+    }
+
+    String getProfileName() {
+      return profileName;
+    }
+
+  } // class CrlCert
+
+  /**
+   * Iterator over the elements of a constructed DER object, whose content is read from the file.
+   */
+  abstract class ElementIterator<T> implements Closeable {
+
+    private final PositionInputStream in;
+
+    private final long end;
+
+    private ElementIterator(long start, long end) throws IOException {
+      this.in = openStream(start);
+      this.end = end;
+    }
+
+    boolean hasNext() {
+      return in.position < end;
+    }
+
+    T next() throws IOException {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return parse(readTlv(in));
+    }
+
+    protected abstract T parse(byte[] encoded) throws IOException;
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+
+  } // class ElementIterator
+
+  class RevokedCertIterator extends ElementIterator<RevokedCert> {
+
+    private X500Name certificateIssuer;
+
+    private RevokedCertIterator(long start, long end) throws IOException {
+      super(start, end);
+    }
+
+    @Override
+    protected RevokedCert parse(byte[] encoded) throws IOException {
+      CRLEntry entry;
+      Date revocationDate;
+      try {
+        entry = CRLEntry.getInstance(ASN1Sequence.getInstance(encoded));
+        revocationDate = entry.getRevocationDate().getDate();
+      } catch (IllegalArgumentException | IllegalStateException ex) {
+        throw new IOException("invalid CRL entry: " + ex.getMessage(), ex);
+      }
+
+      BigInteger serialNumber = entry.getUserCertificate().getPositiveValue();
+      Date invalidityDate = null;
+      int reason = 0;
+
+      Extensions extns = entry.getExtensions();
+      if (extns != null) {
+        try {
+          Extension extn = extns.getExtension(Extension.reasonCode);
+          if (extn != null) {
+            reason = ASN1Enumerated.getInstance(extn.getParsedValue()).getValue().intValue();
+          }
+
+          extn = extns.getExtension(Extension.invalidityDate);
+          if (extn != null) {
+            invalidityDate = ASN1GeneralizedTime.getInstance(extn.getParsedValue()).getDate();
+          }
+
+          extn = extns.getExtension(Extension.certificateIssuer);
+          if (extn != null) {
+            // applies to this and the following entries
+            certificateIssuer = null;
+            for (GeneralName name : GeneralNames.getInstance(extn.getParsedValue()).getNames()) {
+              if (name.getTagNo() == GeneralName.directoryName) {
+                X500Name tmpIssuer = X500Name.getInstance(name.getName());
+                certificateIssuer = tmpIssuer.equals(issuer) ? null : tmpIssuer;
+                break;
+              }
+            }
+          }
+        } catch (IllegalArgumentException | ParseException ex) {
+          throw new IOException("invalid extension in CRL entry " + serialNumber.toString(16)
+              + ": " + ex.getMessage(), ex);
+        }
+      }
+
+      return new RevokedCert(serialNumber, revocationDate, invalidityDate, reason,
+          certificateIssuer);
+    }
+
+  } // class RevokedCertIterator
+
+  class CrlCertIterator extends ElementIterator<CrlCert> {
+
+    private CrlCertIterator(long start, long end) throws IOException {
+      super(start, end);
+    }
+
+    @Override
+    protected CrlCert parse(byte[] encoded) throws IOException {
+      try {
+        ASN1Sequence seq = ASN1Sequence.getInstance(encoded);
+        BigInteger serialNumber = ASN1Integer.getInstance(seq.getObjectAt(0)).getValue();
+
+        Certificate cert = null;
+        String profileName = null;
+
+        final int size = seq.size();
+        for (int j = 1; j < size; j++) {
+          ASN1TaggedObject taggedObj = DERTaggedObject.getInstance(seq.getObjectAt(j));
+          int tagNo = taggedObj.getTagNo();
+          switch (tagNo) {
+            case 0:
+              cert = Certificate.getInstance(taggedObj.getObject());
+              break;
+            case 1:
+              profileName = DERUTF8String.getInstance(taggedObj.getObject()).getString();
+              break;
+            default:
+              break;
+          }
+        }
+
+        return new CrlCert(serialNumber, cert, profileName);
+      } catch (IllegalArgumentException ex) {
+        throw new IOException("invalid entry in CRL extension Xipki-CrlCertSet: "
+            + ex.getMessage(), ex);
+      }
+    }
+
+  } // class CrlCertIterator
+
+  /**
+   * Input stream which counts the read bytes.
+   */
+  private static class PositionInputStream extends FilterInputStream {
+
+    private long position;
+
+    PositionInputStream(InputStream in, long position) {
+      super(in);
+      this.position = position;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int ret = super.read();
+      if (ret != -1) {
+        position++;
+      }
+      return ret;
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+      int ret = super.read(buf, off, len);
+      if (ret > 0) {
+        position += ret;
+      }
+      return ret;
+    }
+
+    @Override
+    public long skip(long num) throws IOException {
+      long ret = super.skip(num);
+      position += ret;
+      return ret;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+  } // class PositionInputStream
+
+  private static final int TAG_INTEGER = 0x02;
+
+  private static final int TAG_BITSTRING = 0x03;
+
+  private static final int TAG_OCTETSTRING = 0x04;
+
+  private static final int TAG_OID = 0x06;
+
+  private static final int TAG_UTCTIME = 0x17;
+
+  private static final int TAG_GENERALIZEDTIME = 0x18;
+
+  private static final int TAG_SEQUENCE = 0x30;
+
+  private static final int TAG_SET = 0x31;
+
+  private static final int TAG_CONTEXT_0 = 0xA0;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File crlFile;
+
+  private final boolean tmpCrlFile;
+
+  private final X500Name issuer;
+
+  private final Date thisUpdate;
+
+  private final Date nextUpdate;
+
+  private final AlgorithmIdentifier algorithmIdentifier;
+
+  private final byte[] signature;
+
+  private final long tbsStart;
+
+  private final long tbsEnd;
+
+  private final long revokedCertsStart;
+
+  private final long revokedCertsEnd;
+
+  private final long crlCertSetStart;
+
+  private final long crlCertSetEnd;
+
+  private final boolean hasCrlCertSet;
+
+  private final BigInteger crlNumber;
+
+  private final BigInteger baseCrlNumber;
+
+  /**
+   * Extensions of the CRL except Xipki-CrlCertSet.
+   */
+  private final Map<ASN1ObjectIdentifier, byte[]> extnValues = new HashMap<>();
+
+  CrlStreamParser(File crlFile) throws IOException {
+    ParamUtil.requireNonNull("crlFile", crlFile);
+
+    if (isDerEncoded(crlFile)) {
+      this.crlFile = crlFile;
+      this.tmpCrlFile = false;
+    } else {
+      this.crlFile = convertPemToDer(crlFile);
+      this.tmpCrlFile = true;
+    }
+
+    try (PositionInputStream in = openStream(0)) {
+      // CertificateList
+      expectTag(TAG_SEQUENCE, in.read(), "CertificateList");
+      readLength(in);
+
+      // tbsCertList
+      this.tbsStart = in.position;
+      expectTag(TAG_SEQUENCE, in.read(), "tbsCertList");
+      int len = readLength(in);
+      this.tbsEnd = in.position + len;
+
+      int tag = in.read();
+      // version
+      if (tag == TAG_INTEGER) {
+        skip(in, readLength(in));
+        tag = in.read();
+      }
+
+      // signature
+      expectTag(TAG_SEQUENCE, tag, "tbsCertList.signature");
+      AlgorithmIdentifier tbsAlgId = AlgorithmIdentifier.getInstance(readTlv(in, tag));
+
+      // issuer
+      tag = in.read();
+      expectTag(TAG_SEQUENCE, tag, "tbsCertList.issuer");
+      this.issuer = X500Name.getInstance(readTlv(in, tag));
+
+      // thisUpdate
+      tag = in.read();
+      if (tag != TAG_UTCTIME && tag != TAG_GENERALIZEDTIME) {
+        throw new IOException("invalid tbsCertList.thisUpdate");
+      }
+      this.thisUpdate = readTime(in, tag);
+
+      tag = in.position < tbsEnd ? in.read() : -1;
+      // nextUpdate
+      if (tag == TAG_UTCTIME || tag == TAG_GENERALIZEDTIME) {
+        this.nextUpdate = readTime(in, tag);
+        tag = in.position < tbsEnd ? in.read() : -1;
+      } else {
+        this.nextUpdate = null;
+      }
+
+      // revokedCertificates
+      if (tag == TAG_SEQUENCE) {
+        len = readLength(in);
+        this.revokedCertsStart = in.position;
+        this.revokedCertsEnd = in.position + len;
+        skip(in, len);
+        tag = in.position < tbsEnd ? in.read() : -1;
+      } else {
+        this.revokedCertsStart = 0;
+        this.revokedCertsEnd = 0;
+      }
+
+      // crlExtensions
+      long certSetStart = 0;
+      long certSetEnd = 0;
+      boolean withCertSet = false;
+      if (tag == TAG_CONTEXT_0) {
+        readLength(in);
+        expectTag(TAG_SEQUENCE, in.read(), "tbsCertList.crlExtensions");
+        len = readLength(in);
+        final long extnsEnd = in.position + len;
+
+        while (in.position < extnsEnd) {
+          expectTag(TAG_SEQUENCE, in.read(), "Extension");
+          readLength(in);
+
+          tag = in.read();
+          expectTag(TAG_OID, tag, "Extension.extnID");
+          ASN1ObjectIdentifier type = ASN1ObjectIdentifier.getInstance(readTlv(in, tag));
+
+          tag = in.read();
+          // critical
+          if (tag != TAG_OCTETSTRING) {
+            skip(in, readLength(in));
+            tag = in.read();
+          }
+
+          expectTag(TAG_OCTETSTRING, tag, "Extension.extnValue");
+          len = readLength(in);
+          if (ObjectIdentifiers.id_xipki_ext_crlCertset.equals(type)) {
+            withCertSet = true;
+            expectTag(TAG_SET, in.read(), "Xipki-CrlCertSet");
+            int setLen = readLength(in);
+            certSetStart = in.position;
+            certSetEnd = in.position + setLen;
+            skip(in, setLen);
+          } else {
+            byte[] extnValue = new byte[len];
+            readFully(in, extnValue);
+            extnValues.put(type, extnValue);
+          }
+        }
+        tag = in.position < tbsEnd ? in.read() : -1;
+      }
+
+      if (tag != -1) {
+        throw new IOException("unknown element in tbsCertList");
+      }
+      this.crlCertSetStart = certSetStart;
+      this.crlCertSetEnd = certSetEnd;
+      this.hasCrlCertSet = withCertSet;
+
+      // signatureAlgorithm
+      tag = in.read();
+      expectTag(TAG_SEQUENCE, tag, "signatureAlgorithm");
+      this.algorithmIdentifier = AlgorithmIdentifier.getInstance(readTlv(in, tag));
+      if (!algorithmIdentifier.equals(tbsAlgId)) {
+        throw new IOException("tbsCertList.signature != signatureAlgorithm");
+      }
+
+      // signatureValue
+      tag = in.read();
+      expectTag(TAG_BITSTRING, tag, "signatureValue");
+      this.signature = DERBitString.getInstance(readTlv(in, tag)).getBytes();
+    } catch (IllegalArgumentException ex) {
+      throw new IOException("invalid CRL: " + ex.getMessage(), ex);
+    }
+
+    byte[] extnValue = extnValues.get(Extension.cRLNumber);
+    this.crlNumber = (extnValue == null) ? null
+        : ASN1Integer.getInstance(extnValue).getPositiveValue();
+
+    extnValue = extnValues.get(Extension.deltaCRLIndicator);
+    this.baseCrlNumber = (extnValue == null) ? null
+        : ASN1Integer.getInstance(extnValue).getPositiveValue();
+  } // constructor
+
+  X500Name getIssuer() {
+    return issuer;
+  }
+
+  Date getThisUpdate() {
+    return thisUpdate;
+  }
+
+  Date getNextUpdate() {
+    return nextUpdate;
+  }
+
+  /**
+   * Returns the CRL number.
+   * @return the CRL number, or {@code null} if the CRL has no extension CRLNumber.
+   */
+  BigInteger getCrlNumber() {
+    return crlNumber;
+  }
+
+  /**
+   * Returns the CRL number of the base CRL of a delta CRL.
+   * @return the CRL number of the base CRL, or {@code null} if this CRL is not a delta CRL.
+   */
+  BigInteger getBaseCrlNumber() {
+    return baseCrlNumber;
+  }
+
+  boolean isDeltaCrl() {
+    return baseCrlNumber != null;
+  }
+
+  /**
+   * Checks whether this CRL is a delta CRL of the given full CRL.
+   * @param crlNumber the CRL number of the full CRL.
+   * @return whether this CRL is a delta CRL whose base CRL has the given number.
+   */
+  boolean isDeltaCrlOf(BigInteger crlNumber) {
+    return baseCrlNumber != null && baseCrlNumber.equals(crlNumber);
+  }
+
+  /**
+   * Builds the CrlID to be embedded in the OCSP response.
+   * @param crlUrl URL of the CRL, may be {@code null}.
+   * @return the CrlID.
+   */
+  CrlID buildCrlId(String crlUrl) {
+    ASN1EncodableVector vec = new ASN1EncodableVector();
+    if (StringUtil.isNotBlank(crlUrl)) {
+      vec.add(new DERTaggedObject(true, 0, new DERIA5String(crlUrl, true)));
+    }
+
+    if (crlNumber != null) {
+      vec.add(new DERTaggedObject(true, 1, new ASN1Integer(crlNumber)));
+    }
+    vec.add(new DERTaggedObject(true, 2, new DERGeneralizedTime(thisUpdate)));
+    return CrlID.getInstance(new DERSequence(vec));
+  }
+
+  /**
+   * Returns the value of the given extension.
+   * @param type type of the extension.
+   * @return the extension value (without OCTET STRING wrapper), or {@code null} if absent.
+   */
+  byte[] getExtensionValue(ASN1ObjectIdentifier type) {
+    return extnValues.get(type);
+  }
+
+  boolean hasCrlCertSet() {
+    return hasCrlCertSet;
+  }
+
+  /**
+   * Verifies the signature by reading the tbsCertList from the file.
+   * @param publicKey public key of the CRL issuer.
+   * @return whether the signature is valid.
+   */
+  boolean verifySignature(PublicKey publicKey) throws IOException {
+    ParamUtil.requireNonNull("publicKey", publicKey);
+    ContentVerifier verifier;
+    try {
+      verifier = new JcaContentVerifierProviderBuilder().build(publicKey)
+          .get(algorithmIdentifier);
+    } catch (OperatorCreationException ex) {
+      throw new IOException("could not create verifier: " + ex.getMessage(), ex);
+    }
+
+    try (InputStream in = openStream(tbsStart)) {
+      OutputStream out = verifier.getOutputStream();
+      byte[] buffer = new byte[BUFFER_SIZE];
+      long remaining = tbsEnd - tbsStart;
+      while (remaining > 0) {
+        int num = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (num == -1) {
+          throw new EOFException("unexpected end of CRL");
+        }
+        out.write(buffer, 0, num);
+        remaining -= num;
+      }
+      out.close();
+    }
+    return verifier.verify(signature);
+  }
+
+  RevokedCertIterator revokedCertificates() throws IOException {
+    return new RevokedCertIterator(revokedCertsStart, revokedCertsEnd);
+  }
+
+  CrlCertIterator crlCerts() throws IOException {
+    return new CrlCertIterator(crlCertSetStart, crlCertSetEnd);
+  }
+
+  @Override
+  public void close() {
+    if (tmpCrlFile) {
+      crlFile.delete();
+    }
+  }
+
+  private PositionInputStream openStream(long position) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(crlFile), BUFFER_SIZE);
+    PositionInputStream ret = new PositionInputStream(in, 0);
+    try {
+      skip(ret, position);
+    } catch (IOException ex) {
+      ret.close();
+      throw ex;
+    }
+    return ret;
+  }
+
+  private static boolean isDerEncoded(File file) throws IOException {
+    try (InputStream in = new FileInputStream(file)) {
+      return in.read() == TAG_SEQUENCE;
+    }
+  }
+
+  private static File convertPemToDer(File pemFile) throws IOException {
+    String pem = new String(IoUtil.read(pemFile));
+    int idx = pem.indexOf("-----BEGIN");
+    if (idx != -1) {
+      pem = pem.substring(pem.indexOf('\n', idx) + 1);
+      idx = pem.indexOf("-----END");
+      if (idx != -1) {
+        pem = pem.substring(0, idx);
+      }
+    }
+
+    byte[] encoded = Base64.decode(pem);
+    if (encoded == null) {
+      throw new IOException("CRL is neither DER- nor PEM-encoded");
+    }
+
+    File derFile = File.createTempFile("crl-", ".der");
+    try (OutputStream out = new FileOutputStream(derFile)) {
+      out.write(encoded);
+    }
+    return derFile;
+  }
+
+  private static void expectTag(int expectedTag, int tag, String name) throws IOException {
+    if (tag != expectedTag) {
+      throw new IOException("invalid " + name + ": unexpected tag " + tag);
+    }
+  }
+
+  private static Date readTime(InputStream in, int tag) throws IOException {
+    try {
+      return Time.getInstance(ASN1Primitive.fromByteArray(readTlv(in, tag))).getDate();
+    } catch (IllegalArgumentException | IllegalStateException ex) {
+      throw new IOException("invalid time: " + ex.getMessage(), ex);
+    }
+  }
+
+  private static int readLength(InputStream in) throws IOException {
+    int len = in.read();
+    if (len == -1) {
+      throw new EOFException("unexpected end of CRL");
+    }
+
+    if (len < 0x80) {
+      return len;
+    }
+
+    int numBytes = len & 0x7F;
+    if (numBytes == 0) {
+      throw new IOException("indefinite length is not allowed in DER");
+    } else if (numBytes > 4) {
+      throw new IOException("length too large");
+    }
+
+    long value = 0;
+    for (int i = 0; i < numBytes; i++) {
+      int b = in.read();
+      if (b == -1) {
+        throw new EOFException("unexpected end of CRL");
+      }
+      value = (value << 8) | b;
+    }
+
+    if (value > Integer.MAX_VALUE) {
+      throw new IOException("length too large");
+    }
+    return (int) value;
+  }
+
+  /**
+   * Reads the next TLV.
+   */
+  private static byte[] readTlv(InputStream in) throws IOException {
+    int tag = in.read();
+    if (tag == -1) {
+      throw new EOFException("unexpected end of CRL");
+    }
+    return readTlv(in, tag);
+  }
+
+  /**
+   * Reads the length and value of a TLV whose tag has been read.
+   */
+  private static byte[] readTlv(InputStream in, int tag) throws IOException {
+    int len = readLength(in);
+
+    int lenBytes;
+    if (len < 0x80) {
+      lenBytes = 0;
+    } else if (len < 0x100) {
+      lenBytes = 1;
+    } else if (len < 0x10000) {
+      lenBytes = 2;
+    } else if (len < 0x1000000) {
+      lenBytes = 3;
+    } else {
+      lenBytes = 4;
+    }
+
+    byte[] tlv = new byte[2 + lenBytes + len];
+    int off = 0;
+    tlv[off++] = (byte) tag;
+    if (lenBytes == 0) {
+      tlv[off++] = (byte) len;
+    } else {
+      tlv[off++] = (byte) (0x80 | lenBytes);
+      for (int i = lenBytes - 1; i >= 0; i--) {
+        tlv[off++] = (byte) (len >> (8 * i));
+      }
+    }
+
+    readFully(in, tlv, off, len);
+    return tlv;
+  }
+
+  private static void readFully(InputStream in, byte[] buf) throws IOException {
+    readFully(in, buf, 0, buf.length);
+  }
+
+  private static void readFully(InputStream in, byte[] buf, int off, int len)
+      throws IOException {
+    int read = 0;
+    while (read < len) {
+      int num = in.read(buf, off + read, len - read);
+      if (num == -1) {
+        throw new EOFException("unexpected end of CRL");
+      }
+      read += num;
+    }
+  }
+
+  private static void skip(InputStream in, long len) throws IOException {
+    long remaining = len;
+    while (remaining > 0) {
+      long num = in.skip(remaining);
+      if (num <= 0) {
+        if (in.read() == -1) {
+          throw new EOFException("unexpected end of CRL");
+        }
+        num = 1;
+      }
+      remaining -= num;
+    }
+  }
+
+}
@@ -21,14 +21,7 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
-import java.security.SignatureException;
-import java.security.cert.CRLException;
 import java.security.cert.CertificateEncodingException;
-import java.security.cert.X509CRL;
-import java.security.cert.X509CRLEntry;
 import java.security.cert.X509Certificate;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -36,33 +29,15 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
-import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
-import javax.security.auth.x500.X500Principal;
-
-import org.bouncycastle.asn1.ASN1Encodable;
-import org.bouncycastle.asn1.ASN1EncodableVector;
-import org.bouncycastle.asn1.ASN1GeneralizedTime;
-import org.bouncycastle.asn1.ASN1Integer;
-import org.bouncycastle.asn1.ASN1OctetString;
-import org.bouncycastle.asn1.ASN1Sequence;
-import org.bouncycastle.asn1.ASN1Set;
-import org.bouncycastle.asn1.ASN1TaggedObject;
-import org.bouncycastle.asn1.DERGeneralizedTime;
-import org.bouncycastle.asn1.DERIA5String;
-import org.bouncycastle.asn1.DEROctetString;
-import org.bouncycastle.asn1.DERSequence;
-import org.bouncycastle.asn1.DERSet;
-import org.bouncycastle.asn1.DERTaggedObject;
-import org.bouncycastle.asn1.DERUTF8String;
 import org.bouncycastle.asn1.ocsp.CrlID;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.Certificate;
-import org.bouncycastle.asn1.x509.Extension;
 import org.bouncycastle.asn1.x509.TBSCertificate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -74,11 +49,14 @@ import org.xipki.common.util.StringUtil;
 import org.xipki.datasource.DataAccessException;
 import org.xipki.datasource.DataSourceWrapper;
 import org.xipki.ocsp.api.CrlInfo;
+import org.xipki.ocsp.server.impl.store.crl.CrlStreamParser.CrlCert;
+import org.xipki.ocsp.server.impl.store.crl.CrlStreamParser.CrlCertIterator;
+import org.xipki.ocsp.server.impl.store.crl.CrlStreamParser.RevokedCert;
+import org.xipki.ocsp.server.impl.store.crl.CrlStreamParser.RevokedCertIterator;
 import org.xipki.ocsp.server.impl.store.db.DbCertStatusStore;
 import org.xipki.security.CertRevocationInfo;
 import org.xipki.security.CrlReason;
 import org.xipki.security.HashAlgo;
-import org.xipki.security.ObjectIdentifiers;
 import org.xipki.security.util.X509Util;
 
 /**
@@ -89,6 +67,49 @@ import org.xipki.security.util.X509Util;
 
 public class ImportCrl {
 
+  /**
+   * State of a certificate in the database.
+   */
+  private static final class CertRecord {
+
+    private final long id;
+
+    private boolean revoked;
+
+    private int reason;
+
+    private long revTime;
+
+    /**
+     * Invalidity time in seconds, 0 if not present.
+     */
+    private long revInvTime;
+
+    private String profileName;
+
+    private String hash;
+
+    private boolean revokedInCrl;
+
+    private boolean certInCrl;
+
+    private CertRecord(long id) {
+      this.id = id;
+    }
+
+    private boolean isRevocationUnchanged(int reason, long revTime, long revInvTime) {
+      return revoked && this.reason == reason && this.revTime == revTime
+          && this.revInvTime == revInvTime;
+    }
+
+    private boolean isCertUnchanged(String hash, String profileName) {
+      return hash.equals(this.hash)
+          && (profileName == null ? this.profileName == null
+              : profileName.equals(this.profileName));
+    }
+
+  } // class CertRecord
+
   private static final Logger LOG = LoggerFactory.getLogger(ImportCrl.class);
 
   private static final String SQL_UPDATE_CERT_REV
@@ -97,7 +118,10 @@ public class ImportCrl {
   private static final String SQL_INSERT_CERT_REV
       = "INSERT INTO CERT (ID,IID,SN,REV,RR,RT,RIT,LUPDATE) VALUES(?,?,?,?,?,?,?,?)";
 
-  private static final String SQL_DELETE_CERT = "DELETE FROM CERT WHERE IID=? AND SN=?";
+  private static final String SQL_UNREVOKE_CERT
+      = "UPDATE CERT SET REV=0,RR=NULL,RT=NULL,RIT=NULL,LUPDATE=? WHERE ID=?";
+
+  private static final String SQL_DELETE_CERT = "DELETE FROM CERT WHERE ID=?";
 
   private static final String SQL_UPDATE_CERT
       = "UPDATE CERT SET LUPDATE=?,NBEFORE=?,NAFTER=?,PN=?,HASH=? WHERE ID=?";
@@ -106,11 +130,10 @@ public class ImportCrl {
       = "INSERT INTO CERT (ID,IID,SN,REV,RR,RT,RIT,LUPDATE,NBEFORE,NAFTER,PN,HASH) "
         + "VALUES(?,?,?,?,?,?,?,?,?,?,?,?)";
 
-  private static final String CORE_SQL_SELECT_ID_CERT = "ID FROM CERT WHERE IID=? AND SN=?";
+  private static final String SQL_SELECT_CERT_RECORDS
+      = "SELECT ID,SN,REV,RR,RT,RIT,PN,HASH FROM CERT WHERE IID=?";
 
-  private final String sqlSelectIdCert;
-
-  private final X509CRL crl;
+  private final CrlStreamParser crl;
 
   private final X509Certificate caCert;
 
@@ -129,8 +152,6 @@ public class ImportCrl {
 
   private final X500Name caSubject;
 
-  private final X500Principal x500PrincipalCaSubject;
-
   private final byte[] caSpki;
 
   private final String certsDirName;
@@ -139,23 +160,44 @@ public class ImportCrl {
 
   private final HashAlgo certhashAlgo;
 
+  private final int commitSize;
+
+  /**
+   * Certificates of the CA in the database, keyed by the hex serial number.
+   */
+  private Map<String, CertRecord> certRecords;
+
+  /**
+   * Number of the entries added to the JDBC batches but not executed yet.
+   */
+  private int numPendingEntries;
+
+  private long numInserted;
+
+  private long numUpdated;
+
+  private long numUnchanged;
+
+  private long numDeleted;
+
   private PreparedStatement psDeleteCert;
   private PreparedStatement psInsertCert;
   private PreparedStatement psInsertCertRev;
-  private PreparedStatement psSelectIdCert;
+  private PreparedStatement psUnrevokeCert;
   private PreparedStatement psUpdateCert;
   private PreparedStatement psUpdateCertRev;
 
-  public ImportCrl(DataSourceWrapper datasource, boolean useCrlUpdates, X509CRL crl, String crlUrl,
-      X509Certificate caCert, X509Certificate issuerCert, CertRevocationInfo caRevInfo,
-      String certsDirName) throws ImportCrlException, DataAccessException {
+  public ImportCrl(DataSourceWrapper datasource, boolean useCrlUpdates, CrlStreamParser crl,
+      String crlUrl, X509Certificate caCert, X509Certificate issuerCert,
+      CertRevocationInfo caRevInfo, String certsDirName, int commitSize)
+      throws ImportCrlException, DataAccessException {
     this.datasource = ParamUtil.requireNonNull("datasource", datasource);
     this.certhashAlgo = DbCertStatusStore.getCertHashAlgo(datasource);
     this.useCrlUpdates = useCrlUpdates;
     this.crl = ParamUtil.requireNonNull("crl", crl);
     this.caCert = ParamUtil.requireNonNull("caCert", caCert);
-    this.x500PrincipalCaSubject = caCert.getSubjectX500Principal();
-    this.caSubject = X500Name.getInstance(x500PrincipalCaSubject.getEncoded());
+    this.commitSize = ParamUtil.requireMin("commitSize", commitSize, 1);
+    this.caSubject = X500Name.getInstance(caCert.getSubjectX500Principal().getEncoded());
     try {
       this.caSpki = X509Util.extractSki(caCert);
     } catch (CertificateEncodingException ex) {
@@ -165,88 +207,105 @@ public class ImportCrl {
     this.certsDirName = certsDirName;
     this.caRevInfo = caRevInfo;
 
-    X500Principal issuer = crl.getIssuerX500Principal();
+    X500Name issuer = crl.getIssuer();
 
     boolean caAsCrlIssuer = true;
-    if (!x500PrincipalCaSubject.equals(issuer)) {
+    if (!caSubject.equals(issuer)) {
       caAsCrlIssuer = false;
       if (issuerCert == null) {
         throw new IllegalArgumentException("issuerCert must not be null");
       }
 
-      if (!issuerCert.getSubjectX500Principal().equals(issuer)) {
+      if (!X500Name.getInstance(issuerCert.getSubjectX500Principal().getEncoded())
+          .equals(issuer)) {
         throw new IllegalArgumentException("issuerCert and CRL do not match");
       }
     }
 
     // Verify the signature
     X509Certificate crlSignerCert = caAsCrlIssuer ? caCert : issuerCert;
+    boolean signatureValid;
     try {
-      crl.verify(crlSignerCert.getPublicKey());
-    } catch (SignatureException | NoSuchProviderException | InvalidKeyException | CRLException
-        | NoSuchAlgorithmException ex) {
+      signatureValid = crl.verifySignature(crlSignerCert.getPublicKey());
+    } catch (IOException ex) {
       throw new ImportCrlException("could not verify signature of CRL", ex);
     }
 
-    byte[] octetString = crl.getExtensionValue(Extension.cRLNumber.getId());
-    if (octetString == null) {
+    if (!signatureValid) {
+      throw new ImportCrlException("invalid signature of CRL");
+    }
+
+    this.crlNumber = crl.getCrlNumber();
+    if (this.crlNumber == null) {
       throw new IllegalArgumentException("CRL without CRLNumber is not supported");
     }
-    ASN1Integer asn1CrlNumber
-        = ASN1Integer.getInstance(DEROctetString.getInstance(octetString).getOctets());
-    this.crlNumber = asn1CrlNumber.getPositiveValue();
 
-    octetString = crl.getExtensionValue(Extension.deltaCRLIndicator.getId());
-    this.isDeltaCrl = (octetString != null);
+    this.isDeltaCrl = crl.isDeltaCrl();
     if (this.isDeltaCrl) {
       LOG.info("The CRL a DeltaCRL");
-      byte[] extnValue = DEROctetString.getInstance(octetString).getOctets();
-      this.baseCrlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue();
+      this.baseCrlNumber = crl.getBaseCrlNumber();
     } else {
       LOG.info("The CRL a full CRL");
       this.baseCrlNumber = null;
     }
 
-    // Construct CrlID
-    ASN1EncodableVector vec = new ASN1EncodableVector();
-    if (StringUtil.isNotBlank(crlUrl)) {
-      vec.add(new DERTaggedObject(true, 0, new DERIA5String(crlUrl, true)));
-    }
-
-    vec.add(new DERTaggedObject(true, 1, asn1CrlNumber));
-    vec.add(new DERTaggedObject(true, 2, new DERGeneralizedTime(crl.getThisUpdate())));
-    this.crlId = CrlID.getInstance(new DERSequence(vec));
-
-    this.sqlSelectIdCert = datasource.buildSelectFirstSql(1, CORE_SQL_SELECT_ID_CERT);
+    this.crlId = crl.buildCrlId(crlUrl);
   }
 
   public boolean importCrlToOcspDb() {
     Connection conn = null;
+    Boolean origAutoCommit = null;
     try {
       conn = datasource.getConnection();
 
-      // CHECKSTYLE:SKIP
-      Date startTime = new Date();
-      // CHECKSTYLE:SKIP
-      int caId = importCa(conn);
+      Integer caId = importCa(conn);
+      if (caId == null) {
+        return true;
+      }
 
       psDeleteCert = datasource.prepareStatement(conn, SQL_DELETE_CERT);
       psInsertCert = datasource.prepareStatement(conn, SQL_INSERT_CERT);
       psInsertCertRev = datasource.prepareStatement(conn, SQL_INSERT_CERT_REV);
-      psSelectIdCert = datasource.prepareStatement(conn, sqlSelectIdCert);
+      psUnrevokeCert = datasource.prepareStatement(conn, SQL_UNREVOKE_CERT);
       psUpdateCert = datasource.prepareStatement(conn, SQL_UPDATE_CERT);
       psUpdateCertRev = datasource.prepareStatement(conn, SQL_UPDATE_CERT_REV);
 
+      loadCertRecords(conn, caId);
+
+      try {
+        origAutoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+      } catch (SQLException ex) {
+        throw datasource.translate(null, ex);
+      }
+
       importEntries(conn, caId);
-      deleteEntriesNotUpdatedSince(conn, startTime);
+      if (!isDeltaCrl) {
+        deleteEntriesNotInCrl(conn);
+      }
 
+      recoverAutoCommit(conn, origAutoCommit);
+      origAutoCommit = null;
+
+      LOG.info("imported CRL {}: {} entries inserted, {} updated, {} deleted, {} unchanged",
+          crlNumber, numInserted, numUpdated, numDeleted, numUnchanged);
       return true;
     } catch (Throwable th) {
       LogUtil.error(LOG, th, "could not import CRL to OCSP database");
+      if (origAutoCommit != null) {
+        try {
+          conn.rollback();
+        } catch (SQLException ex) {
+          LogUtil.warn(LOG, ex, "could not rollback");
+        }
+        recoverAutoCommit(conn, origAutoCommit);
+      }
+    } finally {
+      certRecords = null;
       releaseResources(psDeleteCert, null);
       releaseResources(psInsertCert, null);
       releaseResources(psInsertCertRev, null);
-      releaseResources(psSelectIdCert, null);
+      releaseResources(psUnrevokeCert, null);
       releaseResources(psUpdateCert, null);
       releaseResources(psUpdateCertRev, null);
 
@@ -258,7 +317,19 @@ public class ImportCrl {
     return false;
   }
 
-  private int importCa(Connection conn)
+  /**
+   * Returns the number of certificates deleted from the database by the last import.
+   * @return number of deleted certificates.
+   */
+  public long getNumDeleted() {
+    return numDeleted;
+  }
+
+  /**
+   * Imports the CA.
+   * @return the ID of the CA, or {@code null} if the CRL needs not to be imported.
+   */
+  private Integer importCa(Connection conn)
       throws DataAccessException, ImportCrlException {
     byte[] encodedCaCert;
     try {
@@ -304,6 +375,12 @@ public class ImportCrl {
             crl.getNextUpdate(), crlId);
       }
     } else {
+      if (!isDeltaCrl && crlNumber.equals(crlInfo.getBaseCrlNumber())) {
+        // the database contains this CRL and a delta CRL on top of it.
+        LOG.info("CRL {} and a delta CRL have been imported, ignore it", crlNumber);
+        return null;
+      }
+
       if (crlNumber.compareTo(crlInfo.getCrlNumber()) < 0) {
         // It is permitted if the CRL number equals to the one in Database,
         // which enables the resume of importing process if error occurred.
@@ -389,7 +466,7 @@ public class ImportCrl {
       }
 
       ps.executeUpdate();
-      return issuerId.intValue();
+      return issuerId;
     } catch (SQLException ex) {
       throw datasource.translate(sql, ex);
     } finally {
@@ -399,218 +476,313 @@ public class ImportCrl {
 
   private void importEntries(Connection conn, int caId)
       throws DataAccessException, ImportCrlException {
-
     AtomicLong maxId = new AtomicLong(datasource.getMax(conn, "CERT", "ID"));
 
     // import the revoked information
-    Set<? extends X509CRLEntry> revokedCertList = crl.getRevokedCertificates();
-    if (revokedCertList != null) {
-      for (X509CRLEntry c : revokedCertList) {
-        X500Principal issuer = c.getCertificateIssuer();
-        BigInteger serial = c.getSerialNumber();
+    try (RevokedCertIterator it = crl.revokedCertificates()) {
+      while (it.hasNext()) {
+        RevokedCert revokedCert = it.next();
+        X500Name issuer = revokedCert.getCertificateIssuer();
+        BigInteger serial = revokedCert.getSerialNumber();
 
         if (issuer != null) {
-          if (!x500PrincipalCaSubject.equals(issuer)) {
+          if (!caSubject.equals(issuer)) {
             throw new ImportCrlException("invalid CRLEntry for certificate number " + serial);
           }
         }
 
-        Date rt = c.getRevocationDate();
-        Date rit = null;
-        byte[] extnValue = c.getExtensionValue(Extension.invalidityDate.getId());
-        if (extnValue != null) {
-          extnValue = extractCoreValue(extnValue);
-          ASN1GeneralizedTime genTime = DERGeneralizedTime.getInstance(extnValue);
-          try {
-            rit = genTime.getDate();
-          } catch (ParseException ex) {
-            throw new ImportCrlException(ex.getMessage(), ex);
-          }
+        CrlReason reason = CrlReason.forReasonCode(revokedCert.getReason());
+        String sn = serial.toString(16);
+        CertRecord record = certRecords.get(sn);
 
-          if (rt.equals(rit)) {
-            rit = null;
+        if (reason == CrlReason.REMOVE_FROM_CRL) {
+          if (!isDeltaCrl) {
+            LOG.warn("ignore CRL entry with reason removeFromCRL in non-Delta CRL");
+          } else if (record != null) {
+            removeFromCrl(conn, sn, record);
           }
+          continue;
         }
 
-        CrlReason reason = CrlReason.fromReason(c.getRevocationReason());
+        long rt = revokedCert.getRevocationDate().getTime() / 1000;
+        Date ritDate = revokedCert.getInvalidityDate();
+        long rit = (ritDate == null) ? 0 : ritDate.getTime() / 1000;
+        if (rit == rt) {
+          rit = 0;
+        }
+
+        if (record != null && record.isRevocationUnchanged(reason.getCode(), rt, rit)) {
+          record.revokedInCrl = true;
+          numUnchanged++;
+          continue;
+        }
 
         String sql = null;
         try {
-          if (reason == CrlReason.REMOVE_FROM_CRL) {
-            if (!isDeltaCrl) {
-              LOG.warn("ignore CRL entry with reason removeFromCRL in non-Delta CRL");
-            }
-
-            // delete the entry
-            sql = SQL_DELETE_CERT;
-            psDeleteCert.setInt(1, caId);
-            psDeleteCert.setString(2, serial.toString(16));
-            psDeleteCert.executeUpdate();
-            continue;
-          }
-
-          Long id = getId(caId, serial);
           PreparedStatement ps;
           int offset = 1;
 
-          if (id == null) {
+          if (record == null) {
             sql = SQL_INSERT_CERT_REV;
-            id = maxId.incrementAndGet();
+            record = new CertRecord(maxId.incrementAndGet());
+            certRecords.put(sn, record);
             ps = psInsertCertRev;
-            ps.setLong(offset++, id);
+            ps.setLong(offset++, record.id);
             ps.setInt(offset++, caId);
-            ps.setString(offset++, serial.toString(16));
+            ps.setString(offset++, sn);
+            numInserted++;
           } else {
             sql = SQL_UPDATE_CERT_REV;
             ps = psUpdateCertRev;
+            numUpdated++;
           }
 
           ps.setInt(offset++, 1);
           ps.setInt(offset++, reason.getCode());
-          ps.setLong(offset++, rt.getTime() / 1000);
-          if (rit != null) {
-            ps.setLong(offset++, rit.getTime() / 1000);
+          ps.setLong(offset++, rt);
+          if (rit != 0) {
+            ps.setLong(offset++, rit);
           } else {
             ps.setNull(offset++, Types.BIGINT);
           }
           ps.setLong(offset++, System.currentTimeMillis() / 1000);
 
           if (ps == psUpdateCertRev) {
-            ps.setLong(offset++, id);
+            ps.setLong(offset++, record.id);
           }
 
-          ps.executeUpdate();
+          addBatch(conn, ps);
         } catch (SQLException ex) {
           throw datasource.translate(sql, ex);
         }
+
+        record.revoked = true;
+        record.reason = reason.getCode();
+        record.revTime = rt;
+        record.revInvTime = rit;
+        record.revokedInCrl = true;
       }
+    } catch (IOException ex) {
+      throw new ImportCrlException("could not read revoked certificates from CRL", ex);
     }
 
     // import the certificates
 
     // extract the certificate
-    byte[] extnValue = crl.getExtensionValue(ObjectIdentifiers.id_xipki_ext_crlCertset.getId());
-    if (extnValue != null) {
-      extnValue = extractCoreValue(extnValue);
-      ASN1Set asn1Set = DERSet.getInstance(extnValue);
-      final int n = asn1Set.size();
-
-      for (int i = 0; i < n; i++) {
-        ASN1Encodable asn1 = asn1Set.getObjectAt(i);
-        ASN1Sequence seq = ASN1Sequence.getInstance(asn1);
-        BigInteger serialNumber = ASN1Integer.getInstance(seq.getObjectAt(0)).getValue();
-
-        Certificate cert = null;
-        String profileName = null;
-
-        final int size = seq.size();
-        for (int j = 1; j < size; j++) {
-          ASN1TaggedObject taggedObj = DERTaggedObject.getInstance(seq.getObjectAt(j));
-          int tagNo = taggedObj.getTagNo();
-          switch (tagNo) {
-            case 0:
-              cert = Certificate.getInstance(taggedObj.getObject());
-              break;
-            case 1:
-              profileName = DERUTF8String.getInstance(taggedObj.getObject()).getString();
-              break;
-            default:
-              break;
+    if (crl.hasCrlCertSet()) {
+      try (CrlCertIterator it = crl.crlCerts()) {
+        while (it.hasNext()) {
+          CrlCert crlCert = it.next();
+          BigInteger serialNumber = crlCert.getSerialNumber();
+          Certificate cert = crlCert.getCert();
+          if (cert == null) {
+            continue;
           }
-        }
 
-        if (cert == null) {
-          continue;
-        }
+          if (!caSubject.equals(cert.getIssuer())) {
+            LOG.warn("issuer not match (serial={}) in CRL Extension Xipki-CertSet, ignore it",
+                LogUtil.formatCsn(serialNumber));
+            continue;
+          }
 
-        if (!caSubject.equals(cert.getIssuer())) {
-          LOG.warn("issuer not match (serial={}) in CRL Extension Xipki-CertSet, ignore it",
-              LogUtil.formatCsn(serialNumber));
-          continue;
-        }
+          if (!serialNumber.equals(cert.getSerialNumber().getValue())) {
+            LOG.warn("serialNumber not match (serial={}) in CRL Extension Xipki-CertSet, "
+                + "ignore it", LogUtil.formatCsn(serialNumber));
+            continue;
+          }
 
-        if (!serialNumber.equals(cert.getSerialNumber().getValue())) {
-          LOG.warn("serialNumber not match (serial={}) in CRL Extension Xipki-CertSet, ignore it",
-              LogUtil.formatCsn(serialNumber));
-          continue;
+          String certLogId = "(issuer='" + cert.getIssuer()
+              + "', serialNumber=" + cert.getSerialNumber() + ")";
+          addCertificate(conn, maxId, caId, cert, crlCert.getProfileName(), certLogId);
         }
-
-        String certLogId = "(issuer='" + cert.getIssuer()
-            + "', serialNumber=" + cert.getSerialNumber() + ")";
-        addCertificate(maxId, caId, cert, profileName, certLogId);
+      } catch (IOException ex) {
+        throw new ImportCrlException(
+            "could not read certificates from CRL extension Xipki-CrlCertSet", ex);
       }
-    } else {
+    } else if (certsDirName != null) {
       // cert dirs
       File certsDir = new File(certsDirName);
 
       if (!certsDir.exists()) {
         LOG.warn("the folder {} does not exist, ignore it", certsDirName);
-        return;
-      }
-
-      if (!certsDir.isDirectory()) {
+      } else if (!certsDir.isDirectory()) {
         LOG.warn("the path {} does not point to a folder, ignore it", certsDirName);
-        return;
-      }
-
-      if (!certsDir.canRead()) {
+      } else if (!certsDir.canRead()) {
         LOG.warn("the folder {} must not be read, ignore it", certsDirName);
-        return;
+      } else {
+        File[] certFiles = certsDir.listFiles(new FilenameFilter() {
+          @Override
+          public boolean accept(File dir, String name) {
+            return name.endsWith(".der") || name.endsWith(".crt");
+          }
+        });
+
+        if (certFiles != null) {
+          for (File certFile : certFiles) {
+            Certificate cert;
+
+            try {
+              byte[] encoded = IoUtil.read(certFile);
+              cert = Certificate.getInstance(encoded);
+            } catch (IllegalArgumentException | IOException ex) {
+              LOG.warn("could not parse certificate {}, ignore it", certFile.getPath());
+              continue;
+            }
+
+            String certLogId = "(file " + certFile.getName() + ")";
+            addCertificate(conn, maxId, caId, cert, null, certLogId);
+          }
+        }
       }
+    }
 
-      File[] certFiles = certsDir.listFiles(new FilenameFilter() {
-        @Override
-        public boolean accept(File dir, String name) {
-          return name.endsWith(".der") || name.endsWith(".crt");
+    flushBatches(conn);
+  } // method importEntries
+
+  /**
+   * Applies the CRL entry with reason removeFromCRL of a delta CRL. The certificate is
+   * marked as not revoked if known, and deleted otherwise.
+   */
+  private void removeFromCrl(Connection conn, String sn, CertRecord record)
+      throws DataAccessException {
+    String sql = null;
+    try {
+      if (record.hash != null) {
+        if (!record.revoked) {
+          numUnchanged++;
+          return;
         }
-      });
 
-      if (certFiles == null || certFiles.length == 0) {
-        return;
+        sql = SQL_UNREVOKE_CERT;
+        psUnrevokeCert.setLong(1, System.currentTimeMillis() / 1000);
+        psUnrevokeCert.setLong(2, record.id);
+        addBatch(conn, psUnrevokeCert);
+        record.revoked = false;
+        numUpdated++;
+      } else {
+        sql = SQL_DELETE_CERT;
+        psDeleteCert.setLong(1, record.id);
+        addBatch(conn, psDeleteCert);
+        certRecords.remove(sn);
+        numDeleted++;
       }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    }
 
-      for (File certFile : certFiles) {
-        Certificate cert;
+    // an entry with the same serial number may follow.
+    flushBatches(conn);
+  }
 
-        try {
-          byte[] encoded = IoUtil.read(certFile);
-          cert = Certificate.getInstance(encoded);
-        } catch (IllegalArgumentException | IOException ex) {
-          LOG.warn("could not parse certificate {}, ignore it", certFile.getPath());
+  /**
+   * Deletes the certificates which are neither revoked nor contained in the full CRL, and
+   * marks the certificates which are not revoked any more as not revoked.
+   */
+  private void deleteEntriesNotInCrl(Connection conn) throws DataAccessException {
+    String sql = null;
+    try {
+      for (CertRecord record : certRecords.values()) {
+        if (record.revokedInCrl) {
           continue;
         }
 
-        String certLogId = "(file " + certFile.getName() + ")";
-        addCertificate(maxId, caId, cert, null, certLogId);
+        if (!record.certInCrl) {
+          sql = SQL_DELETE_CERT;
+          psDeleteCert.setLong(1, record.id);
+          addBatch(conn, psDeleteCert);
+          numDeleted++;
+        } else if (record.revoked) {
+          sql = SQL_UNREVOKE_CERT;
+          psUnrevokeCert.setLong(1, System.currentTimeMillis() / 1000);
+          psUnrevokeCert.setLong(2, record.id);
+          addBatch(conn, psUnrevokeCert);
+          numUpdated++;
+        }
       }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
     }
 
+    flushBatches(conn);
   }
 
-  private static byte[] extractCoreValue(byte[] encodedExtensionValue) {
-    return ASN1OctetString.getInstance(encodedExtensionValue).getOctets();
-  }
+  /**
+   * Loads the certificates of the CA once, so that only the changed entries will be written.
+   */
+  private void loadCertRecords(Connection conn, int caId) throws DataAccessException {
+    final String sql = SQL_SELECT_CERT_RECORDS;
+    certRecords = new HashMap<>();
 
-  private Long getId(int caId, BigInteger serialNumber)
-      throws DataAccessException {
+    PreparedStatement ps = datasource.prepareStatement(conn, sql);
     ResultSet rs = null;
     try {
-      psSelectIdCert.setInt(1, caId);
-      psSelectIdCert.setString(2, serialNumber.toString(16));
-      rs = psSelectIdCert.executeQuery();
-      if (!rs.next()) {
-        return null;
+      ps.setInt(1, caId);
+      ps.setFetchSize(commitSize);
+      rs = ps.executeQuery();
+      while (rs.next()) {
+        CertRecord record = new CertRecord(rs.getLong("ID"));
+        record.revoked = rs.getBoolean("REV");
+        if (record.revoked) {
+          record.reason = rs.getInt("RR");
+          record.revTime = rs.getLong("RT");
+          record.revInvTime = rs.getLong("RIT");
+        }
+        record.profileName = rs.getString("PN");
+        record.hash = rs.getString("HASH");
+        certRecords.put(rs.getString("SN"), record);
       }
-      return rs.getLong("ID");
     } catch (SQLException ex) {
-      throw datasource.translate(sqlSelectIdCert, ex);
+      throw datasource.translate(sql, ex);
     } finally {
-      releaseResources(null, rs);
+      releaseResources(ps, rs);
+    }
+
+    LOG.info("loaded {} certificates of the CA", certRecords.size());
+  }
+
+  private void addBatch(Connection conn, PreparedStatement ps)
+      throws SQLException, DataAccessException {
+    ps.addBatch();
+    numPendingEntries++;
+    if (numPendingEntries >= commitSize) {
+      flushBatches(conn);
     }
   }
 
-  private void addCertificate(AtomicLong maxId, int caId, Certificate cert, String profileName,
-      String certLogId) throws DataAccessException, ImportCrlException {
+  /**
+   * Executes the pending JDBC batches and commits them.
+   */
+  private void flushBatches(Connection conn) throws DataAccessException {
+    if (numPendingEntries == 0) {
+      return;
+    }
+
+    // inserts before updates and deletions, since an entry inserted in this round may also
+    // be updated or deleted.
+    PreparedStatement[] statements = {psInsertCertRev, psUpdateCertRev, psInsertCert,
+        psUpdateCert, psUnrevokeCert, psDeleteCert};
+    String[] sqls = {SQL_INSERT_CERT_REV, SQL_UPDATE_CERT_REV, SQL_INSERT_CERT,
+        SQL_UPDATE_CERT, SQL_UNREVOKE_CERT, SQL_DELETE_CERT};
+    for (int i = 0; i < statements.length; i++) {
+      try {
+        statements[i].executeBatch();
+      } catch (SQLException ex) {
+        throw datasource.translate(sqls[i], ex);
+      }
+    }
+
+    try {
+      conn.commit();
+    } catch (SQLException ex) {
+      throw datasource.translate("(commit import of CRL)", ex);
+    }
+
+    LOG.debug("imported {} entries of CRL", numPendingEntries);
+    numPendingEntries = 0;
+  }
+
+  private void addCertificate(Connection conn, AtomicLong maxId, int caId, Certificate cert,
+      String profileName, String certLogId) throws DataAccessException, ImportCrlException {
     // not issued by the given issuer
     if (!caSubject.equals(cert.getIssuer())) {
       LOG.warn("certificate {} is not issued by the given CA, ignore it", certLogId);
@@ -642,30 +814,43 @@ public class ImportCrl {
       }
     } // end if
 
-    LOG.info("Importing certificate {}", certLogId);
-    Long id = getId(caId, cert.getSerialNumber().getPositiveValue());
-    boolean tblCertIdExists = (id != null);
+    if (StringUtil.isBlank(profileName)) {
+      profileName = null;
+    }
+
+    String sn = cert.getSerialNumber().getPositiveValue().toString(16);
+    CertRecord record = certRecords.get(sn);
+    if (record != null && record.isCertUnchanged(b64CertHash, profileName)) {
+      record.certInCrl = true;
+      numUnchanged++;
+      return;
+    }
+
+    LOG.debug("Importing certificate {}", certLogId);
 
     PreparedStatement ps;
     String sql;
     // first update the table CERT
-    if (tblCertIdExists) {
+    if (record != null) {
       sql = SQL_UPDATE_CERT;
       ps = psUpdateCert;
+      numUpdated++;
     } else {
       sql = SQL_INSERT_CERT;
       ps = psInsertCert;
-      id = maxId.incrementAndGet();
+      record = new CertRecord(maxId.incrementAndGet());
+      certRecords.put(sn, record);
+      numInserted++;
     }
 
     try {
       int offset = 1;
       if (sql == SQL_INSERT_CERT) {
-        ps.setLong(offset++, id);
+        ps.setLong(offset++, record.id);
         // ISSUER ID IID
         ps.setInt(offset++, caId);
         // serial number SN
-        ps.setString(offset++, cert.getSerialNumber().getPositiveValue().toString(16));
+        ps.setString(offset++, sn);
         // whether revoked REV
         ps.setInt(offset++, 0);
         // revocation reason RR
@@ -684,7 +869,7 @@ public class ImportCrl {
       // not after NAFTER
       ps.setLong(offset++, tbsCert.getEndDate().getDate().getTime() / 1000);
       // profile name PN
-      if (StringUtil.isBlank(profileName)) {
+      if (profileName == null) {
         ps.setNull(offset++, Types.VARCHAR);
       } else {
         ps.setString(offset++, profileName);
@@ -692,29 +877,28 @@ public class ImportCrl {
       ps.setString(offset++, b64CertHash);
 
       if (sql == SQL_UPDATE_CERT) {
-        ps.setLong(offset++, id);
+        ps.setLong(offset++, record.id);
       }
 
-      ps.executeUpdate();
+      addBatch(conn, ps);
     } catch (SQLException ex) {
       throw datasource.translate(sql, ex);
     }
 
+    record.hash = b64CertHash;
+    record.profileName = profileName;
+    record.certInCrl = true;
+
     // it is not required to add entry to table CRAW
-    LOG.info("Imported  certificate {}", certLogId);
+    LOG.debug("Imported  certificate {}", certLogId);
   }
 
-  private void deleteEntriesNotUpdatedSince(Connection conn, Date time)
-      throws DataAccessException {
-    // remove the unmodified entries
-    String sql = "DELETE FROM CERT WHERE LUPDATE<" + time.getTime() / 1000;
-    Statement stmt = datasource.createStatement(conn);
+  private void recoverAutoCommit(Connection conn, boolean autoCommit) {
     try {
-      stmt.executeUpdate(sql);
+      conn.setAutoCommit(autoCommit);
     } catch (SQLException ex) {
-      throw datasource.translate(sql, ex);
-    } finally {
-      releaseResources(stmt, null);
+      DataAccessException dex = datasource.translate(null, ex);
+      LogUtil.error(LOG, dex, "could not recover AutoCommit");
     }
   }
 
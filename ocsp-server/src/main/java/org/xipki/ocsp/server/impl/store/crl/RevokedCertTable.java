@@ -0,0 +1,340 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.store.crl;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.xipki.security.CrlReason;
+
+/**
+ * Immutable table of the revoked certificates of a CRL, sorted by the serial number. The
+ * entries are kept in primitive arrays and looked up by binary search, so that the memory
+ * grows only with the number of revoked certificates.
+ *
+ * <p>The serial numbers are split into three longs, serial numbers longer than 192 bits are
+ * not supported. A CRL containing such serial numbers must be rejected as whole.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+final class RevokedCertTable {
+
+  static final class Builder {
+
+    // serialHigh, serialMid, serialLow
+    private long[] serials;
+
+    private long[] revTimes;
+
+    private long[] invalidityTimes;
+
+    private byte[] reasons;
+
+    private int size;
+
+    Builder(int initialCapacity) {
+      int capacity = Math.max(16, initialCapacity);
+      serials = new long[3 * capacity];
+      revTimes = new long[capacity];
+      invalidityTimes = new long[capacity];
+      reasons = new byte[capacity];
+    }
+
+    /**
+     * Adds a revoked certificate.
+     * @param serial serial number, must be positive.
+     * @param reason the CRL reason code.
+     * @param revTime revocation time in seconds.
+     * @param invalidityTime invalidity time in seconds, 0 if not present.
+     * @return whether the entry is added, {@code false} if the serial number is not supported.
+     */
+    boolean add(BigInteger serial, int reason, long revTime, long invalidityTime) {
+      if (serial.signum() != 1 || serial.bitLength() > 192) {
+        return false;
+      }
+
+      if (size == reasons.length) {
+        int capacity = size + (size >> 1);
+        serials = Arrays.copyOf(serials, 3 * capacity);
+        revTimes = Arrays.copyOf(revTimes, capacity);
+        invalidityTimes = Arrays.copyOf(invalidityTimes, capacity);
+        reasons = Arrays.copyOf(reasons, capacity);
+      }
+
+      int off = 3 * size;
+      serials[off] = serial.shiftRight(128).longValue();
+      serials[off + 1] = serial.shiftRight(64).longValue();
+      serials[off + 2] = serial.longValue();
+      revTimes[size] = revTime;
+      invalidityTimes[size] = invalidityTime;
+      reasons[size] = (byte) reason;
+      size++;
+      return true;
+    }
+
+    /**
+     * Sorts the entries and builds the table. Of the entries with the same serial number,
+     * only one is kept. The builder must not be used any more.
+     * @return the table.
+     */
+    RevokedCertTable build() {
+      if (size > 1) {
+        sort(0, size - 1);
+      }
+
+      // remove duplicated entries
+      int newSize = 0;
+      for (int i = 0; i < size; i++) {
+        if (newSize > 0 && compare(serials, 3 * (newSize - 1), serials, 3 * i) == 0) {
+          continue;
+        }
+
+        if (newSize != i) {
+          copy(this, i, this, newSize);
+        }
+        newSize++;
+      }
+
+      size = newSize;
+      return new RevokedCertTable(Arrays.copyOf(serials, 3 * size),
+          Arrays.copyOf(revTimes, size), Arrays.copyOf(invalidityTimes, size),
+          Arrays.copyOf(reasons, size));
+    }
+
+    private void sort(int low, int high) {
+      while (high - low > 16) {
+        // median of three as pivot, moved to position high
+        int mid = (low + high) >>> 1;
+        if (compare(serials, 3 * mid, serials, 3 * low) < 0) {
+          swap(mid, low);
+        }
+        if (compare(serials, 3 * high, serials, 3 * low) < 0) {
+          swap(high, low);
+        }
+        if (compare(serials, 3 * mid, serials, 3 * high) < 0) {
+          swap(mid, high);
+        }
+
+        int pivot = 3 * high;
+        int idx = low;
+        for (int i = low; i < high; i++) {
+          if (compare(serials, 3 * i, serials, pivot) < 0) {
+            swap(i, idx++);
+          }
+        }
+        swap(idx, high);
+
+        // recursion on the smaller part
+        if (idx - low < high - idx) {
+          sort(low, idx - 1);
+          low = idx + 1;
+        } else {
+          sort(idx + 1, high);
+          high = idx - 1;
+        }
+      }
+
+      // insertion sort
+      for (int i = low + 1; i <= high; i++) {
+        for (int j = i; j > low && compare(serials, 3 * j, serials, 3 * (j - 1)) < 0; j--) {
+          swap(j, j - 1);
+        }
+      }
+    }
+
+    private void swap(int i, int j) {
+      if (i == j) {
+        return;
+      }
+
+      int offI = 3 * i;
+      int offJ = 3 * j;
+      for (int k = 0; k < 3; k++) {
+        long tmp = serials[offI + k];
+        serials[offI + k] = serials[offJ + k];
+        serials[offJ + k] = tmp;
+      }
+
+      long tmp = revTimes[i];
+      revTimes[i] = revTimes[j];
+      revTimes[j] = tmp;
+
+      tmp = invalidityTimes[i];
+      invalidityTimes[i] = invalidityTimes[j];
+      invalidityTimes[j] = tmp;
+
+      byte tmpReason = reasons[i];
+      reasons[i] = reasons[j];
+      reasons[j] = tmpReason;
+    }
+
+  } // class Builder
+
+  private static final RevokedCertTable EMPTY =
+      new RevokedCertTable(new long[0], new long[0], new long[0], new byte[0]);
+
+  // serialHigh, serialMid, serialLow
+  private final long[] serials;
+
+  private final long[] revTimes;
+
+  private final long[] invalidityTimes;
+
+  private final byte[] reasons;
+
+  private RevokedCertTable(long[] serials, long[] revTimes, long[] invalidityTimes,
+      byte[] reasons) {
+    this.serials = serials;
+    this.revTimes = revTimes;
+    this.invalidityTimes = invalidityTimes;
+    this.reasons = reasons;
+  }
+
+  int size() {
+    return reasons.length;
+  }
+
+  /**
+   * Returns the index of the given serial number.
+   * @param serial the serial number, must be positive.
+   * @return the index, or -1 if the certificate is not revoked.
+   */
+  int indexOf(BigInteger serial) {
+    if (serial.bitLength() > 192) {
+      return -1;
+    }
+
+    long s0 = serial.shiftRight(128).longValue();
+    long s1 = serial.shiftRight(64).longValue();
+    long s2 = serial.longValue();
+
+    int low = 0;
+    int high = reasons.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int off = 3 * mid;
+      int cmp = Long.compareUnsigned(serials[off], s0);
+      if (cmp == 0) {
+        cmp = Long.compareUnsigned(serials[off + 1], s1);
+        if (cmp == 0) {
+          cmp = Long.compareUnsigned(serials[off + 2], s2);
+        }
+      }
+
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  int getReason(int index) {
+    return reasons[index];
+  }
+
+  long getRevTime(int index) {
+    return revTimes[index];
+  }
+
+  long getInvalidityTime(int index) {
+    return invalidityTimes[index];
+  }
+
+  static RevokedCertTable empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Applies the entries of a delta CRL on top of the base CRL. The entries of the delta CRL
+   * replace those of the base CRL, and the entries with reason removeFromCRL are removed.
+   * @param base the entries of the base CRL.
+   * @param delta the entries of the delta CRL.
+   * @return the merged table.
+   */
+  static RevokedCertTable merge(RevokedCertTable base, RevokedCertTable delta) {
+    final int removeFromCrl = CrlReason.REMOVE_FROM_CRL.getCode();
+
+    Builder builder = new Builder(base.size() + delta.size());
+    int baseIdx = 0;
+    int deltaIdx = 0;
+    final int baseSize = base.size();
+    final int deltaSize = delta.size();
+
+    while (baseIdx < baseSize || deltaIdx < deltaSize) {
+      int cmp;
+      if (baseIdx == baseSize) {
+        cmp = 1;
+      } else if (deltaIdx == deltaSize) {
+        cmp = -1;
+      } else {
+        cmp = compare(base.serials, 3 * baseIdx, delta.serials, 3 * deltaIdx);
+      }
+
+      if (cmp < 0) {
+        copy(base, baseIdx++, builder, builder.size++);
+      } else {
+        if (cmp == 0) {
+          // replaced by the delta CRL
+          baseIdx++;
+        }
+
+        if (delta.reasons[deltaIdx] != removeFromCrl) {
+          copy(delta, deltaIdx, builder, builder.size++);
+        }
+        deltaIdx++;
+      }
+    }
+
+    // the entries are already sorted
+    int size = builder.size;
+    return new RevokedCertTable(Arrays.copyOf(builder.serials, 3 * size),
+        Arrays.copyOf(builder.revTimes, size), Arrays.copyOf(builder.invalidityTimes, size),
+        Arrays.copyOf(builder.reasons, size));
+  }
+
+  private static int compare(long[] serials1, int off1, long[] serials2, int off2) {
+    for (int i = 0; i < 3; i++) {
+      int cmp = Long.compareUnsigned(serials1[off1 + i], serials2[off2 + i]);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return 0;
+  }
+
+  private static void copy(RevokedCertTable src, int srcIdx, Builder dest, int destIdx) {
+    System.arraycopy(src.serials, 3 * srcIdx, dest.serials, 3 * destIdx, 3);
+    dest.revTimes[destIdx] = src.revTimes[srcIdx];
+    dest.invalidityTimes[destIdx] = src.invalidityTimes[srcIdx];
+    dest.reasons[destIdx] = src.reasons[srcIdx];
+  }
+
+  private static void copy(Builder src, int srcIdx, Builder dest, int destIdx) {
+    System.arraycopy(src.serials, 3 * srcIdx, dest.serials, 3 * destIdx, 3);
+    dest.revTimes[destIdx] = src.revTimes[srcIdx];
+    dest.invalidityTimes[destIdx] = src.invalidityTimes[srcIdx];
+    dest.reasons[destIdx] = src.reasons[srcIdx];
+  }
+
+}
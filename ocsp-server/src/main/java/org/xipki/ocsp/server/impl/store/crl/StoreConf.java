@@ -42,6 +42,13 @@ class StoreConf {
    */
   private static final String KEY_crl_url = "crl.url";
 
+  /*
+   * Delta CRL to be applied on top of the CRL.
+   *
+   * optional
+   */
+  private static final String KEY_deltaCrl_file = "deltaCrl.file";
+
   /*
    * Whether thisUpdate and nextUpdate of CRL are used in the corresponding fields
    * of OCSP response. The default value is true.
@@ -66,6 +73,14 @@ class StoreConf {
    */
   private static final String KEY_certs_dir = "certs.dir";
 
+  /*
+   * Number of CRL entries written to the database in one transaction. The default value
+   * is 1000.
+   *
+   * optional
+   */
+  private static final String KEY_import_commitSize = "import.commitSize";
+
   private String crlFile;
 
   /*
@@ -73,6 +88,11 @@ class StoreConf {
    */
   private String crlUrl;
 
+  /*
+   * optional, can be null
+   */
+  private String deltaCrlFile;
+
   private boolean useUpdateDatesFromCrl = true;
 
   private String caCertFile;
@@ -87,6 +107,8 @@ class StoreConf {
    */
   private String certsDir;
 
+  private int importCommitSize = 1000;
+
   StoreConf(String propsConf) throws OcspStoreException {
     Properties props = new Properties();
     try {
@@ -97,6 +119,7 @@ class StoreConf {
 
     this.crlFile = getRequiredProperty(props, KEY_crl_file);
     this.crlUrl = getOptionalProperty(props, KEY_crl_url);
+    this.deltaCrlFile = getOptionalProperty(props, KEY_deltaCrl_file);
     this.caCertFile = getRequiredProperty(props, KEY_caCert_file);
     this.issuerCertFile = getOptionalProperty(props, KEY_issuerCert_file);
     this.certsDir = getOptionalProperty(props, KEY_certs_dir);
@@ -116,6 +139,22 @@ class StoreConf {
     } else {
       this.useUpdateDatesFromCrl = true;
     }
+
+    propKey = KEY_import_commitSize;
+    propValue = getOptionalProperty(props, propKey);
+    if (propValue != null) {
+      try {
+        this.importCommitSize = Integer.parseInt(propValue);
+      } catch (NumberFormatException ex) {
+        throw new OcspStoreException("invalid property " + propKey + ": '"
+            + propValue + "'");
+      }
+
+      if (this.importCommitSize < 1) {
+        throw new OcspStoreException("invalid property " + propKey + ": '"
+            + propValue + "'");
+      }
+    }
   }
 
   String getCrFile() {
@@ -126,6 +165,10 @@ class StoreConf {
     return crlUrl;
   }
 
+  String getDeltaCrlFile() {
+    return deltaCrlFile;
+  }
+
   boolean isUseUpdateDatesFromCrl() {
     return useUpdateDatesFromCrl;
   }
@@ -142,6 +185,10 @@ class StoreConf {
     return certsDir;
   }
 
+  int getImportCommitSize() {
+    return importCommitSize;
+  }
+
   private String getRequiredProperty(Properties props, String propKey)
       throws OcspStoreException {
     String str = props.getProperty(propKey);
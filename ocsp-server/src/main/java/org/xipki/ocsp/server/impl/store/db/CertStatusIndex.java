@@ -0,0 +1,471 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.store.db;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.common.util.Base64;
+import org.xipki.common.util.ParamUtil;
+import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.security.HashAlgo;
+
+/**
+ * Memory-resident index of the certificate status in the table CERT. The index is loaded
+ * completely by {@link #reload()} and kept up-to-date by {@link #update()}, which reads
+ * only the entries whose column LUPDATE has been changed since the last synchronization.
+ *
+ * <p>The entries of each issuer are kept in primitive arrays and an open-addressing hash
+ * table, so that the memory grows only with the number of certificates.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+class CertStatusIndex {
+
+  static final class Entry {
+
+    private final long notBefore;
+
+    private final long notAfter;
+
+    private final boolean revoked;
+
+    private final int reason;
+
+    private final long revTime;
+
+    private final long invalidityTime;
+
+    private final byte[] certHash;
+
+    private Entry(long notBefore, long notAfter, boolean revoked, int reason, long revTime,
+        long invalidityTime, byte[] certHash) {
+      this.notBefore = notBefore;
+      this.notAfter = notAfter;
+      this.revoked = revoked;
+      this.reason = reason;
+      this.revTime = revTime;
+      this.invalidityTime = invalidityTime;
+      this.certHash = certHash;
+    }
+
+    /**
+     * Returns the notBefore in seconds, 0 if not known.
+     * @return the notBefore in seconds.
+     */
+    long getNotBefore() {
+      return notBefore;
+    }
+
+    /**
+     * Returns the notAfter in seconds, 0 if not known.
+     * @return the notAfter in seconds.
+     */
+    long getNotAfter() {
+      return notAfter;
+    }
+
+    boolean isRevoked() {
+      return revoked;
+    }
+
+    int getReason() {
+      return reason;
+    }
+
+    long getRevTime() {
+      return revTime;
+    }
+
+    long getInvalidityTime() {
+      return invalidityTime;
+    }
+
+    byte[] getCertHash() {
+      return certHash;
+    }
+
+  } // class Entry
+
+  /**
+   * Certificate status of one issuer.
+   */
+  private static final class IssuerIndex {
+
+    // serialHigh, serialMid, serialLow, notBefore, notAfter, revTime, invalidityTime, flags
+    private static final int STRIDE = 8;
+
+    private static final int FLAG_REVOKED = 1;
+
+    private static final int FLAG_HAS_HASH = 2;
+
+    private final StampedLock lock = new StampedLock();
+
+    private final int hashLen;
+
+    private long[] records;
+
+    private byte[] hashes;
+
+    // index of the record + 1, 0 for empty slot.
+    private int[] slots;
+
+    private int size;
+
+    IssuerIndex(int hashLen) {
+      this.hashLen = hashLen;
+      this.records = new long[16 * STRIDE];
+      this.hashes = new byte[16 * hashLen];
+      this.slots = new int[32];
+    }
+
+    Entry get(long s0, long s1, long s2) {
+      long stamp = lock.tryOptimisticRead();
+      Entry entry;
+      try {
+        entry = get0(s0, s1, s2);
+      } catch (RuntimeException ex) {
+        // inconsistent view of the arrays due to concurrent modification
+        entry = null;
+        stamp = 0;
+      }
+
+      if (lock.validate(stamp)) {
+        return entry;
+      }
+
+      stamp = lock.readLock();
+      try {
+        return get0(s0, s1, s2);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    private Entry get0(long s0, long s1, long s2) {
+      int[] tmpSlots = slots;
+      long[] tmpRecords = records;
+      int idx = findRecord(tmpSlots, tmpRecords, s0, s1, s2);
+      if (idx == -1) {
+        return null;
+      }
+
+      int off = idx * STRIDE;
+      long flags = tmpRecords[off + 7];
+      byte[] certHash = null;
+      if ((flags & FLAG_HAS_HASH) != 0) {
+        certHash = Arrays.copyOfRange(hashes, idx * hashLen, (idx + 1) * hashLen);
+      }
+      boolean revoked = (flags & FLAG_REVOKED) != 0;
+      return new Entry(tmpRecords[off + 3], tmpRecords[off + 4], revoked,
+          (int) ((flags >> 8) & 0xFF), tmpRecords[off + 5], tmpRecords[off + 6], certHash);
+    }
+
+    void put(long s0, long s1, long s2, long notBefore, long notAfter, boolean revoked,
+        int reason, long revTime, long invalidityTime, byte[] certHash) {
+      long stamp = lock.writeLock();
+      try {
+        int idx = findRecord(slots, records, s0, s1, s2);
+        if (idx == -1) {
+          idx = size;
+          if ((idx + 1) * STRIDE > records.length) {
+            int newCapacity = records.length / STRIDE * 2;
+            records = Arrays.copyOf(records, newCapacity * STRIDE);
+            hashes = Arrays.copyOf(hashes, newCapacity * hashLen);
+          }
+
+          size++;
+          if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+          }
+          insertSlot(slots, hashIndex(s0, s1, s2, slots.length - 1), idx);
+        }
+
+        int off = idx * STRIDE;
+        records[off] = s0;
+        records[off + 1] = s1;
+        records[off + 2] = s2;
+        records[off + 3] = notBefore;
+        records[off + 4] = notAfter;
+        records[off + 5] = revTime;
+        records[off + 6] = invalidityTime;
+
+        long flags = (reason & 0xFFL) << 8;
+        if (revoked) {
+          flags |= FLAG_REVOKED;
+        }
+
+        if (certHash != null && certHash.length == hashLen) {
+          flags |= FLAG_HAS_HASH;
+          System.arraycopy(certHash, 0, hashes, idx * hashLen, hashLen);
+        }
+        records[off + 7] = flags;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    private void rehash(int newLength) {
+      int[] newSlots = new int[newLength];
+      int mask = newLength - 1;
+      // the record at index size - 1 will be inserted by the caller
+      for (int i = 0; i < size - 1; i++) {
+        int off = i * STRIDE;
+        insertSlot(newSlots, hashIndex(records[off], records[off + 1], records[off + 2], mask), i);
+      }
+      slots = newSlots;
+    }
+
+    private static void insertSlot(int[] slots, int startIndex, int recordIndex) {
+      int mask = slots.length - 1;
+      int i = startIndex;
+      while (slots[i] != 0) {
+        i = (i + 1) & mask;
+      }
+      slots[i] = recordIndex + 1;
+    }
+
+    private static int findRecord(int[] slots, long[] records, long s0, long s1, long s2) {
+      int mask = slots.length - 1;
+      int i = hashIndex(s0, s1, s2, mask);
+      for (int n = 0; n < slots.length; n++) {
+        int slot = slots[i];
+        if (slot == 0) {
+          return -1;
+        }
+
+        int off = (slot - 1) * STRIDE;
+        if (records[off] == s0 && records[off + 1] == s1 && records[off + 2] == s2) {
+          return slot - 1;
+        }
+        i = (i + 1) & mask;
+      }
+      return -1;
+    }
+
+    private static int hashIndex(long s0, long s1, long s2, int mask) {
+      long hash = (s0 * 0x9E3779B97F4A7C15L + s1) * 0x9E3779B97F4A7C15L + s2;
+      hash ^= (hash >>> 29);
+      return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+  } // class IssuerIndex
+
+  private static final Logger LOG = LoggerFactory.getLogger(CertStatusIndex.class);
+
+  private static final String CORE_SQL = "ID,IID,SN,NBEFORE,NAFTER,REV,RR,RT,RIT,HASH FROM CERT";
+
+  private static final int ROWS_PER_QUERY = 1000;
+
+  /**
+   * Entries changed within this period before the last synchronization will be read again,
+   * to consider the clock differences and delayed commits of the writers.
+   */
+  private static final long LUPDATE_OVERLAP_SECONDS = 120;
+
+  private final DataSourceWrapper datasource;
+
+  private final int hashLen;
+
+  private final String sqlAll;
+
+  private final String sqlChanged;
+
+  private volatile Map<Integer, IssuerIndex> issuers;
+
+  private long lastSyncTime;
+
+  CertStatusIndex(DataSourceWrapper datasource, HashAlgo certHashAlgo) {
+    this.datasource = ParamUtil.requireNonNull("datasource", datasource);
+    this.hashLen = ParamUtil.requireNonNull("certHashAlgo", certHashAlgo).getLength();
+    this.sqlAll = datasource.buildSelectFirstSql(ROWS_PER_QUERY, "ID ASC",
+        CORE_SQL + " WHERE ID>?");
+    this.sqlChanged = datasource.buildSelectFirstSql(ROWS_PER_QUERY, "ID ASC",
+        CORE_SQL + " WHERE ID>? AND LUPDATE>=?");
+  }
+
+  boolean isReady() {
+    return issuers != null;
+  }
+
+  /**
+   * Returns the indexed entry.
+   * @param issuerId the issuer id.
+   * @param serialNumber the serial number, must be positive.
+   * @return the entry, or {@code null} if the certificate is unknown.
+   */
+  Entry get(int issuerId, BigInteger serialNumber) {
+    Map<Integer, IssuerIndex> map = issuers;
+    if (map == null) {
+      throw new IllegalStateException("CertStatusIndex is not loaded");
+    }
+
+    IssuerIndex issuerIndex = map.get(issuerId);
+    if (issuerIndex == null || serialNumber.bitLength() > 192) {
+      return null;
+    }
+
+    return issuerIndex.get(serialNumber.shiftRight(128).longValue(),
+        serialNumber.shiftRight(64).longValue(), serialNumber.longValue());
+  }
+
+  /**
+   * Loads all entries from the database and replaces the current index.
+   * @throws DataAccessException if database error occurs.
+   */
+  synchronized void reload() throws DataAccessException {
+    long start = System.currentTimeMillis();
+    Map<Integer, IssuerIndex> newIssuers = new HashMap<>();
+    int num = load(newIssuers, sqlAll, null);
+    // replace the map as whole, the concurrent lookups must not see a half-filled map.
+    this.issuers = Collections.unmodifiableMap(newIssuers);
+    this.lastSyncTime = start / 1000;
+    LOG.info("loaded {} certificates into memory in {} ms", num,
+        System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Applies the entries changed since the last synchronization.
+   * @throws DataAccessException if database error occurs.
+   */
+  synchronized void update() throws DataAccessException {
+    Map<Integer, IssuerIndex> current = issuers;
+    if (current == null) {
+      reload();
+      return;
+    }
+
+    long start = System.currentTimeMillis();
+    Map<Integer, IssuerIndex> newIssuers = new HashMap<>(current);
+    int num = load(newIssuers, sqlChanged, lastSyncTime - LUPDATE_OVERLAP_SECONDS);
+    if (newIssuers.size() != current.size()) {
+      // new issuer
+      this.issuers = Collections.unmodifiableMap(newIssuers);
+    }
+    this.lastSyncTime = start / 1000;
+    LOG.debug("applied {} changed certificates", num);
+  }
+
+  private int load(Map<Integer, IssuerIndex> issuers, String sql, Long minLastUpdate)
+      throws DataAccessException {
+    Connection conn = datasource.getConnection();
+    PreparedStatement ps = null;
+    ResultSet rs = null;
+    int num = 0;
+    try {
+      ps = datasource.prepareStatement(conn, sql);
+      long id = 0;
+      while (true) {
+        ps.setLong(1, id);
+        if (minLastUpdate != null) {
+          ps.setLong(2, minLastUpdate);
+        }
+
+        rs = ps.executeQuery();
+        int numInQuery = 0;
+        while (rs.next()) {
+          numInQuery++;
+          id = rs.getLong("ID");
+          int issuerId = rs.getInt("IID");
+          String sn = rs.getString("SN");
+
+          BigInteger serial;
+          try {
+            serial = new BigInteger(sn, 16);
+          } catch (NumberFormatException ex) {
+            LOG.warn("ignored certificate with invalid serial number {}", sn);
+            continue;
+          }
+
+          if (serial.signum() != 1 || serial.bitLength() > 192) {
+            LOG.warn("ignored certificate with unsupported serial number {}", sn);
+            continue;
+          }
+
+          IssuerIndex issuerIndex = issuers.get(issuerId);
+          if (issuerIndex == null) {
+            issuerIndex = new IssuerIndex(hashLen);
+            issuers.put(issuerId, issuerIndex);
+          }
+
+          boolean revoked = rs.getBoolean("REV");
+          int reason = 0;
+          long revTime = 0;
+          long invalidityTime = 0;
+          if (revoked) {
+            reason = rs.getInt("RR");
+            revTime = rs.getLong("RT");
+            invalidityTime = rs.getLong("RIT");
+          }
+
+          String b64CertHash = rs.getString("HASH");
+          byte[] certHash = (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash);
+
+          issuerIndex.put(serial.shiftRight(128).longValue(), serial.shiftRight(64).longValue(),
+              serial.longValue(), rs.getLong("NBEFORE"), rs.getLong("NAFTER"), revoked,
+              reason, revTime, invalidityTime, certHash);
+          num++;
+        }
+        rs.close();
+        rs = null;
+
+        if (numInQuery < ROWS_PER_QUERY) {
+          break;
+        }
+      }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      datasource.releaseResources(ps, rs);
+    }
+
+    return num;
+  }
+
+  @Override
+  public String toString() {
+    Map<Integer, IssuerIndex> map = issuers;
+    if (map == null) {
+      return "CertStatusIndex[not loaded]";
+    }
+
+    int num = 0;
+    for (IssuerIndex m : map.values()) {
+      num += m.size();
+    }
+    return "CertStatusIndex[issuers=" + map.size() + ",certificates=" + num + "]";
+  }
+
+}
@@ -25,6 +25,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -95,11 +97,74 @@ public class DbCertStatusStore extends OcspStore {
 
   } // class SimpleIssuerEntry
 
+  /**
+   * Status of a certificate read from the database or the in-memory index.
+   */
+  private static class CertStatusRecord {
+
+    private long notBefore;
+
+    private long notAfter;
+
+    private boolean revoked;
+
+    private int reason;
+
+    private long revTime;
+
+    private long invalTime;
+
+    private byte[] certHash;
+
+    static CertStatusRecord of(CertStatusIndex.Entry entry) {
+      if (entry == null) {
+        return null;
+      }
+
+      CertStatusRecord record = new CertStatusRecord();
+      record.notBefore = entry.getNotBefore();
+      record.notAfter = entry.getNotAfter();
+      record.certHash = entry.getCertHash();
+      record.revoked = entry.isRevoked();
+      if (record.revoked) {
+        record.reason = entry.getReason();
+        record.revTime = entry.getRevTime();
+        record.invalTime = entry.getInvalidityTime();
+      }
+      return record;
+    }
+
+    static CertStatusRecord of(ResultSet rs, boolean withCertHash, boolean withRit)
+        throws SQLException {
+      CertStatusRecord record = new CertStatusRecord();
+      record.notBefore = rs.getLong("NBEFORE");
+      record.notAfter = rs.getLong("NAFTER");
+      if (withCertHash) {
+        String b64CertHash = rs.getString("HASH");
+        if (b64CertHash != null) {
+          record.certHash = Base64.decodeFast(b64CertHash);
+        }
+      }
+
+      record.revoked = rs.getBoolean("REV");
+      if (record.revoked) {
+        record.reason = rs.getInt("RR");
+        record.revTime = rs.getLong("RT");
+        if (withRit) {
+          record.invalTime = rs.getLong("RIT");
+        }
+      }
+      return record;
+    }
+
+  } // class CertStatusRecord
+
   private class StoreUpdateService implements Runnable {
 
     @Override
     public void run() {
       initIssuerStore();
+      updateStatusIndex();
     }
 
   } // class StoreUpdateService
@@ -108,6 +173,11 @@ public class DbCertStatusStore extends OcspStore {
 
   private static final Logger LOG = LoggerFactory.getLogger(DbCertStatusStore.class);
 
+  /**
+   * Maximal number of serial numbers in the IN clause of one SQL query.
+   */
+  private static final int MAX_SERIALS_PER_QUERY = 100;
+
   private final AtomicBoolean storeUpdateInProcess = new AtomicBoolean(false);
 
   private String sqlCsNoRit;
@@ -130,6 +200,16 @@ public class DbCertStatusStore extends OcspStore {
 
   private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
 
+  private CertStatusIndex statusIndex;
+
+  private RevokedSerialSet revokedSet;
+
+  private long statusIndexFullReloadIntervalMs;
+
+  private long lastStatusIndexReload;
+
+  private volatile boolean statusIndexOutdated;
+
   protected List<Runnable> getScheduledServices() {
     return Collections.emptyList();
   }
@@ -175,7 +255,7 @@ public class DbCertStatusStore extends OcspStore {
             for (Integer id : newIds) {
               IssuerEntry entry = issuerStore.getIssuerForId(id);
               SimpleIssuerEntry newEntry = newIssuers.get(id);
-              if (newEntry.match(entry)) {
+              if (!newEntry.match(entry)) {
                 issuersUnchanged = false;
                 break;
               }
@@ -240,13 +320,72 @@ public class DbCertStatusStore extends OcspStore {
         releaseDbResources(ps, rs);
       }
     } catch (Throwable th) {
-      storeUpdateInProcess.set(false);
       LogUtil.error(LOG, th, "could not executing initIssuerStore()");
       initializationFailed = true;
       initialized = true;
+    } finally {
+      storeUpdateInProcess.set(false);
     }
   } // method initIssuerStore
 
+  private void updateStatusIndex() {
+    if (statusIndex == null && revokedSet == null) {
+      return;
+    }
+
+    try {
+      long now = System.currentTimeMillis();
+      boolean ready = (statusIndex != null) ? statusIndex.isReady() : revokedSet.isReady();
+      boolean fullReload = statusIndexOutdated || !ready
+          || (statusIndexFullReloadIntervalMs > 0
+              && now - lastStatusIndexReload > statusIndexFullReloadIntervalMs);
+      if (fullReload) {
+        statusIndexOutdated = false;
+        if (statusIndex != null) {
+          statusIndex.reload();
+          LOG.info("reloaded certificate status of store {}: {}", name, statusIndex);
+        } else {
+          revokedSet.reload();
+          LOG.info("reloaded revoked serial numbers of store {}: {}", name, revokedSet);
+        }
+        lastStatusIndexReload = now;
+      } else if (statusIndex != null) {
+        statusIndex.update();
+      } else {
+        revokedSet.update();
+      }
+    } catch (Throwable th) {
+      LogUtil.error(LOG, th, "could not update the in-memory certificate status of store " + name);
+    }
+  } // method updateStatusIndex
+
+  /**
+   * Marks the in-memory certificate status as outdated, e.g. after entries have been deleted
+   * from the database. The certificate status will be reloaded completely in the next
+   * scheduled update.
+   */
+  protected void markStatusIndexOutdated() {
+    statusIndexOutdated = true;
+  }
+
+  /**
+   * Checks via the in-memory set of revoked serial numbers whether the certificate is not
+   * revoked. The answer is used only if the status GOOD of an unrevoked certificate does not
+   * depend on the other columns of the certificate.
+   * @return {@code true} if the certificate is not revoked and its status is GOOD,
+   *     {@code false} if the certificate must be looked up in the database.
+   */
+  private boolean isKnownAsNotRevoked(int issuerId, BigInteger serialNumber,
+      boolean includeCertHash) {
+    RevokedSerialSet set = revokedSet;
+    if (set == null || !set.isReady() || !unknownSerialAsGood || includeCertHash
+        || ignoreExpiredCert || ignoreNotYetValidCert) {
+      return false;
+    }
+
+    return !set.mayBeRevoked(issuerId, serialNumber);
+  }
+
   @Override
   public CertStatusInfo getCertStatus(Date time, RequestIssuer reqIssuer, BigInteger serialNumber,
       boolean includeCertHash, boolean includeRit, boolean inheritCaRevocation)
@@ -255,15 +394,7 @@ public class DbCertStatusStore extends OcspStore {
       return CertStatusInfo.getUnknownCertStatusInfo(new Date(), null);
     }
 
-    if (!initialized) {
-      throw new OcspStoreException("initialization of CertStore is still in process");
-    }
-
-    if (initializationFailed) {
-      throw new OcspStoreException("initialization of CertStore failed");
-    }
-
-    String sql;
+    checkInitialized();
 
     try {
       IssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
@@ -271,168 +402,287 @@ public class DbCertStatusStore extends OcspStore {
         return null;
       }
 
-      if (includeCertHash) {
-        sql = includeRit ? sqlCsWithCertHash : sqlCsNoRitWithCertHash;
+      CertStatusRecord record;
+      CertStatusIndex index = statusIndex;
+      if (index != null && index.isReady()) {
+        record = CertStatusRecord.of(index.get(issuer.getId(), serialNumber));
+      } else if (isKnownAsNotRevoked(issuer.getId(), serialNumber, includeCertHash)) {
+        // unknownSerialAsGood is set, so the unknown certificate is good
+        record = null;
       } else {
-        sql = includeRit ? sqlCs : sqlCsNoRit;
-      }
-
-      CrlInfo crlInfo = issuer.getCrlInfo();
+        String sql;
+        if (includeCertHash) {
+          sql = includeRit ? sqlCsWithCertHash : sqlCsNoRitWithCertHash;
+        } else {
+          sql = includeRit ? sqlCs : sqlCsNoRit;
+        }
 
-      Date thisUpdate;
-      Date nextUpdate = null;
+        record = null;
+        ResultSet rs = null;
+        PreparedStatement ps = datasource.prepareStatement(datasource.getConnection(), sql);
 
-      if (crlInfo != null && crlInfo.isUseCrlUpdates()) {
-        thisUpdate = crlInfo.getThisUpdate();
+        try {
+          ps.setInt(1, issuer.getId());
+          ps.setString(2, serialNumber.toString(16));
+          rs = ps.executeQuery();
 
-        // this.nextUpdate is still in the future (10 seconds buffer)
-        if (crlInfo.getNextUpdate().getTime() - System.currentTimeMillis() > 10 * 1000) {
-          nextUpdate = crlInfo.getNextUpdate();
+          if (rs.next()) {
+            record = CertStatusRecord.of(rs, includeCertHash, includeRit);
+          }
+        } catch (SQLException ex) {
+          throw datasource.translate(sql, ex);
+        } finally {
+          releaseDbResources(ps, rs);
         }
-      } else {
-        thisUpdate = new Date();
       }
 
-      ResultSet rs = null;
-      CertStatusInfo certStatusInfo = null;
-
-      boolean unknown = true;
-      boolean ignore = false;
-      String certprofile = null;
-      String b64CertHash = null;
-      boolean revoked = false;
-      int reason = 0;
-      long revTime = 0;
-      long invalTime = 0;
-
-      PreparedStatement ps = datasource.prepareStatement(datasource.getConnection(), sql);
+      return buildCertStatusInfo(time, issuer, record, includeCertHash, includeRit,
+          inheritCaRevocation);
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+  } // method getCertStatus
 
-      try {
-        ps.setInt(1, issuer.getId());
-        ps.setString(2, serialNumber.toString(16));
-        rs = ps.executeQuery();
+  @Override
+  public List<CertStatusInfo> getCertStatuses(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    checkInitialized();
 
-        if (rs.next()) {
-          unknown = false;
+    final int size = serialNumbers.size();
+    IssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
+    if (issuer == null) {
+      return Arrays.asList(new CertStatusInfo[size]);
+    }
 
-          long timeInSec = time.getTime() / 1000;
-          if (!ignore && ignoreNotYetValidCert) {
-            long notBeforeInSec = rs.getLong("NBEFORE");
-            if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
-              ignore = true;
-            }
-          }
+    CertStatusRecord[] records = new CertStatusRecord[size];
 
-          if (!ignore && ignoreExpiredCert) {
-            long notAfterInSec = rs.getLong("NAFTER");
-            if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
-              ignore = true;
-            }
+    CertStatusIndex index = statusIndex;
+    if (index != null && index.isReady()) {
+      for (int i = 0; i < size; i++) {
+        BigInteger serialNumber = serialNumbers.get(i);
+        if (serialNumber.signum() == 1) {
+          records[i] = CertStatusRecord.of(index.get(issuer.getId(), serialNumber));
+        }
+      }
+    } else {
+      // serial numbers in hex, which are not requested in the database yet
+      List<String> hexSerials = new ArrayList<>(size);
+      for (BigInteger serialNumber : serialNumbers) {
+        if (serialNumber.signum() == 1
+            && !isKnownAsNotRevoked(issuer.getId(), serialNumber, includeCertHash)) {
+          String hexSerial = serialNumber.toString(16);
+          if (!hexSerials.contains(hexSerial)) {
+            hexSerials.add(hexSerial);
           }
+        }
+      }
 
-          if (!ignore) {
-            if (includeCertHash) {
-              b64CertHash = rs.getString("HASH");
-            }
-
-            revoked = rs.getBoolean("REV");
-            if (revoked) {
-              reason = rs.getInt("RR");
-              revTime = rs.getLong("RT");
-              if (includeRit) {
-                invalTime = rs.getLong("RIT");
-              }
-            }
-          }
-        } // end if (rs.next())
-      } catch (SQLException ex) {
-        throw datasource.translate(sql, ex);
-      } finally {
-        releaseDbResources(ps, rs);
+      Map<String, CertStatusRecord> recordMap = new HashMap<>();
+      try {
+        for (int offset = 0; offset < hexSerials.size(); offset += MAX_SERIALS_PER_QUERY) {
+          List<String> hexSerialsInQuery = hexSerials.subList(offset,
+              Math.min(hexSerials.size(), offset + MAX_SERIALS_PER_QUERY));
+          queryCertStatuses(issuer.getId(), hexSerialsInQuery, includeCertHash, includeRit,
+              recordMap);
+        }
+      } catch (DataAccessException ex) {
+        throw new OcspStoreException(ex.getMessage(), ex);
       }
 
-      if (unknown) {
-        if (unknownSerialAsGood) {
-          certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo, null,
-              thisUpdate, nextUpdate, null);
-        } else {
-          certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
+      for (int i = 0; i < size; i++) {
+        BigInteger serialNumber = serialNumbers.get(i);
+        if (serialNumber.signum() == 1) {
+          records[i] = recordMap.get(serialNumber.toString(16));
         }
+      }
+    }
+
+    List<CertStatusInfo> ret = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      if (serialNumbers.get(i).signum() != 1) { // non-positive serial number
+        ret.add(CertStatusInfo.getUnknownCertStatusInfo(new Date(), null));
       } else {
-        if (ignore) {
-          certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
-        } else {
-          byte[] certHash = (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash);
-          if (revoked) {
-            Date invTime = (invalTime == 0 || invalTime == revTime)
-                ? null : new Date(invalTime * 1000);
-            CertRevocationInfo revInfo = new CertRevocationInfo(reason,
-                new Date(revTime * 1000), invTime);
-            certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
-                certHashAlgo, certHash, thisUpdate, nextUpdate, certprofile);
-          } else {
-            certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
-                certHash, thisUpdate, nextUpdate, certprofile);
-          }
-        }
+        ret.add(buildCertStatusInfo(time, issuer, records[i], includeCertHash, includeRit,
+            inheritCaRevocation));
       }
+    }
+    return ret;
+  } // method getCertStatuses
+
+  private void queryCertStatuses(int issuerId, List<String> hexSerials,
+      boolean includeCertHash, boolean includeRit, Map<String, CertStatusRecord> recordMap)
+      throws DataAccessException {
+    StringBuilder sb = new StringBuilder(100 + 2 * hexSerials.size());
+    sb.append("SELECT SN,NBEFORE,NAFTER,REV,RR,RT");
+    if (includeRit) {
+      sb.append(",RIT");
+    }
+    if (includeCertHash) {
+      sb.append(",HASH");
+    }
+    sb.append(" FROM CERT WHERE IID=? AND SN IN (?");
+    for (int i = 1; i < hexSerials.size(); i++) {
+      sb.append(",?");
+    }
+    sb.append(")");
+    final String sql = sb.toString();
 
-      if (includeCrlId && crlInfo != null) {
-        certStatusInfo.setCrlId(crlInfo.getCrlId());
+    ResultSet rs = null;
+    PreparedStatement ps = datasource.prepareStatement(datasource.getConnection(), sql);
+    try {
+      int idx = 1;
+      ps.setInt(idx++, issuerId);
+      for (String hexSerial : hexSerials) {
+        ps.setString(idx++, hexSerial);
       }
+      rs = ps.executeQuery();
 
-      if (includeArchiveCutoff) {
-        if (retentionInterval != 0) {
-          Date date;
-          // expired certificate remains in status store for ever
-          if (retentionInterval < 0) {
-            date = issuer.getNotBefore();
-          } else {
-            long nowInMs = System.currentTimeMillis();
-            long dateInMs = Math.max(issuer.getNotBefore().getTime(),
-                nowInMs - DAY * retentionInterval);
-            date = new Date(dateInMs);
-          }
+      while (rs.next()) {
+        recordMap.put(rs.getString("SN").toLowerCase(),
+            CertStatusRecord.of(rs, includeCertHash, includeRit));
+      }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      releaseDbResources(ps, rs);
+    }
+  } // method queryCertStatuses
 
-          certStatusInfo.setArchiveCutOff(date);
+  private void checkInitialized() throws OcspStoreException {
+    if (!initialized) {
+      throw new OcspStoreException("initialization of CertStore is still in process");
+    }
+
+    if (initializationFailed) {
+      throw new OcspStoreException("initialization of CertStore failed");
+    }
+  }
+
+  /**
+   * Builds the certificate status.
+   * @param record
+   *          status of the certificate read from the store, {@code null} if the certificate
+   *          is unknown.
+   */
+  private CertStatusInfo buildCertStatusInfo(Date time, IssuerEntry issuer,
+      CertStatusRecord record, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) {
+    CrlInfo crlInfo = issuer.getCrlInfo();
+
+    Date thisUpdate;
+    Date nextUpdate = null;
+
+    if (crlInfo != null && crlInfo.isUseCrlUpdates()) {
+      thisUpdate = crlInfo.getThisUpdate();
+
+      // this.nextUpdate is still in the future (10 seconds buffer)
+      if (crlInfo.getNextUpdate().getTime() - System.currentTimeMillis() > 10 * 1000) {
+        nextUpdate = crlInfo.getNextUpdate();
+      }
+    } else {
+      thisUpdate = new Date();
+    }
+
+    CertStatusInfo certStatusInfo = null;
+    String certprofile = null;
+
+    if (record == null) {
+      if (unknownSerialAsGood) {
+        certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo, null,
+            thisUpdate, nextUpdate, null);
+      } else {
+        certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
+      }
+    } else {
+      boolean ignore = false;
+      long timeInSec = time.getTime() / 1000;
+      if (ignoreNotYetValidCert) {
+        long notBeforeInSec = record.notBefore;
+        if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
+          ignore = true;
         }
       }
 
-      if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
-        return certStatusInfo;
+      if (!ignore && ignoreExpiredCert) {
+        long notAfterInSec = record.notAfter;
+        if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
+          ignore = true;
+        }
       }
 
-      CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
-      CertStatus certStatus = certStatusInfo.getCertStatus();
-      boolean replaced = false;
-      if (certStatus == CertStatus.GOOD || certStatus == CertStatus.UNKNOWN) {
-        replaced = true;
-      } else if (certStatus == CertStatus.REVOKED) {
-        if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
-              caRevInfo.getRevocationTime())) {
-          replaced = true;
+      if (ignore) {
+        certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
+      } else {
+        byte[] certHash = includeCertHash ? record.certHash : null;
+        if (record.revoked) {
+          long revTime = record.revTime;
+          long invalTime = includeRit ? record.invalTime : 0;
+          Date invTime = (invalTime == 0 || invalTime == revTime)
+              ? null : new Date(invalTime * 1000);
+          CertRevocationInfo revInfo = new CertRevocationInfo(record.reason,
+              new Date(revTime * 1000), invTime);
+          certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
+              certHashAlgo, certHash, thisUpdate, nextUpdate, certprofile);
+        } else {
+          certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
+              certHash, thisUpdate, nextUpdate, certprofile);
         }
       }
+    }
+
+    if (includeCrlId && crlInfo != null) {
+      certStatusInfo.setCrlId(crlInfo.getCrlId());
+    }
 
-      if (replaced) {
-        CertRevocationInfo newRevInfo;
-        if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
-          newRevInfo = caRevInfo;
+    if (includeArchiveCutoff) {
+      if (retentionInterval != 0) {
+        Date date;
+        // expired certificate remains in status store for ever
+        if (retentionInterval < 0) {
+          date = issuer.getNotBefore();
         } else {
-          newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
-              caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
+          long nowInMs = System.currentTimeMillis();
+          long dateInMs = Math.max(issuer.getNotBefore().getTime(),
+              nowInMs - DAY * retentionInterval);
+          date = new Date(dateInMs);
         }
-        certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
-            certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
-            certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
-            certStatusInfo.getCertprofile());
+
+        certStatusInfo.setArchiveCutOff(date);
       }
+    }
+
+    if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
       return certStatusInfo;
-    } catch (DataAccessException ex) {
-      throw new OcspStoreException(ex.getMessage(), ex);
     }
 
-  } // method getCertStatus
+    CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
+    CertStatus certStatus = certStatusInfo.getCertStatus();
+    boolean replaced = false;
+    if (certStatus == CertStatus.GOOD || certStatus == CertStatus.UNKNOWN) {
+      replaced = true;
+    } else if (certStatus == CertStatus.REVOKED) {
+      if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
+            caRevInfo.getRevocationTime())) {
+        replaced = true;
+      }
+    }
+
+    if (replaced) {
+      CertRevocationInfo newRevInfo;
+      if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
+        newRevInfo = caRevInfo;
+      } else {
+        newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
+            caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
+      }
+      certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
+          certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
+          certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
+          certStatusInfo.getCertprofile());
+    }
+    return certStatusInfo;
+  } // method buildCertStatusInfo
 
   /**
    * Borrow Prepared Statement.
@@ -517,6 +767,21 @@ public class DbCertStatusStore extends OcspStore {
 
     initIssuerStore();
 
+    if (storeConf.isInMemory()) {
+      this.statusIndexFullReloadIntervalMs = storeConf.getInMemoryFullReloadInterval() * 60L * 1000;
+      this.statusIndex = new CertStatusIndex(datasource, certHashAlgo);
+      this.revokedSet = null;
+      updateStatusIndex();
+    } else if (storeConf.isRevokedSet()) {
+      this.statusIndexFullReloadIntervalMs = storeConf.getInMemoryFullReloadInterval() * 60L * 1000;
+      this.statusIndex = null;
+      this.revokedSet = new RevokedSerialSet(datasource);
+      updateStatusIndex();
+    } else {
+      this.statusIndex = null;
+      this.revokedSet = null;
+    }
+
     if (this.scheduledThreadPoolExecutor != null) {
       this.scheduledThreadPoolExecutor.shutdownNow();
     }
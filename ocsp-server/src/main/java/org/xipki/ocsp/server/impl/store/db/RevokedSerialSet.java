@@ -0,0 +1,370 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.store.db;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.common.util.ParamUtil;
+import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataSourceWrapper;
+
+/**
+ * Memory-resident set of the serial numbers of the revoked certificates in the table CERT.
+ * The set is loaded completely by {@link #reload()} and kept up-to-date by {@link #update()},
+ * which reads only the revoked entries whose column LUPDATE has been changed since the last
+ * synchronization.
+ *
+ * <p>The set is exact for the revoked certificates, but it may contain serial numbers of
+ * certificates which are not revoked any more (e.g. after the removal of a certificate hold),
+ * until the next {@link #reload()}. Hence {@link #mayBeRevoked(int, BigInteger)} returning
+ * {@code true} requires the detailed lookup in the database, and returning {@code false}
+ * means that the certificate was not revoked at the last synchronization.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+class RevokedSerialSet {
+
+  /**
+   * Immutable open-addressing hash set of the serial numbers of one issuer. Since the serial
+   * numbers are positive, the all-zero key marks an empty slot.
+   */
+  private static final class IssuerSet {
+
+    // serialHigh, serialMid, serialLow
+    private static final int STRIDE = 3;
+
+    private final long[] slots;
+
+    private final int size;
+
+    private IssuerSet(long[] slots, int size) {
+      this.slots = slots;
+      this.size = size;
+    }
+
+    boolean contains(long s0, long s1, long s2) {
+      int mask = slots.length / STRIDE - 1;
+      int i = hashIndex(s0, s1, s2, mask);
+      while (true) {
+        int off = i * STRIDE;
+        if (slots[off] == s0 && slots[off + 1] == s1 && slots[off + 2] == s2) {
+          return true;
+        }
+
+        if (slots[off] == 0 && slots[off + 1] == 0 && slots[off + 2] == 0) {
+          return false;
+        }
+        i = (i + 1) & mask;
+      }
+    }
+
+    int size() {
+      return size;
+    }
+
+    /**
+     * Returns a new set with the serial numbers of this set and the given serial numbers.
+     * @param serials the serial numbers to be added, 3 longs for each serial number.
+     * @param num number of serial numbers in {@code serials}.
+     * @return the new set.
+     */
+    IssuerSet with(long[] serials, int num) {
+      int capacity = 16;
+      // load factor at most 0.5, so that there is always an empty slot
+      while (capacity < 2 * (size + num)) {
+        capacity <<= 1;
+      }
+
+      long[] newSlots = (capacity * STRIDE == slots.length)
+          ? Arrays.copyOf(slots, slots.length) : rehash(slots, capacity);
+
+      int newSize = size;
+      int mask = capacity - 1;
+      for (int j = 0; j < num; j++) {
+        if (insert(newSlots, mask, serials[3 * j], serials[3 * j + 1], serials[3 * j + 2])) {
+          newSize++;
+        }
+      }
+      return new IssuerSet(newSlots, newSize);
+    }
+
+    private static long[] rehash(long[] slots, int capacity) {
+      long[] newSlots = new long[capacity * STRIDE];
+      int mask = capacity - 1;
+      for (int off = 0; off < slots.length; off += STRIDE) {
+        if (slots[off] != 0 || slots[off + 1] != 0 || slots[off + 2] != 0) {
+          insert(newSlots, mask, slots[off], slots[off + 1], slots[off + 2]);
+        }
+      }
+      return newSlots;
+    }
+
+    private static boolean insert(long[] slots, int mask, long s0, long s1, long s2) {
+      int i = hashIndex(s0, s1, s2, mask);
+      while (true) {
+        int off = i * STRIDE;
+        if (slots[off] == s0 && slots[off + 1] == s1 && slots[off + 2] == s2) {
+          // already present
+          return false;
+        }
+
+        if (slots[off] == 0 && slots[off + 1] == 0 && slots[off + 2] == 0) {
+          slots[off] = s0;
+          slots[off + 1] = s1;
+          slots[off + 2] = s2;
+          return true;
+        }
+        i = (i + 1) & mask;
+      }
+    }
+
+    private static int hashIndex(long s0, long s1, long s2, int mask) {
+      long hash = (s0 * 0x9E3779B97F4A7C15L + s1) * 0x9E3779B97F4A7C15L + s2;
+      hash ^= (hash >>> 29);
+      return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+  } // class IssuerSet
+
+  /**
+   * Serial numbers read from the database, grouped by the issuer.
+   */
+  private static final class SerialList {
+
+    private long[] serials = new long[3 * 16];
+
+    private int size;
+
+    void add(long s0, long s1, long s2) {
+      if (3 * size == serials.length) {
+        serials = Arrays.copyOf(serials, 2 * serials.length);
+      }
+
+      serials[3 * size] = s0;
+      serials[3 * size + 1] = s1;
+      serials[3 * size + 2] = s2;
+      size++;
+    }
+
+  } // class SerialList
+
+  private static final Logger LOG = LoggerFactory.getLogger(RevokedSerialSet.class);
+
+  private static final IssuerSet EMPTY = new IssuerSet(new long[16 * IssuerSet.STRIDE], 0);
+
+  private static final String CORE_SQL = "ID,IID,SN FROM CERT WHERE ID>? AND REV=1";
+
+  private static final int ROWS_PER_QUERY = 1000;
+
+  /**
+   * Entries changed within this period before the last synchronization will be read again,
+   * to consider the clock differences and delayed commits of the writers.
+   */
+  private static final long LUPDATE_OVERLAP_SECONDS = 120;
+
+  private final DataSourceWrapper datasource;
+
+  private final String sqlAll;
+
+  private final String sqlChanged;
+
+  private volatile Map<Integer, IssuerSet> issuers;
+
+  private long lastSyncTime;
+
+  RevokedSerialSet(DataSourceWrapper datasource) {
+    this.datasource = ParamUtil.requireNonNull("datasource", datasource);
+    this.sqlAll = datasource.buildSelectFirstSql(ROWS_PER_QUERY, "ID ASC", CORE_SQL);
+    this.sqlChanged = datasource.buildSelectFirstSql(ROWS_PER_QUERY, "ID ASC",
+        CORE_SQL + " AND LUPDATE>=?");
+  }
+
+  boolean isReady() {
+    return issuers != null;
+  }
+
+  /**
+   * Checks whether the certificate may be revoked.
+   * @param issuerId the issuer id.
+   * @param serialNumber the serial number, must be positive.
+   * @return {@code false} if the certificate is not revoked, {@code true} if the certificate
+   *     may be revoked.
+   */
+  boolean mayBeRevoked(int issuerId, BigInteger serialNumber) {
+    Map<Integer, IssuerSet> map = issuers;
+    if (map == null) {
+      throw new IllegalStateException("RevokedSerialSet is not loaded");
+    }
+
+    if (serialNumber.bitLength() > 192) {
+      // not supported, let the database decide
+      return true;
+    }
+
+    IssuerSet issuerSet = map.get(issuerId);
+    if (issuerSet == null) {
+      return false;
+    }
+
+    return issuerSet.contains(serialNumber.shiftRight(128).longValue(),
+        serialNumber.shiftRight(64).longValue(), serialNumber.longValue());
+  }
+
+  /**
+   * Loads all revoked serial numbers from the database and replaces the current set.
+   * @throws DataAccessException if database error occurs.
+   */
+  synchronized void reload() throws DataAccessException {
+    long start = System.currentTimeMillis();
+    Map<Integer, SerialList> serials = new HashMap<>();
+    int num = load(serials, sqlAll, null);
+
+    Map<Integer, IssuerSet> newIssuers = new HashMap<>();
+    for (Integer issuerId : serials.keySet()) {
+      SerialList list = serials.get(issuerId);
+      newIssuers.put(issuerId, EMPTY.with(list.serials, list.size));
+    }
+
+    this.issuers = Collections.unmodifiableMap(newIssuers);
+    this.lastSyncTime = start / 1000;
+    LOG.info("loaded {} revoked serial numbers into memory in {} ms", num,
+        System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Adds the serial numbers of the certificates revoked since the last synchronization.
+   * @throws DataAccessException if database error occurs.
+   */
+  synchronized void update() throws DataAccessException {
+    Map<Integer, IssuerSet> current = issuers;
+    if (current == null) {
+      reload();
+      return;
+    }
+
+    long start = System.currentTimeMillis();
+    Map<Integer, SerialList> serials = new HashMap<>();
+    int num = load(serials, sqlChanged, lastSyncTime - LUPDATE_OVERLAP_SECONDS);
+
+    if (!serials.isEmpty()) {
+      // copy-on-write, the lookups are lock-free and revocations are rare.
+      Map<Integer, IssuerSet> newIssuers = new HashMap<>(current);
+      for (Integer issuerId : serials.keySet()) {
+        SerialList list = serials.get(issuerId);
+        IssuerSet issuerSet = newIssuers.get(issuerId);
+        if (issuerSet == null) {
+          issuerSet = EMPTY;
+        }
+        newIssuers.put(issuerId, issuerSet.with(list.serials, list.size));
+      }
+      this.issuers = Collections.unmodifiableMap(newIssuers);
+    }
+
+    this.lastSyncTime = start / 1000;
+    LOG.debug("applied {} changed revoked serial numbers", num);
+  }
+
+  private int load(Map<Integer, SerialList> serials, String sql, Long minLastUpdate)
+      throws DataAccessException {
+    Connection conn = datasource.getConnection();
+    PreparedStatement ps = null;
+    ResultSet rs = null;
+    int num = 0;
+    try {
+      ps = datasource.prepareStatement(conn, sql);
+      long id = 0;
+      while (true) {
+        ps.setLong(1, id);
+        if (minLastUpdate != null) {
+          ps.setLong(2, minLastUpdate);
+        }
+
+        rs = ps.executeQuery();
+        int numInQuery = 0;
+        while (rs.next()) {
+          numInQuery++;
+          id = rs.getLong("ID");
+          int issuerId = rs.getInt("IID");
+          String sn = rs.getString("SN");
+
+          BigInteger serial;
+          try {
+            serial = new BigInteger(sn, 16);
+          } catch (NumberFormatException ex) {
+            LOG.warn("ignored certificate with invalid serial number {}", sn);
+            continue;
+          }
+
+          // serial numbers longer than 192 bits are always looked up in the database
+          if (serial.signum() != 1 || serial.bitLength() > 192) {
+            continue;
+          }
+
+          SerialList list = serials.get(issuerId);
+          if (list == null) {
+            list = new SerialList();
+            serials.put(issuerId, list);
+          }
+
+          list.add(serial.shiftRight(128).longValue(), serial.shiftRight(64).longValue(),
+              serial.longValue());
+          num++;
+        }
+        rs.close();
+        rs = null;
+
+        if (numInQuery < ROWS_PER_QUERY) {
+          break;
+        }
+      }
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      datasource.releaseResources(ps, rs);
+    }
+
+    return num;
+  }
+
+  @Override
+  public String toString() {
+    Map<Integer, IssuerSet> map = issuers;
+    if (map == null) {
+      return "RevokedSerialSet[not loaded]";
+    }
+
+    int num = 0;
+    for (IssuerSet m : map.values()) {
+      num += m.size();
+    }
+    return "RevokedSerialSet[issuers=" + map.size() + ",revokedCertificates=" + num + "]";
+  }
+
+}
@@ -38,10 +38,22 @@ class StoreConf {
 
   private static final String KEY_cacerts_excludes = "cacerts.excludes";
 
+  private static final String KEY_inmemory_enabled = "inmemory.enabled";
+
+  private static final String KEY_inmemory_fullreload_interval = "inmemory.fullreload.interval";
+
+  private static final String KEY_revokedset_enabled = "revokedset.enabled";
+
   private final Set<String> caCertsIncludes = new HashSet<>();
 
   private final Set<String> caCertsExcludes = new HashSet<>();
 
+  private final boolean inMemory;
+
+  private final int inMemoryFullReloadInterval;
+
+  private final boolean revokedSet;
+
   StoreConf(String propsConf) throws OcspStoreException {
     Properties props = new Properties();
     try {
@@ -65,6 +77,17 @@ class StoreConf {
         caCertsExcludes.add(st.nextToken());
       }
     }
+
+    inMemory = Boolean.parseBoolean(props.getProperty(KEY_inmemory_enabled, "false"));
+
+    str = props.getProperty(KEY_inmemory_fullreload_interval, "1440");
+    try {
+      inMemoryFullReloadInterval = Integer.parseInt(str.trim());
+    } catch (NumberFormatException ex) {
+      throw new OcspStoreException("invalid " + KEY_inmemory_fullreload_interval + ": " + str);
+    }
+
+    revokedSet = Boolean.parseBoolean(props.getProperty(KEY_revokedset_enabled, "false"));
   }
 
   Set<String> getCaCertsIncludes() {
@@ -75,4 +98,26 @@ class StoreConf {
     return caCertsExcludes;
   }
 
+  boolean isInMemory() {
+    return inMemory;
+  }
+
+  /**
+   * Returns the interval in minutes to reload all certificates into memory.
+   * @return the interval in minutes, 0 or negative to reload only once.
+   */
+  int getInMemoryFullReloadInterval() {
+    return inMemoryFullReloadInterval;
+  }
+
+  /**
+   * Whether only the serial numbers of the revoked certificates are kept in memory. This is
+   * used only if the certificate status is not kept completely in memory, and the same full
+   * reload interval applies.
+   * @return whether the set of revoked serial numbers is kept in memory.
+   */
+  boolean isRevokedSet() {
+    return revokedSet;
+  }
+
 }
@@ -36,7 +36,7 @@ public class ResponseData extends ASN1Type {
 
   private final Date producedAt;
 
-  private final List<SingleResponse> responses;
+  private final List<? extends ASN1Type> responses;
 
   private final Extensions extensions;
 
@@ -45,7 +45,7 @@ public class ResponseData extends ASN1Type {
   private final int encodedLength;
 
   public ResponseData(int version, ResponderID responderId, Date producedAt,
-      List<SingleResponse> responses, Extensions extensions) {
+      List<? extends ASN1Type> responses, Extensions extensions) {
     if (version < 0 || version > 127) {
       throw new IllegalArgumentException("invalid version: " + version);
     }
@@ -66,7 +66,7 @@ public class ResponseData extends ASN1Type {
 
     // responses
     int responsesBodyLen = 0;
-    for (SingleResponse sr : responses) {
+    for (ASN1Type sr : responses) {
       responsesBodyLen += sr.getEncodedLength();
     }
     len += getLen(responsesBodyLen);
@@ -102,11 +102,11 @@ public class ResponseData extends ASN1Type {
 
     // responses
     int responsesBodyLen = 0;
-    for (SingleResponse sr : responses) {
+    for (ASN1Type sr : responses) {
       responsesBodyLen += sr.getEncodedLength();
     }
     idx += writeHeader((byte) 0x30, responsesBodyLen, out, idx);
-    for (SingleResponse sr : responses) {
+    for (ASN1Type sr : responses) {
       idx += sr.write(out, idx);
     }
 
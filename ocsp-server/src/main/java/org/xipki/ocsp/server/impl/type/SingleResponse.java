@@ -72,6 +72,18 @@ public class SingleResponse extends ASN1Type {
     return encodedLength;
   }
 
+  /**
+   * Returns the offset of the field thisUpdate in the encoded SingleResponse.
+   * @return the offset of thisUpdate.
+   */
+  public int getThisUpdateOffset() {
+    return (encodedLength - bodyLength) + certId.getEncodedLength() + certStatus.length;
+  }
+
+  public boolean hasNextUpdate() {
+    return nextUpdate != null;
+  }
+
   @Override
   public int write(byte[] out, int offset) {
     int idx = offset;
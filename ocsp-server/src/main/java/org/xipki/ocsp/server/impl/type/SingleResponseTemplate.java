@@ -0,0 +1,130 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.type;
+
+import java.util.Date;
+
+import org.xipki.common.ASN1Type;
+import org.xipki.common.util.ParamUtil;
+
+/**
+ * Encoded SingleResponse whose time fields thisUpdate, nextUpdate and, if present, the
+ * archiveCutoff are patched in at fixed offsets. All time fields are encoded as
+ * GeneralizedTime of 17 bytes, so that the offsets do not depend on the time.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class SingleResponseTemplate {
+
+  private static final class Instance extends ASN1Type {
+
+    private final SingleResponseTemplate template;
+
+    private final Date thisUpdate;
+
+    private final Date nextUpdate;
+
+    private final Date archiveCutoff;
+
+    Instance(SingleResponseTemplate template, Date thisUpdate, Date nextUpdate,
+        Date archiveCutoff) {
+      this.template = template;
+      this.thisUpdate = thisUpdate;
+      this.nextUpdate = nextUpdate;
+      this.archiveCutoff = archiveCutoff;
+    }
+
+    @Override
+    public int getEncodedLength() {
+      return template.encoded.length;
+    }
+
+    @Override
+    public int write(byte[] out, int offset) {
+      byte[] encoded = template.encoded;
+      System.arraycopy(encoded, 0, out, offset, encoded.length);
+      writeGeneralizedTime(thisUpdate, out, offset + template.thisUpdateOffset);
+      if (template.nextUpdateOffset != -1) {
+        writeGeneralizedTime(nextUpdate, out, offset + template.nextUpdateOffset);
+      }
+      if (template.archiveCutoffOffset != -1) {
+        writeGeneralizedTime(archiveCutoff, out, offset + template.archiveCutoffOffset);
+      }
+      return encoded.length;
+    }
+
+  } // class Instance
+
+  private final byte[] encoded;
+
+  private final int thisUpdateOffset;
+
+  private final int nextUpdateOffset;
+
+  private final int archiveCutoffOffset;
+
+  /**
+   * Constructor.
+   * @param singleResponse the SingleResponse.
+   * @param archiveCutoffLast
+   *          whether the last extension of the singleResponse is the ArchiveCutoff.
+   */
+  public SingleResponseTemplate(SingleResponse singleResponse, boolean archiveCutoffLast) {
+    ParamUtil.requireNonNull("singleResponse", singleResponse);
+    this.encoded = new byte[singleResponse.getEncodedLength()];
+    singleResponse.write(encoded, 0);
+
+    this.thisUpdateOffset = singleResponse.getThisUpdateOffset();
+    // nextUpdate is preceded by the 2-byte header of the explicit tag
+    this.nextUpdateOffset = singleResponse.hasNextUpdate() ? thisUpdateOffset + 17 + 2 : -1;
+    // the time is the last field of the extension ArchiveCutoff
+    this.archiveCutoffOffset = archiveCutoffLast ? encoded.length - 17 : -1;
+  }
+
+  public boolean hasNextUpdate() {
+    return nextUpdateOffset != -1;
+  }
+
+  public boolean hasArchiveCutoff() {
+    return archiveCutoffOffset != -1;
+  }
+
+  /**
+   * Returns the SingleResponse with the given time fields.
+   * @param thisUpdate thisUpdate, must not be {@code null}.
+   * @param nextUpdate nextUpdate, must be present if and only if the template has nextUpdate.
+   * @param archiveCutoff archiveCutoff, must be present if and only if the template has
+   *          archiveCutoff.
+   * @return the SingleResponse.
+   */
+  public ASN1Type newResponse(Date thisUpdate, Date nextUpdate, Date archiveCutoff) {
+    ParamUtil.requireNonNull("thisUpdate", thisUpdate);
+    if (hasNextUpdate() != (nextUpdate != null)) {
+      throw new IllegalArgumentException("nextUpdate does not match the template");
+    }
+
+    if (hasArchiveCutoff() != (archiveCutoff != null)) {
+      throw new IllegalArgumentException("archiveCutoff does not match the template");
+    }
+
+    return new Instance(this, thisUpdate, nextUpdate, archiveCutoff);
+  }
+
+}
@@ -0,0 +1,162 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests of {@link LatencyHistogram}.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testEmpty() {
+    Assert.assertEquals("{\"count\":0}", toJson(new LatencyHistogram()));
+  }
+
+  @Test
+  public void testSmallValuesExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10; i++) {
+      histogram.record(i * 1000L);
+    }
+
+    String json = toJson(histogram);
+    Assert.assertEquals("count", 10, getValue(json, "count"));
+    Assert.assertEquals("meanUs", 5, getValue(json, "meanUs"));
+    Assert.assertEquals("p50Us", 5, getValue(json, "p50Us"));
+    Assert.assertEquals("p90Us", 9, getValue(json, "p90Us"));
+    Assert.assertEquals("p99Us", 10, getValue(json, "p99Us"));
+    Assert.assertEquals("maxUs", 10, getValue(json, "maxUs"));
+  }
+
+  @Test
+  public void testRelativeError() {
+    long[] values = {15, 16, 17, 31, 32, 33, 100, 1000, 1023, 1024, 1025, 123456,
+      1L << 30, (1L << 40) - 1};
+    for (long value : values) {
+      LatencyHistogram histogram = new LatencyHistogram();
+      histogram.record(value * 1000);
+      String json = toJson(histogram);
+
+      long p50 = getValue(json, "p50Us");
+      Assert.assertTrue("p50Us " + p50 + " < " + value, p50 >= value);
+      Assert.assertTrue("p50Us " + p50 + " too large for " + value,
+          p50 <= value + value / 16);
+      Assert.assertEquals("maxUs", value, getValue(json, "maxUs"));
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000L);
+    }
+
+    String json = toJson(histogram);
+    Assert.assertEquals("count", 1000, getValue(json, "count"));
+    Assert.assertEquals("meanUs", 500, getValue(json, "meanUs"));
+    assertWithin("p50Us", 500, getValue(json, "p50Us"));
+    assertWithin("p90Us", 900, getValue(json, "p90Us"));
+    assertWithin("p99Us", 990, getValue(json, "p99Us"));
+    assertWithin("p999Us", 999, getValue(json, "p999Us"));
+    Assert.assertEquals("maxUs", 1000, getValue(json, "maxUs"));
+  }
+
+  @Test
+  public void testSubMicrosecondAndNegative() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(999);
+    histogram.record(-5000);
+
+    String json = toJson(histogram);
+    Assert.assertEquals("count", 2, getValue(json, "count"));
+    Assert.assertEquals("p999Us", 0, getValue(json, "p999Us"));
+    Assert.assertEquals("maxUs", 0, getValue(json, "maxUs"));
+  }
+
+  @Test
+  public void testOverflow() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    long micros = 1L << 50;
+    histogram.record(micros * 1000);
+
+    String json = toJson(histogram);
+    Assert.assertEquals("count", 1, getValue(json, "count"));
+    Assert.assertTrue("p50Us", getValue(json, "p50Us") >= (1L << 40) - 1);
+    Assert.assertEquals("maxUs", micros, getValue(json, "maxUs"));
+  }
+
+  @Test
+  public void testConcurrentRecords() throws Exception {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    final int numThreads = 4;
+    final int numRecords = 10000;
+
+    List<Thread> threads = new ArrayList<>(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      final int offset = i;
+      Thread thread = new Thread(() -> {
+        for (int j = 0; j < numRecords; j++) {
+          histogram.record((offset + j % 100) * 1000L);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    String json = toJson(histogram);
+    Assert.assertEquals("count", numThreads * numRecords, histogram.getCount());
+    Assert.assertEquals("count", numThreads * numRecords, getValue(json, "count"));
+    Assert.assertEquals("maxUs", numThreads - 1 + 99, getValue(json, "maxUs"));
+  }
+
+  private static void assertWithin(String name, long expected, long actual) {
+    Assert.assertTrue(name + " " + actual + " < " + expected, actual >= expected);
+    Assert.assertTrue(name + " " + actual + " too large for " + expected,
+        actual <= expected + expected / 16);
+  }
+
+  private static String toJson(LatencyHistogram histogram) {
+    StringBuilder sb = new StringBuilder();
+    histogram.appendJson(sb);
+    return sb.toString();
+  }
+
+  private static long getValue(String json, String name) {
+    Matcher matcher = Pattern.compile("\"" + name + "\":(-?\\d+)").matcher(json);
+    Assert.assertTrue("no " + name + " in " + json, matcher.find());
+    return Long.parseLong(matcher.group(1));
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl;
+
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test of the evaluation of the batch update counts in {@link ResponseCacheWriter}.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class ResponseCacheWriterTest {
+
+  @Test
+  public void testAllUpdated() {
+    Assert.assertEquals(Collections.emptyList(),
+        ResponseCacheWriter.getNotUpdatedIndexes(new int[]{1, 1, 1}, 3));
+  }
+
+  @Test
+  public void testNotUpdated() {
+    Assert.assertEquals(Arrays.asList(0, 2),
+        ResponseCacheWriter.getNotUpdatedIndexes(new int[]{0, 1, Statement.EXECUTE_FAILED}, 3));
+  }
+
+  @Test
+  public void testSuccessNoInfo() {
+    Assert.assertNull(ResponseCacheWriter.getNotUpdatedIndexes(
+        new int[]{1, Statement.SUCCESS_NO_INFO, 0}, 3));
+    Assert.assertNull(ResponseCacheWriter.getNotUpdatedIndexes(
+        new int[]{Statement.SUCCESS_NO_INFO, Statement.SUCCESS_NO_INFO}, 2));
+  }
+
+  @Test
+  public void testUnmatchedLength() {
+    Assert.assertNull(ResponseCacheWriter.getNotUpdatedIndexes(new int[]{1, 1}, 3));
+    Assert.assertNull(ResponseCacheWriter.getNotUpdatedIndexes(null, 3));
+  }
+
+}
@@ -0,0 +1,404 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.store.crl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERSet;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.DERUTF8String;
+import org.bouncycastle.asn1.ocsp.CrlID;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Certificate;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.ExtensionsGenerator;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.cert.X509CRLHolder;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xipki.common.util.Base64;
+import org.xipki.ocsp.server.impl.store.crl.CrlStreamParser.CrlCert;
+import org.xipki.ocsp.server.impl.store.crl.CrlStreamParser.CrlCertIterator;
+import org.xipki.ocsp.server.impl.store.crl.CrlStreamParser.RevokedCert;
+import org.xipki.ocsp.server.impl.store.crl.CrlStreamParser.RevokedCertIterator;
+import org.xipki.security.ObjectIdentifiers;
+
+/**
+ * Tests of {@link CrlStreamParser} with CRLs built by BouncyCastle.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class CrlStreamParserTest {
+
+  private static final X500Name ISSUER = new X500Name("CN=CRL Issuer,O=Example,C=DE");
+
+  private static final X500Name OTHER_ISSUER = new X500Name("CN=Other CA,O=Example,C=DE");
+
+  private static final Date THIS_UPDATE = new Date(1514764800000L); // 2018-01-01T00:00:00Z
+
+  private static final Date NEXT_UPDATE = new Date(1515369600000L); // 2018-01-08T00:00:00Z
+
+  private static final Date REVOCATION_DATE = new Date(1514678400000L);
+
+  private static final Date INVALIDITY_DATE = new Date(1514592000000L);
+
+  private static KeyPair keyPair;
+
+  private static KeyPair otherKeyPair;
+
+  private static final List<File> files = new ArrayList<>();
+
+  @BeforeClass
+  public static void init() throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("EC");
+    kpGen.initialize(256);
+    keyPair = kpGen.generateKeyPair();
+    otherKeyPair = kpGen.generateKeyPair();
+  }
+
+  @AfterClass
+  public static void cleanup() {
+    for (File file : files) {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testEmptyCrl() throws Exception {
+    X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+    File file = writeCrl(builder, false);
+
+    try (CrlStreamParser parser = new CrlStreamParser(file)) {
+      Assert.assertEquals("issuer", ISSUER, parser.getIssuer());
+      Assert.assertEquals("thisUpdate", THIS_UPDATE, parser.getThisUpdate());
+      Assert.assertNull("nextUpdate", parser.getNextUpdate());
+      Assert.assertNull("crlNumber", parser.getCrlNumber());
+      Assert.assertFalse("deltaCrl", parser.isDeltaCrl());
+      Assert.assertFalse("hasCrlCertSet", parser.hasCrlCertSet());
+      Assert.assertTrue("signature", parser.verifySignature(keyPair.getPublic()));
+
+      try (RevokedCertIterator it = parser.revokedCertificates()) {
+        Assert.assertFalse("revoked certificates", it.hasNext());
+      }
+
+      try (CrlCertIterator it = parser.crlCerts()) {
+        Assert.assertFalse("CRL certificates", it.hasNext());
+      }
+    }
+  }
+
+  @Test
+  public void testCrlEntries() throws Exception {
+    X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+    builder.setNextUpdate(NEXT_UPDATE);
+    builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(100));
+
+    // plain entry
+    builder.addCRLEntry(BigInteger.valueOf(1), REVOCATION_DATE, CRLReason.unspecified);
+
+    // entry with reason and invalidity date
+    builder.addCRLEntry(BigInteger.valueOf(2), REVOCATION_DATE, CRLReason.keyCompromise,
+        INVALIDITY_DATE);
+
+    // entry of another issuer (indirect CRL), applies to the following entries too
+    ExtensionsGenerator extnGen = new ExtensionsGenerator();
+    extnGen.addExtension(Extension.certificateIssuer, true,
+        new GeneralNames(new GeneralName(OTHER_ISSUER)));
+    builder.addCRLEntry(BigInteger.valueOf(3), REVOCATION_DATE, extnGen.generate());
+    builder.addCRLEntry(BigInteger.valueOf(4), REVOCATION_DATE, CRLReason.superseded);
+
+    // back to the CRL issuer
+    extnGen = new ExtensionsGenerator();
+    extnGen.addExtension(Extension.certificateIssuer, true,
+        new GeneralNames(new GeneralName(ISSUER)));
+    builder.addCRLEntry(BigInteger.valueOf(5), REVOCATION_DATE, extnGen.generate());
+
+    // serial number with the high bit set
+    BigInteger serial6 = BigInteger.ONE.shiftLeft(159);
+    builder.addCRLEntry(serial6, REVOCATION_DATE, CRLReason.cessationOfOperation);
+
+    File file = writeCrl(builder, false);
+    try (CrlStreamParser parser = new CrlStreamParser(file)) {
+      Assert.assertEquals("nextUpdate", NEXT_UPDATE, parser.getNextUpdate());
+      Assert.assertEquals("crlNumber", BigInteger.valueOf(100), parser.getCrlNumber());
+      Assert.assertFalse("deltaCrl", parser.isDeltaCrl());
+      Assert.assertNotNull("extension CRLNumber", parser.getExtensionValue(Extension.cRLNumber));
+      Assert.assertNull("extension DeltaCRLIndicator",
+          parser.getExtensionValue(Extension.deltaCRLIndicator));
+
+      try (RevokedCertIterator it = parser.revokedCertificates()) {
+        assertRevokedCert(it.next(), BigInteger.valueOf(1), CRLReason.unspecified, null, null);
+        assertRevokedCert(it.next(), BigInteger.valueOf(2), CRLReason.keyCompromise,
+            INVALIDITY_DATE, null);
+        assertRevokedCert(it.next(), BigInteger.valueOf(3), 0, null, OTHER_ISSUER);
+        assertRevokedCert(it.next(), BigInteger.valueOf(4), CRLReason.superseded, null,
+            OTHER_ISSUER);
+        assertRevokedCert(it.next(), BigInteger.valueOf(5), 0, null, null);
+        assertRevokedCert(it.next(), serial6, CRLReason.cessationOfOperation, null, null);
+        Assert.assertFalse("more revoked certificates", it.hasNext());
+      }
+    }
+  }
+
+  @Test
+  public void testDeltaCrl() throws Exception {
+    X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+    builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(101));
+    builder.addExtension(Extension.deltaCRLIndicator, true, new ASN1Integer(100));
+    builder.addCRLEntry(BigInteger.TEN, REVOCATION_DATE, CRLReason.removeFromCRL);
+
+    File file = writeCrl(builder, false);
+    try (CrlStreamParser parser = new CrlStreamParser(file)) {
+      Assert.assertTrue("deltaCrl", parser.isDeltaCrl());
+      Assert.assertEquals("crlNumber", BigInteger.valueOf(101), parser.getCrlNumber());
+      Assert.assertEquals("baseCrlNumber", BigInteger.valueOf(100), parser.getBaseCrlNumber());
+      Assert.assertTrue("deltaCrlOf(100)", parser.isDeltaCrlOf(BigInteger.valueOf(100)));
+
+      try (RevokedCertIterator it = parser.revokedCertificates()) {
+        assertRevokedCert(it.next(), BigInteger.TEN, CRLReason.removeFromCRL, null, null);
+        Assert.assertFalse("more revoked certificates", it.hasNext());
+      }
+    }
+  }
+
+  @Test
+  public void testStaleDeltaCrl() throws Exception {
+    // full CRL 102 has been published, but the delta CRL of the full CRL 100 is still there
+    X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+    builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(102));
+    File fullFile = writeCrl(builder, false);
+
+    builder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+    builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(101));
+    builder.addExtension(Extension.deltaCRLIndicator, true, new ASN1Integer(100));
+    File deltaFile = writeCrl(builder, false);
+
+    BigInteger fullCrlNumber;
+    try (CrlStreamParser parser = new CrlStreamParser(fullFile)) {
+      Assert.assertFalse("deltaCrl", parser.isDeltaCrl());
+      Assert.assertFalse("full CRL is deltaCrlOf", parser.isDeltaCrlOf(null));
+      fullCrlNumber = parser.getCrlNumber();
+    }
+
+    try (CrlStreamParser parser = new CrlStreamParser(deltaFile)) {
+      Assert.assertTrue("deltaCrl", parser.isDeltaCrl());
+      Assert.assertFalse("stale delta CRL is deltaCrlOf", parser.isDeltaCrlOf(fullCrlNumber));
+    }
+  }
+
+  @Test
+  public void testLargeCrl() throws Exception {
+    // more than 64 KiB, larger than the buffer of the parser
+    final int num = 10000;
+    X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+    for (int i = 0; i < num; i++) {
+      builder.addCRLEntry(BigInteger.valueOf(1000000L + i), REVOCATION_DATE,
+          CRLReason.keyCompromise);
+    }
+
+    File file = writeCrl(builder, false);
+    Assert.assertTrue("CRL size", file.length() > 65536);
+
+    try (CrlStreamParser parser = new CrlStreamParser(file)) {
+      Assert.assertTrue("signature", parser.verifySignature(keyPair.getPublic()));
+      Assert.assertFalse("signature with other key",
+          parser.verifySignature(otherKeyPair.getPublic()));
+
+      int count = 0;
+      try (RevokedCertIterator it = parser.revokedCertificates()) {
+        while (it.hasNext()) {
+          RevokedCert revokedCert = it.next();
+          Assert.assertEquals("serialNumber", BigInteger.valueOf(1000000L + count),
+              revokedCert.getSerialNumber());
+          count++;
+        }
+      }
+      Assert.assertEquals("number of revoked certificates", num, count);
+    }
+  }
+
+  @Test
+  public void testPemCrl() throws Exception {
+    X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+    builder.addCRLEntry(BigInteger.ONE, REVOCATION_DATE, CRLReason.keyCompromise);
+
+    File file = writeCrl(builder, true);
+    try (CrlStreamParser parser = new CrlStreamParser(file)) {
+      Assert.assertEquals("issuer", ISSUER, parser.getIssuer());
+      Assert.assertTrue("signature", parser.verifySignature(keyPair.getPublic()));
+      try (RevokedCertIterator it = parser.revokedCertificates()) {
+        assertRevokedCert(it.next(), BigInteger.ONE, CRLReason.keyCompromise, null, null);
+        Assert.assertFalse("more revoked certificates", it.hasNext());
+      }
+    }
+  }
+
+  @Test
+  public void testCrlCertSet() throws Exception {
+    Certificate cert = newCertificate(BigInteger.valueOf(7));
+
+    ASN1EncodableVector certSet = new ASN1EncodableVector();
+    // with certificate and profile name
+    ASN1EncodableVector entry = new ASN1EncodableVector();
+    entry.add(new ASN1Integer(7));
+    entry.add(new DERTaggedObject(true, 0, cert));
+    entry.add(new DERTaggedObject(true, 1, new DERUTF8String("tls")));
+    certSet.add(new DERSequence(entry));
+    // serial number only
+    entry = new ASN1EncodableVector();
+    entry.add(new ASN1Integer(8));
+    certSet.add(new DERSequence(entry));
+
+    X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+    builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(1));
+    builder.addExtension(ObjectIdentifiers.id_xipki_ext_crlCertset, false,
+        new DERSet(certSet));
+    builder.addCRLEntry(BigInteger.ONE, REVOCATION_DATE, CRLReason.keyCompromise);
+
+    File file = writeCrl(builder, false);
+    try (CrlStreamParser parser = new CrlStreamParser(file)) {
+      Assert.assertTrue("hasCrlCertSet", parser.hasCrlCertSet());
+      Assert.assertNull("extension Xipki-CrlCertSet",
+          parser.getExtensionValue(ObjectIdentifiers.id_xipki_ext_crlCertset));
+      Assert.assertEquals("crlNumber", BigInteger.ONE, parser.getCrlNumber());
+
+      try (CrlCertIterator it = parser.crlCerts()) {
+        // DER SET is sorted, the entry with serial 8 is shorter and comes first
+        List<CrlCert> crlCerts = new ArrayList<>(2);
+        while (it.hasNext()) {
+          crlCerts.add(it.next());
+        }
+        Assert.assertEquals("number of CRL certificates", 2, crlCerts.size());
+
+        for (CrlCert crlCert : crlCerts) {
+          if (BigInteger.valueOf(7).equals(crlCert.getSerialNumber())) {
+            Assert.assertEquals("certificate", cert, crlCert.getCert());
+            Assert.assertEquals("profileName", "tls", crlCert.getProfileName());
+          } else {
+            Assert.assertEquals("serialNumber", BigInteger.valueOf(8),
+                crlCert.getSerialNumber());
+            Assert.assertNull("certificate", crlCert.getCert());
+            Assert.assertNull("profileName", crlCert.getProfileName());
+          }
+        }
+      }
+
+      try (RevokedCertIterator it = parser.revokedCertificates()) {
+        assertRevokedCert(it.next(), BigInteger.ONE, CRLReason.keyCompromise, null, null);
+        Assert.assertFalse("more revoked certificates", it.hasNext());
+      }
+    }
+  }
+
+  @Test
+  public void testBuildCrlId() throws Exception {
+    X509v2CRLBuilder builder = new X509v2CRLBuilder(ISSUER, THIS_UPDATE);
+    builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(5));
+    File file = writeCrl(builder, false);
+
+    try (CrlStreamParser parser = new CrlStreamParser(file)) {
+      CrlID crlId = parser.buildCrlId("http://example.org/crl");
+      Assert.assertEquals("crlUrl", "http://example.org/crl", crlId.getCrlUrl().getString());
+      Assert.assertEquals("crlNum", BigInteger.valueOf(5), crlId.getCrlNum().getValue());
+      Assert.assertEquals("crlTime", THIS_UPDATE, crlId.getCrlTime().getDate());
+
+      crlId = parser.buildCrlId(null);
+      Assert.assertNull("crlUrl", crlId.getCrlUrl());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalidCrl() throws Exception {
+    File file = newTempFile();
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[]{0x30, 0x03, 0x02, 0x01, 0x01});
+    }
+
+    new CrlStreamParser(file).close();
+  }
+
+  private static void assertRevokedCert(RevokedCert revokedCert, BigInteger serialNumber,
+      int reason, Date invalidityDate, X500Name certificateIssuer) {
+    String desc = "CRL entry " + serialNumber;
+    Assert.assertEquals(desc + " serialNumber", serialNumber, revokedCert.getSerialNumber());
+    Assert.assertEquals(desc + " revocationDate", REVOCATION_DATE,
+        revokedCert.getRevocationDate());
+    Assert.assertEquals(desc + " reason", reason, revokedCert.getReason());
+    Assert.assertEquals(desc + " invalidityDate", invalidityDate,
+        revokedCert.getInvalidityDate());
+    Assert.assertEquals(desc + " certificateIssuer", certificateIssuer,
+        revokedCert.getCertificateIssuer());
+  }
+
+  private static File writeCrl(X509v2CRLBuilder builder, boolean pem) throws Exception {
+    X509CRLHolder crl = builder.build(newSigner());
+    File file = newTempFile();
+    try (OutputStream out = new FileOutputStream(file)) {
+      if (pem) {
+        String b64 = Base64.encodeToString(crl.getEncoded(), true);
+        out.write(("-----BEGIN X509 CRL-----\n" + b64 + "\n-----END X509 CRL-----\n")
+            .getBytes("UTF-8"));
+      } else {
+        out.write(crl.getEncoded());
+      }
+    }
+    return file;
+  }
+
+  private static Certificate newCertificate(BigInteger serialNumber) throws Exception {
+    X509v3CertificateBuilder builder = new X509v3CertificateBuilder(OTHER_ISSUER,
+        serialNumber, THIS_UPDATE, NEXT_UPDATE, new X500Name("CN=EE"),
+        SubjectPublicKeyInfo.getInstance(otherKeyPair.getPublic().getEncoded()));
+    return builder.build(newSigner()).toASN1Structure();
+  }
+
+  private static ContentSigner newSigner() throws Exception {
+    return new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate());
+  }
+
+  private static File newTempFile() throws IOException {
+    File file = File.createTempFile("crl-test-", ".crl");
+    file.deleteOnExit();
+    files.add(file);
+    return file;
+  }
+
+}
@@ -0,0 +1,252 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.store.crl;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.security.CrlReason;
+
+/**
+ * Tests of {@link RevokedCertTable}, compared with a {@link TreeMap}.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class RevokedCertTableTest {
+
+  private static final int REMOVE_FROM_CRL = CrlReason.REMOVE_FROM_CRL.getCode();
+
+  /**
+   * Reason, revocation time and invalidity time of an entry.
+   */
+  private static final class Entry {
+
+    private final int reason;
+
+    private final long revTime;
+
+    private final long invalidityTime;
+
+    private Entry(int reason, long revTime, long invalidityTime) {
+      this.reason = reason;
+      this.revTime = revTime;
+      this.invalidityTime = invalidityTime;
+    }
+
+  } // class Entry
+
+  @Test
+  public void testEmpty() {
+    RevokedCertTable table = new RevokedCertTable.Builder(0).build();
+    Assert.assertEquals("size", 0, table.size());
+    Assert.assertEquals("indexOf", -1, table.indexOf(BigInteger.ONE));
+
+    table = RevokedCertTable.empty();
+    Assert.assertEquals("size", 0, table.size());
+    Assert.assertEquals("indexOf", -1, table.indexOf(BigInteger.ONE));
+  }
+
+  @Test
+  public void testUnsupportedSerials() {
+    RevokedCertTable.Builder builder = new RevokedCertTable.Builder(1);
+    Assert.assertFalse("zero", builder.add(BigInteger.ZERO, 1, 1, 0));
+    Assert.assertFalse("negative", builder.add(BigInteger.ONE.negate(), 1, 1, 0));
+    Assert.assertFalse("193 bits", builder.add(BigInteger.ONE.shiftLeft(192), 1, 1, 0));
+    BigInteger max = BigInteger.ONE.shiftLeft(192).subtract(BigInteger.ONE);
+    Assert.assertTrue("192 bits", builder.add(max, 1, 1, 0));
+
+    RevokedCertTable table = builder.build();
+    Assert.assertEquals("size", 1, table.size());
+    Assert.assertEquals("indexOf 192 bits", 0, table.indexOf(max));
+    Assert.assertEquals("indexOf 193 bits", -1, table.indexOf(BigInteger.ONE.shiftLeft(192)));
+  }
+
+  @Test
+  public void testWordBoundaries() {
+    // serial numbers which differ only in one of the three longs, or in the sign bit of it
+    BigInteger[] serials = {BigInteger.ONE, BigInteger.ONE.shiftLeft(63),
+      BigInteger.ONE.shiftLeft(64), BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE),
+      BigInteger.ONE.shiftLeft(127), BigInteger.ONE.shiftLeft(128),
+      BigInteger.ONE.shiftLeft(128).add(BigInteger.ONE), BigInteger.ONE.shiftLeft(191),
+      BigInteger.ONE.shiftLeft(191).add(BigInteger.ONE.shiftLeft(63))};
+
+    Map<BigInteger, Entry> expected = new TreeMap<>();
+    RevokedCertTable.Builder builder = new RevokedCertTable.Builder(serials.length);
+    // add in reverse order
+    for (int i = serials.length - 1; i >= 0; i--) {
+      Entry entry = new Entry(i % 10, 1000 + i, (i % 2 == 0) ? 0 : 500 + i);
+      expected.put(serials[i], entry);
+      Assert.assertTrue("add", builder.add(serials[i], entry.reason, entry.revTime,
+          entry.invalidityTime));
+    }
+
+    RevokedCertTable table = builder.build();
+    assertTable(expected, table);
+
+    Assert.assertEquals("indexOf 2^64+1", -1,
+        table.indexOf(BigInteger.ONE.shiftLeft(64).add(BigInteger.ONE)));
+    Assert.assertEquals("indexOf 2", -1, table.indexOf(BigInteger.valueOf(2)));
+  }
+
+  @Test
+  public void testRandom() {
+    Random rnd = new Random(1);
+    Map<BigInteger, Entry> expected = new TreeMap<>();
+    // the builder grows beyond the initial capacity
+    RevokedCertTable.Builder builder = new RevokedCertTable.Builder(10);
+    for (int i = 0; i < 20000; i++) {
+      BigInteger serial = randomSerial(rnd);
+      Entry entry = new Entry(rnd.nextInt(11), rnd.nextInt(Integer.MAX_VALUE),
+          rnd.nextBoolean() ? 0 : rnd.nextInt(Integer.MAX_VALUE));
+      if (expected.containsKey(serial)) {
+        continue;
+      }
+      expected.put(serial, entry);
+      Assert.assertTrue("add", builder.add(serial, entry.reason, entry.revTime,
+          entry.invalidityTime));
+    }
+
+    RevokedCertTable table = builder.build();
+    assertTable(expected, table);
+
+    for (int i = 0; i < 10000; i++) {
+      BigInteger serial = randomSerial(rnd);
+      if (!expected.containsKey(serial)) {
+        Assert.assertEquals("indexOf " + serial.toString(16), -1, table.indexOf(serial));
+      }
+    }
+  }
+
+  @Test
+  public void testSortedAndDuplicatedInput() {
+    RevokedCertTable.Builder builder = new RevokedCertTable.Builder(100);
+    for (int i = 1; i <= 1000; i++) {
+      builder.add(BigInteger.valueOf(i), 1, i, 0);
+    }
+    // duplicates
+    for (int i = 1; i <= 1000; i += 3) {
+      builder.add(BigInteger.valueOf(i), 1, i, 0);
+    }
+
+    RevokedCertTable table = builder.build();
+    Assert.assertEquals("size", 1000, table.size());
+    for (int i = 1; i <= 1000; i++) {
+      int idx = table.indexOf(BigInteger.valueOf(i));
+      Assert.assertEquals("index of " + i, i - 1, idx);
+      Assert.assertEquals("revTime of " + i, i, table.getRevTime(idx));
+    }
+  }
+
+  @Test
+  public void testMerge() {
+    RevokedCertTable.Builder baseBuilder = new RevokedCertTable.Builder(4);
+    baseBuilder.add(BigInteger.valueOf(1), 1, 100, 0);
+    baseBuilder.add(BigInteger.valueOf(3), 1, 300, 0);
+    baseBuilder.add(BigInteger.valueOf(5), 6, 500, 0); // certificateHold
+    baseBuilder.add(BigInteger.valueOf(7), 1, 700, 0);
+    RevokedCertTable base = baseBuilder.build();
+
+    RevokedCertTable.Builder deltaBuilder = new RevokedCertTable.Builder(4);
+    deltaBuilder.add(BigInteger.valueOf(2), 4, 200, 150); // new entry
+    deltaBuilder.add(BigInteger.valueOf(5), REMOVE_FROM_CRL, 550, 0); // released from hold
+    deltaBuilder.add(BigInteger.valueOf(7), 1, 777, 0); // replaced
+    deltaBuilder.add(BigInteger.valueOf(9), REMOVE_FROM_CRL, 900, 0); // not in the base
+    deltaBuilder.add(BigInteger.valueOf(10), 2, 1000, 0); // new entry
+    RevokedCertTable delta = deltaBuilder.build();
+
+    Map<BigInteger, Entry> expected = new TreeMap<>();
+    expected.put(BigInteger.valueOf(1), new Entry(1, 100, 0));
+    expected.put(BigInteger.valueOf(2), new Entry(4, 200, 150));
+    expected.put(BigInteger.valueOf(3), new Entry(1, 300, 0));
+    expected.put(BigInteger.valueOf(7), new Entry(1, 777, 0));
+    expected.put(BigInteger.valueOf(10), new Entry(2, 1000, 0));
+
+    assertTable(expected, RevokedCertTable.merge(base, delta));
+  }
+
+  @Test
+  public void testMergeRandom() {
+    Random rnd = new Random(2);
+    Map<BigInteger, Entry> expected = new TreeMap<>();
+
+    RevokedCertTable.Builder baseBuilder = new RevokedCertTable.Builder(16);
+    for (int i = 0; i < 5000; i++) {
+      BigInteger serial = BigInteger.valueOf(1 + rnd.nextInt(10000));
+      if (!expected.containsKey(serial)) {
+        Entry entry = new Entry(1 + rnd.nextInt(6), rnd.nextInt(1000000), 0);
+        expected.put(serial, entry);
+        baseBuilder.add(serial, entry.reason, entry.revTime, entry.invalidityTime);
+      }
+    }
+
+    RevokedCertTable.Builder deltaBuilder = new RevokedCertTable.Builder(16);
+    Map<BigInteger, Entry> deltaEntries = new TreeMap<>();
+    for (int i = 0; i < 2000; i++) {
+      BigInteger serial = BigInteger.valueOf(1 + rnd.nextInt(10000));
+      if (!deltaEntries.containsKey(serial)) {
+        int reason = rnd.nextBoolean() ? REMOVE_FROM_CRL : 1 + rnd.nextInt(6);
+        Entry entry = new Entry(reason, rnd.nextInt(1000000), rnd.nextInt(1000));
+        deltaEntries.put(serial, entry);
+        deltaBuilder.add(serial, entry.reason, entry.revTime, entry.invalidityTime);
+      }
+    }
+
+    for (Map.Entry<BigInteger, Entry> deltaEntry : deltaEntries.entrySet()) {
+      if (deltaEntry.getValue().reason == REMOVE_FROM_CRL) {
+        expected.remove(deltaEntry.getKey());
+      } else {
+        expected.put(deltaEntry.getKey(), deltaEntry.getValue());
+      }
+    }
+
+    assertTable(expected,
+        RevokedCertTable.merge(baseBuilder.build(), deltaBuilder.build()));
+  }
+
+  private static void assertTable(Map<BigInteger, Entry> expected, RevokedCertTable table) {
+    Assert.assertEquals("size", expected.size(), table.size());
+    int expectedIdx = 0;
+    for (Map.Entry<BigInteger, Entry> entry : expected.entrySet()) {
+      String desc = "serial " + entry.getKey().toString(16);
+      int idx = table.indexOf(entry.getKey());
+      // entries are sorted by serial number
+      Assert.assertEquals(desc + " index", expectedIdx++, idx);
+      Assert.assertEquals(desc + " reason", entry.getValue().reason, table.getReason(idx));
+      Assert.assertEquals(desc + " revTime", entry.getValue().revTime, table.getRevTime(idx));
+      Assert.assertEquals(desc + " invalidityTime", entry.getValue().invalidityTime,
+          table.getInvalidityTime(idx));
+    }
+  }
+
+  private static BigInteger randomSerial(Random rnd) {
+    // mostly long serial numbers, some short ones to have common prefixes of zeros
+    int bitLen = rnd.nextBoolean() ? 1 + rnd.nextInt(192) : 1 + rnd.nextInt(20);
+    BigInteger serial;
+    do {
+      serial = new BigInteger(bitLen, rnd);
+    } while (serial.signum() == 0);
+    return serial;
+  }
+
+}
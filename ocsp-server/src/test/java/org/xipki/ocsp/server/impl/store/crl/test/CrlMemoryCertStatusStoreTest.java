@@ -0,0 +1,218 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.store.crl.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.cert.X509v2CRLBuilder;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xipki.ocsp.api.CertStatus;
+import org.xipki.ocsp.api.CertStatusInfo;
+import org.xipki.ocsp.api.IssuerEntry;
+import org.xipki.ocsp.api.OcspStoreException;
+import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.ocsp.server.impl.store.crl.CrlMemoryCertStatusStore;
+import org.xipki.security.HashAlgo;
+import org.xipki.security.util.X509Util;
+
+/**
+ * Tests the {@link CrlMemoryCertStatusStore} with CRL files.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class CrlMemoryCertStatusStoreTest {
+
+  private static final X500Name CA_SUBJECT = new X500Name("CN=Test CA,O=Example,C=DE");
+
+  private static final Date THIS_UPDATE = new Date(1514764800000L); // 2018-01-01T00:00:00Z
+
+  private static final Date NEXT_UPDATE = new Date(1515369600000L); // 2018-01-08T00:00:00Z
+
+  private static final Date REVOCATION_DATE = new Date(1514678400000L);
+
+  private static final List<File> files = new ArrayList<>();
+
+  private static KeyPair caKeyPair;
+
+  private static File caCertFile;
+
+  private static RequestIssuer caIssuer;
+
+  private static RequestIssuer otherIssuer;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    if (Security.getProvider("BC") == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("EC");
+    kpGen.initialize(256);
+    caKeyPair = kpGen.generateKeyPair();
+
+    X509v3CertificateBuilder builder = new X509v3CertificateBuilder(CA_SUBJECT, BigInteger.ONE,
+        new Date(THIS_UPDATE.getTime() - 86400000L), new Date(THIS_UPDATE.getTime()
+            + 3650 * 86400000L), CA_SUBJECT,
+        SubjectPublicKeyInfo.getInstance(caKeyPair.getPublic().getEncoded()));
+    byte[] encodedCaCert = builder.build(newSigner()).getEncoded();
+    caCertFile = writeFile(encodedCaCert);
+    X509Certificate caCert = X509Util.parseCert(encodedCaCert);
+    caIssuer = new RequestIssuer(HashAlgo.SHA1,
+        new IssuerEntry(1, caCert).getEncodedHash(HashAlgo.SHA1));
+
+    byte[] otherHash = caIssuer.getData().clone();
+    otherHash[otherHash.length - 1]++;
+    otherIssuer = new RequestIssuer(otherHash);
+  }
+
+  @AfterClass
+  public static void cleanup() {
+    for (File file : files) {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testCrlLoaded() throws Exception {
+    X509v2CRLBuilder builder = newCrlBuilder(1);
+    builder.addCRLEntry(BigInteger.TEN, REVOCATION_DATE, CRLReason.keyCompromise);
+    CrlMemoryCertStatusStore store = newStore(writeFile(builder.build(newSigner()).getEncoded()));
+    try {
+      Assert.assertTrue("healthy", store.isHealthy());
+      Assert.assertTrue("knowsIssuer", store.knowsIssuer(caIssuer));
+      Assert.assertFalse("knowsIssuer of other CA", store.knowsIssuer(otherIssuer));
+
+      CertStatusInfo info = getCertStatus(store, caIssuer, BigInteger.TEN);
+      Assert.assertEquals(CertStatus.REVOKED, info.getCertStatus());
+      Assert.assertEquals(CRLReason.keyCompromise,
+          info.getRevocationInfo().getReason().getCode());
+      Assert.assertEquals(CertStatus.GOOD,
+          getCertStatus(store, caIssuer, BigInteger.valueOf(11)).getCertStatus());
+      Assert.assertNull(getCertStatus(store, otherIssuer, BigInteger.TEN));
+    } finally {
+      store.shutdown();
+    }
+  }
+
+  @Test
+  public void testCrlNotLoaded() throws Exception {
+    File invalidCrlFile = writeFile(new byte[]{0x30, 0x03, 0x02, 0x01, 0x01});
+    CrlMemoryCertStatusStore store = newStore(invalidCrlFile);
+    try {
+      Assert.assertFalse("healthy", store.isHealthy());
+      // the CA is known, so that the status is tryLater instead of unknown issuer
+      Assert.assertTrue("knowsIssuer", store.knowsIssuer(caIssuer));
+      Assert.assertFalse("knowsIssuer of other CA", store.knowsIssuer(otherIssuer));
+      Assert.assertNull(getCertStatus(store, otherIssuer, BigInteger.TEN));
+
+      try {
+        getCertStatus(store, caIssuer, BigInteger.TEN);
+        Assert.fail("OcspStoreException expected");
+      } catch (OcspStoreException ex) {
+        // expected, results in tryLater
+      }
+    } finally {
+      store.shutdown();
+    }
+  }
+
+  @Test
+  public void testUnsupportedSerialNumber() throws Exception {
+    X509v2CRLBuilder builder = newCrlBuilder(1);
+    builder.addCRLEntry(BigInteger.TEN, REVOCATION_DATE, CRLReason.keyCompromise);
+    BigInteger longSerial = BigInteger.ONE.shiftLeft(200).add(BigInteger.ONE);
+    builder.addCRLEntry(longSerial, REVOCATION_DATE, CRLReason.keyCompromise);
+    CrlMemoryCertStatusStore store = newStore(writeFile(builder.build(newSigner()).getEncoded()));
+    try {
+      // the CRL is rejected, the revoked certificate must not be answered good
+      Assert.assertFalse("healthy", store.isHealthy());
+      try {
+        CertStatusInfo info = getCertStatus(store, caIssuer, longSerial);
+        Assert.fail("OcspStoreException expected, but got " + info.getCertStatus());
+      } catch (OcspStoreException ex) {
+        // expected, results in tryLater
+      }
+    } finally {
+      store.shutdown();
+    }
+  }
+
+  private static CrlMemoryCertStatusStore newStore(File crlFile) throws Exception {
+    CrlMemoryCertStatusStore store = new CrlMemoryCertStatusStore();
+    store.setName("test");
+    store.setUnknownSerialAsGood(true);
+    store.init("crl.file=" + crlFile.getAbsolutePath().replace('\\', '/')
+        + "\ncaCert.file=" + caCertFile.getAbsolutePath().replace('\\', '/'), null);
+    return store;
+  }
+
+  private static CertStatusInfo getCertStatus(CrlMemoryCertStatusStore store,
+      RequestIssuer issuer, BigInteger serial) throws OcspStoreException {
+    return store.getCertStatus(new Date(), issuer, serial, false, false, false);
+  }
+
+  private static X509v2CRLBuilder newCrlBuilder(int crlNumber) {
+    X509v2CRLBuilder builder = new X509v2CRLBuilder(CA_SUBJECT, THIS_UPDATE);
+    builder.setNextUpdate(NEXT_UPDATE);
+    try {
+      builder.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+    return builder;
+  }
+
+  private static ContentSigner newSigner() throws Exception {
+    return new JcaContentSignerBuilder("SHA256withECDSA").build(caKeyPair.getPrivate());
+  }
+
+  private static File writeFile(byte[] content) throws IOException {
+    File file = File.createTempFile("xipki-test-", ".der");
+    files.add(file);
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(content);
+    }
+    return file;
+  }
+
+}
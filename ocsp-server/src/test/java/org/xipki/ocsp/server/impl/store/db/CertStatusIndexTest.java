@@ -0,0 +1,327 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.store.db;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.ocsp.server.impl.store.db.CertStatusIndex.Entry;
+import org.xipki.ocsp.server.impl.store.db.MockCertDatabase.CertRow;
+import org.xipki.security.HashAlgo;
+
+/**
+ * Tests the {@link CertStatusIndex} loaded from a {@link MockCertDatabase} against a
+ * {@link HashMap} as reference.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class CertStatusIndexTest {
+
+  private static final int HASH_LEN = HashAlgo.SHA1.getLength();
+
+  private MockCertDatabase db;
+
+  private CertStatusIndex index;
+
+  @Before
+  public void setUp() throws Exception {
+    db = new MockCertDatabase();
+    index = new CertStatusIndex(db.getDataSource(), HashAlgo.SHA1);
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNotLoaded() {
+    Assert.assertFalse(index.isReady());
+    index.get(1, BigInteger.ONE);
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    index.reload();
+    Assert.assertTrue(index.isReady());
+    Assert.assertNull(index.get(1, BigInteger.ONE));
+  }
+
+  @Test
+  public void testBoundaries() throws Exception {
+    BigInteger max192 = BigInteger.ONE.shiftLeft(192).subtract(BigInteger.ONE);
+    BigInteger[] serials = {BigInteger.ONE, BigInteger.valueOf(Long.MAX_VALUE),
+      BigInteger.ONE.shiftLeft(63), BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE),
+      BigInteger.ONE.shiftLeft(64), BigInteger.ONE.shiftLeft(128), BigInteger.ONE.shiftLeft(191),
+      max192};
+
+    Random rnd = new Random(1);
+    List<CertRow> rows = new ArrayList<>(serials.length);
+    for (BigInteger serial : serials) {
+      CertRow row = newRow(rnd, 1, serial);
+      db.put(row);
+      rows.add(row);
+    }
+    index.reload();
+
+    for (int i = 0; i < serials.length; i++) {
+      assertEntry(rows.get(i), index.get(1, serials[i]));
+      Assert.assertNull(index.get(2, serials[i]));
+      Assert.assertNull(index.get(1, serials[i].flipBit(8)));
+    }
+  }
+
+  @Test
+  public void testUnsupportedSerialNumbers() throws Exception {
+    BigInteger serial193 = BigInteger.ONE.shiftLeft(192);
+    db.put(newRow(new Random(2), 1, serial193));
+    db.put(new CertRow(1, "not-hex"));
+    db.put(newRow(new Random(3), 1, BigInteger.TEN));
+    index.reload();
+
+    Assert.assertNull(index.get(1, serial193));
+    assertEntry(newRow(new Random(3), 1, BigInteger.TEN), index.get(1, BigInteger.TEN));
+  }
+
+  @Test
+  public void testUpdateExisting() throws Exception {
+    Random rnd = new Random(2);
+    BigInteger serial = BigInteger.valueOf(4711);
+    db.put(newRow(rnd, 1, serial));
+    index.reload();
+
+    CertRow row2 = newRow(rnd, 1, serial);
+    db.put(row2);
+    index.update();
+    assertEntry(row2, index.get(1, serial));
+    Assert.assertEquals("CertStatusIndex[issuers=1,certificates=1]", index.toString());
+  }
+
+  @Test
+  public void testRevokeAndUnrevoke() throws Exception {
+    CertRow row = new CertRow(1, BigInteger.valueOf(5));
+    row.notBefore = 100;
+    row.notAfter = 200;
+    db.put(row);
+    index.reload();
+    Assert.assertFalse(index.get(1, BigInteger.valueOf(5)).isRevoked());
+
+    row.revoked = true;
+    row.reason = 6;
+    row.revTime = 150;
+    row.invalidityTime = 140;
+    db.put(row);
+    index.update();
+    Entry entry = index.get(1, BigInteger.valueOf(5));
+    Assert.assertTrue(entry.isRevoked());
+    Assert.assertEquals(6, entry.getReason());
+    Assert.assertEquals(150, entry.getRevTime());
+    Assert.assertEquals(140, entry.getInvalidityTime());
+
+    // removal from CRL
+    row.revoked = false;
+    db.put(row);
+    index.update();
+    entry = index.get(1, BigInteger.valueOf(5));
+    Assert.assertFalse(entry.isRevoked());
+    Assert.assertEquals(0, entry.getReason());
+    Assert.assertEquals(0, entry.getRevTime());
+  }
+
+  @Test
+  public void testUpdateReadsChangedRowsOnly() throws Exception {
+    CertRow row = new CertRow(1, BigInteger.ONE);
+    db.put(row);
+    index.reload();
+
+    // changed long before the last synchronization
+    row = new CertRow(1, BigInteger.ONE);
+    row.revoked = true;
+    db.put(row, 1000);
+    db.put(new CertRow(2, BigInteger.ONE), 1000);
+    index.update();
+    Assert.assertFalse(index.get(1, BigInteger.ONE).isRevoked());
+    Assert.assertNull(index.get(2, BigInteger.ONE));
+
+    index.reload();
+    Assert.assertTrue(index.get(1, BigInteger.ONE).isRevoked());
+    Assert.assertNotNull(index.get(2, BigInteger.ONE));
+  }
+
+  @Test
+  public void testCertHash() throws Exception {
+    byte[] hash = new byte[HASH_LEN];
+    hash[0] = 1;
+    hash[HASH_LEN - 1] = 2;
+    CertRow row = new CertRow(1, BigInteger.valueOf(1));
+    row.certHash = hash;
+    db.put(row);
+    // hash with the wrong length is ignored
+    row = new CertRow(1, BigInteger.valueOf(2));
+    row.certHash = new byte[HASH_LEN - 1];
+    db.put(row);
+    db.put(new CertRow(1, BigInteger.valueOf(3)));
+    index.reload();
+
+    Assert.assertArrayEquals(hash, index.get(1, BigInteger.valueOf(1)).getCertHash());
+    Assert.assertNull(index.get(1, BigInteger.valueOf(2)).getCertHash());
+    Assert.assertNull(index.get(1, BigInteger.valueOf(3)).getCertHash());
+
+    // the returned hash is a copy
+    index.get(1, BigInteger.valueOf(1)).getCertHash()[0] = 9;
+    Assert.assertArrayEquals(hash, index.get(1, BigInteger.valueOf(1)).getCertHash());
+  }
+
+  @Test
+  public void testRandomAgainstHashMap() throws Exception {
+    Random rnd = new Random(3);
+    Map<Integer, Map<BigInteger, CertRow>> reference = new HashMap<>();
+    List<BigInteger> serials = new ArrayList<>();
+
+    // several updates with more rows than read by one query
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 2500; i++) {
+        int issuerId = 1 + rnd.nextInt(3);
+        BigInteger serial;
+        if (!serials.isEmpty() && rnd.nextInt(5) == 0) {
+          // update of an existing entry
+          serial = serials.get(rnd.nextInt(serials.size()));
+        } else {
+          serial = randomSerial(rnd);
+          serials.add(serial);
+        }
+
+        CertRow row = newRow(rnd, issuerId, serial);
+        db.put(row);
+        reference.computeIfAbsent(issuerId, k -> new HashMap<>()).put(serial, row);
+      }
+
+      if (round == 0) {
+        index.reload();
+      } else {
+        index.update();
+      }
+
+      for (int i = 0; i < 2000; i++) {
+        int issuerId = 1 + rnd.nextInt(3);
+        BigInteger serial = (i % 2 == 0) ? serials.get(rnd.nextInt(serials.size()))
+            : randomSerial(rnd);
+        CertRow row = reference.get(issuerId).get(serial);
+        if (row == null) {
+          Assert.assertNull(index.get(issuerId, serial));
+        } else {
+          assertEntry(row, index.get(issuerId, serial));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testConcurrentReadDuringGrowth() throws Exception {
+    // the first entry is present from the beginning
+    CertRow first = new CertRow(1, BigInteger.ONE);
+    first.notBefore = 10;
+    first.notAfter = 20;
+    db.put(first);
+    index.reload();
+
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicReference<String> error = new AtomicReference<>();
+    Thread reader = new Thread(() -> {
+      while (!done.get()) {
+        Entry entry = index.get(1, BigInteger.ONE);
+        if (entry == null || entry.getNotBefore() != 10 || entry.getNotAfter() != 20) {
+          error.set("lost the entry while the index was growing");
+          return;
+        }
+      }
+    });
+    reader.start();
+
+    final int num = 20000;
+    try {
+      for (int i = 2; i <= num; i++) {
+        CertRow row = new CertRow(1, BigInteger.valueOf(i));
+        row.notBefore = i;
+        db.put(row);
+        if (i % 2000 == 0) {
+          index.update();
+        }
+      }
+    } finally {
+      done.set(true);
+      reader.join();
+    }
+
+    Assert.assertNull(error.get(), error.get());
+    for (int i = 1; i <= num; i++) {
+      Assert.assertNotNull(index.get(1, BigInteger.valueOf(i)));
+    }
+  }
+
+  private static CertRow newRow(Random rnd, int issuerId, BigInteger serial) {
+    CertRow row = new CertRow(issuerId, serial);
+    row.notBefore = rnd.nextInt(Integer.MAX_VALUE);
+    row.notAfter = row.notBefore + rnd.nextInt(Integer.MAX_VALUE);
+    row.revoked = rnd.nextBoolean();
+    if (row.revoked) {
+      row.reason = rnd.nextInt(11);
+      row.revTime = row.notBefore + rnd.nextInt(1000000);
+      row.invalidityTime = rnd.nextBoolean() ? row.revTime - 1 : 0;
+    }
+
+    if (rnd.nextInt(4) != 0) {
+      row.certHash = new byte[HASH_LEN];
+      rnd.nextBytes(row.certHash);
+    }
+    return row;
+  }
+
+  private static void assertEntry(CertRow row, Entry entry) {
+    Assert.assertNotNull(entry);
+    Assert.assertEquals(row.notBefore, entry.getNotBefore());
+    Assert.assertEquals(row.notAfter, entry.getNotAfter());
+    Assert.assertEquals(row.revoked, entry.isRevoked());
+    Assert.assertEquals(row.reason, entry.getReason());
+    Assert.assertEquals(row.revTime, entry.getRevTime());
+    Assert.assertEquals(row.invalidityTime, entry.getInvalidityTime());
+    Assert.assertArrayEquals(row.certHash, entry.getCertHash());
+  }
+
+  private static BigInteger randomSerial(Random rnd) {
+    BigInteger serial;
+    do {
+      serial = new BigInteger(rnd.nextBoolean() ? 1 + rnd.nextInt(16) : 1 + rnd.nextInt(192),
+          rnd);
+    } while (serial.signum() != 1);
+    return serial;
+  }
+
+}
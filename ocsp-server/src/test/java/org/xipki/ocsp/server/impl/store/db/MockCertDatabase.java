@@ -0,0 +1,399 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.store.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.xipki.common.util.Base64;
+import org.xipki.datasource.DataSourceFactory;
+import org.xipki.datasource.DataSourceWrapper;
+
+/**
+ * In-memory table CERT served by a minimal JDBC driver, so that the indexes loaded from the
+ * database can be tested without a database. Only the queries of {@link CertStatusIndex}
+ * and {@link RevokedSerialSet} are supported.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+class MockCertDatabase {
+
+  /**
+   * One row of the table CERT.
+   */
+  static class CertRow {
+
+    private final int issuerId;
+
+    private final String serialNumber;
+
+    private long id;
+
+    private long lastUpdate;
+
+    long notBefore;
+
+    long notAfter;
+
+    boolean revoked;
+
+    int reason;
+
+    long revTime;
+
+    long invalidityTime;
+
+    byte[] certHash;
+
+    CertRow(int issuerId, BigInteger serialNumber) {
+      this(issuerId, serialNumber.toString(16));
+    }
+
+    CertRow(int issuerId, String serialNumber) {
+      this.issuerId = issuerId;
+      this.serialNumber = serialNumber;
+    }
+
+    private Object getColumn(String column) {
+      switch (column) {
+        case "ID":
+          return id;
+        case "IID":
+          return issuerId;
+        case "SN":
+          return serialNumber;
+        case "NBEFORE":
+          return notBefore;
+        case "NAFTER":
+          return notAfter;
+        case "REV":
+          return revoked;
+        case "RR":
+          return reason;
+        case "RT":
+          return revTime;
+        case "RIT":
+          return invalidityTime;
+        case "HASH":
+          return (certHash == null) ? null : Base64.encodeToString(certHash);
+        default:
+          throw new IllegalArgumentException("unknown column " + column);
+      }
+    }
+
+  } // class CertRow
+
+  private static final String URL_PREFIX = "jdbc:h2:mock:";
+
+  private static final Pattern LIMIT_PATTERN = Pattern.compile(" LIMIT (\\d+)$");
+
+  private static final Map<String, MockCertDatabase> DATABASES = new ConcurrentHashMap<>();
+
+  private static final AtomicInteger COUNTER = new AtomicInteger();
+
+  private static final Driver DRIVER = new Driver() {
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+      MockCertDatabase db = acceptsURL(url) ? DATABASES.get(url) : null;
+      return (db == null) ? null : db.newConnection();
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+      return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+      return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+      return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+      return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+      return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+      throw new SQLFeatureNotSupportedException();
+    }
+
+  };
+
+  static {
+    try {
+      DriverManager.registerDriver(DRIVER);
+    } catch (SQLException ex) {
+      throw new ExceptionInInitializerError(ex);
+    }
+  }
+
+  private final String url;
+
+  // rows ordered by the column ID
+  private final Map<Long, CertRow> rows = new LinkedHashMap<>();
+
+  private final AtomicInteger numQueries = new AtomicInteger();
+
+  private long nextId = 1;
+
+  private DataSourceWrapper datasource;
+
+  MockCertDatabase() {
+    this.url = URL_PREFIX + COUNTER.incrementAndGet();
+    DATABASES.put(url, this);
+  }
+
+  DataSourceWrapper getDataSource() throws Exception {
+    if (datasource == null) {
+      Properties props = new Properties();
+      props.setProperty("jdbcUrl", url);
+      props.setProperty("maximumPoolSize", "1");
+      datasource = new DataSourceFactory().createDataSource("mock", props, null);
+    }
+    return datasource;
+  }
+
+  void close() {
+    if (datasource != null) {
+      datasource.close();
+    }
+    DATABASES.remove(url);
+  }
+
+  /**
+   * Inserts the row, or replaces the row with the same issuer and serial number. The column
+   * LUPDATE is set to the current time.
+   * @param row the row.
+   */
+  void put(CertRow row) {
+    put(row, System.currentTimeMillis() / 1000);
+  }
+
+  /**
+   * Inserts the row, or replaces the row with the same issuer and serial number.
+   * @param row the row.
+   * @param lastUpdate value of the column LUPDATE, in seconds.
+   */
+  synchronized void put(CertRow row, long lastUpdate) {
+    row.lastUpdate = lastUpdate;
+    for (Iterator<CertRow> it = rows.values().iterator(); it.hasNext();) {
+      CertRow existing = it.next();
+      if (existing.issuerId == row.issuerId
+          && existing.serialNumber.equals(row.serialNumber)) {
+        row.id = existing.id;
+        rows.put(row.id, row);
+        return;
+      }
+    }
+
+    row.id = nextId++;
+    rows.put(row.id, row);
+  }
+
+  int getNumQueries() {
+    return numQueries.get();
+  }
+
+  private synchronized List<CertRow> query(String sql, Map<Integer, Long> params) {
+    numQueries.incrementAndGet();
+    Matcher matcher = LIMIT_PATTERN.matcher(sql);
+    if (!matcher.find()) {
+      throw new IllegalArgumentException("unsupported SQL " + sql);
+    }
+
+    int limit = Integer.parseInt(matcher.group(1));
+    boolean onlyRevoked = sql.contains("REV=1");
+    boolean onlyChanged = sql.contains("LUPDATE>=?");
+    long minId = params.get(1);
+
+    List<CertRow> result = new ArrayList<>();
+    for (CertRow row : rows.values()) {
+      if (result.size() == limit) {
+        break;
+      }
+
+      if (row.id <= minId || (onlyRevoked && !row.revoked)
+          || (onlyChanged && row.lastUpdate < params.get(2))) {
+        continue;
+      }
+      result.add(row);
+    }
+    return result;
+  }
+
+  private Connection newConnection() {
+    InvocationHandler handler = new InvocationHandler() {
+
+      private boolean closed;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+          case "prepareStatement":
+            return newStatement((Connection) proxy, (String) args[0]);
+          case "close":
+            closed = true;
+            return null;
+          case "isClosed":
+            return closed;
+          case "isValid":
+            return !closed;
+          case "getAutoCommit":
+            return true;
+          case "getTransactionIsolation":
+            return Connection.TRANSACTION_READ_COMMITTED;
+          default:
+            return defaultInvoke(proxy, method, args);
+        }
+      }
+
+    };
+
+    return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[]{Connection.class}, handler);
+  }
+
+  private PreparedStatement newStatement(Connection conn, String sql) {
+    InvocationHandler handler = new InvocationHandler() {
+
+      private final Map<Integer, Long> params = new ConcurrentHashMap<>();
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+          case "setLong":
+            params.put((Integer) args[0], (Long) args[1]);
+            return null;
+          case "executeQuery":
+            return newResultSet(query(sql, params));
+          case "getConnection":
+            return conn;
+          default:
+            return defaultInvoke(proxy, method, args);
+        }
+      }
+
+    };
+
+    return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[]{PreparedStatement.class}, handler);
+  }
+
+  private ResultSet newResultSet(List<CertRow> result) {
+    InvocationHandler handler = new InvocationHandler() {
+
+      private int index = -1;
+
+      private Object lastValue;
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("next".equals(name)) {
+          return ++index < result.size();
+        } else if ("wasNull".equals(name)) {
+          return lastValue == null;
+        } else if (name.startsWith("get") && args != null && args.length == 1
+            && args[0] instanceof String) {
+          lastValue = result.get(index).getColumn((String) args[0]);
+          if (lastValue == null) {
+            return defaultValue(method.getReturnType());
+          } else if (method.getReturnType() == int.class) {
+            return ((Number) lastValue).intValue();
+          } else if (method.getReturnType() == long.class) {
+            return ((Number) lastValue).longValue();
+          } else {
+            return lastValue;
+          }
+        } else {
+          return defaultInvoke(proxy, method, args);
+        }
+      }
+
+    };
+
+    return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[]{ResultSet.class}, handler);
+  }
+
+  private static Object defaultInvoke(Object proxy, Method method, Object[] args)
+      throws SQLException {
+    switch (method.getName()) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return "Mock" + proxy.getClass().getInterfaces()[0].getSimpleName();
+      case "isWrapperFor":
+        return false;
+      case "unwrap":
+        throw new SQLException("not a wrapper");
+      default:
+        return defaultValue(method.getReturnType());
+    }
+  }
+
+  private static Object defaultValue(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    } else {
+      return null;
+    }
+  }
+
+}
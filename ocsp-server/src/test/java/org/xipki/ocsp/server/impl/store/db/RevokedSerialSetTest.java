@@ -0,0 +1,212 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.store.db;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xipki.ocsp.server.impl.store.db.MockCertDatabase.CertRow;
+
+/**
+ * Tests the {@link RevokedSerialSet} loaded from a {@link MockCertDatabase} against a
+ * {@link HashSet} as reference.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class RevokedSerialSetTest {
+
+  private static final BigInteger MAX_192 = BigInteger.ONE.shiftLeft(192).subtract(BigInteger.ONE);
+
+  private MockCertDatabase db;
+
+  private RevokedSerialSet set;
+
+  @Before
+  public void setUp() throws Exception {
+    db = new MockCertDatabase();
+    set = new RevokedSerialSet(db.getDataSource());
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNotLoaded() {
+    Assert.assertFalse(set.isReady());
+    set.mayBeRevoked(1, BigInteger.ONE);
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    db.put(new CertRow(1, BigInteger.ONE));
+    set.reload();
+    Assert.assertTrue(set.isReady());
+    Assert.assertFalse(set.mayBeRevoked(1, BigInteger.ONE));
+    Assert.assertFalse(set.mayBeRevoked(1, MAX_192));
+  }
+
+  @Test
+  public void testBoundaries() throws Exception {
+    BigInteger[] serials = {BigInteger.ONE, BigInteger.valueOf(Long.MAX_VALUE),
+      BigInteger.ONE.shiftLeft(63), BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE),
+      BigInteger.ONE.shiftLeft(64), BigInteger.ONE.shiftLeft(128), BigInteger.ONE.shiftLeft(191),
+      MAX_192};
+
+    for (BigInteger serial : serials) {
+      revoke(1, serial);
+    }
+    set.reload();
+
+    for (BigInteger serial : serials) {
+      Assert.assertTrue(serial.toString(16), set.mayBeRevoked(1, serial));
+      Assert.assertFalse(serial.toString(16), set.mayBeRevoked(2, serial));
+      Assert.assertFalse(set.mayBeRevoked(1, serial.flipBit(8)));
+    }
+    Assert.assertFalse(set.mayBeRevoked(1, BigInteger.valueOf(2)));
+    Assert.assertEquals("RevokedSerialSet[issuers=1,revokedCertificates=" + serials.length + "]",
+        set.toString());
+  }
+
+  @Test
+  public void testLongerThan192Bits() throws Exception {
+    revoke(1, BigInteger.ONE.shiftLeft(192));
+    set.reload();
+    // not in the set, but must be looked up in the database
+    Assert.assertTrue(set.mayBeRevoked(1, BigInteger.ONE.shiftLeft(192)));
+    Assert.assertTrue(set.mayBeRevoked(1, BigInteger.ONE.shiftLeft(300)));
+    Assert.assertEquals("RevokedSerialSet[issuers=0,revokedCertificates=0]", set.toString());
+  }
+
+  @Test
+  public void testRereadRows() throws Exception {
+    revoke(1, BigInteger.valueOf(12345));
+    set.reload();
+
+    // the row is read again by each update within the overlap period
+    set.update();
+    set.update();
+    Assert.assertTrue(set.mayBeRevoked(1, BigInteger.valueOf(12345)));
+    Assert.assertEquals("RevokedSerialSet[issuers=1,revokedCertificates=1]", set.toString());
+  }
+
+  @Test
+  public void testUpdate() throws Exception {
+    revoke(1, BigInteger.valueOf(1));
+    set.reload();
+    Assert.assertFalse(set.mayBeRevoked(1, BigInteger.valueOf(2)));
+
+    revoke(1, BigInteger.valueOf(2));
+    revoke(2, BigInteger.valueOf(3));
+    set.update();
+    Assert.assertTrue(set.mayBeRevoked(1, BigInteger.valueOf(1)));
+    Assert.assertTrue(set.mayBeRevoked(1, BigInteger.valueOf(2)));
+    Assert.assertTrue(set.mayBeRevoked(2, BigInteger.valueOf(3)));
+    Assert.assertFalse(set.mayBeRevoked(2, BigInteger.valueOf(1)));
+
+    // revoked long before the last synchronization
+    CertRow row = new CertRow(3, BigInteger.valueOf(4));
+    row.revoked = true;
+    db.put(row, 1000);
+    set.update();
+    Assert.assertFalse(set.mayBeRevoked(3, BigInteger.valueOf(4)));
+    set.reload();
+    Assert.assertTrue(set.mayBeRevoked(3, BigInteger.valueOf(4)));
+  }
+
+  @Test
+  public void testUnrevoke() throws Exception {
+    revoke(1, BigInteger.TEN);
+    set.reload();
+
+    // removal from CRL, the serial number is kept until the next reload
+    db.put(new CertRow(1, BigInteger.TEN));
+    set.update();
+    Assert.assertTrue(set.mayBeRevoked(1, BigInteger.TEN));
+    set.reload();
+    Assert.assertFalse(set.mayBeRevoked(1, BigInteger.TEN));
+  }
+
+  @Test
+  public void testRandomAgainstHashSet() throws Exception {
+    Random rnd = new Random(1);
+    Map<Integer, Set<BigInteger>> reference = new HashMap<>();
+    set.reload();
+
+    // several updates so that the sets grow and are rehashed
+    for (int round = 0; round < 10; round++) {
+      int num = 1 + rnd.nextInt(2500);
+      for (int i = 0; i < num; i++) {
+        int issuerId = 1 + rnd.nextInt(3);
+        BigInteger serial = randomSerial(rnd);
+        if (rnd.nextInt(4) == 0) {
+          if (!reference.containsKey(issuerId) || !reference.get(issuerId).contains(serial)) {
+            db.put(new CertRow(issuerId, serial));
+          }
+        } else {
+          revoke(issuerId, serial);
+          reference.computeIfAbsent(issuerId, k -> new HashSet<>()).add(serial);
+        }
+      }
+      set.update();
+
+      for (Integer issuerId : reference.keySet()) {
+        for (BigInteger serial : reference.get(issuerId)) {
+          Assert.assertTrue(set.mayBeRevoked(issuerId, serial));
+        }
+      }
+
+      for (int i = 0; i < 1000; i++) {
+        int issuerId = 1 + rnd.nextInt(3);
+        BigInteger serial = randomSerial(rnd);
+        Set<BigInteger> expected = reference.get(issuerId);
+        boolean contained = expected != null && expected.contains(serial);
+        Assert.assertEquals(contained, set.mayBeRevoked(issuerId, serial));
+      }
+    }
+  }
+
+  private void revoke(int issuerId, BigInteger serial) {
+    CertRow row = new CertRow(issuerId, serial);
+    row.revoked = true;
+    row.revTime = 100;
+    db.put(row);
+  }
+
+  private static BigInteger randomSerial(Random rnd) {
+    BigInteger serial;
+    do {
+      // mostly short serial numbers to get some duplicates
+      serial = new BigInteger(rnd.nextBoolean() ? 1 + rnd.nextInt(12) : 1 + rnd.nextInt(192),
+          rnd);
+    } while (serial.signum() != 1);
+    return serial;
+  }
+
+}
@@ -0,0 +1,241 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.type.test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1GeneralizedTime;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.isismtt.ISISMTTObjectIdentifiers;
+import org.bouncycastle.asn1.isismtt.ocsp.CertHash;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.ocsp.RevokedInfo;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.common.ASN1Type;
+import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.ocsp.server.impl.type.CertID;
+import org.xipki.ocsp.server.impl.type.Extension;
+import org.xipki.ocsp.server.impl.type.Extensions;
+import org.xipki.ocsp.server.impl.type.SingleResponse;
+import org.xipki.ocsp.server.impl.type.SingleResponseTemplate;
+import org.xipki.ocsp.server.impl.type.WritableOnlyExtension;
+import org.xipki.security.CrlReason;
+import org.xipki.security.HashAlgo;
+
+/**
+ * Tests of {@link SingleResponseTemplate}: the SingleResponse created from a template must be
+ * identical to the one encoded from scratch with the same time fields.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class SingleResponseTemplateTest {
+
+  private static final byte[] CERTSTATUS_GOOD = new byte[]{(byte) 0x80, 0x00};
+
+  private static final Date TIME1 = new Date(1514764800000L); // 2018-01-01T00:00:00Z
+
+  private static final Date TIME2 = new Date(1546300799000L); // 2018-12-31T23:59:59Z
+
+  private static final Date TIME3 = new Date(4102444800000L); // 2100-01-01T00:00:00Z
+
+  @Test
+  public void testThisUpdateOnly() {
+    assertTemplate(BigInteger.ONE, CERTSTATUS_GOOD, false, false, false);
+  }
+
+  @Test
+  public void testNextUpdate() {
+    assertTemplate(BigInteger.ONE, CERTSTATUS_GOOD, true, false, false);
+  }
+
+  @Test
+  public void testArchiveCutoff() {
+    assertTemplate(BigInteger.ONE, CERTSTATUS_GOOD, false, false, true);
+    assertTemplate(BigInteger.ONE, CERTSTATUS_GOOD, true, false, true);
+  }
+
+  @Test
+  public void testArchiveCutoffAfterOtherExtensions() {
+    assertTemplate(BigInteger.ONE, CERTSTATUS_GOOD, true, true, true);
+    assertTemplate(BigInteger.ONE, CERTSTATUS_GOOD, false, true, true);
+  }
+
+  @Test
+  public void testOtherExtensionsOnly() {
+    assertTemplate(BigInteger.ONE, CERTSTATUS_GOOD, true, true, false);
+  }
+
+  @Test
+  public void testRevoked() {
+    byte[] revoked = encodeRevokedInfo(CrlReason.KEY_COMPROMISE, TIME1);
+    assertTemplate(BigInteger.TEN, revoked, true, true, true);
+    revoked = encodeRevokedInfo(null, TIME1);
+    assertTemplate(BigInteger.TEN, revoked, false, false, false);
+  }
+
+  @Test
+  public void testSerialNumbers() {
+    // serials with the high bit set and long ones changing the length of the header
+    BigInteger[] serials = {BigInteger.ZERO, BigInteger.valueOf(0x80),
+      BigInteger.ONE.shiftLeft(159), BigInteger.ONE.shiftLeft(1000).subtract(BigInteger.ONE)};
+    for (BigInteger serial : serials) {
+      assertTemplate(serial, CERTSTATUS_GOOD, true, true, true);
+      assertTemplate(serial, CERTSTATUS_GOOD, false, false, false);
+    }
+  }
+
+  @Test
+  public void testWriteAtOffset() {
+    SingleResponseTemplate template = new SingleResponseTemplate(
+        newSingleResponse(BigInteger.ONE, CERTSTATUS_GOOD, TIME1, TIME1, true, TIME1), true);
+    byte[] expected = encode(
+        newSingleResponse(BigInteger.ONE, CERTSTATUS_GOOD, TIME2, TIME3, true, TIME3));
+
+    ASN1Type response = template.newResponse(TIME2, TIME3, TIME3);
+    byte[] out = new byte[expected.length + 10];
+    Assert.assertEquals("written length", expected.length, response.write(out, 7));
+    Assert.assertArrayEquals("encoded", expected,
+        Arrays.copyOfRange(out, 7, 7 + expected.length));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingNextUpdate() {
+    SingleResponseTemplate template = new SingleResponseTemplate(
+        newSingleResponse(BigInteger.ONE, CERTSTATUS_GOOD, TIME1, TIME1, false, null), false);
+    template.newResponse(TIME2, null, null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnexpectedArchiveCutoff() {
+    SingleResponseTemplate template = new SingleResponseTemplate(
+        newSingleResponse(BigInteger.ONE, CERTSTATUS_GOOD, TIME1, null, false, null), false);
+    template.newResponse(TIME2, null, TIME2);
+  }
+
+  private static void assertTemplate(BigInteger serial, byte[] certStatus,
+      boolean withNextUpdate, boolean withOtherExtensions, boolean withArchiveCutoff) {
+    SingleResponse original = newSingleResponse(serial, certStatus, TIME1,
+        withNextUpdate ? TIME1 : null, withOtherExtensions, withArchiveCutoff ? TIME1 : null);
+    SingleResponseTemplate template = new SingleResponseTemplate(original, withArchiveCutoff);
+    Assert.assertEquals("hasNextUpdate", withNextUpdate, template.hasNextUpdate());
+    Assert.assertEquals("hasArchiveCutoff", withArchiveCutoff, template.hasArchiveCutoff());
+
+    Date nextUpdate = withNextUpdate ? TIME3 : null;
+    Date archiveCutoff = withArchiveCutoff ? TIME3 : null;
+    byte[] expected = encode(newSingleResponse(serial, certStatus, TIME2, nextUpdate,
+        withOtherExtensions, archiveCutoff));
+    byte[] encoded = encode(template.newResponse(TIME2, nextUpdate, archiveCutoff));
+    Assert.assertArrayEquals("encoded SingleResponse", expected, encoded);
+
+    // the template itself must not be modified
+    Assert.assertArrayEquals("template", encode(original),
+        encode(template.newResponse(TIME1, withNextUpdate ? TIME1 : null,
+            withArchiveCutoff ? TIME1 : null)));
+
+    // the patched fields must be decodable at the expected positions
+    org.bouncycastle.asn1.ocsp.SingleResponse bcResp =
+        org.bouncycastle.asn1.ocsp.SingleResponse.getInstance(encoded);
+    try {
+      Assert.assertEquals("thisUpdate", TIME2, bcResp.getThisUpdate().getDate());
+      if (withNextUpdate) {
+        Assert.assertEquals("nextUpdate", TIME3, bcResp.getNextUpdate().getDate());
+      } else {
+        Assert.assertNull("nextUpdate", bcResp.getNextUpdate());
+      }
+
+      if (withArchiveCutoff) {
+        org.bouncycastle.asn1.x509.Extension ext = bcResp.getSingleExtensions().getExtension(
+            OCSPObjectIdentifiers.id_pkix_ocsp_archive_cutoff);
+        Date date = ASN1GeneralizedTime.getInstance(ext.getParsedValue()).getDate();
+        Assert.assertEquals("archiveCutoff", TIME3, date);
+      }
+    } catch (java.text.ParseException ex) {
+      throw new AssertionError("could not parse time: " + ex.getMessage(), ex);
+    }
+  } // method assertTemplate
+
+  private static SingleResponse newSingleResponse(BigInteger serial, byte[] certStatus,
+      Date thisUpdate, Date nextUpdate, boolean withOtherExtensions, Date archiveCutoff) {
+    // issuerNameHash and issuerKeyHash, both as OCTET STRING
+    byte[] issuerHash = new byte[2 * (2 + 20)];
+    Arrays.fill(issuerHash, (byte) 0x11);
+    issuerHash[0] = issuerHash[22] = 0x04;
+    issuerHash[1] = issuerHash[23] = 20;
+    CertID certId = new CertID(new RequestIssuer(HashAlgo.SHA1, issuerHash), serial);
+
+    List<Extension> extensions = new LinkedList<>();
+    if (withOtherExtensions) {
+      extensions.add(newExtension(org.bouncycastle.asn1.x509.Extension.invalidityDate,
+          new ASN1GeneralizedTime(TIME1)));
+      byte[] certHash = new byte[32];
+      Arrays.fill(certHash, (byte) 0x22);
+      AlgorithmIdentifier hashAlgId =
+          new AlgorithmIdentifier(HashAlgo.SHA256.getOid(), DERNull.INSTANCE);
+      extensions.add(newExtension(ISISMTTObjectIdentifiers.id_isismtt_at_certHash,
+          new CertHash(hashAlgId, certHash)));
+    }
+
+    if (archiveCutoff != null) {
+      extensions.add(newExtension(OCSPObjectIdentifiers.id_pkix_ocsp_archive_cutoff,
+          new ASN1GeneralizedTime(archiveCutoff)));
+    }
+
+    return new SingleResponse(certId, certStatus, thisUpdate, nextUpdate,
+        extensions.isEmpty() ? null : new Extensions(extensions));
+  }
+
+  private static Extension newExtension(ASN1ObjectIdentifier type, ASN1Encodable value) {
+    try {
+      return new WritableOnlyExtension(new org.bouncycastle.asn1.x509.Extension(
+          type, false, value.toASN1Primitive().getEncoded()).getEncoded());
+    } catch (IOException ex) {
+      throw new AssertionError("could not encode extension: " + ex.getMessage(), ex);
+    }
+  }
+
+  private static byte[] encodeRevokedInfo(CrlReason reason, Date revocationTime) {
+    CRLReason bcReason = (reason == null) ? null : CRLReason.lookup(reason.getCode());
+    RevokedInfo revokedInfo = new RevokedInfo(new ASN1GeneralizedTime(revocationTime), bcReason);
+    try {
+      // [1] IMPLICIT RevokedInfo
+      return new DERTaggedObject(false, 1, revokedInfo).getEncoded();
+    } catch (IOException ex) {
+      throw new AssertionError("could not encode RevokedInfo: " + ex.getMessage(), ex);
+    }
+  }
+
+  private static byte[] encode(ASN1Type obj) {
+    byte[] encoded = new byte[obj.getEncodedLength()];
+    Assert.assertEquals("written length", encoded.length, obj.write(encoded, 0));
+    return encoded;
+  }
+
+}
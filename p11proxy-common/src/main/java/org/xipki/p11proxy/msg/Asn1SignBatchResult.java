@@ -0,0 +1,151 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.p11proxy.msg;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.xipki.common.util.ParamUtil;
+import org.xipki.security.exception.BadAsn1ObjectException;
+
+/**
+ * Results of the sign requests in {@link Asn1SignBatchTemplate}, in the same order.
+ * <pre>
+ * SignBatchResult ::= SEQUENCE OF SignResult
+ *
+ * SignResult ::= CHOICE {
+ *     signature      OCTET STRING,
+ *     returnCode     INTEGER }
+ * </pre>
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class Asn1SignBatchResult extends ASN1Object {
+
+  /**
+   * Result of a single sign request, either the signature or the return code.
+   */
+  public static class SignResult {
+
+    private final byte[] signature;
+
+    private final short returnCode;
+
+    private SignResult(byte[] signature, short returnCode) {
+      this.signature = signature;
+      this.returnCode = returnCode;
+    }
+
+    public static SignResult ofSignature(byte[] signature) {
+      return new SignResult(ParamUtil.requireNonNull("signature", signature), (short) 0);
+    }
+
+    public static SignResult ofReturnCode(short returnCode) {
+      if (returnCode == 0) {
+        throw new IllegalArgumentException("returnCode must not be RC_SUCCESS");
+      }
+      return new SignResult(null, returnCode);
+    }
+
+    /**
+     * Returns the signature.
+     * @return the signature, or {@code null} if failed.
+     */
+    public byte[] getSignature() {
+      return signature;
+    }
+
+    /**
+     * Returns the return code.
+     * @return 0 (RC_SUCCESS) if successful, otherwise the return code.
+     */
+    public short getReturnCode() {
+      return returnCode;
+    }
+
+  } // class SignResult
+
+  private final List<SignResult> results;
+
+  public Asn1SignBatchResult(List<SignResult> results) {
+    this.results = ParamUtil.requireNonNull("results", results);
+  }
+
+  private Asn1SignBatchResult(ASN1Sequence seq) throws BadAsn1ObjectException {
+    final int size = seq.size();
+    this.results = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      ASN1Encodable obj = seq.getObjectAt(i);
+      if (obj instanceof ASN1OctetString) {
+        results.add(SignResult.ofSignature(((ASN1OctetString) obj).getOctets()));
+      } else if (obj instanceof ASN1Integer) {
+        results.add(SignResult.ofReturnCode(((ASN1Integer) obj).getValue().shortValue()));
+      } else {
+        throw new BadAsn1ObjectException("invalid SignResult");
+      }
+    }
+  }
+
+  public static Asn1SignBatchResult getInstance(Object obj) throws BadAsn1ObjectException {
+    if (obj == null || obj instanceof Asn1SignBatchResult) {
+      return (Asn1SignBatchResult) obj;
+    }
+
+    try {
+      if (obj instanceof ASN1Sequence) {
+        return new Asn1SignBatchResult((ASN1Sequence) obj);
+      } else if (obj instanceof byte[]) {
+        return getInstance(ASN1Primitive.fromByteArray((byte[]) obj));
+      } else {
+        throw new BadAsn1ObjectException("unknown object: " + obj.getClass().getName());
+      }
+    } catch (IOException | IllegalArgumentException ex) {
+      throw new BadAsn1ObjectException("unable to parse encoded object: " + ex.getMessage(), ex);
+    }
+  }
+
+  @Override
+  public ASN1Primitive toASN1Primitive() {
+    ASN1EncodableVector vec = new ASN1EncodableVector();
+    for (SignResult result : results) {
+      if (result.signature != null) {
+        vec.add(new DEROctetString(result.signature));
+      } else {
+        vec.add(new ASN1Integer(result.returnCode));
+      }
+    }
+    return new DERSequence(vec);
+  }
+
+  public List<SignResult> getResults() {
+    return results;
+  }
+
+}
@@ -0,0 +1,93 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.p11proxy.msg;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERSequence;
+import org.xipki.common.util.ParamUtil;
+import org.xipki.security.exception.BadAsn1ObjectException;
+
+/**
+ * Several sign requests in one message.
+ * <pre>
+ * SignBatchTemplate ::= SEQUENCE SIZE (1..MAX) OF SignTemplate
+ * </pre>
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class Asn1SignBatchTemplate extends ASN1Object {
+
+  private final List<Asn1SignTemplate> templates;
+
+  public Asn1SignBatchTemplate(List<Asn1SignTemplate> templates) {
+    this.templates = ParamUtil.requireNonEmpty("templates", templates);
+  }
+
+  private Asn1SignBatchTemplate(ASN1Sequence seq) throws BadAsn1ObjectException {
+    final int size = seq.size();
+    if (size == 0) {
+      throw new BadAsn1ObjectException("SignBatchTemplate must not be empty");
+    }
+
+    this.templates = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      templates.add(Asn1SignTemplate.getInstance(seq.getObjectAt(i)));
+    }
+  }
+
+  public static Asn1SignBatchTemplate getInstance(Object obj) throws BadAsn1ObjectException {
+    if (obj == null || obj instanceof Asn1SignBatchTemplate) {
+      return (Asn1SignBatchTemplate) obj;
+    }
+
+    try {
+      if (obj instanceof ASN1Sequence) {
+        return new Asn1SignBatchTemplate((ASN1Sequence) obj);
+      } else if (obj instanceof byte[]) {
+        return getInstance(ASN1Primitive.fromByteArray((byte[]) obj));
+      } else {
+        throw new BadAsn1ObjectException("unknown object: " + obj.getClass().getName());
+      }
+    } catch (IOException | IllegalArgumentException ex) {
+      throw new BadAsn1ObjectException("unable to parse encoded object: " + ex.getMessage(), ex);
+    }
+  }
+
+  @Override
+  public ASN1Primitive toASN1Primitive() {
+    ASN1EncodableVector vec = new ASN1EncodableVector();
+    for (Asn1SignTemplate template : templates) {
+      vec.add(template);
+    }
+    return new DERSequence(vec);
+  }
+
+  public List<Asn1SignTemplate> getTemplates() {
+    return templates;
+  }
+
+}
@@ -96,4 +96,8 @@ public class HttpProxyServlet extends AbstractHttpServlet {
     this.localP11CryptServicePool = localP11CryptServicePool;
   }
 
+  public void shutdown() {
+    responder.close();
+  }
+
 }
@@ -22,10 +22,17 @@ import java.security.InvalidKeyException;
 import java.security.PublicKey;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1Integer;
@@ -54,6 +61,9 @@ import org.xipki.p11proxy.msg.Asn1P11SlotIdentifier;
 import org.xipki.p11proxy.msg.Asn1RSAPkcsPssParams;
 import org.xipki.p11proxy.msg.Asn1RemoveObjectsParams;
 import org.xipki.p11proxy.msg.Asn1ServerCaps;
+import org.xipki.p11proxy.msg.Asn1SignBatchResult;
+import org.xipki.p11proxy.msg.Asn1SignBatchResult.SignResult;
+import org.xipki.p11proxy.msg.Asn1SignBatchTemplate;
 import org.xipki.p11proxy.msg.Asn1SignTemplate;
 import org.xipki.security.exception.BadAsn1ObjectException;
 import org.xipki.security.exception.P11DuplicateEntityException;
@@ -86,8 +96,20 @@ class P11ProxyResponder {
 
   private static final Set<Short> actionsRequireNullRequest;
 
+  /**
+   * Maximal number of sign requests of batches waiting to be executed.
+   */
+  private static final int BATCH_QUEUE_SIZE = 1000;
+
   private final Set<Short> versions;
 
+  /**
+   * Executes the sign requests of a batch in parallel, so that several sessions of the
+   * PKCS#11 module are used. If the queue is full or the executor is shut down, the request is
+   * executed by the thread processing the batch.
+   */
+  private final ThreadPoolExecutor batchExecutor;
+
   static {
     Set<Short> actions = new HashSet<>();
     actions.add(P11ProxyConstants.ACTION_GET_SERVER_CAPS);
@@ -111,6 +133,7 @@ class P11ProxyResponder {
     actions.add(P11ProxyConstants.ACTION_REMOVE_IDENTITY);
     actions.add(P11ProxyConstants.ACTION_REMOVE_OBJECTS);
     actions.add(P11ProxyConstants.ACTION_SIGN);
+    actions.add(P11ProxyConstants.ACTION_SIGN_BATCH);
     actions.add(P11ProxyConstants.ACTION_UPDATE_CERT);
     actions.add(P11ProxyConstants.ACTION_DIGEST_SECRETKEY);
     actions.add(P11ProxyConstants.ACTION_IMPORT_SECRET_KEY);
@@ -122,6 +145,23 @@ class P11ProxyResponder {
     Set<Short> tmpVersions = new HashSet<>();
     tmpVersions.add(P11ProxyConstants.VERSION_V1_0);
     this.versions = Collections.unmodifiableSet(tmpVersions);
+
+    final AtomicInteger threadIndex = new AtomicInteger(0);
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "p11proxy-batch-" + threadIndex.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    int threads = 4 * Runtime.getRuntime().availableProcessors();
+    this.batchExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(BATCH_QUEUE_SIZE), threadFactory,
+        // unlike CallerRunsPolicy, also runs the rejected request after the shutdown
+        (runnable, executor) -> runnable.run());
+    this.batchExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  void close() {
+    batchExecutor.shutdown();
   }
 
   public Set<Short> versions() {
@@ -343,37 +383,16 @@ class P11ProxyResponder {
           return getSuccessResp(version, transactionId, action, obj);
         }
         case P11ProxyConstants.ACTION_SIGN: {
-          Asn1SignTemplate signTemplate = Asn1SignTemplate.getInstance(content);
-          long mechanism = signTemplate.getMechanism().getMechanism();
-          Asn1P11Params asn1Params = signTemplate.getMechanism().getParams();
-
-          P11Params params = null;
-
-          if (asn1Params != null) {
-            switch (asn1Params.getTagNo()) {
-              case Asn1P11Params.TAG_RSA_PKCS_PSS:
-                params = Asn1RSAPkcsPssParams.getInstance(asn1Params).getPkcsPssParams();
-                break;
-              case Asn1P11Params.TAG_OPAQUE:
-                params = new P11ByteArrayParams(
-                    ASN1OctetString.getInstance(asn1Params).getOctets());
-                break;
-              case Asn1P11Params.TAG_IV:
-                params = new P11IVParams(ASN1OctetString.getInstance(asn1Params).getOctets());
-                break;
-              default:
-                throw new BadAsn1ObjectException(
-                    "unknown SignTemplate.params: unknown tag " + asn1Params.getTagNo());
-            }
-          }
-
-          byte[] message = signTemplate.getMessage();
-          P11Identity identity =
-              p11CryptService.getIdentity(signTemplate.getIdentityId().getEntityId());
-          byte[] signature = identity.sign(mechanism, params, message);
+          byte[] signature = sign(p11CryptService, Asn1SignTemplate.getInstance(content));
           ASN1Object obj = new DEROctetString(signature);
           return getSuccessResp(version, transactionId, action, obj);
         }
+        case P11ProxyConstants.ACTION_SIGN_BATCH: {
+          List<Asn1SignTemplate> templates =
+              Asn1SignBatchTemplate.getInstance(content).getTemplates();
+          ASN1Object obj = new Asn1SignBatchResult(signBatch(p11CryptService, templates));
+          return getSuccessResp(version, transactionId, action, obj);
+        }
         case P11ProxyConstants.ACTION_UPDATE_CERT: {
           Asn1EntityIdAndCert asn1 = Asn1EntityIdAndCert.getInstance(content);
           P11Slot slot = getSlot(p11CryptService, asn1.getEntityId());
@@ -392,18 +411,7 @@ class P11ProxyResponder {
       return getResp(version, transactionId, action, P11ProxyConstants.RC_BAD_REQUEST);
     } catch (P11TokenException ex) {
       LogUtil.error(LOG, ex, buildErrorMsg(action, transactionId));
-      short rc;
-      if (ex instanceof P11UnknownEntityException) {
-        rc = P11ProxyConstants.RC_DUPLICATE_ENTITY;
-      } else if (ex instanceof P11DuplicateEntityException) {
-        rc = P11ProxyConstants.RC_DUPLICATE_ENTITY;
-      } else if (ex instanceof P11UnsupportedMechanismException) {
-        rc = P11ProxyConstants.RC_UNSUPPORTED_MECHANISM;
-      } else {
-        rc = P11ProxyConstants.RC_P11_TOKENERROR;
-      }
-
-      return getResp(version, transactionId, action, rc);
+      return getResp(version, transactionId, action, getReturnCode(ex));
     } catch (XiSecurityException | CertificateException | InvalidKeyException ex) {
       LogUtil.error(LOG, ex, buildErrorMsg(action, transactionId));
       return getResp(version, transactionId, action, P11ProxyConstants.RC_INTERNAL_ERROR);
@@ -413,6 +421,105 @@ class P11ProxyResponder {
     }
   } // method processPkiMessage
 
+  private static byte[] sign(P11CryptService p11CryptService, Asn1SignTemplate signTemplate)
+      throws BadAsn1ObjectException, P11TokenException, XiSecurityException {
+    long mechanism = signTemplate.getMechanism().getMechanism();
+    Asn1P11Params asn1Params = signTemplate.getMechanism().getParams();
+
+    P11Params params = null;
+
+    if (asn1Params != null) {
+      switch (asn1Params.getTagNo()) {
+        case Asn1P11Params.TAG_RSA_PKCS_PSS:
+          params = Asn1RSAPkcsPssParams.getInstance(asn1Params).getPkcsPssParams();
+          break;
+        case Asn1P11Params.TAG_OPAQUE:
+          params = new P11ByteArrayParams(
+              ASN1OctetString.getInstance(asn1Params).getOctets());
+          break;
+        case Asn1P11Params.TAG_IV:
+          params = new P11IVParams(ASN1OctetString.getInstance(asn1Params).getOctets());
+          break;
+        default:
+          throw new BadAsn1ObjectException(
+              "unknown SignTemplate.params: unknown tag " + asn1Params.getTagNo());
+      }
+    }
+
+    byte[] message = signTemplate.getMessage();
+    P11Identity identity =
+        p11CryptService.getIdentity(signTemplate.getIdentityId().getEntityId());
+    return identity.sign(mechanism, params, message);
+  }
+
+  /**
+   * Executes the sign requests in parallel. The failure of one request does not affect the
+   * other requests, its return code is contained in the result.
+   */
+  private List<SignResult> signBatch(P11CryptService p11CryptService,
+      List<Asn1SignTemplate> templates) {
+    final int n = templates.size();
+    List<CompletableFuture<SignResult>> futures = new ArrayList<>(n);
+    // the current thread executes the first request
+    for (int i = 1; i < n; i++) {
+      final Asn1SignTemplate template = templates.get(i);
+      futures.add(CompletableFuture.supplyAsync(
+          () -> signInBatch(p11CryptService, template), batchExecutor));
+    }
+
+    List<SignResult> results = new ArrayList<>(n);
+    results.add(signInBatch(p11CryptService, templates.get(0)));
+    for (CompletableFuture<SignResult> future : futures) {
+      results.add(future.join());
+    }
+    return results;
+  }
+
+  private static SignResult signInBatch(P11CryptService p11CryptService,
+      Asn1SignTemplate template) {
+    try {
+      return SignResult.ofSignature(sign(p11CryptService, template));
+    } catch (BadAsn1ObjectException ex) {
+      LogUtil.error(LOG, ex, "could not decode SignTemplate in batch");
+      return SignResult.ofReturnCode(P11ProxyConstants.RC_BAD_REQUEST);
+    } catch (P11TokenException ex) {
+      LogUtil.error(LOG, ex, "could not sign in batch");
+      return SignResult.ofReturnCode(getReturnCode(ex));
+    } catch (Throwable th) {
+      LogUtil.error(LOG, th, "could not sign in batch");
+      return SignResult.ofReturnCode(P11ProxyConstants.RC_INTERNAL_ERROR);
+    }
+  }
+
+  private static short getReturnCode(P11TokenException ex) {
+    if (ex instanceof P11UnknownEntityException) {
+      return P11ProxyConstants.RC_DUPLICATE_ENTITY;
+    } else if (ex instanceof P11DuplicateEntityException) {
+      return P11ProxyConstants.RC_DUPLICATE_ENTITY;
+    } else if (ex instanceof P11UnsupportedMechanismException) {
+      return P11ProxyConstants.RC_UNSUPPORTED_MECHANISM;
+    } else {
+      return P11ProxyConstants.RC_P11_TOKENERROR;
+    }
+  }
+
+  /**
+   * Builds the response with given return code for the request which could not be processed.
+   * @param request the request.
+   * @param rc the return code.
+   * @return the response.
+   */
+  static byte[] buildErrorResponse(byte[] request, short rc) {
+    byte[] transactionId = new byte[4];
+    if (request.length > 5) {
+      System.arraycopy(request, 2, transactionId, 0, 4);
+    }
+
+    short action = (request.length > 11)
+        ? IoUtil.parseShort(request, 10) : P11ProxyConstants.ACTION_NOPE;
+    return getResp(P11ProxyConstants.VERSION_V1_0, transactionId, rc, action);
+  }
+
   private static String buildErrorMsg(short action, byte[] transactionId) {
     return "could not process action " + P11ProxyConstants.getActionName(action)
         + " (tid=" + Hex.encode(transactionId) + ")";
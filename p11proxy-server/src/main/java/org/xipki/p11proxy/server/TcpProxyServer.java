@@ -0,0 +1,339 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.p11proxy.server;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.common.util.IoUtil;
+import org.xipki.common.util.LogUtil;
+import org.xipki.common.util.StringUtil;
+import org.xipki.p11proxy.P11ProxyConstants;
+import org.xipki.password.PasswordResolver;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+
+/**
+ * Server of the PKCS#11 proxy protocol over long-lived TCP connections. Each message is sent as
+ * it is without any HTTP framing, its length is contained in the message header. The requests
+ * received over one connection are processed concurrently, and the responses are written as
+ * soon as they are available, so the client must match them by the transaction ID.
+ *
+ * <p>The server is disabled if the port is not positive.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class TcpProxyServer {
+
+  private class ProxyServerInitializer extends ChannelInitializer<SocketChannel> {
+
+    @Override
+    public void initChannel(SocketChannel ch) {
+      ChannelPipeline pipeline = ch.pipeline();
+      if (sslContext != null) {
+        pipeline.addLast("ssl", sslContext.newHandler(ch.alloc()));
+      }
+
+      // |Version(2)|Transaction ID(4)|Length(4)|Body(Length)|
+      pipeline.addLast(new LengthFieldBasedFrameDecoder(MAX_MESSAGE_SIZE, 6, 4))
+        .addLast(new ProxyServerHandler());
+    }
+
+  } // class ProxyServerInitializer
+
+  private class ProxyServerHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+      final byte[] request = new byte[msg.readableBytes()];
+      msg.readBytes(request);
+
+      try {
+        executor.execute(() -> {
+          byte[] response;
+          try {
+            response = responder.processRequest(localP11CryptServicePool, request);
+          } catch (Throwable th) {
+            LOG.error("Throwable thrown, this should not happen.", th);
+            response = P11ProxyResponder.buildErrorResponse(request,
+                P11ProxyConstants.RC_INTERNAL_ERROR);
+          }
+          ctx.writeAndFlush(Unpooled.wrappedBuffer(response));
+        });
+      } catch (RejectedExecutionException ex) {
+        LOG.debug("too many pending requests, reject request");
+        ctx.writeAndFlush(Unpooled.wrappedBuffer(P11ProxyResponder.buildErrorResponse(request,
+            P11ProxyConstants.RC_INTERNAL_ERROR)));
+      }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      LogUtil.warn(LOG, cause, "error on connection " + ctx.channel().remoteAddress());
+      ctx.close();
+    }
+
+  } // class ProxyServerHandler
+
+  private static final Logger LOG = LoggerFactory.getLogger(TcpProxyServer.class);
+
+  private static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+
+  private final P11ProxyResponder responder = new P11ProxyResponder();
+
+  private LocalP11CryptServicePool localP11CryptServicePool;
+
+  private PasswordResolver passwordResolver;
+
+  private String host;
+
+  private int port;
+
+  private int threads;
+
+  private int queueSize;
+
+  private String keystoreFile;
+
+  private String keystoreType = "PKCS12";
+
+  private String keystorePassword;
+
+  private String truststoreFile;
+
+  private String truststoreType = "PKCS12";
+
+  private String truststorePassword;
+
+  private SslContext sslContext;
+
+  private EventLoopGroup bossGroup;
+
+  private EventLoopGroup workerGroup;
+
+  private ThreadPoolExecutor executor;
+
+  public void setLocalP11CryptServicePool(LocalP11CryptServicePool localP11CryptServicePool) {
+    this.localP11CryptServicePool = localP11CryptServicePool;
+  }
+
+  public void setPasswordResolver(PasswordResolver passwordResolver) {
+    this.passwordResolver = passwordResolver;
+  }
+
+  /**
+   * Sets the local address to bind.
+   * @param host the host name or IP address, blank to bind all local addresses.
+   */
+  public void setHost(String host) {
+    this.host = StringUtil.isBlank(host) ? null : host.trim();
+  }
+
+  public void setPort(int port) {
+    this.port = port;
+  }
+
+  /**
+   * Sets the number of threads to process the requests.
+   * @param threads number of threads, non-positive value to use the default value 4 times the
+   *          number of processors.
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * Sets the maximal number of requests waiting to be processed.
+   * @param queueSize the queue size, non-positive value to use the default value 1000.
+   */
+  public void setQueueSize(int queueSize) {
+    this.queueSize = queueSize;
+  }
+
+  /**
+   * Sets the keystore containing the TLS key and certificate. If not set, TLS is not used.
+   * @param keystoreFile the keystore file.
+   */
+  public void setKeystoreFile(String keystoreFile) {
+    this.keystoreFile = StringUtil.isBlank(keystoreFile) ? null : keystoreFile.trim();
+  }
+
+  public void setKeystoreType(String keystoreType) {
+    this.keystoreType = keystoreType;
+  }
+
+  public void setKeystorePassword(String keystorePassword) {
+    this.keystorePassword = keystorePassword;
+  }
+
+  /**
+   * Sets the truststore containing the trusted certificates. If set, the TLS client
+   * authentication is required.
+   * @param truststoreFile the truststore file.
+   */
+  public void setTruststoreFile(String truststoreFile) {
+    this.truststoreFile = StringUtil.isBlank(truststoreFile) ? null : truststoreFile.trim();
+  }
+
+  public void setTruststoreType(String truststoreType) {
+    this.truststoreType = truststoreType;
+  }
+
+  public void setTruststorePassword(String truststorePassword) {
+    this.truststorePassword = truststorePassword;
+  }
+
+  public void start() throws Exception {
+    if (port <= 0) {
+      LOG.info("TCP server of the PKCS#11 proxy is disabled");
+      return;
+    }
+
+    if (localP11CryptServicePool == null) {
+      throw new IllegalStateException("localP11CryptServicePool is not set");
+    }
+
+    this.sslContext = buildSslContext();
+
+    int numThreads = (threads > 0) ? threads : 4 * Runtime.getRuntime().availableProcessors();
+    int numQueueSize = (queueSize > 0) ? queueSize : 1000;
+
+    final AtomicInteger threadIndex = new AtomicInteger(0);
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "p11proxy-" + port + "-"
+          + threadIndex.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    this.executor = new ThreadPoolExecutor(numThreads, numThreads, 60L, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(numQueueSize), threadFactory,
+        new ThreadPoolExecutor.AbortPolicy());
+
+    this.bossGroup = new NioEventLoopGroup(1);
+    this.workerGroup = new NioEventLoopGroup();
+
+    ServerBootstrap bootstrap = new ServerBootstrap();
+    bootstrap.group(bossGroup, workerGroup)
+      .channel(NioServerSocketChannel.class)
+      .childOption(ChannelOption.TCP_NODELAY, true)
+      .childOption(ChannelOption.SO_KEEPALIVE, true)
+      .childHandler(new ProxyServerInitializer());
+
+    if (host == null) {
+      bootstrap.bind(port).syncUninterruptibly();
+    } else {
+      bootstrap.bind(host, port).syncUninterruptibly();
+    }
+
+    LOG.info("TCP server of the PKCS#11 proxy is listening on {}:{} (TLS: {}), uses {} threads"
+        + " with queue size {}", (host == null) ? "*" : host, port, sslContext != null,
+        numThreads, numQueueSize);
+  } // method start
+
+  public void shutdown() {
+    if (bossGroup != null) {
+      bossGroup.shutdownGracefully();
+      bossGroup = null;
+    }
+
+    if (workerGroup != null) {
+      workerGroup.shutdownGracefully();
+      workerGroup = null;
+    }
+
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+
+    responder.close();
+  }
+
+  private SslContext buildSslContext() throws Exception {
+    if (keystoreFile == null) {
+      if (truststoreFile != null) {
+        throw new IllegalStateException("truststoreFile is set but keystoreFile not");
+      }
+      return null;
+    }
+
+    char[] password = resolvePassword(keystorePassword);
+    KeyManagerFactory kmf = KeyManagerFactory.getInstance(
+        KeyManagerFactory.getDefaultAlgorithm());
+    kmf.init(loadKeyStore(keystoreType, keystoreFile, password), password);
+
+    SslContextBuilder builder = SslContextBuilder.forServer(kmf);
+    if (truststoreFile != null) {
+      TrustManagerFactory tmf = TrustManagerFactory.getInstance(
+          TrustManagerFactory.getDefaultAlgorithm());
+      tmf.init(loadKeyStore(truststoreType, truststoreFile,
+          resolvePassword(truststorePassword)));
+      builder.trustManager(tmf).clientAuth(ClientAuth.REQUIRE);
+    }
+
+    return builder.protocols("TLSv1.2").build();
+  }
+
+  private char[] resolvePassword(String passwordHint) throws Exception {
+    if (passwordHint == null) {
+      return null;
+    }
+
+    return (passwordResolver == null) ? passwordHint.toCharArray()
+        : passwordResolver.resolvePassword(passwordHint);
+  }
+
+  private static KeyStore loadKeyStore(String type, String file, char[] password)
+      throws Exception {
+    KeyStore keystore = KeyStore.getInstance(type);
+    try (InputStream is = new FileInputStream(IoUtil.expandFilepath(file))) {
+      keystore.load(is, password);
+    }
+    return keystore;
+  }
+
+}
@@ -76,17 +76,7 @@ class ProxyP11Identity extends P11Identity {
 
     Asn1SignTemplate signTemplate = new Asn1SignTemplate(asn1EntityId, mechanism, p11Param,
         content);
-    byte[] result = ((ProxyP11Slot) slot).getModule().send(P11ProxyConstants.ACTION_SIGN,
-        signTemplate);
-
-    ASN1OctetString octetString;
-    try {
-      octetString = DEROctetString.getInstance(result);
-    } catch (IllegalArgumentException ex) {
-      throw new P11TokenException("the returned result is not OCTET STRING");
-    }
-
-    return (octetString == null) ? null : octetString.getOctets();
+    return ((ProxyP11Slot) slot).getModule().sign(signTemplate);
   }
 
   @Override
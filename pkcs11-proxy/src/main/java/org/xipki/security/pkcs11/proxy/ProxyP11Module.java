@@ -18,15 +18,25 @@
 package org.xipki.security.pkcs11.proxy;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.SecureRandom;
 import java.util.HashSet;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Object;
@@ -41,6 +51,7 @@ import org.xipki.common.util.StringUtil;
 import org.xipki.p11proxy.P11ProxyConstants;
 import org.xipki.p11proxy.msg.Asn1P11SlotIdentifier;
 import org.xipki.p11proxy.msg.Asn1ServerCaps;
+import org.xipki.p11proxy.msg.Asn1SignTemplate;
 import org.xipki.security.exception.BadAsn1ObjectException;
 import org.xipki.security.exception.P11TokenException;
 import org.xipki.security.pkcs11.AbstractP11Module;
@@ -55,7 +66,7 @@ import org.xipki.security.pkcs11.P11SlotIdentifier;
  * @since 2.0.0
  */
 
-public class ProxyP11Module extends AbstractP11Module {
+public class ProxyP11Module extends AbstractP11Module implements SignBatcher.Module {
 
   public static final String TYPE = "proxy";
 
@@ -65,7 +76,23 @@ public class ProxyP11Module extends AbstractP11Module {
 
   private static final String RESPONSE_MIMETYPE = "application/x-xipki-pkcs11";
 
-  private final Random random = new Random();
+  private static final int DFLT_TCP_CONNECTIONS = 2;
+
+  private static final int DFLT_TCP_CONNECT_TIMEOUT = 10000;
+
+  private static final int DFLT_TCP_READ_TIMEOUT = 60000;
+
+  private static final int DFLT_SIGN_BATCH_SIZE = 32;
+
+  private static final int DFLT_SIGN_BATCH_WINDOW = 0;
+
+  private static final int DFLT_SIGN_BATCH_CONCURRENCY = 4;
+
+  /**
+   * The transaction IDs are used by the TCP transport to match the responses to the requests,
+   * hence must be unique among the outstanding requests.
+   */
+  private final AtomicInteger nextTransactionId = new AtomicInteger(new SecureRandom().nextInt());
 
   private final short version = P11ProxyConstants.VERSION_V1_0;
 
@@ -73,6 +100,16 @@ public class ProxyP11Module extends AbstractP11Module {
 
   private URL serverUrl;
 
+  private TcpTransport tcpTransport;
+
+  private SignBatcher signBatcher;
+
+  /**
+   * Will be set to {@code false} if the server does not support
+   * {@link P11ProxyConstants#ACTION_SIGN_BATCH}.
+   */
+  private volatile boolean signBatchSupported = true;
+
   private short moduleId;
 
   private boolean readOnly;
@@ -86,10 +123,15 @@ public class ProxyP11Module extends AbstractP11Module {
 
     ConfPairs confPairs = new ConfPairs(modulePath);
     String urlStr = confPairs.value("url");
-    try {
-      serverUrl = new URL(urlStr);
-    } catch (MalformedURLException ex) {
-      throw new IllegalArgumentException("invalid url: " + urlStr);
+    if (StringUtil.startsWithIgnoreCase(urlStr, "tcp://")
+        || StringUtil.startsWithIgnoreCase(urlStr, "tls://")) {
+      tcpTransport = newTcpTransport(urlStr, confPairs);
+    } else {
+      try {
+        serverUrl = new URL(urlStr);
+      } catch (MalformedURLException ex) {
+        throw new IllegalArgumentException("invalid url: " + urlStr);
+      }
     }
 
     String moduleStr = confPairs.value("module");
@@ -108,9 +150,111 @@ public class ProxyP11Module extends AbstractP11Module {
       throw new IllegalArgumentException("invalid module: " + moduleStr);
     }
 
+    // the concurrent sign requests are coalesced into batches, sign-batch-size 1 to disable
+    int signBatchSize = getIntValue(confPairs, "sign-batch-size", DFLT_SIGN_BATCH_SIZE);
+    if (signBatchSize > 1) {
+      signBatcher = new SignBatcher(this, signBatchSize,
+          getIntValue(confPairs, "sign-batch-window", DFLT_SIGN_BATCH_WINDOW),
+          getIntValue(confPairs, "sign-batch-concurrency", DFLT_SIGN_BATCH_CONCURRENCY));
+    }
+
     refresh();
   }
 
+  /**
+   * Creates the transport over long-lived TCP connections for the url tcp://host:port or
+   * tls://host:port. The optional parameters connections (default 2), connect-timeout (default
+   * 10000 ms) and read-timeout (default 60000 ms) configure the transport. For TLS the optional
+   * parameters truststore and keystore (with truststore-type, truststore-password,
+   * keystore-type and keystore-password, the types default to PKCS12) replace the default
+   * trust and key material of the JVM.
+   */
+  private static TcpTransport newTcpTransport(String urlStr, ConfPairs confPairs)
+      throws P11TokenException {
+    URI uri;
+    try {
+      uri = new URI(urlStr);
+    } catch (URISyntaxException ex) {
+      throw new IllegalArgumentException("invalid url: " + urlStr);
+    }
+
+    if (uri.getHost() == null || uri.getPort() == -1) {
+      throw new IllegalArgumentException("host or port is not specified in url: " + urlStr);
+    }
+
+    int connections = getIntValue(confPairs, "connections", DFLT_TCP_CONNECTIONS);
+    int connectTimeout = getIntValue(confPairs, "connect-timeout", DFLT_TCP_CONNECT_TIMEOUT);
+    int readTimeout = getIntValue(confPairs, "read-timeout", DFLT_TCP_READ_TIMEOUT);
+    SSLContext sslContext = null;
+    if ("tls".equalsIgnoreCase(uri.getScheme())) {
+      try {
+        sslContext = newSslContext(confPairs);
+      } catch (IOException | GeneralSecurityException ex) {
+        throw new P11TokenException("could not initialize the TLS context: " + ex.getMessage(),
+            ex);
+      }
+    }
+
+    try {
+      return new TcpTransport(uri.getHost(), uri.getPort(), sslContext, connections,
+          connectTimeout, readTimeout);
+    } catch (NoClassDefFoundError ex) {
+      throw new P11TokenException("netty is required for the url " + urlStr, ex);
+    }
+  }
+
+  private static SSLContext newSslContext(ConfPairs confPairs)
+      throws IOException, GeneralSecurityException {
+    String keystoreFile = confPairs.value("keystore");
+    String truststoreFile = confPairs.value("truststore");
+    if (keystoreFile == null && truststoreFile == null) {
+      return SSLContext.getDefault();
+    }
+
+    KeyManagerFactory kmf = null;
+    if (keystoreFile != null) {
+      String pwd = confPairs.value("keystore-password");
+      char[] password = (pwd == null) ? null : pwd.toCharArray();
+      kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+      kmf.init(loadKeyStore(confPairs.value("keystore-type"), keystoreFile, password), password);
+    }
+
+    TrustManagerFactory tmf = null;
+    if (truststoreFile != null) {
+      String pwd = confPairs.value("truststore-password");
+      tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+      tmf.init(loadKeyStore(confPairs.value("truststore-type"), truststoreFile,
+          (pwd == null) ? null : pwd.toCharArray()));
+    }
+
+    SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
+    sslContext.init((kmf == null) ? null : kmf.getKeyManagers(),
+        (tmf == null) ? null : tmf.getTrustManagers(), null);
+    return sslContext;
+  } // method newSslContext
+
+  private static KeyStore loadKeyStore(String type, String file, char[] password)
+      throws IOException, GeneralSecurityException {
+    KeyStore keystore = KeyStore.getInstance((type == null) ? "PKCS12" : type);
+    try (InputStream is = new FileInputStream(IoUtil.expandFilepath(file))) {
+      keystore.load(is, password);
+    }
+    return keystore;
+  }
+
+  private static int getIntValue(ConfPairs confPairs, String name, int defaultValue) {
+    String str = confPairs.value(name);
+    if (str == null) {
+      return defaultValue;
+    }
+
+    try {
+      return Integer.parseInt(str.trim());
+    } catch (NumberFormatException ex) {
+      throw new IllegalArgumentException("invalid " + name + ": " + str);
+    }
+  }
+
   public static P11Module getInstance(P11ModuleConf moduleConf) throws P11TokenException {
     ParamUtil.requireNonNull("moduleConf", moduleConf);
     return new ProxyP11Module(moduleConf);
@@ -174,6 +318,16 @@ public class ProxyP11Module extends AbstractP11Module {
     setSlots(slots);
   }
 
+  @Override
+  public boolean isSignBatchSupported() {
+    return signBatchSupported;
+  }
+
+  byte[] sign(Asn1SignTemplate signTemplate) throws P11TokenException {
+    return (signBatcher == null) ? SignBatcher.signSingly(this, signTemplate)
+        : signBatcher.sign(signTemplate);
+  }
+
   @Override
   public String getDescription() {
     return description;
@@ -188,10 +342,18 @@ public class ProxyP11Module extends AbstractP11Module {
         LogUtil.error(LOG, th, "could not close PKCS#11 slot " + slotId);
       }
     }
+
+    if (tcpTransport != null) {
+      tcpTransport.close();
+    }
   }
 
   protected byte[] send(byte[] request) throws IOException {
     ParamUtil.requireNonNull("request", request);
+    if (tcpTransport != null) {
+      return tcpTransport.send(request);
+    }
+
     HttpURLConnection httpUrlConnection = IoUtil.openHttpConn(serverUrl);
     httpUrlConnection.setDoOutput(true);
     httpUrlConnection.setUseCaches(false);
@@ -280,6 +442,7 @@ public class ProxyP11Module extends AbstractP11Module {
    * @return result.
    * @throws P11TokenException If error occurred.
    */
+  @Override
   public byte[] send(short action, ASN1Object content) throws P11TokenException {
     byte[] encodedContent;
     if (content == null) {
@@ -303,7 +466,7 @@ public class ProxyP11Module extends AbstractP11Module {
     IoUtil.writeShort(version, request, 0);
 
     // transaction id
-    byte[] transactionId = randomTransactionId();
+    byte[] transactionId = nextTransactionId();
     System.arraycopy(transactionId, 0, request, 2, 4);
 
     // length
@@ -343,6 +506,10 @@ public class ProxyP11Module extends AbstractP11Module {
     // RC
     short rc = IoUtil.parseShort(response, 10);
     if (rc != 0) {
+      if (rc == P11ProxyConstants.RC_UNSUPPORTED_ACTION
+          && action == P11ProxyConstants.ACTION_SIGN_BATCH) {
+        signBatchSupported = false;
+      }
       throw new P11TokenException("server returned RC " + P11ProxyConstants.getReturnCodeName(rc));
     }
 
@@ -376,9 +543,9 @@ public class ProxyP11Module extends AbstractP11Module {
     return respContent;
   } // method send
 
-  private byte[] randomTransactionId() {
+  private byte[] nextTransactionId() {
     byte[] tid = new byte[4];
-    random.nextBytes(tid);
+    IoUtil.writeInt(nextTransactionId.getAndIncrement(), tid, 0);
     return tid;
   }
 
@@ -0,0 +1,274 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.proxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.DEROctetString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.common.util.ParamUtil;
+import org.xipki.p11proxy.P11ProxyConstants;
+import org.xipki.p11proxy.msg.Asn1SignBatchResult;
+import org.xipki.p11proxy.msg.Asn1SignBatchResult.SignResult;
+import org.xipki.p11proxy.msg.Asn1SignBatchTemplate;
+import org.xipki.p11proxy.msg.Asn1SignTemplate;
+import org.xipki.security.exception.BadAsn1ObjectException;
+import org.xipki.security.exception.P11TokenException;
+
+/**
+ * Coalesces the concurrent sign requests of one module into
+ * {@link P11ProxyConstants#ACTION_SIGN_BATCH} messages, so that they are sent in one round
+ * trip.
+ *
+ * <p>No extra thread is used: one of the waiting callers sends all pending requests as a batch,
+ * while the others wait for their results. At most {@code concurrency} batches are outstanding.
+ * Requests arriving while the batches are outstanding are collected into the next batch, hence
+ * the batches grow with the load even if the window is 0. A caller whose request has been taken
+ * into a batch by another caller just waits for its result.
+ *
+ * <p>If the server does not support {@link P11ProxyConstants#ACTION_SIGN_BATCH}, each caller
+ * sends its own request, as without the batcher.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+class SignBatcher {
+
+  /**
+   * The module to which the requests are sent.
+   */
+  interface Module {
+
+    byte[] send(short action, ASN1Object content) throws P11TokenException;
+
+    boolean isSignBatchSupported();
+
+  } // interface Module
+
+  private static final class Request {
+
+    private final Asn1SignTemplate template;
+
+    private final CompletableFuture<byte[]> future = new CompletableFuture<>();
+
+    /**
+     * Whether this request has been taken into a batch.
+     */
+    private volatile boolean taken;
+
+    Request(Asn1SignTemplate template) {
+      this.template = template;
+    }
+
+  } // class Request
+
+  private static final Logger LOG = LoggerFactory.getLogger(SignBatcher.class);
+
+  /**
+   * The batch must fit into the request of the HTTP transport, which is limited to 64 KiB.
+   */
+  private static final int MAX_BATCH_MESSAGE_BYTES = 32 * 1024;
+
+  private static final long POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+  private final Module module;
+
+  private final int maxBatchSize;
+
+  private final long windowNanos;
+
+  private final Semaphore senders;
+
+  private final ConcurrentLinkedQueue<Request> queue = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Constructor.
+   * @param module the module.
+   * @param maxBatchSize maximal number of requests in one batch.
+   * @param windowMicros time in microseconds to wait for further requests before sending a
+   *          batch, 0 to send immediately.
+   * @param concurrency maximal number of outstanding batches.
+   */
+  SignBatcher(Module module, int maxBatchSize, int windowMicros, int concurrency) {
+    this.module = ParamUtil.requireNonNull("module", module);
+    this.maxBatchSize = ParamUtil.requireMin("maxBatchSize", maxBatchSize, 2);
+    this.windowNanos = TimeUnit.MICROSECONDS.toNanos(
+        ParamUtil.requireMin("windowMicros", windowMicros, 0));
+    this.senders = new Semaphore(ParamUtil.requireMin("concurrency", concurrency, 1));
+  }
+
+  byte[] sign(Asn1SignTemplate template) throws P11TokenException {
+    if (!module.isSignBatchSupported()) {
+      // do not limit the concurrency of the single requests
+      return signSingly(module, template);
+    }
+
+    Request request = new Request(template);
+    queue.add(request);
+
+    // send the pending requests until the own request has been taken into a batch
+    while (!request.taken) {
+      if (senders.tryAcquire()) {
+        try {
+          if (windowNanos > 0 && !request.taken) {
+            LockSupport.parkNanos(windowNanos);
+          }
+
+          List<Request> batch = drain();
+          if (!batch.isEmpty()) {
+            send(batch);
+          }
+        } finally {
+          senders.release();
+        }
+      } else {
+        try {
+          request.future.get(POLL_NANOS, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | ExecutionException ex) {
+          // check again
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new P11TokenException("interrupted while waiting for the signature");
+        }
+      }
+    }
+
+    try {
+      return request.future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new P11TokenException("interrupted while waiting for the signature");
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      throw (cause instanceof P11TokenException) ? (P11TokenException) cause
+          : new P11TokenException(cause.getMessage(), cause);
+    }
+  } // method sign
+
+  private List<Request> drain() {
+    List<Request> batch = new ArrayList<>(Math.min(maxBatchSize, 64));
+    int messageBytes = 0;
+    Request request;
+    while (batch.size() < maxBatchSize && messageBytes < MAX_BATCH_MESSAGE_BYTES
+        && (request = queue.poll()) != null) {
+      request.taken = true;
+      batch.add(request);
+      messageBytes += request.template.getMessage().length;
+    }
+    return batch;
+  }
+
+  private void send(List<Request> batch) {
+    try {
+      send0(batch);
+    } catch (RuntimeException ex) {
+      LOG.warn("error while sending {} sign requests: {}", batch.size(), ex.getMessage());
+      throw ex;
+    } finally {
+      // the waiting callers must not block forever
+      for (Request request : batch) {
+        if (!request.future.isDone()) {
+          request.future.completeExceptionally(
+              new P11TokenException("could not send the sign request"));
+        }
+      }
+    }
+  }
+
+  private void send0(List<Request> batch) {
+    if (batch.size() == 1 || !module.isSignBatchSupported()) {
+      sendSingly(batch);
+      return;
+    }
+
+    List<Asn1SignTemplate> templates = new ArrayList<>(batch.size());
+    for (Request request : batch) {
+      templates.add(request.template);
+    }
+
+    List<SignResult> results;
+    try {
+      byte[] resp = module.send(P11ProxyConstants.ACTION_SIGN_BATCH,
+          new Asn1SignBatchTemplate(templates));
+      results = Asn1SignBatchResult.getInstance(resp).getResults();
+      if (results.size() != batch.size()) {
+        throw new P11TokenException("number of results (" + results.size()
+            + ") and requests (" + batch.size() + ") unmatch");
+      }
+    } catch (P11TokenException | BadAsn1ObjectException ex) {
+      if (!module.isSignBatchSupported()) {
+        LOG.info("server does not support ACTION_SIGN_BATCH, send the requests singly");
+        sendSingly(batch);
+      } else {
+        P11TokenException p11Ex = (ex instanceof P11TokenException) ? (P11TokenException) ex
+            : new P11TokenException("invalid SignBatchResult: " + ex.getMessage(), ex);
+        for (Request request : batch) {
+          request.future.completeExceptionally(p11Ex);
+        }
+      }
+      return;
+    }
+
+    for (int i = 0; i < results.size(); i++) {
+      SignResult result = results.get(i);
+      if (result.getSignature() != null) {
+        batch.get(i).future.complete(result.getSignature());
+      } else {
+        batch.get(i).future.completeExceptionally(new P11TokenException("server returned RC "
+            + P11ProxyConstants.getReturnCodeName(result.getReturnCode())));
+      }
+    }
+  } // method send0
+
+  private void sendSingly(List<Request> batch) {
+    for (Request request : batch) {
+      try {
+        request.future.complete(signSingly(module, request.template));
+      } catch (P11TokenException ex) {
+        request.future.completeExceptionally(ex);
+      }
+    }
+  }
+
+  static byte[] signSingly(Module module, Asn1SignTemplate template)
+      throws P11TokenException {
+    byte[] result = module.send(P11ProxyConstants.ACTION_SIGN, template);
+
+    ASN1OctetString octetString;
+    try {
+      octetString = DEROctetString.getInstance(result);
+    } catch (IllegalArgumentException ex) {
+      throw new P11TokenException("the returned result is not OCTET STRING");
+    }
+
+    return (octetString == null) ? null : octetString.getOctets();
+  }
+
+}
@@ -0,0 +1,288 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.proxy;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.common.util.IoUtil;
+import org.xipki.common.util.ParamUtil;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.JdkSslContext;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+
+/**
+ * Transport of the PKCS#11 proxy messages over a few long-lived TCP connections. The requests
+ * are written without waiting for the responses of the previous requests, and the responses
+ * are matched to the requests by the transaction ID, so that many concurrent requests share the
+ * same connection.
+ *
+ * <p>With TLS the host name of the server is verified against its certificate as for HTTPS.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+class TcpTransport {
+
+  /**
+   * Handler of one TCP channel, holds the outstanding requests sent over this channel.
+   */
+  private class ResponseHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+    private final ConcurrentMap<Integer, CompletableFuture<byte[]>> pendingRequests =
+        new ConcurrentHashMap<>();
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+      byte[] response = new byte[msg.readableBytes()];
+      msg.readBytes(response);
+
+      // |Version(2)|Transaction ID(4)|...
+      CompletableFuture<byte[]> future = pendingRequests.remove(IoUtil.parseInt(response, 2));
+      if (future == null) {
+        LOG.warn("received response for unknown transaction, ignore it");
+      } else {
+        future.complete(response);
+      }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+      IOException ex = new IOException("connection to " + host + ":" + port + " closed");
+      for (Integer transactionId : pendingRequests.keySet()) {
+        CompletableFuture<byte[]> future = pendingRequests.remove(transactionId);
+        if (future != null) {
+          future.completeExceptionally(ex);
+        }
+      }
+      super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      LOG.warn("error on connection to {}:{}: {}", host, port, cause.getMessage());
+      LOG.debug("error on connection to " + host + ":" + port, cause);
+      ctx.close();
+    }
+
+  } // class ResponseHandler
+
+  /**
+   * One TCP connection, will be re-established if closed.
+   */
+  private class Connection {
+
+    private Channel channel;
+
+    private ResponseHandler handler;
+
+    private synchronized void connect() throws IOException {
+      if (channel != null && channel.isActive()) {
+        return;
+      }
+
+      ResponseHandler newHandler = new ResponseHandler();
+      ChannelFuture cf = newBootstrap(newHandler).connect(host, port);
+      if (!cf.awaitUninterruptibly(connectTimeout)) {
+        cf.cancel(true);
+        throw new IOException("timeout while connecting to " + host + ":" + port);
+      }
+
+      if (!cf.isSuccess()) {
+        throw new IOException("could not connect to " + host + ":" + port + ": "
+            + cf.cause().getMessage(), cf.cause());
+      }
+
+      channel = cf.channel();
+      handler = newHandler;
+    }
+
+    byte[] send(byte[] request) throws IOException {
+      Channel ch;
+      ResponseHandler hd;
+      synchronized (this) {
+        connect();
+        ch = channel;
+        hd = handler;
+      }
+
+      // |Version(2)|Transaction ID(4)|...
+      final Integer transactionId = IoUtil.parseInt(request, 2);
+      CompletableFuture<byte[]> future = new CompletableFuture<>();
+      if (hd.pendingRequests.putIfAbsent(transactionId, future) != null) {
+        throw new IOException("duplicated transaction ID " + transactionId);
+      }
+
+      try {
+        ch.writeAndFlush(Unpooled.wrappedBuffer(request)).addListener(f -> {
+          if (!f.isSuccess()) {
+            future.completeExceptionally(f.cause());
+          }
+        });
+
+        if (!ch.isActive()) {
+          // closed before the request was registered, channelInactive() may have been missed
+          future.completeExceptionally(
+              new IOException("connection to " + host + ":" + port + " closed"));
+        }
+
+        return future.get(readTimeout, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted while waiting for the response", ex);
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        throw (cause instanceof IOException) ? (IOException) cause
+            : new IOException(cause.getMessage(), cause);
+      } catch (TimeoutException ex) {
+        throw new IOException("timeout while waiting for the response");
+      } finally {
+        hd.pendingRequests.remove(transactionId);
+      }
+    }
+
+    synchronized void close() {
+      if (channel != null) {
+        channel.close();
+        channel = null;
+        handler = null;
+      }
+    }
+
+  } // class Connection
+
+  private static final Logger LOG = LoggerFactory.getLogger(TcpTransport.class);
+
+  private static final int MAX_MESSAGE_SIZE = 1024 * 1024;
+
+  private final String host;
+
+  private final int port;
+
+  private final SslContext sslContext;
+
+  private final int connectTimeout;
+
+  private final int readTimeout;
+
+  private final EventLoopGroup group;
+
+  private final Connection[] connections;
+
+  private final AtomicInteger nextConnection = new AtomicInteger();
+
+  /**
+   * Constructor.
+   * @param host the host of the server.
+   * @param port the port of the server.
+   * @param sslContext the TLS context, {@code null} if TLS is not used.
+   * @param numConnections number of TCP connections.
+   * @param connectTimeout timeout in milliseconds to connect to the server.
+   * @param readTimeout timeout in milliseconds to wait for a response.
+   */
+  TcpTransport(String host, int port, SSLContext sslContext, int numConnections,
+      int connectTimeout, int readTimeout) {
+    this.host = ParamUtil.requireNonBlank("host", host);
+    this.port = ParamUtil.requireRange("port", port, 1, 65535);
+    ParamUtil.requireMin("numConnections", numConnections, 1);
+    this.connectTimeout = ParamUtil.requireMin("connectTimeout", connectTimeout, 1);
+    this.readTimeout = ParamUtil.requireMin("readTimeout", readTimeout, 1);
+
+    this.sslContext = (sslContext == null) ? null
+        : new JdkSslContext(sslContext, true, ClientAuth.NONE);
+
+    this.group = new NioEventLoopGroup(Math.min(numConnections,
+        Runtime.getRuntime().availableProcessors()));
+    this.connections = new Connection[numConnections];
+    for (int i = 0; i < numConnections; i++) {
+      connections[i] = new Connection();
+    }
+  }
+
+  byte[] send(byte[] request) throws IOException {
+    int idx = (nextConnection.getAndIncrement() & 0x7FFFFFFF) % connections.length;
+    return connections[idx].send(request);
+  }
+
+  void close() {
+    for (Connection conn : connections) {
+      conn.close();
+    }
+    group.shutdownGracefully();
+  }
+
+  private Bootstrap newBootstrap(ResponseHandler handler) {
+    return new Bootstrap().group(group)
+      .channel(NioSocketChannel.class)
+      .option(ChannelOption.TCP_NODELAY, true)
+      .option(ChannelOption.SO_KEEPALIVE, true)
+      .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout)
+      .handler(new ChannelInitializer<SocketChannel>() {
+        @Override
+        protected void initChannel(SocketChannel ch) throws Exception {
+          if (sslContext != null) {
+            SslHandler sslHandler = sslContext.newHandler(ch.alloc(), host, port);
+            // verify the host name of the server
+            SSLEngine engine = sslHandler.engine();
+            SSLParameters params = engine.getSSLParameters();
+            params.setEndpointIdentificationAlgorithm("HTTPS");
+            engine.setSSLParameters(params);
+            ch.pipeline().addLast(sslHandler);
+          }
+          ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(MAX_MESSAGE_SIZE, 6, 4))
+            .addLast(handler);
+        }
+      });
+  }
+
+  @Override
+  public String toString() {
+    return "TcpTransport[" + host + ":" + port + ", tls=" + (sslContext != null)
+        + ", connections=" + connections.length + "]";
+  }
+
+}
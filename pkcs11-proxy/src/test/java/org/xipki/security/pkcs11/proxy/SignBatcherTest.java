@@ -0,0 +1,235 @@
+/*
+ *
+ * Copyright (c) 2013 - 2018 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.proxy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.DEROctetString;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.p11proxy.P11ProxyConstants;
+import org.xipki.p11proxy.msg.Asn1P11EntityIdentifier;
+import org.xipki.p11proxy.msg.Asn1SignBatchResult;
+import org.xipki.p11proxy.msg.Asn1SignBatchResult.SignResult;
+import org.xipki.p11proxy.msg.Asn1SignBatchTemplate;
+import org.xipki.p11proxy.msg.Asn1SignTemplate;
+import org.xipki.security.exception.P11TokenException;
+import org.xipki.security.pkcs11.P11EntityIdentifier;
+import org.xipki.security.pkcs11.P11ObjectIdentifier;
+import org.xipki.security.pkcs11.P11SlotIdentifier;
+
+/**
+ * Test of {@link SignBatcher} against a module which "signs" by reversing the message.
+ *
+ * @author Lijun Liao
+ * @since 3.1.0
+ */
+
+public class SignBatcherTest {
+
+  private static class MockModule implements SignBatcher.Module {
+
+    private final boolean serverSupportsSignBatch;
+
+    private volatile boolean signBatchSupported = true;
+
+    private final AtomicInteger numSignActions = new AtomicInteger();
+
+    private final AtomicInteger numSignBatchActions = new AtomicInteger();
+
+    private final AtomicInteger numOutstanding = new AtomicInteger();
+
+    private final AtomicInteger maxOutstanding = new AtomicInteger();
+
+    MockModule(boolean serverSupportsSignBatch) {
+      this.serverSupportsSignBatch = serverSupportsSignBatch;
+    }
+
+    @Override
+    public byte[] send(short action, ASN1Object content) throws P11TokenException {
+      int outstanding = numOutstanding.incrementAndGet();
+      maxOutstanding.accumulateAndGet(outstanding, Math::max);
+      try {
+        // round trip to the HSM
+        Thread.sleep(2);
+
+        if (action == P11ProxyConstants.ACTION_SIGN) {
+          numSignActions.incrementAndGet();
+          byte[] message = ((Asn1SignTemplate) content).getMessage();
+          if (isFailure(message)) {
+            throw new P11TokenException("server returned RC_INTERNAL_ERROR");
+          }
+          return new DEROctetString(sign(message)).getEncoded();
+        } else if (action == P11ProxyConstants.ACTION_SIGN_BATCH) {
+          if (!serverSupportsSignBatch) {
+            // as ProxyP11Module does on RC_UNSUPPORTED_ACTION
+            signBatchSupported = false;
+            throw new P11TokenException("unsupported action");
+          }
+
+          numSignBatchActions.incrementAndGet();
+          List<SignResult> results = new ArrayList<>();
+          for (Asn1SignTemplate template : ((Asn1SignBatchTemplate) content).getTemplates()) {
+            byte[] message = template.getMessage();
+            results.add(isFailure(message)
+                ? SignResult.ofReturnCode(P11ProxyConstants.RC_INTERNAL_ERROR)
+                : SignResult.ofSignature(sign(message)));
+          }
+          return new Asn1SignBatchResult(results).getEncoded();
+        } else {
+          throw new P11TokenException("unexpected action " + action);
+        }
+      } catch (IOException | InterruptedException ex) {
+        throw new P11TokenException(ex.getMessage(), ex);
+      } finally {
+        numOutstanding.decrementAndGet();
+      }
+    }
+
+    @Override
+    public boolean isSignBatchSupported() {
+      return signBatchSupported;
+    }
+
+  } // class MockModule
+
+  private static final Asn1P11EntityIdentifier IDENTITY_ID = new Asn1P11EntityIdentifier(
+      new P11EntityIdentifier(new P11SlotIdentifier(0, 1),
+          new P11ObjectIdentifier(new byte[]{1}, "key")));
+
+  @Test
+  public void testConcurrentSigns() throws Exception {
+    MockModule module = new MockModule(true);
+    runConcurrentSigns(new SignBatcher(module, 16, 0, 2), 32, 50);
+
+    Assert.assertTrue("no batches sent", module.numSignBatchActions.get() > 0);
+    Assert.assertTrue("requests not coalesced",
+        module.numSignBatchActions.get() + module.numSignActions.get() < 32 * 50);
+    Assert.assertTrue("too many outstanding batches: " + module.maxOutstanding.get(),
+        module.maxOutstanding.get() <= 2);
+  }
+
+  @Test
+  public void testConcurrentSignsWithWindow() throws Exception {
+    MockModule module = new MockModule(true);
+    runConcurrentSigns(new SignBatcher(module, 8, 500, 1), 16, 20);
+    Assert.assertEquals(1, module.maxOutstanding.get());
+  }
+
+  @Test
+  public void testSignBatchUnsupported() throws Exception {
+    MockModule module = new MockModule(false);
+    runConcurrentSigns(new SignBatcher(module, 16, 0, 4), 8, 20);
+    Assert.assertEquals(0, module.numSignBatchActions.get());
+    Assert.assertEquals(8 * 20, module.numSignActions.get());
+  }
+
+  @Test
+  public void testSignBatchUnsupportedConcurrent() throws Exception {
+    MockModule module = new MockModule(false);
+    // after the first rejected batch, the callers must not be limited by the concurrency
+    runConcurrentSigns(new SignBatcher(module, 16, 0, 1), 16, 20);
+    Assert.assertFalse(module.isSignBatchSupported());
+    Assert.assertEquals(16 * 20, module.numSignActions.get());
+    Assert.assertTrue("requests sent one after another",
+        module.maxOutstanding.get() > 1);
+  }
+
+  @Test
+  public void testFailedRequest() throws Exception {
+    MockModule module = new MockModule(true);
+    final SignBatcher batcher = new SignBatcher(module, 16, 0, 1);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<byte[]>> futures = new ArrayList<>();
+      for (int i = 0; i < 64; i++) {
+        final byte[] message = (i % 8 == 0) ? "fail".getBytes() : ("msg-" + i).getBytes();
+        futures.add(executor.submit(() -> batcher.sign(newTemplate(message))));
+      }
+
+      for (int i = 0; i < futures.size(); i++) {
+        if (i % 8 == 0) {
+          try {
+            futures.get(i).get();
+            Assert.fail("request " + i + " should fail");
+          } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof P11TokenException);
+          }
+        } else {
+          Assert.assertArrayEquals(sign(("msg-" + i).getBytes()), futures.get(i).get());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void runConcurrentSigns(final SignBatcher batcher, int threads,
+      final int requestsPerThread) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Void>> futures = new ArrayList<>(threads);
+      for (int i = 0; i < threads; i++) {
+        final int threadIndex = i;
+        futures.add(executor.submit(() -> {
+          for (int j = 0; j < requestsPerThread; j++) {
+            byte[] message = ("msg-" + threadIndex + "-" + j).getBytes();
+            byte[] signature = batcher.sign(newTemplate(message));
+            if (!Arrays.equals(sign(message), signature)) {
+              throw new AssertionError("wrong signature for " + new String(message));
+            }
+          }
+          return null;
+        }));
+      }
+
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static Asn1SignTemplate newTemplate(byte[] message) {
+    return new Asn1SignTemplate(IDENTITY_ID, 1L, null, message);
+  }
+
+  private static boolean isFailure(byte[] message) {
+    return Arrays.equals("fail".getBytes(), message);
+  }
+
+  private static byte[] sign(byte[] message) {
+    byte[] signature = new byte[message.length];
+    for (int i = 0; i < message.length; i++) {
+      signature[i] = message[message.length - 1 - i];
+    }
+    return signature;
+  }
+
+}
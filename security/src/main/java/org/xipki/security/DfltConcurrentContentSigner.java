@@ -27,14 +27,18 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.common.concurrent.ConcurrentBag;
+import org.xipki.common.concurrent.ConcurrentBag.IConcurrentBagEntry;
 import org.xipki.common.util.CollectionUtil;
 import org.xipki.common.util.LogUtil;
 import org.xipki.common.util.ParamUtil;
@@ -51,6 +55,126 @@ import org.xipki.security.util.AlgorithmUtil;
 
 public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
 
+  /**
+   * Statistics of the signer pool.
+   */
+  public static final class Statistics {
+
+    private final long numBorrows;
+
+    private final long numTimeouts;
+
+    private final long totalWaitNanos;
+
+    private final long maxWaitNanos;
+
+    private final int numActive;
+
+    private final int numInUse;
+
+    private final int maxParallelism;
+
+    private final long numGrows;
+
+    private final long numShrinks;
+
+    private Statistics(DfltConcurrentContentSigner signer) {
+      this.numBorrows = signer.numBorrows.sum();
+      this.numTimeouts = signer.numTimeouts.sum();
+      this.totalWaitNanos = signer.totalWaitNanos.sum();
+      this.maxWaitNanos = signer.maxWaitNanos.get();
+      this.numActive = signer.numActive.get();
+      this.numInUse = signer.numInUse.get();
+      this.maxParallelism = signer.maxParallelism;
+      this.numGrows = signer.numGrows.sum();
+      this.numShrinks = signer.numShrinks.sum();
+    }
+
+    /**
+     * Returns the number of borrowings, including those which timed out.
+     * @return the number of borrowings.
+     */
+    public long getNumBorrows() {
+      return numBorrows;
+    }
+
+    /**
+     * Returns the number of borrowings which ended with {@link NoIdleSignerException}.
+     * @return the number of timeouts.
+     */
+    public long getNumTimeouts() {
+      return numTimeouts;
+    }
+
+    public long getTotalWaitNanos() {
+      return totalWaitNanos;
+    }
+
+    public long getMaxWaitNanos() {
+      return maxWaitNanos;
+    }
+
+    /**
+     * Returns the average time waited for an idle signer.
+     * @return the average time in nanoseconds.
+     */
+    public long getAverageWaitNanos() {
+      return (numBorrows == 0) ? 0 : totalWaitNanos / numBorrows;
+    }
+
+    /**
+     * Returns the number of signers which can be borrowed.
+     * @return the number of active signers.
+     */
+    public int getNumActive() {
+      return numActive;
+    }
+
+    public int getNumInUse() {
+      return numInUse;
+    }
+
+    public int getMaxParallelism() {
+      return maxParallelism;
+    }
+
+    /**
+     * Returns the current utilization of the active signers.
+     * @return the utilization between 0 and 1.
+     */
+    public double getUtilization() {
+      return (numActive == 0) ? 0 : Math.min(1.0, (double) numInUse / numActive);
+    }
+
+    public long getNumGrows() {
+      return numGrows;
+    }
+
+    public long getNumShrinks() {
+      return numShrinks;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("borrows=%d, timeouts=%d, avgWait=%dus, maxWait=%dus, active=%d, "
+          + "inUse=%d, max=%d, grows=%d, shrinks=%d", numBorrows, numTimeouts,
+          getAverageWaitNanos() / 1000, maxWaitNanos / 1000, numActive, numInUse,
+          maxParallelism, numGrows, numShrinks);
+    }
+
+  } // class Statistics
+
+  /**
+   * In the adaptive mode, a signer is deactivated only if no caller had to wait for an idle
+   * signer within this period.
+   */
+  private static final long SHRINK_IDLE_MS = 60 * 1000L;
+
+  /**
+   * Minimal period between two deactivations of signers.
+   */
+  private static final long SHRINK_INTERVAL_MS = 10 * 1000L;
+
   private static final Logger LOG = LoggerFactory.getLogger(DfltConcurrentContentSigner.class);
 
   private static final AtomicInteger NAME_INDEX = new AtomicInteger(1);
@@ -77,6 +201,38 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
 
   private X509CertificateHolder[] bcCertificateChain;
 
+  /**
+   * Signers which are not active in the adaptive mode.
+   */
+  private final ConcurrentLinkedDeque<ConcurrentBagEntrySigner> spareSigners =
+      new ConcurrentLinkedDeque<>();
+
+  private volatile boolean adaptive;
+
+  private int minParallelism;
+
+  private final int maxParallelism;
+
+  private final AtomicInteger numActive;
+
+  private final AtomicInteger numInUse = new AtomicInteger();
+
+  private volatile long lastSaturatedTime;
+
+  private final AtomicLong lastShrinkTime = new AtomicLong();
+
+  private final LongAdder numBorrows = new LongAdder();
+
+  private final LongAdder numTimeouts = new LongAdder();
+
+  private final LongAdder totalWaitNanos = new LongAdder();
+
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  private final LongAdder numGrows = new LongAdder();
+
+  private final LongAdder numShrinks = new LongAdder();
+
   static {
     final String propKey = "org.xipki.security.signservice.timeout";
     String str = System.getProperty(propKey);
@@ -111,10 +267,55 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
       this.signers.add(new ConcurrentBagEntrySigner(signer));
     }
 
+    this.maxParallelism = signers.size();
+    this.numActive = new AtomicInteger(maxParallelism);
     this.signingKey = signingKey;
     this.name = "defaultSigner-" + NAME_INDEX.getAndIncrement();
   }
 
+  /**
+   * Enables the adaptive mode. Initially only {@code parallelism} signers are active. If a
+   * caller finds no idle signer, one more signer will be activated, up to the number of
+   * signers given in the constructor. If no caller had to wait for a while, the
+   * additionally activated signers will be deactivated one by one.
+   *
+   * <p>This method must be called before the signer is used.
+   *
+   * @param parallelism
+   *          minimal number of active signers, must not be greater than the number of
+   *          signers given in the constructor.
+   */
+  public void enableAdaptiveMode(int parallelism) {
+    ParamUtil.requireRange("parallelism", parallelism, 1, maxParallelism);
+    if (parallelism == maxParallelism) {
+      return;
+    }
+
+    this.minParallelism = parallelism;
+    for (ConcurrentBagEntrySigner signer : signers.values()) {
+      if (numActive.get() == parallelism) {
+        break;
+      }
+
+      if (signers.reserve(signer) && signers.remove(signer)) {
+        spareSigners.addFirst(signer);
+        numActive.decrementAndGet();
+      }
+    }
+
+    this.adaptive = true;
+    LOG.info("signer {}: adaptive mode with parallelism {} to {}", name, parallelism,
+        maxParallelism);
+  }
+
+  public boolean isAdaptive() {
+    return adaptive;
+  }
+
+  public Statistics getStatistics() {
+    return new Statistics(this);
+  }
+
   @Override
   public String getName() {
     return name;
@@ -157,24 +358,83 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
    */
   @Override
   public ConcurrentBagEntrySigner borrowSigner(int soTimeout) throws NoIdleSignerException {
+    final long start = System.nanoTime();
     ConcurrentBagEntrySigner signer = null;
     try {
-      signer = signers.borrow(soTimeout, TimeUnit.MILLISECONDS);
+      if (adaptive) {
+        signer = signers.borrow(0, TimeUnit.MILLISECONDS);
+        if (signer == null) {
+          lastSaturatedTime = System.currentTimeMillis();
+          activateSpareSigner();
+        }
+      }
+
+      if (signer == null) {
+        signer = signers.borrow(soTimeout, TimeUnit.MILLISECONDS);
+      }
     } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
     }
 
+    long waitNanos = System.nanoTime() - start;
+    numBorrows.increment();
+    totalWaitNanos.add(waitNanos);
+    long max = maxWaitNanos.get();
+    while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+      max = maxWaitNanos.get();
+    }
+
     if (signer == null) {
+      numTimeouts.increment();
       throw new NoIdleSignerException("no idle signer available");
     }
 
+    numInUse.incrementAndGet();
     return signer;
   }
 
   @Override
   public void requiteSigner(ConcurrentBagEntrySigner signer) {
+    numInUse.decrementAndGet();
+    if (adaptive && shallDeactivateSigner()) {
+      if (signers.remove(signer)) {
+        spareSigners.addFirst(signer);
+        numActive.decrementAndGet();
+        numShrinks.increment();
+        LOG.debug("signer {}: deactivated one signer, {} are active", name, numActive.get());
+        return;
+      }
+    }
+
     signers.requite(signer);
   }
 
+  private void activateSpareSigner() {
+    ConcurrentBagEntrySigner spare = spareSigners.pollFirst();
+    if (spare == null) {
+      return;
+    }
+
+    spare.setState(IConcurrentBagEntry.STATE_NOT_IN_USE);
+    signers.add(spare);
+    numActive.incrementAndGet();
+    numGrows.increment();
+    LOG.debug("signer {}: activated one signer, {} are active", name, numActive.get());
+  }
+
+  private boolean shallDeactivateSigner() {
+    if (numActive.get() <= minParallelism || signers.getWaitingThreadCount() > 0) {
+      return false;
+    }
+
+    long now = System.currentTimeMillis();
+    if (now - lastSaturatedTime < SHRINK_IDLE_MS) {
+      return false;
+    }
+
+    long lastShrink = lastShrinkTime.get();
+    return now - lastShrink >= SHRINK_INTERVAL_MS && lastShrinkTime.compareAndSet(lastShrink, now);
+  }
+
   @Override
   public void initialize(String conf, PasswordResolver passwordResolver)
       throws XiSecurityException {
@@ -266,6 +526,9 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
 
   @Override
   public void shutdown() {
+    if (numBorrows.sum() > 0) {
+      LOG.info("statistics of signer {}: {}", name, getStatistics());
+    }
   }
 
   @Override
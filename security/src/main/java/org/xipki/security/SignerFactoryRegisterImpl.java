@@ -141,6 +141,7 @@ public class SignerFactoryRegisterImpl implements SignerFactoryRegister {
         throw new ObjectCreationException("invalid parallelism " + str);
       }
     }
+    int maxParallelism = getMaxParallelism(conf, parallelism);
 
     String passwordHint = conf.getConfValue("password");
     char[] password;
@@ -193,7 +194,8 @@ public class SignerFactoryRegisterImpl implements SignerFactoryRegister {
         SoftTokenMacContentSignerBuilder signerBuilder = new SoftTokenMacContentSignerBuilder(
             type, keystoreStream, password, keyLabel, password);
 
-        return signerBuilder.createSigner(macAlgId, parallelism, securityFactory.getRandom4Sign());
+        return withAdaptiveMode(signerBuilder.createSigner(macAlgId, maxParallelism,
+            securityFactory.getRandom4Sign()), parallelism);
       } else {
         SoftTokenContentSignerBuilder signerBuilder = new SoftTokenContentSignerBuilder(
             type, keystoreStream, password, keyLabel, password, certificateChain);
@@ -206,8 +208,8 @@ public class SignerFactoryRegisterImpl implements SignerFactoryRegister {
           signatureAlgId = AlgorithmUtil.getSigAlgId(pubKey, conf);
         }
 
-        return signerBuilder.createSigner(signatureAlgId, parallelism,
-            securityFactory.getRandom4Sign());
+        return withAdaptiveMode(signerBuilder.createSigner(signatureAlgId, maxParallelism,
+            securityFactory.getRandom4Sign()), parallelism);
       }
     } catch (NoSuchAlgorithmException | NoSuchPaddingException | XiSecurityException ex) {
       throw new ObjectCreationException(String.format("%s: %s", ex.getClass().getName(),
@@ -215,6 +217,40 @@ public class SignerFactoryRegisterImpl implements SignerFactoryRegister {
     }
   }
 
+  /**
+   * Returns the maximal number of signers in the adaptive mode, configured by the key
+   * max-parallelism. Software keys and PKCS#11 keys are configured in their own signer
+   * configurations, so that the pool of each key can be sized separately.
+   */
+  private static int getMaxParallelism(SignerConf conf, int parallelism)
+      throws ObjectCreationException {
+    String str = conf.getConfValue("max-parallelism");
+    if (str == null) {
+      return parallelism;
+    }
+
+    int maxParallelism;
+    try {
+      maxParallelism = Integer.parseInt(str);
+    } catch (NumberFormatException ex) {
+      throw new ObjectCreationException("invalid max-parallelism " + str);
+    }
+
+    if (maxParallelism < parallelism) {
+      throw new ObjectCreationException("max-parallelism " + str + " is less than parallelism "
+          + parallelism);
+    }
+    return maxParallelism;
+  }
+
+  private static ConcurrentContentSigner withAdaptiveMode(ConcurrentContentSigner signer,
+      int parallelism) {
+    if (signer instanceof DfltConcurrentContentSigner) {
+      ((DfltConcurrentContentSigner) signer).enableAdaptiveMode(parallelism);
+    }
+    return signer;
+  }
+
   private ConcurrentContentSigner newPkcs11Signer(SecurityFactory securityFactory,
       String type, SignerConf conf, X509Certificate[] certificateChain)
       throws ObjectCreationException {
@@ -235,6 +271,7 @@ public class SignerFactoryRegisterImpl implements SignerFactoryRegister {
         throw new ObjectCreationException("invalid parallelism " + str);
       }
     }
+    int maxParallelism = getMaxParallelism(conf, parallelism);
 
     String moduleName = conf.getConfValue("module");
     str = conf.getConfValue("slot");
@@ -300,7 +337,7 @@ public class SignerFactoryRegisterImpl implements SignerFactoryRegister {
       if (macAlgId != null) {
         P11MacContentSignerBuilder signerBuilder = new P11MacContentSignerBuilder(
             p11Service, entityId);
-        return signerBuilder.createSigner(macAlgId, parallelism);
+        return withAdaptiveMode(signerBuilder.createSigner(macAlgId, maxParallelism), parallelism);
       } else {
         AlgorithmIdentifier signatureAlgId;
         if (conf.getHashAlgo() == null) {
@@ -312,7 +349,8 @@ public class SignerFactoryRegisterImpl implements SignerFactoryRegister {
 
         P11ContentSignerBuilder signerBuilder = new P11ContentSignerBuilder(p11Service,
             securityFactory, entityId, certificateChain);
-        return signerBuilder.createSigner(signatureAlgId, parallelism);
+        return withAdaptiveMode(signerBuilder.createSigner(signatureAlgId, maxParallelism),
+            parallelism);
       }
     } catch (P11TokenException | NoSuchAlgorithmException | XiSecurityException ex) {
       throw new ObjectCreationException(ex.getMessage(), ex);
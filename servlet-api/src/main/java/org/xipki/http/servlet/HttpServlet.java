@@ -19,8 +19,10 @@ package org.xipki.http.servlet;
 
 import javax.net.ssl.SSLSession;
 
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
 
 /**
  * TODO.
@@ -49,4 +51,22 @@ public interface HttpServlet {
   FullHttpResponse service(FullHttpRequest request, ServletURI servletUri,
       SSLSession sslSession, SslReverseProxyMode sslReverseProxyMode) throws Exception;
 
+  /**
+   * Creates the response for a request which is rejected without being processed since the
+   * server is overloaded. The default implementation returns 503 Service Unavailable without
+   * content.
+   * @param request
+   *          The request. Must not be {@code null}.
+   * @param servletUri
+   *          The servlet URI (URI part after the servlet alias). Must not be {@code null}.
+   * @return the HTTP response
+   */
+  default FullHttpResponse createOverloadResponse(FullHttpRequest request,
+      ServletURI servletUri) {
+    FullHttpResponse resp = new DefaultFullHttpResponse(request.protocolVersion(),
+        HttpResponseStatus.SERVICE_UNAVAILABLE);
+    resp.headers().addInt("Content-Length", 0);
+    return resp;
+  }
+
 }
@@ -23,6 +23,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.bouncycastle.asn1.crmf.CertRequest;
 import org.bouncycastle.asn1.crmf.CertTemplate;
@@ -41,6 +42,7 @@ import org.xipki.ca.client.api.dto.EnrollCertRequest.Type;
 import org.xipki.ca.client.api.dto.EnrollCertRequestEntry;
 import org.xipki.common.LoadExecutor;
 import org.xipki.common.util.ParamUtil;
+import org.xipki.common.util.StringUtil;
 
 /**
  * TODO.
@@ -66,6 +68,16 @@ public class CaLoadTestEnroll extends LoadExecutor {
 
   private AtomicInteger processedRequests = new AtomicInteger(0);
 
+  private final LongAdder issuedCerts = new LongAdder();
+
+  private final LongAdder messages = new LongAdder();
+
+  private final LongAdder totalLatencyNanos = new LongAdder();
+
+  private final AtomicLong maxLatencyNanos = new AtomicLong(0);
+
+  private long startTimeNanos;
+
   public CaLoadTestEnroll(CaClient caClient, LoadTestEntry loadtestEntry, int maxRequests,
       int num, String description) {
     super(description);
@@ -74,6 +86,7 @@ public class CaLoadTestEnroll extends LoadExecutor {
     this.loadtestEntry = ParamUtil.requireNonNull("loadtestEntry", loadtestEntry);
     this.caClient = ParamUtil.requireNonNull("caClient", caClient);
     this.index = new AtomicLong(getSecureIndex());
+    setUnit(num > 1 ? "messages" : "certificates");
   }
 
   class Testor implements Runnable {
@@ -102,7 +115,9 @@ public class CaLoadTestEnroll extends LoadExecutor {
           request.addRequestEntry(requestEntry);
         }
 
+        long start = System.nanoTime();
         result = caClient.requestCerts(null, request, null);
+        recordLatency(System.nanoTime() - start);
       } catch (CaClientException | PkiErrorException ex) {
         LOG.warn("{}: {}", ex.getClass().getName(), ex.getMessage());
         return false;
@@ -125,6 +140,7 @@ public class CaLoadTestEnroll extends LoadExecutor {
           numSuccess++;
         }
       }
+      issuedCerts.add(numSuccess);
 
       return numSuccess == certRequests.size();
     } // method testNext
@@ -136,6 +152,43 @@ public class CaLoadTestEnroll extends LoadExecutor {
     return new Testor();
   }
 
+  @Override
+  protected void resetStartTime() {
+    super.resetStartTime();
+    startTimeNanos = System.nanoTime();
+  }
+
+  @Override
+  protected void printSummary() {
+    super.printSummary();
+
+    long elapsedNanos = Math.max(1, System.nanoTime() - startTimeNanos);
+    long numMessages = messages.sum();
+    long numCerts = issuedCerts.sum();
+    long certsPerSecond = numCerts * 1000_000_000L / elapsedNanos;
+    long avgLatencyMs = (numMessages == 0) ? 0
+        : totalLatencyNanos.sum() / numMessages / 1000_000L;
+
+    String msg = StringUtil.concatObjectsCap(300,
+        "certificates per message: ", num,
+        "\n    issued certificates: ", StringUtil.formatAccount(numCerts, 1),
+        "\n   average certificates: ", StringUtil.formatAccount(certsPerSecond, 1), " /s",
+        "\nmessage latency average: ", avgLatencyMs, " ms",
+        "\n    message latency max: ", maxLatencyNanos.get() / 1000_000L, " ms\n");
+
+    System.out.println(msg);
+  }
+
+  private void recordLatency(long nanos) {
+    messages.increment();
+    totalLatencyNanos.add(nanos);
+
+    long max = maxLatencyNanos.get();
+    while (nanos > max && !maxLatencyNanos.compareAndSet(max, nanos)) {
+      max = maxLatencyNanos.get();
+    }
+  }
+
   private Map<Integer, CertRequest> nextCertRequests() {
     if (maxRequests > 0) {
       int num = processedRequests.getAndAdd(1);
@@ -150,7 +150,12 @@ public abstract class CaAddOrGenAction extends CaAction {
   private String validityModeS = "STRICT";
 
   @Option(name = "--extra-control",
-      description = "extra control")
+      description = "extra control, e.g.\n"
+          + "revokeSuspendedCerts.enabled=<true|false>,"
+          + "revokeSuspendedCerts.targetReason=<CRL reason>,"
+          + "revokeSuspendedCerts.unchangedSince=<duration>,"
+          + "verifyCertSignature.mode=<always|sample|never>,"
+          + "verifyCertSignature.interval=<n>")
   private String extraControl;
 
   @Reference
@@ -26,6 +26,7 @@ import org.apache.karaf.shell.api.action.Option;
 import org.apache.karaf.shell.api.action.lifecycle.Service;
 import org.xipki.ca.server.mgmt.api.CaEntry;
 import org.xipki.ca.server.mgmt.api.CaStatus;
+import org.xipki.ca.server.mgmt.api.x509.CertSignatureVerificationStatistics;
 import org.xipki.ca.server.mgmt.shell.completer.CaNameCompleter;
 import org.xipki.console.karaf.CmdFailure;
 
@@ -69,6 +70,11 @@ public class CaInfoCmd extends CaAction {
         if (CaStatus.ACTIVE == entry.getStatus()) {
           boolean started = caManager.getSuccessfulCaNames().contains(entry.getIdent().getName());
           sb.append("started: ").append(started).append("\n");
+          CertSignatureVerificationStatistics stats =
+              caManager.getCertSignatureVerificationStatistics(name);
+          if (stats != null) {
+            sb.append("certSignatureVerification: ").append(stats).append("\n");
+          }
         }
         Set<String> aliases = caManager.getAliasesForCa(name);
         sb.append("aliases: ").append(toString(aliases)).append("\n");
@@ -165,7 +165,12 @@ public class CaUpdateCmd extends CaAction {
   private String validityModeS;
 
   @Option(name = "--extra-control",
-      description = "extra control")
+      description = "extra control, e.g.\n"
+          + "revokeSuspendedCerts.enabled=<true|false>,"
+          + "revokeSuspendedCerts.targetReason=<CRL reason>,"
+          + "revokeSuspendedCerts.unchangedSince=<duration>,"
+          + "verifyCertSignature.mode=<always|sample|never>,"
+          + "verifyCertSignature.interval=<n>")
   private String extraControl;
 
   @Reference